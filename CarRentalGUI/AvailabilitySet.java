@@ -0,0 +1,92 @@
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// Bitset over fleet positions; bit i is set while the i-th car added is available.
+// Bits flip concurrently via CAS; growth must be done while no setter is running
+// (CarRentalSystem only adds cars under its registry write lock).
+class AvailabilitySet {
+    private volatile AtomicLongArray words = new AtomicLongArray(4);
+    private final AtomicInteger count = new AtomicInteger();
+
+    public void set(int slot, boolean available) {
+        int w = slot >>> 6;
+        if (w >= words.length()) {
+            grow(w + 1);
+        }
+        AtomicLongArray current = words;
+        long bit = 1L << slot;
+        while (true) {
+            long word = current.get(w);
+            boolean wasSet = (word & bit) != 0;
+            if (wasSet == available) {
+                return;
+            }
+            if (current.compareAndSet(w, word, word ^ bit)) {
+                if (available) {
+                    count.incrementAndGet();
+                } else {
+                    count.decrementAndGet();
+                }
+                return;
+            }
+        }
+    }
+
+    private void grow(int minWords) {
+        AtomicLongArray old = words;
+        AtomicLongArray grown = new AtomicLongArray(Math.max(old.length() << 1, minWords));
+        for (int i = 0; i < old.length(); i++) {
+            grown.set(i, old.get(i));
+        }
+        words = grown;
+    }
+
+    public boolean get(int slot) {
+        AtomicLongArray current = words;
+        int w = slot >>> 6;
+        return w < current.length() && (current.get(w) & (1L << slot)) != 0;
+    }
+
+    // First available slot at or after from, or -1 if there is none
+    public int next(int from) {
+        AtomicLongArray current = words;
+        int w = from >>> 6;
+        if (w >= current.length()) {
+            return -1;
+        }
+        long word = current.get(w) & (-1L << from);
+        while (true) {
+            if (word != 0) {
+                return (w << 6) + Long.numberOfTrailingZeros(word);
+            }
+            if (++w == current.length()) {
+                return -1;
+            }
+            word = current.get(w);
+        }
+    }
+
+    // Slot of the n-th available car (0-based), skipping whole words by popcount
+    public int nth(int n) {
+        if (n < 0) {
+            return -1;
+        }
+        AtomicLongArray current = words;
+        for (int w = 0; w < current.length(); w++) {
+            long word = current.get(w);
+            int bits = Long.bitCount(word);
+            if (n < bits) {
+                for (int i = 0; i < n; i++) {
+                    word &= word - 1;
+                }
+                return (w << 6) + Long.numberOfTrailingZeros(word);
+            }
+            n -= bits;
+        }
+        return -1;
+    }
+
+    public int count() {
+        return count.get();
+    }
+}
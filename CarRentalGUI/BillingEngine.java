@@ -0,0 +1,155 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+// Bills a CarRentalSystem's rentals against its current RateTable. Each rental is
+// billed as it is returned, and the invoice stays with the rental while it is in
+// memory. rebill() prices a stretch of the history again, e.g. against a new
+// table, reading it a chunk at a time and pricing each chunk in parallel, since
+// the history may be far bigger than memory.
+class BillingEngine {
+    // Closed rentals priced per parallel pass when re-billing
+    private static final int REBILL_CHUNK = 100_000;
+
+    // Totals over a set of invoices; mergeable, so parallel streams can build one
+    // per thread and combine them
+    static final class Totals {
+        private long invoices;
+        private long baseCents;
+        private long surchargeCents;
+        private long lateFeeCents;
+        private long lateRentals;
+
+        void add(Invoice invoice) {
+            invoices++;
+            baseCents += invoice.getBaseCents();
+            surchargeCents += invoice.getSurchargeCents();
+            lateFeeCents += invoice.getLateFeeCents();
+            if (invoice.getLateFeeCents() > 0) {
+                lateRentals++;
+            }
+        }
+
+        void merge(Totals other) {
+            invoices += other.invoices;
+            baseCents += other.baseCents;
+            surchargeCents += other.surchargeCents;
+            lateFeeCents += other.lateFeeCents;
+            lateRentals += other.lateRentals;
+        }
+
+        public long getInvoices() {
+            return invoices;
+        }
+
+        public long getBaseCents() {
+            return baseCents;
+        }
+
+        public long getSurchargeCents() {
+            return surchargeCents;
+        }
+
+        public long getLateFeeCents() {
+            return lateFeeCents;
+        }
+
+        public long getLateRentals() {
+            return lateRentals;
+        }
+
+        public long getTotalCents() {
+            return baseCents + surchargeCents + lateFeeCents;
+        }
+
+        @Override
+        public String toString() {
+            return "Invoices: " + invoices + " | Base: " + Invoice.money(baseCents) + " | Surcharge: "
+                    + Invoice.money(surchargeCents) + " | Late fees: " + Invoice.money(lateFeeCents) + " ("
+                    + lateRentals + " late) | Total: " + Invoice.money(getTotalCents());
+        }
+    }
+
+    private final CarRentalSystem system;
+    private volatile RateTable rates = RateTable.DEFAULT;
+    // Rentals billed on return since the system started, not counting journal replay
+    private final LongAdder invoices = new LongAdder();
+    private final LongAdder billedCents = new LongAdder();
+    private final LongAdder lateFeeCents = new LongAdder();
+
+    BillingEngine(CarRentalSystem system) {
+        this.system = system;
+    }
+
+    public RateTable getRateTable() {
+        return rates;
+    }
+
+    // Applies to rentals returned from now on; invoices already issued stand
+    public void setRateTable(RateTable rates) {
+        if (rates == null) {
+            throw new NullPointerException("rates");
+        }
+        this.rates = rates;
+    }
+
+    // Called by the system as the rental closes, under the car's stripe; fixes the
+    // rental's due time as the reservations have it now
+    Invoice bill(Rental rental, long returnTime, boolean count) {
+        rental.setDueTime(system.dueTime(rental));
+        Invoice invoice = price(rates, rental, returnTime);
+        if (count) {
+            invoices.increment();
+            billedCents.add(invoice.getTotalCents());
+            lateFeeCents.add(invoice.getLateFeeCents());
+        }
+        return invoice;
+    }
+
+    // Against the due time fixed when the rental was billed; only rentals closed
+    // before that was kept fall back to the reservations as they are now
+    private Invoice price(RateTable table, Rental rental, long returnTime) {
+        long dueTime = rental.getDueTime();
+        return table.price(rental.getCar(), rental.getCustomer().getId(), rental.getRentalTime(), returnTime,
+                dueTime != Rental.DUE_TIME_UNKNOWN ? dueTime : system.dueTime(rental));
+    }
+
+    // The invoice issued when the rental was returned; a rental read back from the
+    // history on disk is priced again against the current table
+    public Invoice getInvoice(Rental rental) {
+        if (!rental.isReturned()) {
+            return null;
+        }
+        Invoice invoice = rental.getInvoice();
+        return invoice != null ? invoice : price(rates, rental, rental.getReturnTime());
+    }
+
+    // Prices every closed rental returned within [from, to) against table and
+    // returns the totals; the rentals' own invoices are left as they are
+    public Totals rebill(RateTable table, long from, long to) {
+        long length = system.getClosedRentalCount();
+        Totals totals = new Totals();
+        List<Rental> chunk = new ArrayList<>(REBILL_CHUNK);
+        for (long start = 0; start < length; start += REBILL_CHUNK) {
+            chunk.clear();
+            system.forEachClosedRental(start, Math.min(length, start + REBILL_CHUNK), chunk::add);
+            totals.merge(chunk.parallelStream()
+                    .filter(r -> r.getReturnTime() >= from && r.getReturnTime() < to)
+                    .map(r -> price(table, r, r.getReturnTime()))
+                    .collect(Totals::new, Totals::add, Totals::merge));
+        }
+        return totals;
+    }
+
+    public long getInvoiceCount() {
+        return invoices.sum();
+    }
+
+    public long getBilledCents() {
+        return billedCents.sum();
+    }
+
+    public long getLateFeeCents() {
+        return lateFeeCents.sum();
+    }
+}
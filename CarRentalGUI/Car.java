@@ -0,0 +1,71 @@
+import java.util.Map;
+
+// Car class
+class Car {
+    private int id;
+    private String model;
+    private String brand;
+    private volatile boolean available;
+
+    // Set when the car joins a CarRentalSystem, so availability changes reach its index
+    private CarRentalSystem owner;
+    private int slot = -1;
+
+    public Car(int id, String model, String brand) {
+        this.id = id;
+        this.model = model;
+        this.brand = brand;
+        this.available = true;
+    }
+
+    // Getters and setters
+    public int getId() {
+        return id;
+    }
+
+    public String getModel() {
+        return model;
+    }
+
+    public String getBrand() {
+        return brand;
+    }
+
+    public boolean isAvailable() {
+        return available;
+    }
+
+    public void setAvailable(boolean status) {
+        if (owner != null) {
+            owner.setAvailability(this, status);
+        } else {
+            this.available = status;
+        }
+    }
+
+    // Raw state change; the owning system holds the car's lock when calling this
+    void updateAvailable(boolean status) {
+        this.available = status;
+    }
+
+    // Swaps brand and model for the copies already in names, adding them if new,
+    // so a fleet holds each name once however many cars carry it
+    void shareNames(Map<String, String> names) {
+        brand = names.computeIfAbsent(brand, name -> name);
+        model = names.computeIfAbsent(model, name -> name);
+    }
+
+    void attach(CarRentalSystem owner, int slot) {
+        this.owner = owner;
+        this.slot = slot;
+    }
+
+    int getSlot() {
+        return slot;
+    }
+
+    @Override
+    public String toString() {
+        return "ID: " + id + " | " + brand + " " + model + " | Status: " + (available ? "Available" : "Rented");
+    }
+}
@@ -0,0 +1,49 @@
+// Filters for CarRentalSystem.findCars; unset filters match every car.
+// e.g. new CarQuery().brand("Toyota").model("Corolla").availableOnly()
+class CarQuery {
+    private String brandPrefix;
+    private String modelPrefix;
+    private boolean availableOnly;
+    private int limit = Integer.MAX_VALUE;
+
+    // Brand starting with prefix, or with a word starting with it (case-insensitive)
+    public CarQuery brand(String prefix) {
+        this.brandPrefix = blankToNull(prefix);
+        return this;
+    }
+
+    public CarQuery model(String prefix) {
+        this.modelPrefix = blankToNull(prefix);
+        return this;
+    }
+
+    public CarQuery availableOnly() {
+        this.availableOnly = true;
+        return this;
+    }
+
+    public CarQuery limit(int limit) {
+        this.limit = Math.max(0, limit);
+        return this;
+    }
+
+    public String getBrandPrefix() {
+        return brandPrefix;
+    }
+
+    public String getModelPrefix() {
+        return modelPrefix;
+    }
+
+    public boolean isAvailableOnly() {
+        return availableOnly;
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    private static String blankToNull(String value) {
+        return value == null || value.trim().isEmpty() ? null : value;
+    }
+}
@@ -0,0 +1,650 @@
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+// Benchmarks for CarRentalSystem's core operations, to catch regressions and to
+// check data-structure changes before they ship. Each benchmark warms up, then
+// reports the mean of several timed iterations, single-threaded and contended.
+//
+// Usage: java CarRentalBenchmark [fleet sizes] [threads] [seconds per iteration]
+//   e.g. java CarRentalBenchmark 1000,10000,100000,1000000 8 1
+//
+// Startup: java CarRentalBenchmark --startup [data dir] [fleet size] [shards]
+// The first run writes a data set to the directory; each later run (a fresh JVM,
+// so class loading and JIT warm-up count, as they do for a real start) reports
+// how long after JVM start the first rent was answered and everything was loaded.
+//
+// Reports: java CarRentalBenchmark --report [rows]
+// Rows per second and bytes allocated per row for fleet listings rendered the old
+// way (String.format over Car.toString) and with ReportWriter in each format.
+//
+// Billing: java CarRentalBenchmark --billing [rentals]
+// Cost of pricing one rental against a rate table with per-model rates, weekend
+// and peak multipliers, and the throughput of re-billing a history that long.
+//
+// Allocation: java CarRentalBenchmark --allocation [fleet sizes]
+// Picks of the longest-idle available car of one model per second, from
+// FleetAllocator's queues and from a scan of getAvailableCars().
+//
+// Footprint: java CarRentalBenchmark --footprint [fleet size]
+// Heap a CarRentalSystem retains after a full GC, with every car available, with
+// half of them rented, and after a quarter of the fleet has been returned; then
+// the same for a ColumnarFleetStore, plus the size of its mapped column files.
+public class CarRentalBenchmark {
+    private static final int WARMUP_ITERATIONS = 2;
+    private static final int MEASURE_ITERATIONS = 3;
+    private static final int BATCH = 1024;
+    private static final int CUSTOMERS = 1000;
+
+    // Keeps results reachable so the JIT can't drop the work that made them
+    static volatile Object sink;
+
+    private final int threads;
+    private final long iterationNanos;
+
+    CarRentalBenchmark(int threads, double seconds) {
+        this.threads = threads;
+        this.iterationNanos = (long) (seconds * 1e9);
+    }
+
+    // One benchmarked operation, run in batches by each worker thread
+    interface Workload {
+        // Performs one batch and returns the number of operations it timed
+        long runBatch(Worker worker);
+
+        // Releases whatever the workload started, after the iteration
+        default void close() {
+        }
+    }
+
+    // Per-thread state: its own random source and timing accumulator
+    static class Worker {
+        final Random random;
+        final int index;
+        long timedNanos;
+        int nextId;
+
+        Worker(int index) {
+            this.index = index;
+            this.random = new Random(42 + index);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length > 0 && args[0].equals("--startup")) {
+            startup(Paths.get(args.length > 1 ? args[1] : "startup-data"),
+                    args.length > 2 ? Integer.parseInt(args[2]) : 1_000_000,
+                    args.length > 3 ? Integer.parseInt(args[3]) : 8);
+            return;
+        }
+        if (args.length > 0 && args[0].equals("--report")) {
+            reports(args.length > 1 ? Integer.parseInt(args[1]) : 1_000_000);
+            return;
+        }
+        if (args.length > 0 && args[0].equals("--allocation")) {
+            String[] sizes = (args.length > 1 ? args[1] : "1000,10000,100000").split(",");
+            System.out.printf(Locale.ROOT, "%-24s %10s %10s %14s %12s%n", "allocation", "fleet", "available", "picks/s", "ns/pick");
+            for (String size : sizes) {
+                allocation(Integer.parseInt(size.trim()));
+            }
+            return;
+        }
+        if (args.length > 0 && args[0].equals("--footprint")) {
+            footprint(args.length > 1 ? Integer.parseInt(args[1]) : 1_000_000);
+            return;
+        }
+        if (args.length > 0 && args[0].equals("--billing")) {
+            billing(args.length > 1 ? Integer.parseInt(args[1]) : 1_000_000);
+            return;
+        }
+        int[] sizes = { 1_000, 10_000, 100_000, 1_000_000 };
+        if (args.length > 0) {
+            String[] parts = args[0].split(",");
+            sizes = new int[parts.length];
+            for (int i = 0; i < parts.length; i++) {
+                sizes[i] = Integer.parseInt(parts[i].trim());
+            }
+        }
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        double seconds = args.length > 2 ? Double.parseDouble(args[2]) : 1.0;
+
+        CarRentalBenchmark bench = new CarRentalBenchmark(threads, seconds);
+        System.out.printf(Locale.ROOT, "%-22s %10s %8s %14s %12s%n", "benchmark", "fleet", "threads", "ops/s", "ns/op");
+        for (int size : sizes) {
+            bench.runAll(size);
+        }
+    }
+
+    void runAll(int fleetSize) throws InterruptedException {
+        report("bulkLoad", fleetSize, 1, measureBulkLoad(fleetSize));
+        for (int t : new int[] { 1, threads }) {
+            report("addCarWithValidation", fleetSize, t, measure(fleetSize, t, this::addCars));
+            report("rentCar", fleetSize, t, measure(fleetSize, t, system -> rentCars(system, true)));
+            // The same with metrics switched off, to show what instrumentation costs
+            report("rentCarNoMetrics", fleetSize, t, measure(fleetSize, t, system -> {
+                system.getMetrics().setEnabled(false);
+                return rentCars(system, true);
+            }));
+            report("returnCar", fleetSize, t, measure(fleetSize, t, system -> rentCars(system, false)));
+            report("rentReturnBatch", fleetSize, t, measure(fleetSize, t, this::rentCarsBatched));
+            report("rentReturnPipeline", fleetSize, t, measure(fleetSize, t, this::rentCarsPipelined));
+            report("getAvailableCars", fleetSize, t, measure(fleetSize, t, this::listAvailable));
+            if (threads == 1) {
+                break;
+            }
+        }
+    }
+
+    private static void report(String name, int fleetSize, int threads, double opsPerSecond) {
+        System.out.printf(Locale.ROOT, "%-22s %10d %8d %14.0f %12.1f%n",
+                name, fleetSize, threads, opsPerSecond, threads * 1e9 / opsPerSecond);
+    }
+
+    static CarRentalSystem newSystem(int fleetSize) {
+        CarRentalSystem system = new CarRentalSystem();
+        for (int i = 0; i < CUSTOMERS; i++) {
+            system.addCustomerWithValidation(new Customer(i, "Customer " + i, "DL" + i));
+        }
+        for (int i = 0; i < fleetSize; i++) {
+            system.addCarWithValidation(new Car(i, "Model " + (i % 50), "Brand " + (i % 10)));
+        }
+        return system;
+    }
+
+    // Cars per second when loading a whole fleet into an empty system
+    private double measureBulkLoad(int fleetSize) {
+        double total = 0;
+        for (int i = 0; i < WARMUP_ITERATIONS + MEASURE_ITERATIONS; i++) {
+            long start = System.nanoTime();
+            sink = newSystem(fleetSize);
+            long elapsed = System.nanoTime() - start;
+            if (i >= WARMUP_ITERATIONS) {
+                total += (fleetSize + CUSTOMERS) * 1e9 / elapsed;
+            }
+        }
+        return total / MEASURE_ITERATIONS;
+    }
+
+    // Builds a fresh system per iteration and runs workload on it from all threads
+    private double measure(int fleetSize, int threadCount, Function<CarRentalSystem, Workload> setup)
+            throws InterruptedException {
+        double total = 0;
+        for (int i = 0; i < WARMUP_ITERATIONS + MEASURE_ITERATIONS; i++) {
+            CarRentalSystem system = newSystem(fleetSize);
+            double opsPerSecond = runIteration(setup.apply(system), threadCount);
+            if (i >= WARMUP_ITERATIONS) {
+                total += opsPerSecond;
+            }
+        }
+        return total / MEASURE_ITERATIONS;
+    }
+
+    private double runIteration(Workload workload, int threadCount) throws InterruptedException {
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicLong ops = new AtomicLong();
+        AtomicLong nanos = new AtomicLong();
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threadCount; t++) {
+            Worker worker = new Worker(t);
+            Thread thread = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                long done = 0;
+                long deadline = System.nanoTime() + iterationNanos;
+                while (System.nanoTime() < deadline) {
+                    done += workload.runBatch(worker);
+                }
+                ops.addAndGet(done);
+                nanos.addAndGet(worker.timedNanos);
+            });
+            workers.add(thread);
+            thread.start();
+        }
+        start.countDown();
+        for (Thread thread : workers) {
+            thread.join();
+        }
+        workload.close();
+        // Aggregate throughput: operations over the average time each thread spent timing them
+        return ops.get() * 1e9 / (nanos.get() / (double) threadCount);
+    }
+
+    // Startup ----------------------------------------------------------------
+
+    static void startup(Path dir, int fleetSize, int shardCount) throws IOException {
+        if (!Files.exists(dir)) {
+            writeStartupData(dir, fleetSize, shardCount);
+            System.out.println("Wrote " + fleetSize + " cars in " + shardCount + " shards to " + dir
+                    + "; run again to measure startup");
+            return;
+        }
+        long mainMillis = ManagementFactory.getRuntimeMXBean().getUptime();
+        long start = System.nanoTime();
+        ShardedRentalSystem system = new ShardedRentalSystem(shardCount);
+        CompletableFuture<Void> loaded = system.openJournalsInBackground(dir);
+        int carId = new Random().nextInt(fleetSize);
+        RentalResult result = system.tryRentCar(carId, 0);
+        long firstRent = System.nanoTime();
+        loaded.join();
+        long allLoaded = System.nanoTime();
+        System.out.printf(Locale.ROOT, "JVM start to main:        %6d ms%n", mainMillis);
+        System.out.printf(Locale.ROOT, "JVM start to first rent:  %6d ms (car %d: %s)%n",
+                mainMillis + (firstRent - start) / 1_000_000, carId, result);
+        System.out.printf(Locale.ROOT, "JVM start to all loaded:  %6d ms (%d cars, %d closed rentals)%n",
+                mainMillis + (allLoaded - start) / 1_000_000, system.getCarCount(),
+                IntStream.range(0, shardCount)
+                        .mapToLong(i -> system.getShard(i).getClosedRentalCount()).sum());
+        if (result.isSuccess()) {
+            system.tryReturnCar(carId);
+        }
+        system.close();
+    }
+
+    // A fleet spread over the shards with a few rentals per car behind it
+    private static void writeStartupData(Path dir, int fleetSize, int shardCount) throws IOException {
+        ShardedRentalSystem system = new ShardedRentalSystem(shardCount);
+        system.openJournals(dir);
+        for (int i = 0; i < CUSTOMERS; i++) {
+            system.addCustomerWithValidation(new Customer(i, "Customer " + i, "DL" + i));
+        }
+        List<List<Car>> byShard = new ArrayList<>();
+        for (int i = 0; i < shardCount; i++) {
+            byShard.add(new ArrayList<>());
+        }
+        for (int i = 0; i < fleetSize; i++) {
+            byShard.get(system.shardOf(i)).add(new Car(i, "Model " + (i % 50), "Brand " + (i % 10)));
+        }
+        for (int i = 0; i < shardCount; i++) {
+            system.getShard(i).addCarsWithValidation(byShard.get(i));
+        }
+        Random random = new Random(42);
+        List<RentalCommand> commands = new ArrayList<>();
+        for (int round = 0; round < 3; round++) {
+            for (int i = 0; i < fleetSize; i++) {
+                commands.add(RentalCommand.rent(i, random.nextInt(CUSTOMERS)));
+                if (round < 2 || i % 10 != 0) {
+                    commands.add(RentalCommand.returnCar(i));
+                }
+                if (commands.size() >= 100_000) {
+                    system.applyBatch(commands);
+                    commands.clear();
+                }
+            }
+        }
+        system.applyBatch(commands);
+        system.close();
+    }
+
+    // Reports ----------------------------------------------------------------
+
+    private interface Renderer {
+        void render(List<Car> cars, Writer out) throws IOException;
+    }
+
+    static void reports(int rows) throws IOException {
+        List<Car> cars = new ArrayList<>(rows);
+        for (int i = 0; i < rows; i++) {
+            Car car = new Car(i, "Model " + (i % 50), "Brand " + (i % 10));
+            car.updateAvailable(i % 3 != 0);
+            cars.add(car);
+        }
+        System.out.printf(Locale.ROOT, "%-24s %10s %14s %14s%n", "report", "rows", "rows/s", "bytes/row");
+        reportRow("String.format", cars, (list, out) -> {
+            int n = 1;
+            for (Car car : list) {
+                out.write(String.format("%d. %s\n", n++, car));
+            }
+        });
+        for (ReportWriter.Format format : ReportWriter.Format.values()) {
+            reportRow("ReportWriter " + format.name().toLowerCase(Locale.ROOT), cars, (list, out) -> {
+                ReportWriter report = new ReportWriter(out, format);
+                report.carHeader();
+                for (Car car : list) {
+                    report.car(car);
+                }
+                report.flush();
+            });
+        }
+    }
+
+    private static void reportRow(String name, List<Car> cars, Renderer renderer) throws IOException {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+        double rowsPerSecond = 0;
+        long bytes = 0;
+        for (int i = 0; i < WARMUP_ITERATIONS + MEASURE_ITERATIONS; i++) {
+            // Output goes nowhere, so only rendering is measured
+            Writer out = Writer.nullWriter();
+            long allocated = threads.getThreadAllocatedBytes(thread);
+            long start = System.nanoTime();
+            renderer.render(cars, out);
+            long elapsed = System.nanoTime() - start;
+            if (i >= WARMUP_ITERATIONS) {
+                rowsPerSecond += cars.size() * 1e9 / elapsed / MEASURE_ITERATIONS;
+                bytes += threads.getThreadAllocatedBytes(thread) - allocated;
+            }
+        }
+        System.out.printf(Locale.ROOT, "%-24s %10d %14.0f %14.1f%n", name, cars.size(), rowsPerSecond,
+                (double) bytes / MEASURE_ITERATIONS / cars.size());
+    }
+
+    // Closes the given number of rentals of 1 hour to 2 weeks, then times pricing
+    // them one at a time and re-billing them all
+    static void billing(int rentals) {
+        RateTable.Builder rates = RateTable.builder().weekendMultiplier(1.25);
+        for (int m = 0; m < 50; m++) {
+            rates.rate("Brand " + (m % 10), "Model " + m, new RateTable.Rate(3000 + m * 100, 600 + m * 20, 1500));
+        }
+        long year = 365 * RateTable.DAY_MILLIS;
+        for (int p = 0; p < 12; p++) {
+            rates.peak(p * year / 12, p * year / 12 + 5 * RateTable.DAY_MILLIS, 1.5);
+        }
+        RateTable table = rates.build();
+
+        CarRentalSystem system = new CarRentalSystem();
+        int fleet = 10_000;
+        for (int i = 0; i < fleet; i++) {
+            system.addCar(new Car(i, "Model " + (i % 50), "Brand " + (i % 50 % 10)));
+        }
+        for (int i = 0; i < CUSTOMERS; i++) {
+            system.addCustomer(new Customer(i, "Customer " + i, "L" + i));
+        }
+        system.getBilling().setRateTable(table);
+        Random random = new Random(42);
+        long[] time = new long[fleet];
+        for (int i = 0; i < rentals; i++) {
+            int car = i % fleet;
+            long length = RateTable.HOUR_MILLIS + (long) (random.nextDouble() * 14 * RateTable.DAY_MILLIS);
+            system.rentCar(car, random.nextInt(CUSTOMERS), time[car]);
+            system.returnCar(car, time[car] + length);
+            time[car] += length + RateTable.HOUR_MILLIS;
+        }
+        List<Rental> closed = new ArrayList<>(rentals);
+        system.forEachClosedRental(0, rentals, closed::add);
+
+        System.out.printf(Locale.ROOT, "%-24s %10s %14s %14s%n", "billing", "rentals", "rentals/s", "ns/rental");
+        double priced = 0;
+        double rebilled = 0;
+        for (int i = 0; i < WARMUP_ITERATIONS + MEASURE_ITERATIONS; i++) {
+            long start = System.nanoTime();
+            long total = 0;
+            for (Rental rental : closed) {
+                total += table.price(rental.getCar(), rental.getCustomer().getId(), rental.getRentalTime(),
+                        rental.getReturnTime(), RateTable.NO_DUE_TIME).getTotalCents();
+            }
+            long middle = System.nanoTime();
+            sink = system.getBilling().rebill(table, Long.MIN_VALUE, Long.MAX_VALUE);
+            long end = System.nanoTime();
+            sink = total;
+            if (i >= WARMUP_ITERATIONS) {
+                priced += rentals * 1e9 / (middle - start) / MEASURE_ITERATIONS;
+                rebilled += rentals * 1e9 / (end - middle) / MEASURE_ITERATIONS;
+            }
+        }
+        System.out.printf(Locale.ROOT, "%-24s %10d %14.0f %14.1f%n", "price (1 thread)", rentals, priced, 1e9 / priced);
+        System.out.printf(Locale.ROOT, "%-24s %10d %14.0f %14.1f%n",
+                "rebill (" + Runtime.getRuntime().availableProcessors() + " cpus)", rentals, rebilled, 1e9 / rebilled);
+    }
+
+    // Names are built per car, as they are when read from a file, so cars only
+    // share a String if the backend makes them
+    static void footprint(int fleet) throws IOException {
+        long empty = usedHeapAfterGc();
+        CarRentalSystem system = new CarRentalSystem();
+        for (int i = 0; i < CUSTOMERS; i++) {
+            system.addCustomer(new Customer(i, "Customer " + i, "L" + i));
+        }
+        for (int i = 0; i < fleet; i++) {
+            system.addCar(new Car(i, "Model " + (i % 50), "Brand " + (i % 50 % 10)));
+        }
+        System.out.printf(Locale.ROOT, "%-28s %10s %12s %10s%n", "footprint", "fleet", "heap MB", "B/car");
+        footprintRow("all available", fleet, empty);
+        for (int i = 0; i < fleet / 2; i++) {
+            system.rentCar(i, i % CUSTOMERS, i);
+        }
+        footprintRow("half rented", fleet, empty);
+        for (int i = 0; i < fleet / 4; i++) {
+            system.returnCar(i, fleet + i);
+        }
+        footprintRow("quarter returned", fleet, empty);
+        sink = system;
+
+        system = null;
+        sink = null;
+        empty = usedHeapAfterGc();
+        Path dir = Files.createTempDirectory("footprint-columnar");
+        try (ColumnarFleetStore store = ColumnarFleetStore.open(dir)) {
+            for (int i = 0; i < fleet; i++) {
+                store.addCarWithValidation(i, "Brand " + (i % 50 % 10), "Model " + (i % 50));
+            }
+            footprintRow("columnar all available", fleet, empty);
+            for (int i = 0; i < fleet / 2; i++) {
+                store.rentCar(i, i % CUSTOMERS, i);
+            }
+            footprintRow("columnar half rented", fleet, empty);
+            for (int i = 0; i < fleet / 4; i++) {
+                store.returnCar(i, fleet + i);
+            }
+            footprintRow("columnar quarter returned", fleet, empty);
+            long mapped = 0;
+            for (Path file : listFiles(dir)) {
+                mapped += Files.size(file);
+            }
+            System.out.printf(Locale.ROOT, "%-28s %10d %12.1f %10.0f%n", "columnar files (off heap)", fleet,
+                    mapped / 1e6, (double) mapped / fleet);
+            sink = store;
+        } finally {
+            for (Path file : listFiles(dir)) {
+                Files.delete(file);
+            }
+            Files.delete(dir);
+        }
+    }
+
+    private static List<Path> listFiles(Path dir) throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.collect(Collectors.toList());
+        }
+    }
+
+    private static void footprintRow(String name, int fleet, long empty) {
+        long used = usedHeapAfterGc() - empty;
+        System.out.printf(Locale.ROOT, "%-28s %10d %12.1f %10.0f%n", name, fleet, used / 1e6, (double) used / fleet);
+    }
+
+    private static long usedHeapAfterGc() {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+
+    // A fleet of 50 models with about half the cars out and a few rentals behind
+    // each; picks one model's longest-idle available car both ways
+    static void allocation(int fleet) throws InterruptedException {
+        CarRentalSystem system = new CarRentalSystem();
+        for (int i = 0; i < fleet; i++) {
+            system.addCar(new Car(i, "Model " + (i % 50), "Brand " + (i % 50 % 10)));
+        }
+        for (int i = 0; i < CUSTOMERS; i++) {
+            system.addCustomer(new Customer(i, "Customer " + i, "L" + i));
+        }
+        Random random = new Random(42);
+        long time = 0;
+        for (int i = 0; i < fleet * 3; i++) {
+            int car = random.nextInt(fleet);
+            time += 1000;
+            if (!system.rentCar(car, random.nextInt(CUSTOMERS), time)) {
+                system.returnCar(car, time);
+            }
+        }
+        // The last return of each car, which the scan has to look up per car
+        long[] idleSince = new long[fleet];
+        Arrays.fill(idleSince, Long.MIN_VALUE);
+        system.forEachClosedRental(0, system.getClosedRentalCount(),
+                r -> idleSince[r.getCar().getId()] = Math.max(idleSince[r.getCar().getId()], r.getReturnTime()));
+
+        FleetAllocator allocator = FleetAllocator.attach(system);
+        while (allocator.getAppliedSequence() < system.getEvents().getLastSequence()) {
+            Thread.sleep(1);
+        }
+        int available = system.getAvailableCarCount();
+        long[] found = new long[2];
+        for (int i = 0; i < 2; i++) {
+            boolean queues = i == 0;
+            int picks = queues ? 1_000_000 : Math.max(10, 10_000_000 / fleet);
+            double rate = 0;
+            for (int iteration = 0; iteration < WARMUP_ITERATIONS + MEASURE_ITERATIONS; iteration++) {
+                long start = System.nanoTime();
+                for (int p = 0; p < picks; p++) {
+                    String model = "Model " + (p % 50);
+                    String brand = "Brand " + (p % 50 % 10);
+                    Car best = null;
+                    if (queues) {
+                        best = allocator.pick(brand, model, FleetAllocator.Policy.LONGEST_IDLE);
+                    } else {
+                        for (Car car : system.getAvailableCars()) {
+                            if (car.getModel().equals(model) && car.getBrand().equals(brand) && (best == null
+                                    || idleSince[car.getId()] < idleSince[best.getId()]
+                                    || idleSince[car.getId()] == idleSince[best.getId()] && car.getId() < best.getId())) {
+                                best = car;
+                            }
+                        }
+                    }
+                    found[i] += best == null ? 0 : best.getId();
+                }
+                if (iteration >= WARMUP_ITERATIONS) {
+                    rate += picks * 1e9 / (System.nanoTime() - start) / MEASURE_ITERATIONS;
+                }
+            }
+            System.out.printf(Locale.ROOT, "%-24s %10d %10d %14.0f %12.1f%n",
+                    queues ? "FleetAllocator.pick" : "getAvailableCars scan", fleet, available, rate, 1e9 / rate);
+        }
+        allocator.close();
+        sink = found;
+    }
+
+    // Workloads ------------------------------------------------------------
+
+    private Workload addCars(CarRentalSystem system) {
+        int base = system.getAllCars().size();
+        return worker -> {
+            if (worker.nextId == 0) {
+                worker.nextId = base + worker.index * 100_000_000 + 1;
+            }
+            long start = System.nanoTime();
+            for (int i = 0; i < BATCH; i++) {
+                int id = worker.nextId++;
+                sink = system.addCarWithValidation(new Car(id, "Model", "Brand"));
+            }
+            worker.timedNanos += System.nanoTime() - start;
+            return BATCH;
+        };
+    }
+
+    // Rents a random batch of cars and returns them; times only the requested half
+    private Workload rentCars(CarRentalSystem system, boolean timeRent) {
+        int fleetSize = system.getAllCars().size();
+        return worker -> {
+            int[] ids = new int[BATCH];
+            for (int i = 0; i < BATCH; i++) {
+                ids[i] = worker.random.nextInt(fleetSize);
+            }
+            int customer = worker.random.nextInt(CUSTOMERS);
+            boolean ok = false;
+
+            long start = System.nanoTime();
+            for (int id : ids) {
+                ok ^= system.rentCar(id, customer);
+            }
+            long rented = System.nanoTime();
+            for (int id : ids) {
+                ok ^= system.returnCar(id);
+            }
+            long returned = System.nanoTime();
+
+            worker.timedNanos += timeRent ? rented - start : returned - rented;
+            sink = ok;
+            return BATCH;
+        };
+    }
+
+    // Same rent-then-return cycle as rentCars, as one applyBatch call per batch;
+    // counts both halves
+    private Workload rentCarsBatched(CarRentalSystem system) {
+        int fleetSize = system.getAllCars().size();
+        return worker -> {
+            List<RentalCommand> commands = randomCycle(worker, fleetSize);
+            long start = System.nanoTime();
+            sink = system.applyBatch(commands);
+            worker.timedNanos += System.nanoTime() - start;
+            return commands.size();
+        };
+    }
+
+    // The cycle submitted through a CommandPipeline, timed until every future is done
+    private Workload rentCarsPipelined(CarRentalSystem system) {
+        int fleetSize = system.getAllCars().size();
+        CommandPipeline pipeline = new CommandPipeline(system, 4096);
+        return new Workload() {
+            @Override
+            public long runBatch(Worker worker) {
+                List<RentalCommand> commands = randomCycle(worker, fleetSize);
+                long start = System.nanoTime();
+                List<CompletableFuture<Boolean>> results = pipeline.submitAll(commands);
+                sink = results.get(results.size() - 1).join();
+                worker.timedNanos += System.nanoTime() - start;
+                return commands.size();
+            }
+
+            @Override
+            public void close() {
+                pipeline.close();
+            }
+        };
+    }
+
+    private static List<RentalCommand> randomCycle(Worker worker, int fleetSize) {
+        List<RentalCommand> commands = new ArrayList<>(2 * BATCH);
+        int customer = worker.random.nextInt(CUSTOMERS);
+        for (int i = 0; i < BATCH; i++) {
+            commands.add(RentalCommand.rent(worker.random.nextInt(fleetSize), customer));
+        }
+        for (int i = 0; i < BATCH; i++) {
+            commands.add(RentalCommand.returnCar(commands.get(i).getCarId()));
+        }
+        return commands;
+    }
+
+    // Lists available cars with half of the fleet rented out
+    private Workload listAvailable(CarRentalSystem system) {
+        List<Car> cars = system.getAllCars();
+        for (int i = 0; i < cars.size(); i += 2) {
+            system.rentCar(cars.get(i).getId(), 0);
+        }
+        return worker -> {
+            long start = System.nanoTime();
+            sink = system.getAvailableCars();
+            worker.timedNanos += System.nanoTime() - start;
+            return 1;
+        };
+    }
+}
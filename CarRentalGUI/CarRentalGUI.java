@@ -1,625 +1,935 @@
-import java.awt.*;
-import java.awt.event.*;
-import java.util.*;
-import java.util.List;
-import javax.swing.*;
-
-// Car class
-class Car {
-    private int id;
-    private String model;
-    private String brand;
-    private boolean available;
-
-    public Car(int id, String model, String brand) {
-        this.id = id;
-        this.model = model;
-        this.brand = brand;
-        this.available = true;
-    }
-
-    // Getters and setters
-    public int getId() {
-        return id;
-    }
-
-    public String getModel() {
-        return model;
-    }
-
-    public String getBrand() {
-        return brand;
-    }
-
-    public boolean isAvailable() {
-        return available;
-    }
-
-    public void setAvailable(boolean status) {
-        this.available = status;
-    }
-
-    @Override
-    public String toString() {
-        return String.format("ID: %d | %s %s | Status: %s",
-                id, brand, model, available ? "Available" : "Rented");
-    }
-}
-
-// Customer class
-class Customer {
-    private int id;
-    private String name;
-    private String licenseNumber;
-
-    public Customer(int id, String name, String licenseNumber) {
-        this.id = id;
-        this.name = name;
-        this.licenseNumber = licenseNumber;
-    }
-
-    // Getters
-    public int getId() {
-        return id;
-    }
-
-    public String getName() {
-        return name;
-    }
-
-    public String getLicenseNumber() {
-        return licenseNumber;
-    }
-
-    @Override
-    public String toString() {
-        return String.format("ID: %d | Name: %s | License: %s", id, name, licenseNumber);
-    }
-}
-
-// Rental class
-class Rental {
-    private Customer customer;
-    private Car car;
-    private String rentalDate;
-    private String returnDate;
-
-    public Rental(Customer customer, Car car, String rentalDate) {
-        this.customer = customer;
-        this.car = car;
-        this.rentalDate = rentalDate;
-        this.returnDate = null;
-    }
-
-    // Getters and setters
-    public Customer getCustomer() {
-        return customer;
-    }
-
-    public Car getCar() {
-        return car;
-    }
-
-    public String getRentalDate() {
-        return rentalDate;
-    }
-
-    public String getReturnDate() {
-        return returnDate;
-    }
-
-    public void setReturnDate(String returnDate) {
-        this.returnDate = returnDate;
-    }
-}
-
-// Main Car Rental System class
-class CarRentalSystem {
-    private List<Car> cars = new ArrayList<>();
-    private List<Customer> customers = new ArrayList<>();
-    private List<Rental> rentals = new ArrayList<>();
-
-    public void addCar(Car car) {
-        cars.add(car);
-    }
-
-    public void addCustomer(Customer customer) {
-        customers.add(customer);
-    }
-
-    public List<Car> getAvailableCars() {
-        List<Car> available = new ArrayList<>();
-        for (Car car : cars) {
-            if (car.isAvailable()) {
-                available.add(car);
-            }
-        }
-        return available;
-    }
-
-    public List<Customer> getCustomers() {
-        return customers;
-    }
-
-    public List<Car> getAllCars() {
-        return cars;
-    }
-
-    // Enhanced method with duplicate ID checking
-    public boolean addCarWithValidation(Car car) {
-        for (Car existingCar : cars) {
-            if (existingCar.getId() == car.getId()) {
-                return false; // Duplicate ID found
-            }
-        }
-        cars.add(car);
-        return true;
-    }
-
-    // Enhanced method with duplicate ID checking
-    public boolean addCustomerWithValidation(Customer customer) {
-        for (Customer existingCustomer : customers) {
-            if (existingCustomer.getId() == customer.getId()) {
-                return false; // Duplicate ID found
-            }
-        }
-        customers.add(customer);
-        return true;
-    }
-
-    public boolean rentCar(int carId, int customerId) {
-        Car carToRent = null;
-        Customer customerRenting = null;
-
-        // Find car
-        for (Car car : cars) {
-            if (car.getId() == carId && car.isAvailable()) {
-                carToRent = car;
-                break;
-            }
-        }
-
-        // Find customer
-        for (Customer customer : customers) {
-            if (customer.getId() == customerId) {
-                customerRenting = customer;
-                break;
-            }
-        }
-
-        if (carToRent != null && customerRenting != null) {
-            carToRent.setAvailable(false);
-            rentals.add(new Rental(customerRenting, carToRent, new Date().toString()));
-            return true;
-        }
-        return false;
-    }
-
-    public boolean returnCar(int carId) {
-        for (Car car : cars) {
-            if (car.getId() == carId && !car.isAvailable()) {
-                car.setAvailable(true);
-                // Update rental record
-                for (Rental rental : rentals) {
-                    if (rental.getCar().getId() == carId && rental.getReturnDate() == null) {
-                        rental.setReturnDate(new Date().toString());
-                        break;
-                    }
-                }
-                return true;
-            }
-        }
-        return false;
-    }
-}
-
-// Main GUI class with clean, simple design
-public class CarRentalGUI extends JFrame {
-    private CarRentalSystem rentalSystem;
-    private JTextArea outputArea;
-    private Font defaultFont = new Font("Arial", Font.PLAIN, 14);
-    private Font titleFont = new Font("Arial", Font.BOLD, 16);
-
-    public CarRentalGUI() {
-        rentalSystem = new CarRentalSystem();
-        initializeGUI();
-        addSampleData();
-    }
-
-    private void initializeGUI() {
-        setTitle("Car Rental Management System");
-        setSize(1000, 700);
-        setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
-        setLocationRelativeTo(null);
-
-        // Create main panel with padding
-        JPanel mainPanel = new JPanel(new BorderLayout(10, 10));
-        mainPanel.setBorder(BorderFactory.createEmptyBorder(15, 15, 15, 15));
-
-        // Create title panel
-        JPanel titlePanel = createTitlePanel();
-
-        // Create button panel with clean design
-        JPanel buttonPanel = createButtonPanel();
-
-        // Create output area with clean styling
-        JPanel outputPanel = createOutputPanel();
-
-        // Add components to main panel
-        mainPanel.add(titlePanel, BorderLayout.NORTH);
-        mainPanel.add(buttonPanel, BorderLayout.WEST);
-        mainPanel.add(outputPanel, BorderLayout.CENTER);
-
-        add(mainPanel);
-
-        outputArea.setText("Welcome to Car Rental Management System\n" +
-                "═══════════════════════════════════════\n\n" +
-                "• Select an operation from the menu on the left\n" +
-                "• Sample data has been loaded for testing\n" +
-                "• All operations will display results here\n\n");
-    }
-
-    private JPanel createTitlePanel() {
-        JPanel titlePanel = new JPanel(new FlowLayout(FlowLayout.CENTER));
-        titlePanel.setBorder(BorderFactory.createEmptyBorder(0, 0, 20, 0));
-
-        JLabel titleLabel = new JLabel("Car Rental Management System");
-        titleLabel.setFont(new Font("Arial", Font.BOLD, 24));
-        titleLabel.setForeground(new Color(51, 51, 51));
-
-        titlePanel.add(titleLabel);
-        return titlePanel;
-    }
-
-    private JPanel createButtonPanel() {
-        JPanel buttonPanel = new JPanel();
-        buttonPanel.setLayout(new BoxLayout(buttonPanel, BoxLayout.Y_AXIS));
-        buttonPanel.setBorder(BorderFactory.createCompoundBorder(
-                BorderFactory.createTitledBorder(
-                        BorderFactory.createEtchedBorder(),
-                        "Operations",
-                        0, 0, titleFont),
-                BorderFactory.createEmptyBorder(10, 10, 10, 10)));
-        buttonPanel.setPreferredSize(new Dimension(200, 0));
-
-        // Create clean, simple buttons
-        JButton addCarBtn = createCleanButton("Add New Car");
-        JButton addCustomerBtn = createCleanButton("Add Customer");
-        JButton rentCarBtn = createCleanButton("Rent Car");
-        JButton returnCarBtn = createCleanButton("Return Car");
-
-        buttonPanel.add(createSectionLabel("Vehicle Management"));
-        buttonPanel.add(addCarBtn);
-        buttonPanel.add(Box.createVerticalStrut(5));
-
-        buttonPanel.add(createSectionLabel("Customer Management"));
-        buttonPanel.add(addCustomerBtn);
-        buttonPanel.add(Box.createVerticalStrut(5));
-
-        buttonPanel.add(createSectionLabel("Rental Operations"));
-        buttonPanel.add(rentCarBtn);
-        buttonPanel.add(Box.createVerticalStrut(5));
-        buttonPanel.add(returnCarBtn);
-        buttonPanel.add(Box.createVerticalStrut(15));
-
-        buttonPanel.add(createSectionLabel("Reports"));
-        JButton showCustomersBtn = createCleanButton("View All Customers");
-        JButton showAvailableCarsBtn = createCleanButton("View Available Cars");
-        JButton showAllCarsBtn = createCleanButton("View All Cars");
-
-        buttonPanel.add(showCustomersBtn);
-        buttonPanel.add(Box.createVerticalStrut(5));
-        buttonPanel.add(showAvailableCarsBtn);
-        buttonPanel.add(Box.createVerticalStrut(5));
-        buttonPanel.add(showAllCarsBtn);
-
-        buttonPanel.add(Box.createVerticalGlue());
-
-        JButton exitBtn = createCleanButton("Exit System");
-        exitBtn.setForeground(new Color(139, 0, 0));
-        buttonPanel.add(exitBtn);
-
-        // Add action listeners
-        addCarBtn.addActionListener(e -> addCar());
-        rentCarBtn.addActionListener(e -> rentCar());
-        returnCarBtn.addActionListener(e -> returnCar());
-        addCustomerBtn.addActionListener(e -> addCustomer());
-        showCustomersBtn.addActionListener(e -> showCustomers());
-        showAvailableCarsBtn.addActionListener(e -> showAvailableCars());
-        showAllCarsBtn.addActionListener(e -> showAllCars());
-        exitBtn.addActionListener(e -> exitApplication());
-
-        return buttonPanel;
-    }
-
-    private JLabel createSectionLabel(String text) {
-        JLabel label = new JLabel(text);
-        label.setFont(new Font("Arial", Font.BOLD, 12));
-        label.setForeground(new Color(70, 70, 70));
-        label.setBorder(BorderFactory.createEmptyBorder(10, 0, 5, 0));
-        return label;
-    }
-
-    private JButton createCleanButton(String text) {
-        JButton button = new JButton(text);
-        button.setFont(defaultFont);
-        button.setPreferredSize(new Dimension(180, 35));
-        button.setMaximumSize(new Dimension(180, 35));
-        button.setFocusPainted(false);
-        button.setBorder(BorderFactory.createCompoundBorder(
-                BorderFactory.createLineBorder(new Color(200, 200, 200), 1),
-                BorderFactory.createEmptyBorder(8, 12, 8, 12)));
-        button.setBackground(Color.WHITE);
-        button.setForeground(new Color(51, 51, 51));
-
-        // Add hover effect
-        button.addMouseListener(new MouseAdapter() {
-            @Override
-            public void mouseEntered(MouseEvent e) {
-                button.setBackground(new Color(245, 245, 245));
-            }
-
-            @Override
-            public void mouseExited(MouseEvent e) {
-                button.setBackground(Color.WHITE);
-            }
-        });
-
-        return button;
-    }
-
-    private JPanel createOutputPanel() {
-        JPanel outputPanel = new JPanel(new BorderLayout());
-        outputPanel.setBorder(BorderFactory.createTitledBorder(
-                BorderFactory.createEtchedBorder(),
-                "System Output",
-                0, 0, titleFont));
-
-        outputArea = new JTextArea();
-        outputArea.setFont(new Font("Monospaced", Font.PLAIN, 13));
-        outputArea.setEditable(false);
-        outputArea.setBackground(new Color(250, 250, 250));
-        outputArea.setBorder(BorderFactory.createEmptyBorder(15, 15, 15, 15));
-        outputArea.setLineWrap(true);
-        outputArea.setWrapStyleWord(true);
-
-        JScrollPane scrollPane = new JScrollPane(outputArea);
-        scrollPane.setBorder(BorderFactory.createLoweredBevelBorder());
-        scrollPane.setVerticalScrollBarPolicy(JScrollPane.VERTICAL_SCROLLBAR_ALWAYS);
-
-        outputPanel.add(scrollPane, BorderLayout.CENTER);
-        return outputPanel;
-    }
-
-    private void addSampleData() {
-        // Add sample cars
-        rentalSystem.addCar(new Car(1, "Camry", "Toyota"));
-        rentalSystem.addCar(new Car(2, "Civic", "Honda"));
-        rentalSystem.addCar(new Car(3, "Model 3", "Tesla"));
-        rentalSystem.addCar(new Car(4, "Accord", "Honda"));
-        rentalSystem.addCar(new Car(5, "Corolla", "Toyota"));
-
-        // Add sample customers
-        rentalSystem.addCustomer(new Customer(1, "John Doe", "DL123456"));
-        rentalSystem.addCustomer(new Customer(2, "Jane Smith", "DL789012"));
-        rentalSystem.addCustomer(new Customer(3, "Mike Johnson", "DL345678"));
-    }
-
-    private void addCar() {
-        try {
-            String idStr = showInputDialog("Add New Car", "Enter Car ID:");
-            if (idStr == null || idStr.trim().isEmpty())
-                return;
-
-            String brand = showInputDialog("Add New Car", "Enter Car Brand:");
-            if (brand == null || brand.trim().isEmpty())
-                return;
-
-            String model = showInputDialog("Add New Car", "Enter Car Model:");
-            if (model == null || model.trim().isEmpty())
-                return;
-
-            int id = Integer.parseInt(idStr.trim());
-
-            // Check for duplicate ID
-            boolean added = rentalSystem.addCarWithValidation(new Car(id, model.trim(), brand.trim()));
-
-            if (added) {
-                displayOutput("✓ CAR ADDED SUCCESSFULLY\n" +
-                        "═══════════════════════\n" +
-                        "Car ID: " + id + "\n" +
-                        "Brand: " + brand.trim() + "\n" +
-                        "Model: " + model.trim() + "\n" +
-                        "Status: Available\n\n");
-            } else {
-                displayOutput("✗ CAR ADDITION FAILED\n" +
-                        "════════════════════\n" +
-                        "Error: Car ID " + id + " already exists!\n" +
-                        "Please use a different ID.\n\n");
-            }
-        } catch (NumberFormatException e) {
-            showErrorDialog("Please enter a valid car ID (number)!");
-        }
-    }
-
-    private void rentCar() {
-        try {
-            String carIdStr = showInputDialog("Rent Car", "Enter Car ID to rent:");
-            if (carIdStr == null || carIdStr.trim().isEmpty())
-                return;
-
-            String custIdStr = showInputDialog("Rent Car", "Enter Customer ID:");
-            if (custIdStr == null || custIdStr.trim().isEmpty())
-                return;
-
-            int carId = Integer.parseInt(carIdStr.trim());
-            int custId = Integer.parseInt(custIdStr.trim());
-
-            boolean success = rentalSystem.rentCar(carId, custId);
-            if (success) {
-                displayOutput("✓ CAR RENTAL SUCCESSFUL\n" +
-                        "═══════════════════════\n" +
-                        "Car ID: " + carId + "\n" +
-                        "Customer ID: " + custId + "\n" +
-                        "Rental Date: " + new Date() + "\n\n");
-            } else {
-                displayOutput("✗ RENTAL FAILED\n" +
-                        "═══════════════\n" +
-                        "Possible reasons:\n" +
-                        "• Car is not available\n" +
-                        "• Car ID doesn't exist\n" +
-                        "• Customer ID doesn't exist\n\n");
-            }
-        } catch (NumberFormatException e) {
-            showErrorDialog("Please enter valid IDs (numbers)!");
-        }
-    }
-
-    private void returnCar() {
-        try {
-            String carIdStr = showInputDialog("Return Car", "Enter Car ID to return:");
-            if (carIdStr == null || carIdStr.trim().isEmpty())
-                return;
-
-            int carId = Integer.parseInt(carIdStr.trim());
-            boolean success = rentalSystem.returnCar(carId);
-
-            if (success) {
-                displayOutput("✓ CAR RETURN SUCCESSFUL\n" +
-                        "══════════════════════\n" +
-                        "Car ID: " + carId + "\n" +
-                        "Return Date: " + new Date() + "\n" +
-                        "Status: Available for rent\n\n");
-            } else {
-                displayOutput("✗ RETURN FAILED\n" +
-                        "═══════════════\n" +
-                        "Possible reasons:\n" +
-                        "• Car is not currently rented\n" +
-                        "• Car ID doesn't exist\n\n");
-            }
-        } catch (NumberFormatException e) {
-            showErrorDialog("Please enter a valid car ID (number)!");
-        }
-    }
-
-    private void addCustomer() {
-        try {
-            String idStr = showInputDialog("Add Customer", "Enter Customer ID:");
-            if (idStr == null || idStr.trim().isEmpty())
-                return;
-
-            String name = showInputDialog("Add Customer", "Enter Customer Name:");
-            if (name == null || name.trim().isEmpty())
-                return;
-
-            String license = showInputDialog("Add Customer", "Enter License Number:");
-            if (license == null || license.trim().isEmpty())
-                return;
-
-            int id = Integer.parseInt(idStr.trim());
-
-            // Check for duplicate ID
-            boolean added = rentalSystem.addCustomerWithValidation(new Customer(id, name.trim(), license.trim()));
-
-            if (added) {
-                displayOutput("✓ CUSTOMER ADDED SUCCESSFULLY\n" +
-                        "════════════════════════════\n" +
-                        "Customer ID: " + id + "\n" +
-                        "Name: " + name.trim() + "\n" +
-                        "License: " + license.trim() + "\n\n");
-            } else {
-                displayOutput("✗ CUSTOMER ADDITION FAILED\n" +
-                        "═════════════════════════\n" +
-                        "Error: Customer ID " + id + " already exists!\n" +
-                        "Please use a different ID.\n\n");
-            }
-        } catch (NumberFormatException e) {
-            showErrorDialog("Please enter a valid customer ID (number)!");
-        }
-    }
-
-    private void showCustomers() {
-        StringBuilder sb = new StringBuilder();
-        sb.append("📋 ALL CUSTOMERS\n");
-        sb.append("═══════════════════════════════════════════════════════\n");
-
-        List<Customer> customers = rentalSystem.getCustomers();
-
-        if (customers.isEmpty()) {
-            sb.append("No customers found in the system.\n");
-        } else {
-            for (int i = 0; i < customers.size(); i++) {
-                sb.append(String.format("%d. %s\n", i + 1, customers.get(i)));
-            }
-        }
-        sb.append("\nTotal Customers: ").append(customers.size()).append("\n\n");
-        displayOutput(sb.toString());
-    }
-
-    private void showAvailableCars() {
-        StringBuilder sb = new StringBuilder();
-        sb.append("🚗 AVAILABLE CARS FOR RENT\n");
-        sb.append("═══════════════════════════════════════════════════════\n");
-
-        List<Car> availableCars = rentalSystem.getAvailableCars();
-
-        if (availableCars.isEmpty()) {
-            sb.append("No cars currently available for rent.\n");
-        } else {
-            for (int i = 0; i < availableCars.size(); i++) {
-                sb.append(String.format("%d. %s\n", i + 1, availableCars.get(i)));
-            }
-        }
-        sb.append("\nTotal Available: ").append(availableCars.size()).append("\n\n");
-        displayOutput(sb.toString());
-    }
-
-    private void showAllCars() {
-        StringBuilder sb = new StringBuilder();
-        sb.append("🚙 ALL CARS IN SYSTEM\n");
-        sb.append("═══════════════════════════════════════════════════════\n");
-
-        List<Car> allCars = rentalSystem.getAllCars();
-
-        if (allCars.isEmpty()) {
-            sb.append("No cars in the system.\n");
-        } else {
-            for (int i = 0; i < allCars.size(); i++) {
-                sb.append(String.format("%d. %s\n", i + 1, allCars.get(i)));
-            }
-        }
-        sb.append("\nTotal Cars: ").append(allCars.size()).append("\n\n");
-        displayOutput(sb.toString());
-    }
-
-    private void exitApplication() {
-        int option = JOptionPane.showConfirmDialog(
-                this,
-                "Are you sure you want to exit the Car Rental System?",
-                "Exit Confirmation",
-                JOptionPane.YES_NO_OPTION,
-                JOptionPane.QUESTION_MESSAGE);
-        if (option == JOptionPane.YES_OPTION) {
-            System.exit(0);
-        }
-    }
-
-    private String showInputDialog(String title, String message) {
-        return JOptionPane.showInputDialog(this, message, title, JOptionPane.PLAIN_MESSAGE);
-    }
-
-    private void showErrorDialog(String message) {
-        JOptionPane.showMessageDialog(this, message, "Input Error", JOptionPane.ERROR_MESSAGE);
-    }
-
-    private void displayOutput(String text) {
-        outputArea.setText(text);
-        outputArea.setCaretPosition(0);
-    }
-
-    public static void main(String[] args) {
-        SwingUtilities.invokeLater(() -> {
-            new CarRentalGUI().setVisible(true);
-        });
-    }
-}
+import java.awt.*;
+import java.awt.event.*;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
+import java.util.*;
+import java.util.List;
+import javax.swing.*;
+
+// Main GUI class with clean, simple design
+public class CarRentalGUI extends JFrame {
+    private CarRentalSystem rentalSystem;
+    private JTextArea outputArea;
+    // Reports are shown in a table card; everything else in the text card
+    private JPanel outputCards;
+    private JTable reportTable;
+    private JLabel reportTitle;
+    private JLabel reportSummary;
+    private Font defaultFont = new Font("Arial", Font.PLAIN, 14);
+    private Font titleFont = new Font("Arial", Font.BOLD, 16);
+    private static final String DATA_DIR = "rental-data";
+    // Built on first use, then kept current by the system's event stream
+    private RentalAnalytics analytics;
+    private FleetAllocator allocator;
+    // Shown while saved data loads; the operations stay disabled until it's in
+    private JProgressBar loadProgress;
+    private final List<JButton> operationButtons = new ArrayList<>();
+    // Port standbys connect to once the data is loaded, or -1 not to replicate
+    private final int replicationPort;
+    private ReplicationSource replication;
+
+    public CarRentalGUI() {
+        this(-1);
+    }
+
+    public CarRentalGUI(int replicationPort) {
+        this.replicationPort = replicationPort;
+        rentalSystem = new CarRentalSystem();
+        rentalSystem.getMetrics().registerMBean();
+        initializeGUI();
+        openStorage();
+    }
+
+    // Restores saved data from the journal in the background, so the window is up
+    // before the data is; seeds sample data only on a first run
+    private void openStorage() {
+        for (JButton button : operationButtons) {
+            button.setEnabled(false);
+        }
+        javax.swing.Timer progress = new javax.swing.Timer(100, e -> {
+            int percent = (int) (rentalSystem.getLoadProgress() * 100);
+            loadProgress.setValue(percent);
+            loadProgress.setString("Loading saved data... " + percent + "%");
+        });
+        progress.start();
+        rentalSystem.openJournalInBackground(Paths.get(DATA_DIR)).whenComplete((v, failure) ->
+                SwingUtilities.invokeLater(() -> {
+                    progress.stop();
+                    loadProgress.setVisible(false);
+                    String storageStatus = storageLoaded(failure);
+                    for (JButton button : operationButtons) {
+                        button.setEnabled(true);
+                    }
+                    outputArea.append(storageStatus + "\n");
+                }));
+    }
+
+    private String storageLoaded(Throwable failure) {
+        if (failure != null) {
+            // Start over rather than seed samples on top of whatever was recovered
+            rentalSystem.getMetrics().unregisterMBean();
+            rentalSystem = new CarRentalSystem();
+            rentalSystem.getMetrics().registerMBean();
+            addSampleData();
+            return "• Saved data could not be opened (" + failure.getMessage() + ")\n" +
+                    "• Sample data has been loaded; changes will not be saved\n";
+        }
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                if (replication != null) {
+                    replication.close();
+                }
+                rentalSystem.close();
+            } catch (IOException e) {
+                System.err.println("Could not save data: " + e.getMessage());
+            }
+        }));
+
+        String status;
+        if (rentalSystem.getCarCount() == 0 && rentalSystem.getCustomerCount() == 0) {
+            addSampleData();
+            status = "• Sample data has been loaded for testing\n";
+        } else {
+            status = "• Saved data has been restored from " + DATA_DIR + "\n";
+        }
+        return status + startReplication();
+    }
+
+    // Streams every change to standbys (see CarRentalServer --standby-of)
+    private String startReplication() {
+        if (replicationPort < 0) {
+            return "";
+        }
+        try {
+            replication = ReplicationSource.start(rentalSystem, replicationPort);
+            return "• Replicating to standbys on port " + replication.getPort() + "\n";
+        } catch (IOException e) {
+            return "• Could not listen for standbys (" + e.getMessage() + ")\n";
+        }
+    }
+
+    private void initializeGUI() {
+        setTitle("Car Rental Management System");
+        setSize(1000, 700);
+        setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
+        setLocationRelativeTo(null);
+
+        // Create main panel with padding
+        JPanel mainPanel = new JPanel(new BorderLayout(10, 10));
+        mainPanel.setBorder(BorderFactory.createEmptyBorder(15, 15, 15, 15));
+
+        // Create title panel
+        JPanel titlePanel = createTitlePanel();
+
+        // Create button panel with clean design
+        JPanel buttonPanel = createButtonPanel();
+
+        // Create output area with clean styling
+        JPanel outputPanel = createOutputPanel();
+
+        // Add components to main panel
+        mainPanel.add(titlePanel, BorderLayout.NORTH);
+        mainPanel.add(buttonPanel, BorderLayout.WEST);
+        mainPanel.add(outputPanel, BorderLayout.CENTER);
+
+        add(mainPanel);
+
+        outputArea.setText("Welcome to Car Rental Management System\n" +
+                "═══════════════════════════════════════\n\n" +
+                "• Select an operation from the menu on the left\n" +
+                "• All operations will display results here\n");
+    }
+
+    private JPanel createTitlePanel() {
+        JPanel titlePanel = new JPanel(new FlowLayout(FlowLayout.CENTER));
+        titlePanel.setBorder(BorderFactory.createEmptyBorder(0, 0, 20, 0));
+
+        JLabel titleLabel = new JLabel("Car Rental Management System");
+        titleLabel.setFont(new Font("Arial", Font.BOLD, 24));
+        titleLabel.setForeground(new Color(51, 51, 51));
+
+        titlePanel.add(titleLabel);
+
+        loadProgress = new JProgressBar(0, 100);
+        loadProgress.setStringPainted(true);
+        loadProgress.setString("Loading saved data...");
+        loadProgress.setFont(defaultFont);
+        titlePanel.add(loadProgress);
+        return titlePanel;
+    }
+
+    private JPanel createButtonPanel() {
+        JPanel buttonPanel = new JPanel();
+        buttonPanel.setLayout(new BoxLayout(buttonPanel, BoxLayout.Y_AXIS));
+        buttonPanel.setBorder(BorderFactory.createCompoundBorder(
+                BorderFactory.createTitledBorder(
+                        BorderFactory.createEtchedBorder(),
+                        "Operations",
+                        0, 0, titleFont),
+                BorderFactory.createEmptyBorder(10, 10, 10, 10)));
+        buttonPanel.setPreferredSize(new Dimension(200, 0));
+
+        // Create clean, simple buttons
+        JButton addCarBtn = createCleanButton("Add New Car");
+        JButton addCustomerBtn = createCleanButton("Add Customer");
+        JButton rentCarBtn = createCleanButton("Rent Car");
+        JButton returnCarBtn = createCleanButton("Return Car");
+        JButton reserveCarBtn = createCleanButton("Reserve Car");
+
+        buttonPanel.add(createSectionLabel("Vehicle Management"));
+        buttonPanel.add(addCarBtn);
+        buttonPanel.add(Box.createVerticalStrut(5));
+
+        buttonPanel.add(createSectionLabel("Customer Management"));
+        buttonPanel.add(addCustomerBtn);
+        buttonPanel.add(Box.createVerticalStrut(5));
+
+        buttonPanel.add(createSectionLabel("Rental Operations"));
+        buttonPanel.add(rentCarBtn);
+        buttonPanel.add(Box.createVerticalStrut(5));
+        buttonPanel.add(returnCarBtn);
+        buttonPanel.add(Box.createVerticalStrut(5));
+        buttonPanel.add(reserveCarBtn);
+        buttonPanel.add(Box.createVerticalStrut(15));
+
+        buttonPanel.add(createSectionLabel("Reports"));
+        JButton showCustomersBtn = createCleanButton("View All Customers");
+        JButton showAvailableCarsBtn = createCleanButton("View Available Cars");
+        JButton showAllCarsBtn = createCleanButton("View All Cars");
+
+        buttonPanel.add(showCustomersBtn);
+        buttonPanel.add(Box.createVerticalStrut(5));
+        buttonPanel.add(showAvailableCarsBtn);
+        buttonPanel.add(Box.createVerticalStrut(5));
+        buttonPanel.add(showAllCarsBtn);
+        buttonPanel.add(Box.createVerticalStrut(5));
+
+        JButton searchCarsBtn = createCleanButton("Search Cars");
+        JButton searchCustomersBtn = createCleanButton("Search Customers");
+        buttonPanel.add(searchCarsBtn);
+        buttonPanel.add(Box.createVerticalStrut(5));
+        buttonPanel.add(searchCustomersBtn);
+        buttonPanel.add(Box.createVerticalStrut(5));
+
+        JButton freeCarsBtn = createCleanButton("Free Cars by Date");
+        buttonPanel.add(freeCarsBtn);
+        buttonPanel.add(Box.createVerticalStrut(5));
+
+        JButton analyticsBtn = createCleanButton("Fleet Analytics");
+        buttonPanel.add(analyticsBtn);
+        buttonPanel.add(Box.createVerticalStrut(5));
+
+        JButton historyBtn = createCleanButton("Customer History");
+        buttonPanel.add(historyBtn);
+        buttonPanel.add(Box.createVerticalStrut(15));
+
+        buttonPanel.add(createSectionLabel("Data Transfer"));
+        JButton importBtn = createCleanButton("Import Data");
+        JButton exportBtn = createCleanButton("Export Data");
+        buttonPanel.add(importBtn);
+        buttonPanel.add(Box.createVerticalStrut(5));
+        buttonPanel.add(exportBtn);
+
+        buttonPanel.add(Box.createVerticalGlue());
+
+        JButton exitBtn = createCleanButton("Exit System");
+        exitBtn.setForeground(new Color(139, 0, 0));
+        buttonPanel.add(exitBtn);
+
+        // Add action listeners
+        addCarBtn.addActionListener(e -> addCar());
+        rentCarBtn.addActionListener(e -> rentCar());
+        returnCarBtn.addActionListener(e -> returnCar());
+        reserveCarBtn.addActionListener(e -> reserveCar());
+        addCustomerBtn.addActionListener(e -> addCustomer());
+        showCustomersBtn.addActionListener(e -> showCustomers());
+        showAvailableCarsBtn.addActionListener(e -> showAvailableCars());
+        showAllCarsBtn.addActionListener(e -> showAllCars());
+        searchCarsBtn.addActionListener(e -> searchCars());
+        searchCustomersBtn.addActionListener(e -> searchCustomers());
+        freeCarsBtn.addActionListener(e -> showFreeCars());
+        analyticsBtn.addActionListener(e -> showAnalytics());
+        historyBtn.addActionListener(e -> showCustomerHistory());
+        importBtn.addActionListener(e -> importData());
+        exportBtn.addActionListener(e -> exportData());
+        exitBtn.addActionListener(e -> exitApplication());
+
+        for (Component c : buttonPanel.getComponents()) {
+            if (c instanceof JButton && c != exitBtn) {
+                operationButtons.add((JButton) c);
+            }
+        }
+
+        return buttonPanel;
+    }
+
+    private JLabel createSectionLabel(String text) {
+        JLabel label = new JLabel(text);
+        label.setFont(new Font("Arial", Font.BOLD, 12));
+        label.setForeground(new Color(70, 70, 70));
+        label.setBorder(BorderFactory.createEmptyBorder(10, 0, 5, 0));
+        return label;
+    }
+
+    private JButton createCleanButton(String text) {
+        JButton button = new JButton(text);
+        button.setFont(defaultFont);
+        button.setPreferredSize(new Dimension(180, 35));
+        button.setMaximumSize(new Dimension(180, 35));
+        button.setFocusPainted(false);
+        button.setBorder(BorderFactory.createCompoundBorder(
+                BorderFactory.createLineBorder(new Color(200, 200, 200), 1),
+                BorderFactory.createEmptyBorder(8, 12, 8, 12)));
+        button.setBackground(Color.WHITE);
+        button.setForeground(new Color(51, 51, 51));
+
+        // Add hover effect
+        button.addMouseListener(new MouseAdapter() {
+            @Override
+            public void mouseEntered(MouseEvent e) {
+                button.setBackground(new Color(245, 245, 245));
+            }
+
+            @Override
+            public void mouseExited(MouseEvent e) {
+                button.setBackground(Color.WHITE);
+            }
+        });
+
+        return button;
+    }
+
+    private JPanel createOutputPanel() {
+        JPanel outputPanel = new JPanel(new BorderLayout());
+        outputPanel.setBorder(BorderFactory.createTitledBorder(
+                BorderFactory.createEtchedBorder(),
+                "System Output",
+                0, 0, titleFont));
+
+        outputArea = new JTextArea();
+        outputArea.setFont(new Font("Monospaced", Font.PLAIN, 13));
+        outputArea.setEditable(false);
+        outputArea.setBackground(new Color(250, 250, 250));
+        outputArea.setBorder(BorderFactory.createEmptyBorder(15, 15, 15, 15));
+        outputArea.setLineWrap(true);
+        outputArea.setWrapStyleWord(true);
+
+        JScrollPane scrollPane = new JScrollPane(outputArea);
+        scrollPane.setBorder(BorderFactory.createLoweredBevelBorder());
+        scrollPane.setVerticalScrollBarPolicy(JScrollPane.VERTICAL_SCROLLBAR_ALWAYS);
+
+        outputCards = new JPanel(new CardLayout());
+        outputCards.add(scrollPane, "text");
+        outputCards.add(createReportPanel(), "table");
+
+        outputPanel.add(outputCards, BorderLayout.CENTER);
+        return outputPanel;
+    }
+
+    private JPanel createReportPanel() {
+        reportTitle = new JLabel();
+        reportTitle.setFont(titleFont);
+        reportTitle.setBorder(BorderFactory.createEmptyBorder(10, 10, 10, 10));
+
+        reportTable = new JTable();
+        reportTable.setFont(new Font("Monospaced", Font.PLAIN, 13));
+        reportTable.setRowHeight(22);
+        reportTable.setFillsViewportHeight(true);
+        reportTable.setAutoCreateRowSorter(false);
+
+        JScrollPane tableScroll = new JScrollPane(reportTable);
+        tableScroll.setBorder(BorderFactory.createLoweredBevelBorder());
+        tableScroll.setVerticalScrollBarPolicy(JScrollPane.VERTICAL_SCROLLBAR_ALWAYS);
+
+        reportSummary = new JLabel();
+        reportSummary.setFont(defaultFont);
+        reportSummary.setBorder(BorderFactory.createEmptyBorder(8, 10, 8, 10));
+
+        JPanel reportPanel = new JPanel(new BorderLayout());
+        reportPanel.setBackground(new Color(250, 250, 250));
+        reportPanel.add(reportTitle, BorderLayout.NORTH);
+        reportPanel.add(tableScroll, BorderLayout.CENTER);
+        reportPanel.add(reportSummary, BorderLayout.SOUTH);
+        return reportPanel;
+    }
+
+    private void addSampleData() {
+        // Add sample cars
+        rentalSystem.addCar(new Car(1, "Camry", "Toyota"));
+        rentalSystem.addCar(new Car(2, "Civic", "Honda"));
+        rentalSystem.addCar(new Car(3, "Model 3", "Tesla"));
+        rentalSystem.addCar(new Car(4, "Accord", "Honda"));
+        rentalSystem.addCar(new Car(5, "Corolla", "Toyota"));
+
+        // Add sample customers
+        rentalSystem.addCustomer(new Customer(1, "John Doe", "DL123456"));
+        rentalSystem.addCustomer(new Customer(2, "Jane Smith", "DL789012"));
+        rentalSystem.addCustomer(new Customer(3, "Mike Johnson", "DL345678"));
+    }
+
+    private void addCar() {
+        try {
+            String idStr = showInputDialog("Add New Car", "Enter Car ID:");
+            if (idStr == null || idStr.trim().isEmpty())
+                return;
+
+            String brand = showInputDialog("Add New Car", "Enter Car Brand:");
+            if (brand == null || brand.trim().isEmpty())
+                return;
+
+            String model = showInputDialog("Add New Car", "Enter Car Model:");
+            if (model == null || model.trim().isEmpty())
+                return;
+
+            int id = Integer.parseInt(idStr.trim());
+
+            // Check for duplicate ID
+            boolean added = rentalSystem.addCarWithValidation(new Car(id, model.trim(), brand.trim()));
+
+            if (added) {
+                displayOutput("✓ CAR ADDED SUCCESSFULLY\n" +
+                        "═══════════════════════\n" +
+                        "Car ID: " + id + "\n" +
+                        "Brand: " + brand.trim() + "\n" +
+                        "Model: " + model.trim() + "\n" +
+                        "Status: Available\n\n");
+            } else {
+                displayOutput("✗ CAR ADDITION FAILED\n" +
+                        "════════════════════\n" +
+                        "Error: Car ID " + id + " already exists!\n" +
+                        "Please use a different ID.\n\n");
+            }
+        } catch (NumberFormatException e) {
+            showErrorDialog("Please enter a valid car ID (number)!");
+        } catch (IllegalArgumentException e) {
+            showErrorDialog(e.getMessage());
+        }
+    }
+
+    private void rentCar() {
+        try {
+            String carIdStr = showInputDialog("Rent Car",
+                    "Enter Car ID to rent, or a brand and model (e.g. Toyota Camry, Toyota, or * for any car):");
+            if (carIdStr == null || carIdStr.trim().isEmpty())
+                return;
+            carIdStr = carIdStr.trim();
+            // A number is a car ID; anything else names a class of cars
+            int carId = -1;
+            FleetAllocator.Policy policy = null;
+            try {
+                carId = Integer.parseInt(carIdStr);
+            } catch (NumberFormatException e) {
+                FleetAllocator.Policy[] policies = FleetAllocator.Policy.values();
+                String[] choices = { "Least wear", "Balanced use", "Longest idle" };
+                int choice = JOptionPane.showOptionDialog(this, "Which car of the class should go out?", "Rent Car",
+                        JOptionPane.DEFAULT_OPTION, JOptionPane.QUESTION_MESSAGE, null, choices, choices[2]);
+                if (choice < 0)
+                    return;
+                policy = policies[choice];
+            }
+
+            String custIdStr = showInputDialog("Rent Car", "Enter Customer ID:");
+            if (custIdStr == null || custIdStr.trim().isEmpty())
+                return;
+
+            int custId = Integer.parseInt(custIdStr.trim());
+            RentalResult result;
+            if (policy == null) {
+                result = rentalSystem.tryRentCar(carId, custId);
+            } else {
+                // "Brand Model words", "Brand", or "*"
+                String[] carClass = carIdStr.split("\\s+", 2);
+                String brand = carClass[0].equals("*") ? null : carClass[0];
+                String model = brand != null && carClass.length > 1 ? carClass[1] : null;
+                Car[] rented = new Car[1];
+                result = getAllocator().rentBest(brand, model, policy, custId, rented);
+                carId = result.isSuccess() ? rented[0].getId() : -1;
+                if (result == RentalResult.CAR_NOT_FOUND) {
+                    displayOutput("✗ RENTAL FAILED\n" +
+                            "═══════════════\n" +
+                            "Reason: No " + carIdStr + " is available\n\n");
+                    return;
+                }
+            }
+            if (result.isSuccess()) {
+                Rental rental = rentalSystem.getActiveRental(carId);
+                displayOutput("✓ CAR RENTAL SUCCESSFUL\n" +
+                        "═══════════════════════\n" +
+                        "Car ID: " + carId + "\n" +
+                        "Customer ID: " + custId + "\n" +
+                        "Rental Date: " + (rental != null ? rental.getRentalDate() : new Date().toString()) + "\n\n");
+            } else {
+                displayOutput("✗ RENTAL FAILED\n" +
+                        "═══════════════\n" +
+                        "Reason: " + result.getDescription() + "\n\n");
+            }
+        } catch (NumberFormatException e) {
+            showErrorDialog("Please enter valid IDs (numbers)!");
+        }
+    }
+
+    private void returnCar() {
+        try {
+            String carIdStr = showInputDialog("Return Car", "Enter Car ID to return:");
+            if (carIdStr == null || carIdStr.trim().isEmpty())
+                return;
+
+            int carId = Integer.parseInt(carIdStr.trim());
+            Invoice[] invoice = new Invoice[1];
+            RentalResult result = rentalSystem.tryReturnCar(carId, invoice);
+
+            if (result.isSuccess()) {
+                displayOutput("✓ CAR RETURN SUCCESSFUL\n" +
+                        "══════════════════════\n" +
+                        "Car ID: " + carId + "\n" +
+                        "Return Date: " + new Date() + "\n" +
+                        (invoice[0] != null ? "Charges: " + invoice[0] + "\n" : "") +
+                        "Status: Available for rent\n\n");
+            } else {
+                displayOutput("✗ RETURN FAILED\n" +
+                        "═══════════════\n" +
+                        "Reason: " + result.getDescription() + "\n\n");
+            }
+        } catch (NumberFormatException e) {
+            showErrorDialog("Please enter a valid car ID (number)!");
+        }
+    }
+
+    private void reserveCar() {
+        try {
+            String carIdStr = showInputDialog("Reserve Car", "Enter Car ID to reserve:");
+            if (carIdStr == null || carIdStr.trim().isEmpty())
+                return;
+
+            String custIdStr = showInputDialog("Reserve Car", "Enter Customer ID:");
+            if (custIdStr == null || custIdStr.trim().isEmpty())
+                return;
+
+            long[] days = askDateRange("Reserve Car");
+            if (days == null)
+                return;
+
+            int carId = Integer.parseInt(carIdStr.trim());
+            int custId = Integer.parseInt(custIdStr.trim());
+
+            Reservation reservation = rentalSystem.reserveCar(carId, custId, days[0], days[1]);
+            if (reservation != null) {
+                displayOutput("✓ RESERVATION CONFIRMED\n" +
+                        "═══════════════════════\n" +
+                        "Reservation ID: " + reservation.getId() + "\n" +
+                        "Car ID: " + carId + "\n" +
+                        "Customer ID: " + custId + "\n" +
+                        "From: " + new Date(reservation.getStartTime()) + "\n" +
+                        "Until: " + new Date(reservation.getEndTime()) + "\n\n");
+            } else {
+                displayOutput("✗ RESERVATION FAILED\n" +
+                        "════════════════════\n" +
+                        "Possible reasons:\n" +
+                        "• Car is already booked for some of those days\n" +
+                        "• Booking is longer than " + ReservationBook.MAX_DAYS + " days\n" +
+                        "• Car ID doesn't exist\n" +
+                        "• Customer ID doesn't exist\n\n");
+            }
+        } catch (NumberFormatException e) {
+            showErrorDialog("Please enter valid IDs (numbers)!");
+        } catch (IllegalArgumentException e) {
+            showErrorDialog(e.getMessage());
+        }
+    }
+
+    // Asks for first and last day (inclusive); returns [start, end) in epoch millis, or null
+    private long[] askDateRange(String title) {
+        String fromStr = showInputDialog(title, "First day (yyyy-mm-dd):");
+        if (fromStr == null || fromStr.trim().isEmpty())
+            return null;
+
+        String toStr = showInputDialog(title, "Last day (yyyy-mm-dd):");
+        if (toStr == null || toStr.trim().isEmpty())
+            return null;
+
+        try {
+            ZoneId zone = ZoneId.systemDefault();
+            LocalDate first = LocalDate.parse(fromStr.trim());
+            LocalDate last = LocalDate.parse(toStr.trim());
+            if (last.isBefore(first)) {
+                showErrorDialog("The last day can't be before the first day!");
+                return null;
+            }
+            return new long[] {
+                    first.atStartOfDay(zone).toInstant().toEpochMilli(),
+                    last.plusDays(1).atStartOfDay(zone).toInstant().toEpochMilli() };
+        } catch (DateTimeParseException e) {
+            showErrorDialog("Please enter dates as yyyy-mm-dd!");
+            return null;
+        }
+    }
+
+    private void addCustomer() {
+        try {
+            String idStr = showInputDialog("Add Customer", "Enter Customer ID:");
+            if (idStr == null || idStr.trim().isEmpty())
+                return;
+
+            String name = showInputDialog("Add Customer", "Enter Customer Name:");
+            if (name == null || name.trim().isEmpty())
+                return;
+
+            String license = showInputDialog("Add Customer", "Enter License Number:");
+            if (license == null || license.trim().isEmpty())
+                return;
+
+            int id = Integer.parseInt(idStr.trim());
+
+            // Check for duplicate ID
+            boolean added = rentalSystem.addCustomerWithValidation(new Customer(id, name.trim(), license.trim()));
+
+            if (added) {
+                displayOutput("✓ CUSTOMER ADDED SUCCESSFULLY\n" +
+                        "════════════════════════════\n" +
+                        "Customer ID: " + id + "\n" +
+                        "Name: " + name.trim() + "\n" +
+                        "License: " + license.trim() + "\n\n");
+            } else {
+                displayOutput("✗ CUSTOMER ADDITION FAILED\n" +
+                        "═════════════════════════\n" +
+                        "Error: Customer ID " + id + " already exists!\n" +
+                        "Please use a different ID.\n\n");
+            }
+        } catch (NumberFormatException e) {
+            showErrorDialog("Please enter a valid customer ID (number)!");
+        } catch (IllegalArgumentException e) {
+            showErrorDialog(e.getMessage());
+        }
+    }
+
+    private void showCustomers() {
+        showReport("📋 ALL CUSTOMERS", "Total Customers", "No customers found in the system.",
+                PagedTableModel.customers(rentalSystem));
+    }
+
+    private void showAvailableCars() {
+        showReport("🚗 AVAILABLE CARS FOR RENT", "Total Available", "No cars currently available for rent.",
+                PagedTableModel.availableCars(rentalSystem));
+    }
+
+    private void showAllCars() {
+        showReport("🚙 ALL CARS IN SYSTEM", "Total Cars", "No cars in the system.",
+                PagedTableModel.allCars(rentalSystem));
+    }
+
+    private void searchCars() {
+        JTextField brandField = new JTextField(15);
+        JTextField modelField = new JTextField(15);
+        JCheckBox availableBox = new JCheckBox("Only available cars", true);
+        JPanel form = new JPanel(new GridLayout(0, 1, 0, 4));
+        form.add(new JLabel("Brand starts with (blank for any):"));
+        form.add(brandField);
+        form.add(new JLabel("Model starts with (blank for any):"));
+        form.add(modelField);
+        form.add(availableBox);
+
+        int choice = JOptionPane.showConfirmDialog(this, form, "Search Cars",
+                JOptionPane.OK_CANCEL_OPTION, JOptionPane.PLAIN_MESSAGE);
+        if (choice != JOptionPane.OK_OPTION) {
+            return;
+        }
+        CarQuery query = new CarQuery().brand(brandField.getText()).model(modelField.getText());
+        if (availableBox.isSelected()) {
+            query.availableOnly();
+        }
+        showReport("🔍 CAR SEARCH RESULTS", "Matching Cars", "No cars match your search.",
+                PagedTableModel.carResults(() -> rentalSystem.findCars(query)));
+    }
+
+    private void showFreeCars() {
+        long[] days = askDateRange("Free Cars by Date");
+        if (days == null)
+            return;
+
+        showReport("📅 CARS FREE FOR THOSE DAYS", "Free Cars", "No cars are free for all of those days.",
+                PagedTableModel.carResults(() -> rentalSystem.getFreeCars(days[0], days[1])));
+    }
+
+    private void searchCustomers() {
+        String text = showInputDialog("Search Customers", "Enter a license number or the start of a name:");
+        if (text == null || text.trim().isEmpty())
+            return;
+
+        showReport("🔍 CUSTOMER SEARCH RESULTS", "Matching Customers", "No customers match \"" + text.trim() + "\".",
+                PagedTableModel.customerSearch(rentalSystem, text.trim()));
+    }
+
+    private void showAnalytics() {
+        long[] days = askDateRange("Fleet Analytics");
+        if (days == null)
+            return;
+
+        displayOutput("Computing analytics...\n");
+        new SwingWorker<String, Void>() {
+            @Override
+            protected String doInBackground() {
+                RentalAnalytics source = getAnalytics();
+                StringBuilder sb = new StringBuilder();
+                sb.append("📊 FLEET ANALYTICS\n");
+                sb.append("═════════════════\n");
+                sb.append("Utilization and returned rentals by model for the selected days:\n\n");
+                for (RentalAnalytics.ModelStats stats : source.getModelStats(days[0], days[1])) {
+                    sb.append("• ").append(stats).append("\n");
+                }
+                sb.append("\nTop customers (all time):\n\n");
+                for (RentalAnalytics.CustomerStats stats : source.getTopCustomers(10)) {
+                    sb.append("• ").append(stats).append("\n");
+                }
+                return sb.toString();
+            }
+
+            @Override
+            protected void done() {
+                try {
+                    displayOutput(get());
+                } catch (Exception e) {
+                    displayOutput("✗ ANALYTICS FAILED\n" +
+                            "══════════════════\n" +
+                            "Error: " + rootMessage(e) + "\n\n");
+                }
+            }
+        }.execute();
+    }
+
+    private void showCustomerHistory() {
+        try {
+            String custIdStr = showInputDialog("Customer History", "Enter Customer ID:");
+            if (custIdStr == null || custIdStr.trim().isEmpty())
+                return;
+
+            int custId = Integer.parseInt(custIdStr.trim());
+            Customer customer = rentalSystem.getCustomer(custId);
+            if (customer == null) {
+                showErrorDialog("Customer ID " + custId + " not found!");
+                return;
+            }
+
+            // Long histories may have to be read back from disk
+            new SwingWorker<List<Rental>, Void>() {
+                @Override
+                protected List<Rental> doInBackground() {
+                    return rentalSystem.getCustomerHistory(custId);
+                }
+
+                @Override
+                protected void done() {
+                    try {
+                        List<Rental> history = get();
+                        StringBuilder sb = new StringBuilder();
+                        sb.append("🕘 RENTAL HISTORY\n");
+                        sb.append("═════════════════\n");
+                        sb.append("Customer: ").append(customer.getName()).append(" (ID ").append(custId).append(")\n");
+                        sb.append("Closed rentals: ").append(history.size()).append("\n\n");
+                        for (Rental rental : history) {
+                            sb.append("• Car ").append(rental.getCar().getId()).append(" ")
+                                    .append(rental.getCar().getBrand()).append(" ").append(rental.getCar().getModel())
+                                    .append(" | ").append(rental.getRentalDate())
+                                    .append(" → ").append(rental.getReturnDate())
+                                    .append(" | ").append(Invoice.money(rentalSystem.getBilling().getInvoice(rental).getTotalCents()))
+                                    .append("\n");
+                        }
+                        sb.append("\n").append(rentalSystem.getHistoryCache()).append("\n\n");
+                        displayOutput(sb.toString());
+                    } catch (Exception e) {
+                        displayOutput("✗ HISTORY LOOKUP FAILED\n" +
+                                "═══════════════════════\n" +
+                                "Error: " + rootMessage(e) + "\n\n");
+                    }
+                }
+            }.execute();
+        } catch (NumberFormatException e) {
+            showErrorDialog("Please enter a valid customer ID (number)!");
+        }
+    }
+
+    private synchronized FleetAllocator getAllocator() {
+        if (allocator == null) {
+            allocator = FleetAllocator.attach(rentalSystem);
+        }
+        return allocator;
+    }
+
+    private synchronized RentalAnalytics getAnalytics() {
+        if (analytics == null) {
+            analytics = RentalAnalytics.attach(rentalSystem);
+        }
+        return analytics;
+    }
+
+    // Counts rows off the EDT, then lets the table pull only the pages it paints
+    private void showReport(String title, String totalLabel, String emptyMessage, PagedTableModel<?> model) {
+        reportTitle.setText(title);
+        reportSummary.setText("Loading...");
+        reportTable.setModel(model);
+        reportTable.getColumnModel().getColumn(0).setMaxWidth(80);
+        ((CardLayout) outputCards.getLayout()).show(outputCards, "table");
+        model.refresh(() -> reportSummary.setText(model.getRowCount() == 0
+                ? emptyMessage
+                : totalLabel + ": " + model.getRowCount()));
+    }
+
+    private void importData() {
+        String[] kinds = { "Cars", "Customers" };
+        int kind = JOptionPane.showOptionDialog(this, "What kind of records does the file contain?",
+                "Import Data", JOptionPane.DEFAULT_OPTION, JOptionPane.QUESTION_MESSAGE, null, kinds, kinds[0]);
+        if (kind < 0) {
+            return;
+        }
+        JFileChooser chooser = new JFileChooser();
+        chooser.setDialogTitle("Import " + kinds[kind] + " (CSV or NDJSON)");
+        if (chooser.showOpenDialog(this) != JFileChooser.APPROVE_OPTION) {
+            return;
+        }
+        Path file = chooser.getSelectedFile().toPath();
+        Path rejectsFile = file.resolveSibling(file.getFileName() + ".rejected.txt");
+        displayOutput("Importing " + kinds[kind].toLowerCase() + " from " + file + " ...\n");
+
+        // Large files are read off the EDT so the window stays responsive
+        new SwingWorker<FleetTransfer.ImportReport, Void>() {
+            @Override
+            protected FleetTransfer.ImportReport doInBackground() throws IOException {
+                FleetTransfer.Format format = FleetTransfer.Format.forFile(file);
+                try (BufferedReader in = Files.newBufferedReader(file, StandardCharsets.UTF_8);
+                        Writer rejects = Files.newBufferedWriter(rejectsFile, StandardCharsets.UTF_8)) {
+                    return kind == 0
+                            ? FleetTransfer.importCars(in, format, rentalSystem, rejects)
+                            : FleetTransfer.importCustomers(in, format, rentalSystem, rejects);
+                }
+            }
+
+            @Override
+            protected void done() {
+                try {
+                    FleetTransfer.ImportReport report = get();
+                    StringBuilder sb = new StringBuilder();
+                    sb.append("✓ IMPORT FINISHED\n");
+                    sb.append("═════════════════\n");
+                    sb.append("File: ").append(file).append("\n");
+                    sb.append(report).append("\n\n");
+                    if (report.getRejected() == 0) {
+                        Files.deleteIfExists(rejectsFile);
+                    } else {
+                        sb.append("Rejected rows (full list in ").append(rejectsFile).append("):\n");
+                        for (String rejection : report.getSampleRejections()) {
+                            sb.append("• ").append(rejection).append("\n");
+                        }
+                    }
+                    displayOutput(sb.toString());
+                } catch (Exception e) {
+                    displayOutput("✗ IMPORT FAILED\n" +
+                            "═══════════════\n" +
+                            "Error: " + rootMessage(e) + "\n\n");
+                }
+            }
+        }.execute();
+    }
+
+    private void exportData() {
+        JFileChooser chooser = new JFileChooser();
+        chooser.setDialogTitle("Export to Folder");
+        chooser.setFileSelectionMode(JFileChooser.DIRECTORIES_ONLY);
+        if (chooser.showSaveDialog(this) != JFileChooser.APPROVE_OPTION) {
+            return;
+        }
+        Path dir = chooser.getSelectedFile().toPath();
+        displayOutput("Exporting to " + dir + " ...\n");
+
+        new SwingWorker<long[], Void>() {
+            @Override
+            protected long[] doInBackground() throws IOException {
+                FleetTransfer.Format csv = FleetTransfer.Format.CSV;
+                long[] counts = new long[3];
+                try (Writer out = Files.newBufferedWriter(dir.resolve("cars.csv"), StandardCharsets.UTF_8)) {
+                    counts[0] = FleetTransfer.exportCars(rentalSystem, out, csv);
+                }
+                try (Writer out = Files.newBufferedWriter(dir.resolve("customers.csv"), StandardCharsets.UTF_8)) {
+                    counts[1] = FleetTransfer.exportCustomers(rentalSystem, out, csv);
+                }
+                try (Writer out = Files.newBufferedWriter(dir.resolve("rentals.csv"), StandardCharsets.UTF_8)) {
+                    counts[2] = FleetTransfer.exportRentals(rentalSystem, out, csv);
+                }
+                return counts;
+            }
+
+            @Override
+            protected void done() {
+                try {
+                    long[] counts = get();
+                    displayOutput("✓ EXPORT FINISHED\n" +
+                            "═════════════════\n" +
+                            "Folder: " + dir + "\n" +
+                            "cars.csv: " + counts[0] + " cars\n" +
+                            "customers.csv: " + counts[1] + " customers\n" +
+                            "rentals.csv: " + counts[2] + " rentals\n\n");
+                } catch (Exception e) {
+                    displayOutput("✗ EXPORT FAILED\n" +
+                            "═══════════════\n" +
+                            "Error: " + rootMessage(e) + "\n\n");
+                }
+            }
+        }.execute();
+    }
+
+    private static String rootMessage(Throwable e) {
+        while (e.getCause() != null) {
+            e = e.getCause();
+        }
+        return e.getMessage() != null ? e.getMessage() : e.toString();
+    }
+
+    private void exitApplication() {
+        int option = JOptionPane.showConfirmDialog(
+                this,
+                "Are you sure you want to exit the Car Rental System?",
+                "Exit Confirmation",
+                JOptionPane.YES_NO_OPTION,
+                JOptionPane.QUESTION_MESSAGE);
+        if (option == JOptionPane.YES_OPTION) {
+            System.exit(0);
+        }
+    }
+
+    private String showInputDialog(String title, String message) {
+        return JOptionPane.showInputDialog(this, message, title, JOptionPane.PLAIN_MESSAGE);
+    }
+
+    private void showErrorDialog(String message) {
+        JOptionPane.showMessageDialog(this, message, "Input Error", JOptionPane.ERROR_MESSAGE);
+    }
+
+    private void displayOutput(String text) {
+        ((CardLayout) outputCards.getLayout()).show(outputCards, "text");
+        outputArea.setText(text);
+        outputArea.setCaretPosition(0);
+    }
+
+    // Pass --headless [port] (or run without a display) to serve the HTTP API instead;
+    // the remaining arguments go to CarRentalServer, e.g. --shards n for branches
+    public static void main(String[] args) throws IOException {
+        if (GraphicsEnvironment.isHeadless() || (args.length > 0 && args[0].equals("--headless"))) {
+            String[] serverArgs = args.length > 0 && args[0].equals("--headless")
+                    ? Arrays.copyOfRange(args, 1, args.length)
+                    : args;
+            CarRentalServer.main(serverArgs);
+            return;
+        }
+        // --replication-port n streams every change to standbys on port n
+        int replicationPort = args.length > 1 && args[0].equals("--replication-port") ? Integer.parseInt(args[1]) : -1;
+        SwingUtilities.invokeLater(() -> {
+            new CarRentalGUI(replicationPort).setVisible(true);
+        });
+    }
+}
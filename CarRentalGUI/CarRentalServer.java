@@ -0,0 +1,1257 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+
+// Headless HTTP/JSON front end for CarRentalSystem, built on the JDK's HTTP server.
+//
+//   GET  /cars                      all cars
+//   GET  /cars/available?offset&limit available cars, optionally one page
+//   GET  /cars/search?brand&model&available&limit  cars matching name prefixes
+//   GET  /cars/free?from&to         cars with no reservation in [from, to) (epoch millis)
+//   GET  /customers                 all customers
+//   GET  /cars?format=text|csv|fixed, /cars/available?format=..., /customers?format=...
+//                                   the same listings streamed as numbered text, CSV or
+//                                   fixed-width columns
+//   GET  /customers/search?name&license&limit      customers by name prefix or license
+//   GET  /rentals/{carId}           open rental of a car
+//   POST /cars       {"id":1,"brand":"Toyota","model":"Camry"}
+//   POST /customers  {"id":1,"name":"John Doe","licenseNumber":"DL123456"}
+//   POST /rentals    {"carId":1,"customerId":1}
+//                    or {"brand":"Toyota","model":"Camry","policy":"least_wear","customerId":1}
+//                    for the best available car of the class (no brand: any car; policy
+//                    least_wear, balanced or longest_idle, the default)
+//   POST /returns    {"carId":1}; answers with the rental's invoice
+//   POST /batch      one command per line, {"type":"rent","carId":1,"customerId":1}
+//                    or {"type":"return","carId":1}; answers [true,false,...] in order
+//   GET  /metrics                   counters, gauges and latencies as Prometheus text
+//   GET  /reservations?carId=1      reservations of a car
+//   POST /reservations {"carId":1,"customerId":1,"start":1767225600000,"end":1767398400000}
+//   DELETE /reservations/{id}       cancel a reservation
+//   GET  /analytics?from&to&top     utilization and average rental length per model over
+//                                   the days covering [from, to), plus the top customers
+//   GET  /billing?from&to           closed rentals returned in [from, to) billed again at
+//                                   the current rates, in total
+//   GET  /events?after&limit        streams changes after sequence 'after' as NDJSON,
+//                                   {"seq":7,"type":"CAR_RENTED","time":...,"carId":1,"customerId":1}
+//   GET  /replication               role, plus each standby's lag on a primary or this
+//                                   standby's lag behind its primary
+//   POST /replication/promote {"dataDir":"..."}  makes a standby the primary, journaling
+//                                   to dataDir (default: the server's data directory)
+//
+// A standby (see ReplicationStandby) answers reads, but writes get 503 until promoted.
+// With --columnar the fleet lives in a ColumnarFleetStore instead, and only
+// GET /cars/available, POST /cars, POST /rentals by carId, GET /rentals/{carId}
+// and POST /returns are served; rentals aren't checked against customers there.
+// With --shards n the fleet is split over n branches (see ShardedRentalSystem),
+// each loading and journaling on its own, and only GET /cars, GET /cars/available,
+// /customers, POST /rentals by carId, GET /rentals/{carId}, POST /returns and
+// POST /batch are served, plus GET /branches for the branch count and load progress.
+// POST /cars and POST /returns take an optional "branch": the branch a new car
+// starts at, and the one a car is dropped off at on a one-way return.
+// Each request runs on its own virtual thread when the JDK has them (21+),
+// otherwise on a fixed pool of platform threads.
+public class CarRentalServer {
+    // Events a /events client may have in flight, and how long it may sit idle
+    private static final int EVENT_WINDOW = 256;
+    private static final int EVENT_KEEPALIVE_SECONDS = 15;
+
+    private final CarRentalSystem rentalSystem;
+    // Instead of rentalSystem when serving a columnar fleet (see --columnar)
+    private final ColumnarFleetStore fleetStore;
+    // Instead of rentalSystem when serving several branches (see --shards)
+    private final ShardedRentalSystem branches;
+    private final HttpServer server;
+    private final ExecutorService executor;
+    // Built on the first /analytics request
+    private RentalAnalytics analytics;
+    // Built on the first rental by class
+    private FleetAllocator allocator;
+    // At most one of these: the standby this server fronts, and where it journals
+    // once promoted, or the primary's replication to its standbys
+    private volatile ReplicationStandby standby;
+    private volatile Path promoteDir;
+    private volatile ReplicationSource replication;
+
+    public CarRentalServer(CarRentalSystem rentalSystem, int port) throws IOException {
+        this(rentalSystem, null, null, port);
+    }
+
+    // The fleet endpoints only, over a columnar store
+    public CarRentalServer(ColumnarFleetStore fleetStore, int port) throws IOException {
+        this(null, fleetStore, null, port);
+    }
+
+    // Fleet, customer, rental and batch endpoints over several branches
+    public CarRentalServer(ShardedRentalSystem branches, int port) throws IOException {
+        this(null, null, branches, port);
+    }
+
+    private CarRentalServer(CarRentalSystem rentalSystem, ColumnarFleetStore fleetStore, ShardedRentalSystem branches,
+            int port) throws IOException {
+        this.rentalSystem = rentalSystem;
+        this.fleetStore = fleetStore;
+        this.branches = branches;
+        this.server = HttpServer.create(new InetSocketAddress(port), 1024);
+        this.executor = newRequestExecutor();
+        server.setExecutor(executor);
+        if (fleetStore != null) {
+            server.createContext("/cars", guarded(this::handleColumnarCars));
+            server.createContext("/rentals", guarded(this::handleColumnarRentals));
+            server.createContext("/returns", guarded(this::handleColumnarReturns));
+            return;
+        }
+        if (branches != null) {
+            server.createContext("/cars", guarded(this::handleShardedCars));
+            server.createContext("/customers", guarded(this::handleShardedCustomers));
+            server.createContext("/rentals", guarded(this::handleShardedRentals));
+            server.createContext("/returns", guarded(this::handleShardedReturns));
+            server.createContext("/batch", guarded(this::handleShardedBatch));
+            server.createContext("/branches", guarded(this::handleBranches));
+            return;
+        }
+        server.createContext("/cars", guarded(writable(this::handleCars)));
+        server.createContext("/customers", guarded(writable(this::handleCustomers)));
+        server.createContext("/rentals", guarded(writable(this::handleRentals)));
+        server.createContext("/returns", guarded(writable(this::handleReturns)));
+        server.createContext("/batch", guarded(writable(this::handleBatch)));
+        server.createContext("/metrics", guarded(this::handleMetrics));
+        server.createContext("/reservations", guarded(writable(this::handleReservations)));
+        server.createContext("/events", guarded(this::handleEvents));
+        server.createContext("/analytics", guarded(this::handleAnalytics));
+        server.createContext("/billing", guarded(this::handleBilling));
+        server.createContext("/replication", guarded(this::handleReplication));
+    }
+
+    // Fronts a standby: reads are served, writes refused until promote
+    public void setStandby(ReplicationStandby standby, Path promoteDir) {
+        this.promoteDir = promoteDir;
+        this.standby = standby;
+    }
+
+    public void setReplication(ReplicationSource replication) {
+        this.replication = replication;
+    }
+
+    private interface Handler {
+        void handle(HttpExchange exchange) throws IOException;
+    }
+
+    // Turns bad input into 400 responses instead of dropped connections
+    private static HttpHandler guarded(Handler handler) {
+        return exchange -> {
+            try {
+                handler.handle(exchange);
+            } catch (BadRequestException | IllegalArgumentException e) {
+                sendError(exchange, 400, e.getMessage());
+            } catch (RuntimeException e) {
+                sendError(exchange, 500, "Internal error: " + e);
+            } finally {
+                exchange.close();
+            }
+        };
+    }
+
+    // Refuses anything but GET while this server fronts a standby
+    private Handler writable(Handler handler) {
+        return exchange -> {
+            ReplicationStandby s = standby;
+            if (s != null && !s.isPromoted() && !exchange.getRequestMethod().equals("GET")) {
+                sendError(exchange, 503, "Read-only standby of " + s.getPrimary()
+                        + "; write to the primary or promote this one");
+                return;
+            }
+            handler.handle(exchange);
+        };
+    }
+
+    private static ExecutorService newRequestExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newFixedThreadPool(Math.max(16, Runtime.getRuntime().availableProcessors() * 4));
+        }
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    public void stop() {
+        server.stop(1);
+        executor.shutdown();
+        synchronized (this) {
+            if (analytics != null) {
+                analytics.close();
+            }
+            if (allocator != null) {
+                allocator.close();
+            }
+        }
+    }
+
+    // Handlers -------------------------------------------------------------
+
+    private void handleCars(HttpExchange exchange) throws IOException {
+        String path = exchange.getRequestURI().getPath();
+        String method = exchange.getRequestMethod();
+        ReportWriter.Format format = method.equals("GET") ? reportFormat(exchange) : null;
+        if (format != null && (path.equals("/cars") || path.equals("/cars/available"))) {
+            try (Writer out = startReport(exchange, format)) {
+                ReportWriter.writeCars(rentalSystem, path.equals("/cars/available"), out, format);
+            }
+        } else if (path.equals("/cars") && method.equals("GET")) {
+            send(exchange, 200, carsJson(rentalSystem.getAllCars()));
+        } else if (path.equals("/cars/available") && method.equals("GET")) {
+            Map<String, String> query = parseQuery(exchange.getRequestURI());
+            List<Car> cars = query.containsKey("limit")
+                    ? rentalSystem.getAvailableCars(intParam(query, "offset", 0), intParam(query, "limit", 0))
+                    : rentalSystem.getAvailableCars();
+            send(exchange, 200, carsJson(cars));
+        } else if (path.equals("/cars/search") && method.equals("GET")) {
+            Map<String, String> query = parseQuery(exchange.getRequestURI());
+            CarQuery carQuery = new CarQuery().brand(query.get("brand")).model(query.get("model"))
+                    .limit(intParam(query, "limit", Integer.MAX_VALUE));
+            if (Boolean.parseBoolean(query.get("available"))) {
+                carQuery.availableOnly();
+            }
+            send(exchange, 200, carsJson(rentalSystem.findCars(carQuery)));
+        } else if (path.equals("/cars/free") && method.equals("GET")) {
+            Map<String, String> query = parseQuery(exchange.getRequestURI());
+            send(exchange, 200, carsJson(rentalSystem.getFreeCars(longParam(query, "from"), longParam(query, "to"))));
+        } else if (path.equals("/cars") && method.equals("POST")) {
+            Map<String, String> body = readBody(exchange);
+            Car car = new Car(intField(body, "id"), field(body, "model"), field(body, "brand"));
+            if (rentalSystem.addCarWithValidation(car)) {
+                send(exchange, 201, carJson(new StringBuilder(), car).toString());
+            } else {
+                sendError(exchange, 409, "Car ID " + car.getId() + " already exists");
+            }
+        } else {
+            sendError(exchange, path.startsWith("/cars/") ? 404 : 405, "Unsupported request");
+        }
+    }
+
+    private void handleCustomers(HttpExchange exchange) throws IOException {
+        String path = exchange.getRequestURI().getPath();
+        String method = exchange.getRequestMethod();
+        if (path.equals("/customers/search") && method.equals("GET")) {
+            Map<String, String> query = parseQuery(exchange.getRequestURI());
+            List<Customer> matches;
+            if (query.containsKey("license")) {
+                matches = rentalSystem.findCustomersByLicense(query.get("license"));
+            } else if (query.containsKey("name")) {
+                matches = rentalSystem.findCustomersByName(query.get("name"),
+                        intParam(query, "limit", Integer.MAX_VALUE));
+            } else {
+                throw new BadRequestException("Missing parameter: name or license");
+            }
+            send(exchange, 200, customersJson(matches));
+        } else if (path.startsWith("/customers/") && path.endsWith("/rentals") && method.equals("GET")) {
+            int customerId;
+            try {
+                customerId = Integer.parseInt(path.substring("/customers/".length(), path.length() - "/rentals".length()));
+            } catch (NumberFormatException | IndexOutOfBoundsException e) {
+                sendError(exchange, 400, "Invalid customer ID");
+                return;
+            }
+            if (rentalSystem.getCustomer(customerId) == null) {
+                sendError(exchange, 404, "Customer " + customerId + " not found");
+                return;
+            }
+            List<Rental> history = rentalSystem.getCustomerHistory(customerId);
+            StringBuilder json = new StringBuilder(history.size() * 80 + 2).append('[');
+            for (int i = 0; i < history.size(); i++) {
+                if (i > 0) {
+                    json.append(',');
+                }
+                json.append(rentalJson(history.get(i), rentalSystem.getBilling().getInvoice(history.get(i))));
+            }
+            send(exchange, 200, json.append(']').toString());
+        } else if (!path.equals("/customers")) {
+            sendError(exchange, 404, "Unsupported request");
+        } else if (method.equals("GET") && reportFormat(exchange) != null) {
+            ReportWriter.Format format = reportFormat(exchange);
+            try (Writer out = startReport(exchange, format)) {
+                ReportWriter.writeCustomers(rentalSystem, out, format);
+            }
+        } else if (method.equals("GET")) {
+            send(exchange, 200, customersJson(rentalSystem.getCustomers()));
+        } else if (method.equals("POST")) {
+            Map<String, String> body = readBody(exchange);
+            Customer customer = new Customer(intField(body, "id"), field(body, "name"), field(body, "licenseNumber"));
+            if (rentalSystem.addCustomerWithValidation(customer)) {
+                send(exchange, 201, customerJson(new StringBuilder(), customer).toString());
+            } else {
+                sendError(exchange, 409, "Customer ID " + customer.getId() + " already exists");
+            }
+        } else {
+            sendError(exchange, 405, "Unsupported request");
+        }
+    }
+
+    private void handleRentals(HttpExchange exchange) throws IOException {
+        String path = exchange.getRequestURI().getPath();
+        String method = exchange.getRequestMethod();
+        if (path.equals("/rentals") && method.equals("POST")) {
+            Map<String, String> body = readBody(exchange);
+            int customerId = intField(body, "customerId");
+            int carId;
+            RentalResult result;
+            if (body.containsKey("carId")) {
+                carId = intField(body, "carId");
+                result = rentalSystem.tryRentCar(carId, customerId);
+            } else {
+                FleetAllocator.Policy policy = body.containsKey("policy")
+                        ? FleetAllocator.Policy.parse(body.get("policy")) : FleetAllocator.Policy.LONGEST_IDLE;
+                Car[] rented = new Car[1];
+                result = getAllocator().rentBest(body.get("brand"), body.get("brand") != null ? body.get("model") : null,
+                        policy, customerId, rented);
+                if (result == RentalResult.CAR_NOT_FOUND) {
+                    sendError(exchange, 409, "No car of that class is available");
+                    return;
+                }
+                carId = result.isSuccess() ? rented[0].getId() : -1;
+            }
+            if (result.isSuccess()) {
+                // The car may already be back if another client returned it meanwhile
+                Rental rental = rentalSystem.getActiveRental(carId);
+                send(exchange, 201, rental != null
+                        ? rentalJson(rental)
+                        : "{\"carId\":" + carId + ",\"customerId\":" + customerId + "}");
+            } else {
+                sendError(exchange, 409, result.getDescription());
+            }
+        } else if (path.startsWith("/rentals/") && method.equals("GET")) {
+            int carId;
+            try {
+                carId = Integer.parseInt(path.substring("/rentals/".length()));
+            } catch (NumberFormatException e) {
+                sendError(exchange, 400, "Invalid car ID");
+                return;
+            }
+            Rental rental = rentalSystem.getActiveRental(carId);
+            if (rental != null) {
+                send(exchange, 200, rentalJson(rental));
+            } else {
+                sendError(exchange, 404, "Car " + carId + " is not currently rented");
+            }
+        } else {
+            sendError(exchange, 405, "Unsupported request");
+        }
+    }
+
+    private void handleReturns(HttpExchange exchange) throws IOException {
+        if (!exchange.getRequestURI().getPath().equals("/returns") || !exchange.getRequestMethod().equals("POST")) {
+            sendError(exchange, 405, "Unsupported request");
+            return;
+        }
+        Map<String, String> body = readBody(exchange);
+        int carId = intField(body, "carId");
+        Invoice[] invoice = new Invoice[1];
+        RentalResult result = rentalSystem.tryReturnCar(carId, invoice);
+        if (result.isSuccess()) {
+            StringBuilder json = new StringBuilder("{\"carId\":").append(carId).append(",\"returned\":true");
+            if (invoice[0] != null) {
+                invoiceJson(json.append(",\"invoice\":"), invoice[0]);
+            }
+            send(exchange, 200, json.append('}').toString());
+        } else {
+            sendError(exchange, 409, result.getDescription());
+        }
+    }
+
+    // Columnar fleet ---------------------------------------------------------
+
+    private void handleColumnarCars(HttpExchange exchange) throws IOException {
+        String path = exchange.getRequestURI().getPath();
+        String method = exchange.getRequestMethod();
+        if (path.equals("/cars/available") && method.equals("GET")) {
+            Map<String, String> query = parseQuery(exchange.getRequestURI());
+            send(exchange, 200, carsJson(fleetStore.getAvailableCars(intParam(query, "offset", 0),
+                    intParam(query, "limit", Integer.MAX_VALUE))));
+        } else if (path.equals("/cars") && method.equals("POST")) {
+            Map<String, String> body = readBody(exchange);
+            int id = intField(body, "id");
+            if (fleetStore.addCarWithValidation(id, field(body, "brand"), field(body, "model"))) {
+                send(exchange, 201, carJson(new StringBuilder(), fleetStore.getCar(id)).toString());
+            } else {
+                sendError(exchange, 409, "Car ID " + id + " already exists");
+            }
+        } else {
+            sendError(exchange, path.startsWith("/cars/") ? 404 : 405, "Unsupported request");
+        }
+    }
+
+    private void handleColumnarRentals(HttpExchange exchange) throws IOException {
+        String path = exchange.getRequestURI().getPath();
+        String method = exchange.getRequestMethod();
+        if (path.equals("/rentals") && method.equals("POST")) {
+            Map<String, String> body = readBody(exchange);
+            int carId = intField(body, "carId");
+            int customerId = intField(body, "customerId");
+            if (fleetStore.rentCar(carId, customerId)) {
+                send(exchange, 201, "{\"carId\":" + carId + ",\"customerId\":" + customerId + "}");
+            } else {
+                sendError(exchange, 409, fleetStore.getCar(carId) == null
+                        ? RentalResult.CAR_NOT_FOUND.getDescription() : RentalResult.CAR_ALREADY_RENTED.getDescription());
+            }
+        } else if (path.startsWith("/rentals/") && method.equals("GET")) {
+            int carId;
+            try {
+                carId = Integer.parseInt(path.substring("/rentals/".length()));
+            } catch (NumberFormatException e) {
+                sendError(exchange, 400, "Invalid car ID");
+                return;
+            }
+            int customerId = fleetStore.getCurrentRenterId(carId);
+            if (customerId >= 0) {
+                send(exchange, 200, "{\"carId\":" + carId + ",\"customerId\":" + customerId + "}");
+            } else {
+                sendError(exchange, 404, "Car " + carId + " is not currently rented");
+            }
+        } else {
+            sendError(exchange, 405, "Unsupported request");
+        }
+    }
+
+    private void handleColumnarReturns(HttpExchange exchange) throws IOException {
+        if (!exchange.getRequestURI().getPath().equals("/returns") || !exchange.getRequestMethod().equals("POST")) {
+            sendError(exchange, 405, "Unsupported request");
+            return;
+        }
+        int carId = intField(readBody(exchange), "carId");
+        if (fleetStore.returnCar(carId)) {
+            send(exchange, 200, "{\"carId\":" + carId + ",\"returned\":true}");
+        } else {
+            sendError(exchange, 409, fleetStore.getCar(carId) == null
+                    ? RentalResult.CAR_NOT_FOUND.getDescription() : RentalResult.CAR_NOT_RENTED.getDescription());
+        }
+    }
+
+    // Branches ---------------------------------------------------------------
+
+    private void handleShardedCars(HttpExchange exchange) throws IOException {
+        String path = exchange.getRequestURI().getPath();
+        String method = exchange.getRequestMethod();
+        if (path.equals("/cars") && method.equals("GET")) {
+            send(exchange, 200, carsJson(branches.getAllCars()));
+        } else if (path.equals("/cars/available") && method.equals("GET")) {
+            send(exchange, 200, carsJson(branches.getAvailableCars()));
+        } else if (path.equals("/cars") && method.equals("POST")) {
+            Map<String, String> body = readBody(exchange);
+            Car car = new Car(intField(body, "id"), field(body, "model"), field(body, "brand"));
+            boolean added = body.containsKey("branch")
+                    ? branches.addCarWithValidation(intField(body, "branch"), car)
+                    : branches.addCarWithValidation(car);
+            if (added) {
+                send(exchange, 201, carJson(new StringBuilder(), car).toString());
+            } else {
+                sendError(exchange, 409, "Car ID " + car.getId() + " already exists");
+            }
+        } else {
+            sendError(exchange, path.startsWith("/cars/") ? 404 : 405, "Unsupported request");
+        }
+    }
+
+    private void handleShardedCustomers(HttpExchange exchange) throws IOException {
+        String method = exchange.getRequestMethod();
+        if (!exchange.getRequestURI().getPath().equals("/customers")) {
+            sendError(exchange, 404, "Unsupported request");
+        } else if (method.equals("GET")) {
+            send(exchange, 200, customersJson(branches.getCustomers()));
+        } else if (method.equals("POST")) {
+            Map<String, String> body = readBody(exchange);
+            Customer customer = new Customer(intField(body, "id"), field(body, "name"), field(body, "licenseNumber"));
+            if (branches.addCustomerWithValidation(customer)) {
+                send(exchange, 201, customerJson(new StringBuilder(), customer).toString());
+            } else {
+                sendError(exchange, 409, "Customer ID " + customer.getId() + " already exists");
+            }
+        } else {
+            sendError(exchange, 405, "Unsupported request");
+        }
+    }
+
+    private void handleShardedRentals(HttpExchange exchange) throws IOException {
+        String path = exchange.getRequestURI().getPath();
+        String method = exchange.getRequestMethod();
+        if (path.equals("/rentals") && method.equals("POST")) {
+            Map<String, String> body = readBody(exchange);
+            int carId = intField(body, "carId");
+            int customerId = intField(body, "customerId");
+            RentalResult result = branches.tryRentCar(carId, customerId);
+            if (result.isSuccess()) {
+                Rental rental = branches.getActiveRental(carId);
+                send(exchange, 201, rental != null
+                        ? rentalJson(rental)
+                        : "{\"carId\":" + carId + ",\"customerId\":" + customerId + "}");
+            } else {
+                sendError(exchange, 409, result.getDescription());
+            }
+        } else if (path.startsWith("/rentals/") && method.equals("GET")) {
+            int carId;
+            try {
+                carId = Integer.parseInt(path.substring("/rentals/".length()));
+            } catch (NumberFormatException e) {
+                sendError(exchange, 400, "Invalid car ID");
+                return;
+            }
+            Rental rental = branches.getActiveRental(carId);
+            if (rental != null) {
+                send(exchange, 200, rentalJson(rental));
+            } else {
+                sendError(exchange, 404, "Car " + carId + " is not currently rented");
+            }
+        } else {
+            sendError(exchange, 405, "Unsupported request");
+        }
+    }
+
+    // With a branch, a one-way return: the car moves there once it is back
+    private void handleShardedReturns(HttpExchange exchange) throws IOException {
+        if (!exchange.getRequestURI().getPath().equals("/returns") || !exchange.getRequestMethod().equals("POST")) {
+            sendError(exchange, 405, "Unsupported request");
+            return;
+        }
+        Map<String, String> body = readBody(exchange);
+        int carId = intField(body, "carId");
+        Invoice[] invoice = new Invoice[1];
+        RentalResult result = body.containsKey("branch")
+                ? branches.returnCarAt(carId, intField(body, "branch"), invoice)
+                : branches.tryReturnCar(carId, invoice);
+        if (result.isSuccess()) {
+            StringBuilder json = new StringBuilder("{\"carId\":").append(carId).append(",\"returned\":true");
+            if (invoice[0] != null) {
+                invoiceJson(json.append(",\"invoice\":"), invoice[0]);
+            }
+            send(exchange, 200, json.append('}').toString());
+        } else {
+            sendError(exchange, 409, result.getDescription());
+        }
+    }
+
+    private void handleShardedBatch(HttpExchange exchange) throws IOException {
+        if (!exchange.getRequestURI().getPath().equals("/batch") || !exchange.getRequestMethod().equals("POST")) {
+            sendError(exchange, 405, "Unsupported request");
+            return;
+        }
+        send(exchange, 200, resultsJson(branches.applyBatch(readCommands(exchange))));
+    }
+
+    // Answers at once, even while the branches are still loading
+    private void handleBranches(HttpExchange exchange) throws IOException {
+        if (!exchange.getRequestURI().getPath().equals("/branches") || !exchange.getRequestMethod().equals("GET")) {
+            sendError(exchange, 405, "Unsupported request");
+            return;
+        }
+        send(exchange, 200, String.format(Locale.ROOT, "{\"branches\":%d,\"loaded\":%b,\"progress\":%.3f}",
+                branches.getShardCount(), branches.isLoaded(), branches.getLoadProgress()));
+    }
+
+    private void handleMetrics(HttpExchange exchange) throws IOException {
+        if (!exchange.getRequestMethod().equals("GET")) {
+            sendError(exchange, 405, "Unsupported request");
+            return;
+        }
+        byte[] bytes = rentalSystem.getMetrics().toText().getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+        exchange.sendResponseHeaders(200, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    // Applies a burst of rents and returns with one lock acquisition and one journal sync
+    private void handleBatch(HttpExchange exchange) throws IOException {
+        if (!exchange.getRequestURI().getPath().equals("/batch") || !exchange.getRequestMethod().equals("POST")) {
+            sendError(exchange, 405, "Unsupported request");
+            return;
+        }
+        send(exchange, 200, resultsJson(rentalSystem.applyBatch(readCommands(exchange))));
+    }
+
+    private void handleAnalytics(HttpExchange exchange) throws IOException {
+        if (!exchange.getRequestMethod().equals("GET")) {
+            sendError(exchange, 405, "Unsupported request");
+            return;
+        }
+        Map<String, String> query = parseQuery(exchange.getRequestURI());
+        long from = longParam(query, "from");
+        long to = longParam(query, "to");
+        int top = intParam(query, "top", 10);
+        RentalAnalytics source = getAnalytics();
+        StringBuilder json = new StringBuilder(4096).append("{\"models\":[");
+        List<RentalAnalytics.ModelStats> models = source.getModelStats(from, to);
+        for (int i = 0; i < models.size(); i++) {
+            RentalAnalytics.ModelStats m = models.get(i);
+            json.append(i > 0 ? ",{\"brand\":" : "{\"brand\":");
+            Json.string(json, m.getBrand()).append(",\"model\":");
+            Json.string(json, m.getModel())
+                    .append(",\"cars\":").append(m.getCars())
+                    .append(",\"rentals\":").append(m.getRentals())
+                    .append(",\"averageDurationMillis\":").append(m.getAverageDurationMillis())
+                    .append(",\"utilization\":").append(m.getUtilization())
+                    .append('}');
+        }
+        json.append("],\"topCustomers\":[");
+        List<RentalAnalytics.CustomerStats> customers = source.getTopCustomers(top);
+        for (int i = 0; i < customers.size(); i++) {
+            RentalAnalytics.CustomerStats c = customers.get(i);
+            json.append(i > 0 ? ",{\"id\":" : "{\"id\":").append(c.getCustomer().getId()).append(",\"name\":");
+            Json.string(json, c.getCustomer().getName())
+                    .append(",\"rentals\":").append(c.getRentals())
+                    .append(",\"rentedMillis\":").append(c.getRentedMillis())
+                    .append('}');
+        }
+        send(exchange, 200, json.append("]}").toString());
+    }
+
+    // Re-bills in parallel over the history, so it takes a while on a long one
+    private void handleBilling(HttpExchange exchange) throws IOException {
+        if (!exchange.getRequestURI().getPath().equals("/billing") || !exchange.getRequestMethod().equals("GET")) {
+            sendError(exchange, 405, "Unsupported request");
+            return;
+        }
+        Map<String, String> query = parseQuery(exchange.getRequestURI());
+        long from = query.containsKey("from") ? longParam(query, "from") : Long.MIN_VALUE;
+        long to = query.containsKey("to") ? longParam(query, "to") : Long.MAX_VALUE;
+        BillingEngine billing = rentalSystem.getBilling();
+        BillingEngine.Totals totals = billing.rebill(billing.getRateTable(), from, to);
+        send(exchange, 200, new StringBuilder("{\"invoices\":").append(totals.getInvoices())
+                .append(",\"baseCents\":").append(totals.getBaseCents())
+                .append(",\"surchargeCents\":").append(totals.getSurchargeCents())
+                .append(",\"lateFeeCents\":").append(totals.getLateFeeCents())
+                .append(",\"lateRentals\":").append(totals.getLateRentals())
+                .append(",\"totalCents\":").append(totals.getTotalCents())
+                .append('}').toString());
+    }
+
+    private void handleReplication(HttpExchange exchange) throws IOException {
+        String path = exchange.getRequestURI().getPath();
+        String method = exchange.getRequestMethod();
+        if (path.equals("/replication") && method.equals("GET")) {
+            send(exchange, 200, replicationJson());
+        } else if (path.equals("/replication/promote") && method.equals("POST")) {
+            ReplicationStandby s = standby;
+            if (s == null || s.isPromoted()) {
+                sendError(exchange, 409, s == null ? "Not a standby" : "Already promoted");
+                return;
+            }
+            String body;
+            try (InputStream in = exchange.getRequestBody()) {
+                body = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+            }
+            String dir = body.trim().isEmpty() ? null : Json.parseObject(body).get("dataDir");
+            try {
+                s.promote(dir != null ? Paths.get(dir) : promoteDir);
+            } catch (IOException | IllegalStateException e) {
+                sendError(exchange, 409, "Could not promote: " + e.getMessage());
+                return;
+            }
+            send(exchange, 200, replicationJson());
+        } else {
+            sendError(exchange, 405, "Unsupported request");
+        }
+    }
+
+    private String replicationJson() {
+        ReplicationStandby s = standby;
+        if (s != null) {
+            StringBuilder json = new StringBuilder("{\"role\":\"").append(s.isPromoted() ? "primary" : "standby")
+                    .append(s.isPromoted() ? "\",\"promotedFrom\":" : "\",\"primary\":");
+            Json.string(json, s.getPrimary())
+                    .append(",\"connected\":").append(s.isConnected())
+                    .append(",\"appliedSeq\":").append(s.getAppliedSequence())
+                    .append(",\"primarySeq\":").append(s.getPrimarySequence())
+                    .append(",\"lagRecords\":").append(s.getLagRecords())
+                    .append(",\"lagMillis\":").append(s.getLagMillis())
+                    .append(",\"silenceMillis\":").append(s.getSilenceMillis());
+            if (s.getFailure() != null) {
+                Json.string(json.append(",\"failure\":"), s.getFailure());
+            }
+            return json.append('}').toString();
+        }
+        StringBuilder json = new StringBuilder("{\"role\":\"primary\"");
+        ReplicationSource source = replication;
+        if (source != null) {
+            json.append(",\"port\":").append(source.getPort()).append(",\"standbys\":[");
+            List<ReplicationSource.Replica> replicas = source.getReplicas();
+            for (int i = 0; i < replicas.size(); i++) {
+                ReplicationSource.Replica replica = replicas.get(i);
+                Json.string(json.append(i > 0 ? ",{\"address\":" : "{\"address\":"), replica.getAddress())
+                        .append(",\"ackedSeq\":").append(replica.getAckedSequence())
+                        .append(",\"lagRecords\":").append(replica.getLagRecords())
+                        .append(",\"queuedBytes\":").append(replica.getQueuedBytes())
+                        .append('}');
+            }
+            json.append(']');
+        }
+        return json.append('}').toString();
+    }
+
+    private synchronized FleetAllocator getAllocator() {
+        if (allocator == null) {
+            allocator = FleetAllocator.attach(rentalSystem);
+        }
+        return allocator;
+    }
+
+    private synchronized RentalAnalytics getAnalytics() {
+        if (analytics == null) {
+            analytics = RentalAnalytics.attach(rentalSystem);
+        }
+        return analytics;
+    }
+
+    // Streams events until the client disconnects or 'limit' events have been sent.
+    // Demand follows what has actually been written, so a slow client holds back
+    // only its own subscription. Without 'after' the stream starts from now.
+    private void handleEvents(HttpExchange exchange) throws IOException {
+        if (!exchange.getRequestMethod().equals("GET")) {
+            sendError(exchange, 405, "Unsupported request");
+            return;
+        }
+        Map<String, String> query = parseQuery(exchange.getRequestURI());
+        RentalEventStream events = rentalSystem.getEvents();
+        long after = query.containsKey("after") ? longParam(query, "after") : events.getLastSequence();
+        if (after < events.getOldestResumable()) {
+            sendError(exchange, 410, "Events after " + after + " are no longer retained");
+            return;
+        }
+        long limit = query.containsKey("limit") ? longParam(query, "limit") : Long.MAX_VALUE;
+
+        BlockingQueue<Object> received = new ArrayBlockingQueue<>(EVENT_WINDOW + 1);
+        Flow.Subscription[] subscription = new Flow.Subscription[1];
+        events.subscribe(new Flow.Subscriber<RentalEvent>() {
+            @Override
+            public void onSubscribe(Flow.Subscription s) {
+                subscription[0] = s;
+                s.request(Math.min(limit, EVENT_WINDOW));
+            }
+
+            @Override
+            public void onNext(RentalEvent event) {
+                received.add(event);
+            }
+
+            @Override
+            public void onError(Throwable error) {
+                received.add(error);
+            }
+
+            @Override
+            public void onComplete() {
+            }
+        }, after);
+
+        exchange.getResponseHeaders().set("Content-Type", "application/x-ndjson; charset=utf-8");
+        exchange.sendResponseHeaders(200, 0);
+        try (OutputStream out = exchange.getResponseBody()) {
+            StringBuilder line = new StringBuilder(128);
+            for (long sent = 0; sent < limit;) {
+                Object next = received.poll(EVENT_KEEPALIVE_SECONDS, TimeUnit.SECONDS);
+                line.setLength(0);
+                if (next == null) {
+                    // Blank keep-alive line; also how a vanished client is noticed
+                    line.append('\n');
+                } else if (next instanceof Throwable) {
+                    Json.string(line.append("{\"error\":"), ((Throwable) next).getMessage()).append("}\n");
+                    out.write(line.toString().getBytes(StandardCharsets.UTF_8));
+                    break;
+                } else {
+                    eventJson(line, (RentalEvent) next).append('\n');
+                    sent++;
+                    if (sent < limit) {
+                        subscription[0].request(1);
+                    }
+                }
+                out.write(line.toString().getBytes(StandardCharsets.UTF_8));
+                if (received.isEmpty()) {
+                    out.flush();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            subscription[0].cancel();
+        }
+    }
+
+    private void handleReservations(HttpExchange exchange) throws IOException {
+        String path = exchange.getRequestURI().getPath();
+        String method = exchange.getRequestMethod();
+        if (path.equals("/reservations") && method.equals("GET")) {
+            Map<String, String> query = parseQuery(exchange.getRequestURI());
+            StringBuilder json = new StringBuilder("[");
+            for (Reservation reservation : rentalSystem.getReservations(intParam(query, "carId", -1))) {
+                if (json.length() > 1) {
+                    json.append(',');
+                }
+                reservationJson(json, reservation);
+            }
+            send(exchange, 200, json.append(']').toString());
+        } else if (path.equals("/reservations") && method.equals("POST")) {
+            Map<String, String> body = readBody(exchange);
+            Reservation reservation = rentalSystem.reserveCar(intField(body, "carId"), intField(body, "customerId"),
+                    longField(body, "start"), longField(body, "end"));
+            if (reservation != null) {
+                send(exchange, 201, reservationJson(new StringBuilder(), reservation).toString());
+            } else {
+                sendError(exchange, 409, "Car is already booked then, the interval is invalid,"
+                        + " or the car or customer ID doesn't exist");
+            }
+        } else if (path.startsWith("/reservations/") && method.equals("DELETE")) {
+            int id;
+            try {
+                id = Integer.parseInt(path.substring("/reservations/".length()));
+            } catch (NumberFormatException e) {
+                sendError(exchange, 400, "Invalid reservation ID");
+                return;
+            }
+            if (rentalSystem.cancelReservation(id)) {
+                send(exchange, 200, "{\"id\":" + id + ",\"cancelled\":true}");
+            } else {
+                sendError(exchange, 404, "No reservation " + id);
+            }
+        } else {
+            sendError(exchange, 405, "Unsupported request");
+        }
+    }
+
+    // Request parsing ------------------------------------------------------
+
+    // Thrown for malformed input; reported to the client as 400 Bad Request
+    static class BadRequestException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        BadRequestException(String message) {
+            super(message);
+        }
+    }
+
+    // One command per line, as /batch takes them
+    private static List<RentalCommand> readCommands(HttpExchange exchange) throws IOException {
+        String body;
+        try (InputStream in = exchange.getRequestBody()) {
+            body = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+        List<RentalCommand> commands = new ArrayList<>();
+        for (String line : body.split("\n")) {
+            if (line.trim().isEmpty()) {
+                continue;
+            }
+            Map<String, String> command = Json.parseObject(line);
+            String type = field(command, "type");
+            if (type.equals("rent")) {
+                commands.add(RentalCommand.rent(intField(command, "carId"), intField(command, "customerId")));
+            } else if (type.equals("return")) {
+                commands.add(RentalCommand.returnCar(intField(command, "carId")));
+            } else {
+                throw new BadRequestException("Unknown command type: " + type);
+            }
+        }
+        return commands;
+    }
+
+    private static Map<String, String> readBody(HttpExchange exchange) throws IOException {
+        try (InputStream in = exchange.getRequestBody()) {
+            return Json.parseObject(new String(in.readAllBytes(), StandardCharsets.UTF_8));
+        }
+    }
+
+    private static String field(Map<String, String> body, String name) throws BadRequestException {
+        String value = body.get(name);
+        if (value == null || value.trim().isEmpty()) {
+            throw new BadRequestException("Missing field: " + name);
+        }
+        return value.trim();
+    }
+
+    private static int intField(Map<String, String> body, String name) throws BadRequestException {
+        try {
+            return Integer.parseInt(field(body, name));
+        } catch (NumberFormatException e) {
+            throw new BadRequestException("Field " + name + " must be a number");
+        }
+    }
+
+    private static long longField(Map<String, String> body, String name) throws BadRequestException {
+        try {
+            return Long.parseLong(field(body, name));
+        } catch (NumberFormatException e) {
+            throw new BadRequestException("Field " + name + " must be a number");
+        }
+    }
+
+    private static Map<String, String> parseQuery(URI uri) {
+        Map<String, String> params = new HashMap<>();
+        String query = uri.getQuery();
+        if (query != null) {
+            for (String pair : query.split("&")) {
+                int eq = pair.indexOf('=');
+                if (eq > 0) {
+                    params.put(pair.substring(0, eq), URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8));
+                }
+            }
+        }
+        return params;
+    }
+
+    private static int intParam(Map<String, String> query, String name, int defaultValue) throws BadRequestException {
+        String value = query.get(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new BadRequestException("Parameter " + name + " must be a number");
+        }
+    }
+
+    private static long longParam(Map<String, String> query, String name) throws BadRequestException {
+        String value = query.get(name);
+        if (value == null) {
+            throw new BadRequestException("Missing parameter: " + name);
+        }
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            throw new BadRequestException("Parameter " + name + " must be a number");
+        }
+    }
+
+    // Responses ------------------------------------------------------------
+
+    private static String resultsJson(boolean[] results) {
+        StringBuilder json = new StringBuilder(results.length * 6 + 2).append('[');
+        for (int i = 0; i < results.length; i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append(results[i]);
+        }
+        return json.append(']').toString();
+    }
+
+    private static String carsJson(List<Car> cars) {
+        StringBuilder json = new StringBuilder(cars.size() * 64 + 2).append('[');
+        for (int i = 0; i < cars.size(); i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            carJson(json, cars.get(i));
+        }
+        return json.append(']').toString();
+    }
+
+    private static StringBuilder carJson(StringBuilder json, Car car) {
+        json.append("{\"id\":").append(car.getId()).append(",\"brand\":");
+        Json.string(json, car.getBrand()).append(",\"model\":");
+        Json.string(json, car.getModel()).append(",\"available\":").append(car.isAvailable());
+        return json.append('}');
+    }
+
+    private static String customersJson(List<Customer> customers) {
+        StringBuilder json = new StringBuilder(customers.size() * 64 + 2).append('[');
+        for (int i = 0; i < customers.size(); i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            customerJson(json, customers.get(i));
+        }
+        return json.append(']').toString();
+    }
+
+    private static StringBuilder customerJson(StringBuilder json, Customer customer) {
+        json.append("{\"id\":").append(customer.getId()).append(",\"name\":");
+        Json.string(json, customer.getName()).append(",\"licenseNumber\":");
+        Json.string(json, customer.getLicenseNumber());
+        return json.append('}');
+    }
+
+    private static String rentalJson(Rental rental) {
+        return rentalJson(rental, null);
+    }
+
+    private static String rentalJson(Rental rental, Invoice invoice) {
+        StringBuilder json = new StringBuilder("{\"carId\":").append(rental.getCar().getId())
+                .append(",\"customerId\":").append(rental.getCustomer().getId())
+                .append(",\"rentalTime\":").append(rental.getRentalTime());
+        if (rental.isReturned()) {
+            json.append(",\"returnTime\":").append(rental.getReturnTime());
+        }
+        if (invoice != null) {
+            invoiceJson(json.append(",\"invoice\":"), invoice);
+        }
+        return json.append('}').toString();
+    }
+
+    // Amounts in cents; dueTime only for rentals that had one
+    private static StringBuilder invoiceJson(StringBuilder json, Invoice invoice) {
+        json.append("{\"days\":").append(invoice.getDays())
+                .append(",\"baseCents\":").append(invoice.getBaseCents())
+                .append(",\"surchargeCents\":").append(invoice.getSurchargeCents())
+                .append(",\"lateFeeCents\":").append(invoice.getLateFeeCents())
+                .append(",\"totalCents\":").append(invoice.getTotalCents());
+        if (invoice.getDueTime() != RateTable.NO_DUE_TIME) {
+            json.append(",\"dueTime\":").append(invoice.getDueTime());
+        }
+        return json.append('}');
+    }
+
+    private static StringBuilder reservationJson(StringBuilder json, Reservation reservation) {
+        return json.append("{\"id\":").append(reservation.getId())
+                .append(",\"carId\":").append(reservation.getCarId())
+                .append(",\"customerId\":").append(reservation.getCustomerId())
+                .append(",\"start\":").append(reservation.getStartTime())
+                .append(",\"end\":").append(reservation.getEndTime())
+                .append('}');
+    }
+
+    private static StringBuilder eventJson(StringBuilder json, RentalEvent event) {
+        json.append("{\"seq\":").append(event.getSequence())
+                .append(",\"type\":\"").append(event.getType())
+                .append("\",\"time\":").append(event.getTime());
+        if (event.getCar() != null) {
+            json.append(",\"carId\":").append(event.getCar().getId());
+            if (event.getType() == RentalEvent.Type.CAR_ADDED) {
+                json.append(",\"brand\":");
+                Json.string(json, event.getCar().getBrand()).append(",\"model\":");
+                Json.string(json, event.getCar().getModel());
+            }
+        }
+        if (event.getCustomer() != null) {
+            json.append(",\"customerId\":").append(event.getCustomer().getId());
+            if (event.getType() == RentalEvent.Type.CUSTOMER_ADDED) {
+                json.append(",\"name\":");
+                Json.string(json, event.getCustomer().getName()).append(",\"licenseNumber\":");
+                Json.string(json, event.getCustomer().getLicenseNumber());
+            }
+        }
+        return json.append('}');
+    }
+
+    private static void sendError(HttpExchange exchange, int status, String message) throws IOException {
+        send(exchange, status, Json.string(new StringBuilder("{\"error\":"), message).append('}').toString());
+    }
+
+    // The ?format= of a listing request (text, csv or fixed), or null for JSON
+    private static ReportWriter.Format reportFormat(HttpExchange exchange) {
+        String format = parseQuery(exchange.getRequestURI()).get("format");
+        return format == null ? null : ReportWriter.Format.parse(format);
+    }
+
+    // Starts a streamed listing; the length isn't known up front, so it's sent chunked
+    private static Writer startReport(HttpExchange exchange, ReportWriter.Format format) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type",
+                (format == ReportWriter.Format.CSV ? "text/csv" : "text/plain") + "; charset=utf-8");
+        exchange.sendResponseHeaders(200, 0);
+        return new OutputStreamWriter(exchange.getResponseBody(), StandardCharsets.UTF_8);
+    }
+
+    private static void send(HttpExchange exchange, int status, String json) throws IOException {
+        byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    // Usage: java CarRentalServer [port] [data directory] [--replication-port n | --standby-of host:n]
+    //                            [--event-capacity n] [--columnar | --shards n]
+    //   --replication-port n  also stream every change to standbys connecting on port n
+    //   --standby-of host:n   follow that primary as a read-only standby; the data
+    //                         directory, which must be empty, is used once promoted
+    //   --event-capacity n    events kept for /events clients that lag or resume
+    //   --columnar            keep the fleet in a ColumnarFleetStore in the data
+    //                         directory and serve only the fleet endpoints
+    //   --shards n            split the fleet over n branches, each journaling to
+    //                         shard-N in the data directory and loading on its own
+    public static void main(String[] args) throws IOException {
+        List<String> positional = new ArrayList<>();
+        int replicationPort = -1;
+        String standbyOf = null;
+        int eventCapacity = RentalEventStream.DEFAULT_CAPACITY;
+        boolean columnar = false;
+        int shardCount = 0;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--replication-port") && i + 1 < args.length) {
+                replicationPort = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("--standby-of") && i + 1 < args.length) {
+                standbyOf = args[++i];
+            } else if (args[i].equals("--event-capacity") && i + 1 < args.length) {
+                eventCapacity = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("--columnar")) {
+                columnar = true;
+            } else if (args[i].equals("--shards") && i + 1 < args.length) {
+                shardCount = Integer.parseInt(args[++i]);
+            } else {
+                positional.add(args[i]);
+            }
+        }
+        int port = positional.size() > 0 ? Integer.parseInt(positional.get(0)) : 8080;
+        String dataDir = positional.size() > 1 ? positional.get(1) : "rental-data";
+        if (columnar) {
+            if (standbyOf != null || replicationPort >= 0 || shardCount > 0) {
+                throw new IllegalArgumentException("--columnar can't be combined with replication or --shards");
+            }
+            runColumnar(port, dataDir);
+            return;
+        }
+        if (shardCount > 0) {
+            if (standbyOf != null || replicationPort >= 0) {
+                throw new IllegalArgumentException("--shards can't be combined with replication");
+            }
+            runSharded(port, dataDir, shardCount);
+            return;
+        }
+        if (standbyOf != null) {
+            runStandby(port, dataDir, standbyOf, eventCapacity);
+            return;
+        }
+
+        // Listen right away; requests wait for the data they need while it loads
+        long start = System.nanoTime();
+        CarRentalSystem rentalSystem = newSystem(eventCapacity);
+        CompletableFuture<Void> loaded = rentalSystem.openJournalInBackground(Paths.get(dataDir));
+        rentalSystem.getMetrics().registerMBean();
+        CarRentalServer server = new CarRentalServer(rentalSystem, port);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            server.stop();
+            try {
+                if (server.replication != null) {
+                    server.replication.close();
+                }
+                rentalSystem.close();
+            } catch (IOException e) {
+                System.err.println("Could not save data: " + e.getMessage());
+            }
+        }));
+        server.start();
+        System.out.println("Car Rental API listening on port " + server.getPort() + " (data in " + dataDir + ")");
+        int standbyPort = replicationPort;
+        loaded.whenComplete((v, failure) -> {
+            if (failure == null) {
+                System.out.printf("Saved data loaded in %d ms%n", (System.nanoTime() - start) / 1_000_000);
+            } else {
+                System.err.println("Could not load saved data: " + failure.getMessage());
+                System.exit(1);
+            }
+            if (standbyPort >= 0) {
+                try {
+                    server.setReplication(ReplicationSource.start(rentalSystem, standbyPort));
+                    System.out.println("Replicating to standbys on port " + server.replication.getPort());
+                } catch (IOException e) {
+                    System.err.println("Could not listen for standbys: " + e.getMessage());
+                    System.exit(1);
+                }
+            }
+        });
+    }
+
+    private static CarRentalSystem newSystem(int eventCapacity) {
+        return new CarRentalSystem(CarRentalSystem.DEFAULT_CONCURRENCY, eventCapacity, Clock.systemUTC());
+    }
+
+    private static void runColumnar(int port, String dataDir) throws IOException {
+        ColumnarFleetStore fleetStore = ColumnarFleetStore.open(Paths.get(dataDir));
+        CarRentalServer server = new CarRentalServer(fleetStore, port);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            server.stop();
+            try {
+                fleetStore.close();
+            } catch (IOException e) {
+                System.err.println("Could not save data: " + e.getMessage());
+            }
+        }));
+        server.start();
+        System.out.println("Car Rental API (columnar, " + fleetStore.getCarCount() + " cars) listening on port "
+                + server.getPort() + " (data in " + dataDir + ")");
+    }
+
+    // Listens right away like the single system; a rent or return waits only for
+    // its car's branch to load (see ShardedRentalSystem.openJournalsInBackground)
+    private static void runSharded(int port, String dataDir, int shardCount) throws IOException {
+        long start = System.nanoTime();
+        ShardedRentalSystem branches = new ShardedRentalSystem(shardCount);
+        CompletableFuture<Void> loaded = branches.openJournalsInBackground(Paths.get(dataDir));
+        CarRentalServer server = new CarRentalServer(branches, port);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            server.stop();
+            try {
+                branches.close();
+            } catch (IOException e) {
+                System.err.println("Could not save data: " + e.getMessage());
+            }
+        }));
+        server.start();
+        System.out.println("Car Rental API (" + shardCount + " branches) listening on port " + server.getPort()
+                + " (data in " + dataDir + ")");
+        loaded.whenComplete((v, failure) -> {
+            if (failure == null) {
+                System.out.printf("Saved data loaded in %d ms%n", (System.nanoTime() - start) / 1_000_000);
+            } else {
+                System.err.println("Could not load saved data: " + failure.getMessage());
+                System.exit(1);
+            }
+        });
+    }
+
+    // Copies the primary's state, then serves reads while following it
+    private static void runStandby(int port, String dataDir, String primary, int eventCapacity) throws IOException {
+        int colon = primary.lastIndexOf(':');
+        if (colon <= 0) {
+            throw new IllegalArgumentException("--standby-of needs host:port, got " + primary);
+        }
+        long start = System.nanoTime();
+        CarRentalSystem rentalSystem = newSystem(eventCapacity);
+        ReplicationStandby standby = ReplicationStandby.connect(primary.substring(0, colon),
+                Integer.parseInt(primary.substring(colon + 1)), rentalSystem);
+        System.out.printf("Copied %d cars and %d customers from %s in %d ms%n", rentalSystem.getCarCount(),
+                rentalSystem.getCustomerCount(), primary, (System.nanoTime() - start) / 1_000_000);
+        rentalSystem.getMetrics().registerMBean();
+        CarRentalServer server = new CarRentalServer(rentalSystem, port);
+        server.setStandby(standby, Paths.get(dataDir));
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            server.stop();
+            try {
+                standby.close();
+                rentalSystem.close();
+            } catch (IOException e) {
+                System.err.println("Could not save data: " + e.getMessage());
+            }
+        }));
+        server.start();
+        System.out.println("Car Rental API (standby of " + primary + ") listening on port " + server.getPort());
+    }
+}
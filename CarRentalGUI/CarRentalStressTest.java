@@ -0,0 +1,198 @@
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Stress test for CarRentalSystem's striped rent/return path: many threads rent
+// and return a small set of hot cars, so nearly every attempt races another. Each
+// thread rents as its own customer and only returns cars it rented, which lets it
+// count who holds each car: a rent that succeeds while the car already has a
+// holder, a rental that names someone else, or a return of a held car that is
+// refused all mean the car was rented twice. At the end the cars' availability,
+// the open rentals and the counts the system reports must agree, before and after
+// every car is returned. Exits with status 1 on any violation.
+//
+// Usage: java CarRentalStressTest [threads] [hot cars] [seconds]
+//   e.g. java CarRentalStressTest 16 8 10
+public class CarRentalStressTest {
+    private static final int MAX_HELD = 2;
+    private static final int MAX_REPORTED = 20;
+
+    private final CarRentalSystem system;
+    private final int cars;
+    // Renters currently holding each car, by car id; never more than one
+    private final AtomicIntegerArray holders;
+    // Cars each worker holds, for returning them at the end
+    private final List<List<Integer>> held = Collections.synchronizedList(new ArrayList<>());
+    private final ConcurrentLinkedQueue<String> violations = new ConcurrentLinkedQueue<>();
+    private final AtomicLong rents = new AtomicLong();
+    private final AtomicLong refused = new AtomicLong();
+    private final AtomicLong returns = new AtomicLong();
+
+    CarRentalStressTest(int threads, int cars) {
+        // Fewer stripes than cars, so cars also contend for a shared stripe
+        this.system = new CarRentalSystem(Math.max(1, cars / 2), Clock.systemUTC());
+        this.cars = cars;
+        this.holders = new AtomicIntegerArray(cars + 1);
+        for (int id = 1; id <= cars; id++) {
+            system.addCar(new Car(id, "Model" + id, "Brand"));
+        }
+        for (int id = 1; id <= threads; id++) {
+            system.addCustomer(new Customer(id, "Renter " + id, "DL" + id));
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : Math.max(8, 2 * Runtime.getRuntime().availableProcessors());
+        int cars = args.length > 1 ? Integer.parseInt(args[1]) : 8;
+        double seconds = args.length > 2 ? Double.parseDouble(args[2]) : 5.0;
+
+        CarRentalStressTest test = new CarRentalStressTest(threads, cars);
+        test.run(threads, (long) (seconds * 1e9));
+        test.checkCounts("after the run");
+        test.returnAll();
+        test.checkCounts("after returning everything");
+
+        System.out.printf(Locale.ROOT, "%d threads, %d cars, %.1f s: %d rents, %d refused, %d returns%n",
+                threads, cars, seconds, test.rents.get(), test.refused.get(), test.returns.get());
+        if (!test.violations.isEmpty()) {
+            System.out.println(test.violations.size() + " violations:");
+            int shown = 0;
+            for (String violation : test.violations) {
+                if (++shown > MAX_REPORTED) {
+                    break;
+                }
+                System.out.println("  " + violation);
+            }
+            System.exit(1);
+        }
+        System.out.println("OK: no car was ever rented twice");
+    }
+
+    private void run(int threads, long nanos) throws InterruptedException {
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            int customerId = t + 1;
+            List<Integer> mine = new ArrayList<>();
+            held.add(mine);
+            Thread worker = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                work(customerId, mine, System.nanoTime() + nanos);
+            }, "stress-" + customerId);
+            workers.add(worker);
+            worker.start();
+        }
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+    }
+
+    // One thread's loop: rent a random hot car, sometimes as a one-command batch,
+    // and give back a car it holds once it has MAX_HELD of them (or at random)
+    private void work(int customerId, List<Integer> mine, long deadline) {
+        Random random = new Random(customerId);
+        for (long i = 0; System.nanoTime() < deadline; i++) {
+            if (mine.size() >= MAX_HELD || (!mine.isEmpty() && random.nextInt(3) == 0)) {
+                giveBack(mine.remove(random.nextInt(mine.size())), (i & 7) == 0);
+                continue;
+            }
+            int carId = 1 + random.nextInt(cars);
+            boolean rented;
+            if ((i & 7) == 0) {
+                rented = system.applyBatch(List.of(RentalCommand.rent(carId, customerId)))[0];
+            } else {
+                rented = system.rentCar(carId, customerId);
+            }
+            if (!rented) {
+                refused.incrementAndGet();
+                continue;
+            }
+            rents.incrementAndGet();
+            int before = holders.getAndIncrement(carId);
+            if (before != 0) {
+                violations.add("car " + carId + " rented by customer " + customerId + " while " + before + " other renter(s) held it");
+            }
+            Rental rental = system.getActiveRental(carId);
+            if (rental == null || rental.getCustomer().getId() != customerId) {
+                violations.add("car " + carId + " rented by customer " + customerId + " but its open rental is "
+                        + (rental == null ? "missing" : "customer " + rental.getCustomer().getId() + "'s"));
+            }
+            mine.add(carId);
+        }
+    }
+
+    // The holder count drops before the return, so a second renter that gets in
+    // between shows up as this return being refused or a later one failing
+    private void giveBack(int carId, boolean batched) {
+        holders.decrementAndGet(carId);
+        boolean returned = batched
+                ? system.applyBatch(List.of(RentalCommand.returnCar(carId)))[0]
+                : system.returnCar(carId);
+        if (returned) {
+            returns.incrementAndGet();
+        } else {
+            violations.add("return of car " + carId + " refused although its renter still held it");
+        }
+    }
+
+    private void returnAll() {
+        for (List<Integer> mine : held) {
+            for (int carId : mine) {
+                giveBack(carId, false);
+            }
+            mine.clear();
+        }
+    }
+
+    // Every car is either available with no open rental, or rented to its one
+    // holder; the system's counts match, and every return closed a rental
+    private void checkCounts(String when) {
+        int heldCount = 0;
+        int available = 0;
+        for (int carId = 1; carId <= cars; carId++) {
+            int holding = holders.get(carId);
+            boolean isAvailable = system.getCar(carId).isAvailable();
+            Rental rental = system.getActiveRental(carId);
+            heldCount += holding;
+            if (isAvailable) {
+                available++;
+            }
+            if (holding > 1 || holding < 0) {
+                violations.add(when + ": car " + carId + " has " + holding + " holders");
+            }
+            if (isAvailable != (holding == 0) || isAvailable != (rental == null)) {
+                violations.add(when + ": car " + carId + " is " + (isAvailable ? "available" : "rented")
+                        + " with " + holding + " holder(s) and " + (rental == null ? "no" : "an") + " open rental");
+            }
+        }
+        if (system.getActiveRentalCount() != heldCount) {
+            violations.add(when + ": " + system.getActiveRentalCount() + " active rentals but " + heldCount + " cars held");
+        }
+        if (system.getAvailableCarCount() != available) {
+            violations.add(when + ": " + system.getAvailableCarCount() + " cars counted available but " + available + " are");
+        }
+        if (system.getAvailableCarCount() + system.getActiveRentalCount() != cars) {
+            violations.add(when + ": " + system.getAvailableCarCount() + " available and "
+                    + system.getActiveRentalCount() + " rented don't add up to " + cars + " cars");
+        }
+        if (system.getClosedRentalCount() != returns.get()) {
+            violations.add(when + ": " + system.getClosedRentalCount() + " closed rentals for " + returns.get() + " returns");
+        }
+        if (rents.get() - returns.get() != heldCount) {
+            violations.add(when + ": " + rents.get() + " rents and " + returns.get() + " returns leave "
+                    + (rents.get() - returns.get()) + " open, but " + heldCount + " cars are held");
+        }
+    }
+}
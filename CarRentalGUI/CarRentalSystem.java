@@ -0,0 +1,1290 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+
+// Main Car Rental System class
+// Safe for concurrent use: adds take the registry write lock, while rent/return
+// share the read lock and serialize only on the stripe that owns the car id.
+class CarRentalSystem {
+    // Fleet in the order cars were added; a removed car leaves a null behind so the
+    // positions used by the indexes below stay valid
+    private List<Car> cars = new ArrayList<>();
+    private List<Customer> customers = new ArrayList<>();
+    // Closed rentals, in the order they were returned; paged out to disk once a
+    // journal is open, with recently looked-up customers' histories cached
+    private final RentalHistoryStore rentalHistory = new RentalHistoryStore(this::historyCar, this::getCustomer);
+    private final CustomerHistoryCache historyCache =
+            new CustomerHistoryCache(rentalHistory, CustomerHistoryCache.DEFAULT_MAX_RENTALS);
+    // Cars that have left the fleet, still named by the history
+    private final IntObjectMap<Car> departedCars = new IntObjectMap<>();
+
+    // Id indexes kept in sync with the lists above; the lists preserve insertion order
+    private IntObjectMap<Car> carsById = new IntObjectMap<>();
+    private IntObjectMap<Customer> customersById = new IntObjectMap<>();
+    // Live availability by fleet position, updated whenever a car changes state
+    private AvailabilitySet availableSlots = new AvailabilitySet();
+    // Positions still holding a car, for counting and paging past removed ones
+    private AvailabilitySet liveSlots = new AvailabilitySet();
+    // Search indexes over list positions, maintained with the lists
+    private SearchIndex brandIndex = new SearchIndex();
+    private SearchIndex modelIndex = new SearchIndex();
+    private SearchIndex nameIndex = new SearchIndex();
+    private Map<String, SearchIndex.Postings> licenseIndex = new HashMap<>();
+    // One copy of each brand and model name, shared by the cars that carry it
+    private final Map<String, String> carNames = new HashMap<>();
+    private final ReadWriteLock registryLock = new ReentrantReadWriteLock();
+
+    // Car state transitions are guarded per stripe; each stripe also owns the
+    // open rentals (keyed by car id) of the cars that hash to it
+    private final Object[] stripes;
+    private final int stripeShift;
+    private final IntObjectMap<Rental>[] activeRentals;
+    private final AtomicInteger activeRentalCount = new AtomicInteger();
+    // Advance bookings; changed only while holding the booked car's stripe
+    private final ReservationBook reservations = new ReservationBook();
+
+    // Optional persistence; changes are journaled once openJournal has recovered state
+    private volatile RentalJournal journal;
+    private ScheduledExecutorService checkpointer;
+    private static final long CHECKPOINT_RECORDS = 100_000;
+    // Closed rentals paged out of memory; the legacy file lacked due times
+    static final String HISTORY_FILE = "rentals.dat";
+    private static final String LEGACY_HISTORY_FILE = "history.dat";
+    // Threads expected to rent and return at once; sets the number of stripes
+    static final int DEFAULT_CONCURRENCY = Runtime.getRuntime().availableProcessors() * 8;
+    // Reservations must fall within [1970-01-01, 10000-01-01) UTC
+    static final long LATEST_RESERVATION_TIME = 253_402_300_800_000L;
+
+    // Source of rental timestamps; tests and replays can supply their own
+    private final Clock clock;
+    private final RentalMetrics metrics = new RentalMetrics(this);
+    // Every change, in order, for consumers that keep their own views up to date;
+    // quiet while openJournal replays state that consumers would rescan anyway
+    private final RentalEventStream events;
+    // Prices rentals as they close
+    private final BillingEngine billing = new BillingEngine(this);
+    private volatile boolean recovering;
+    // Completes when the data openJournal or openJournalInBackground is loading
+    // is in; already complete for a system that loads nothing
+    private volatile CompletableFuture<Void> loaded = CompletableFuture.completedFuture(null);
+    // Bytes of snapshot and journal to read while loading, and read so far
+    private volatile long loadTotalBytes;
+    private volatile long loadedBytes;
+
+    public CarRentalSystem() {
+        this(Clock.systemUTC());
+    }
+
+    public CarRentalSystem(Clock clock) {
+        this(DEFAULT_CONCURRENCY, clock);
+    }
+
+    public CarRentalSystem(int concurrency, Clock clock) {
+        this(concurrency, RentalEventStream.DEFAULT_CAPACITY, clock);
+    }
+
+    // eventCapacity is how many events getEvents() keeps for subscribers that lag
+    // behind or resume
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    public CarRentalSystem(int concurrency, int eventCapacity, Clock clock) {
+        this.clock = clock;
+        this.events = new RentalEventStream(eventCapacity, ForkJoinPool.commonPool());
+        int n = Integer.highestOneBit(Math.max(1, concurrency - 1)) << 1;
+        stripes = new Object[n];
+        stripeShift = 32 - Integer.numberOfTrailingZeros(n);
+        activeRentals = new IntObjectMap[n];
+        for (int i = 0; i < n; i++) {
+            stripes[i] = new Object();
+            activeRentals[i] = new IntObjectMap<>();
+        }
+    }
+
+    // From the top bits of the product: IntObjectMap takes its slot from the low
+    // bits of the same mix, so a stripe picked from those would leave each
+    // stripe's map using only 1/stripes of its home slots
+    private int stripeOf(int carId) {
+        return (carId * 0x9E3779B9 >>> stripeShift) & (stripes.length - 1);
+    }
+
+    // Loads the latest snapshot and journal tail from dir, then journals every
+    // further change there and snapshots in the background as the journal grows.
+    // A rates.csv in dir (see RateTable.load) replaces the default rates.
+    public void openJournal(Path dir) throws IOException {
+        if (journal != null) {
+            throw new IllegalStateException("journal already open");
+        }
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        loaded = done;
+        try {
+            recover(dir);
+        } catch (IOException | RuntimeException e) {
+            done.completeExceptionally(e);
+            throw e;
+        }
+        done.complete(null);
+    }
+
+    private void recover(Path dir) throws IOException {
+        recovering = true;
+        try {
+            Files.createDirectories(dir);
+            Path rates = dir.resolve("rates.csv");
+            if (Files.exists(rates)) {
+                billing.setRateTable(RateTable.load(rates));
+            }
+            RentalHistoryStore.upgrade(dir.resolve(LEGACY_HISTORY_FILE), dir.resolve(HISTORY_FILE));
+            rentalHistory.open(dir.resolve(HISTORY_FILE));
+            journal = RentalJournal.open(dir, this);
+        } catch (IOException | RuntimeException e) {
+            rentalHistory.close();
+            throw e;
+        } finally {
+            recovering = false;
+        }
+        startCheckpointer();
+    }
+
+    private void startCheckpointer() {
+        checkpointer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "rental-checkpointer");
+            t.setDaemon(true);
+            return t;
+        });
+        checkpointer.scheduleWithFixedDelay(() -> {
+            if (journal.recordsSinceSnapshot() >= CHECKPOINT_RECORDS) {
+                try {
+                    checkpoint();
+                } catch (IOException e) {
+                    System.err.println("Snapshot failed: " + e.getMessage());
+                }
+            }
+        }, 10, 10, TimeUnit.SECONDS);
+    }
+
+    // Starts journaling a system that so far lived only in memory, such as a
+    // promoted standby, into dir; dir must hold no saved data. The current state
+    // becomes the first snapshot there, and the rental history is paged out to it.
+    public void startJournal(Path dir) throws IOException {
+        registryLock.writeLock().lock();
+        try {
+            if (journal != null) {
+                throw new IllegalStateException("journal already open");
+            }
+            Files.createDirectories(dir);
+            rentalHistory.open(dir.resolve(HISTORY_FILE));
+            try {
+                journal = RentalJournal.create(dir, this);
+            } catch (IOException | RuntimeException e) {
+                rentalHistory.close();
+                throw e;
+            }
+        } finally {
+            registryLock.writeLock().unlock();
+        }
+        startCheckpointer();
+    }
+
+    // Like openJournal, but returns as soon as a background thread holds the
+    // registry write lock for the recovery. Anything that goes through the registry
+    // (every rent, return, add and fleet or customer lookup) then waits for the
+    // data rather than seeing it half loaded, so a UI or API can be up before the
+    // data is. Open-rental lookups, counts and reservations don't take the lock
+    // and read whatever has loaded so far. The future completes when recovery is
+    // done, or exceptionally with what openJournal would have thrown.
+    public CompletableFuture<Void> openJournalInBackground(Path dir) {
+        if (journal != null) {
+            throw new IllegalStateException("journal already open");
+        }
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        CountDownLatch locked = new CountDownLatch(1);
+        Thread loader = new Thread(() -> {
+            Exception failure = null;
+            registryLock.writeLock().lock();
+            try {
+                locked.countDown();
+                recover(dir);
+            } catch (IOException | RuntimeException e) {
+                failure = e;
+            } finally {
+                registryLock.writeLock().unlock();
+            }
+            // Outside the lock, so whatever runs on completion isn't holding it
+            if (failure == null) {
+                done.complete(null);
+            } else {
+                done.completeExceptionally(failure);
+            }
+        }, "rental-loader");
+        loader.setDaemon(true);
+        loaded = done;
+        loader.start();
+        boolean interrupted = false;
+        while (locked.getCount() > 0) {
+            try {
+                locked.await();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        return done;
+    }
+
+    public boolean isLoaded() {
+        return loaded.isDone();
+    }
+
+    public CompletableFuture<Void> getLoaded() {
+        return loaded;
+    }
+
+    // Share of the saved data read so far, 0 to 1
+    public double getLoadProgress() {
+        if (isLoaded()) {
+            return 1.0;
+        }
+        long total = loadTotalBytes;
+        return total == 0 ? 0.0 : Math.min(1.0, (double) loadedBytes / total);
+    }
+
+    // Called by the journal as it reads the snapshot and journal tail
+    void beginLoad(long totalBytes) {
+        loadedBytes = 0;
+        loadTotalBytes = totalBytes;
+    }
+
+    void loadProgress(long bytes) {
+        loadedBytes = bytes;
+    }
+
+    // Writes a compact snapshot of the current state and truncates the journal
+    public void checkpoint() throws IOException {
+        RentalJournal j = journal;
+        if (j == null) {
+            return;
+        }
+        registryLock.writeLock().lock();
+        try {
+            j.writeSnapshot(this);
+        } finally {
+            registryLock.writeLock().unlock();
+        }
+    }
+
+    // Snapshots and releases the journal and history file; the system keeps
+    // working in memory, without the closed rentals that were paged out
+    public void close() throws IOException {
+        if (journal == null) {
+            return;
+        }
+        checkpointer.shutdownNow();
+        // Every append happens under the registry lock, so once this holds it no
+        // operation can still add to the journal after its flusher has stopped
+        registryLock.writeLock().lock();
+        try {
+            RentalJournal j = journal;
+            if (j == null) {
+                return;
+            }
+            try {
+                checkpoint();
+            } finally {
+                journal = null;
+                try {
+                    j.close();
+                } finally {
+                    historyCache.clear();
+                    rentalHistory.close();
+                }
+            }
+        } finally {
+            registryLock.writeLock().unlock();
+        }
+    }
+
+    private void awaitDurable(RentalJournal j, long seq) {
+        if (j != null) {
+            j.awaitDurable(seq);
+        }
+    }
+
+    public void addCar(Car car) {
+        checkNames(car);
+        RentalJournal j;
+        long seq = 0;
+        registryLock.writeLock().lock();
+        try {
+            appendCar(car);
+            carsById.putIfAbsent(car.getId(), car);
+            j = journal;
+            if (j != null) {
+                seq = j.appendCar(car);
+            }
+        } finally {
+            registryLock.writeLock().unlock();
+        }
+        awaitDurable(j, seq);
+    }
+
+    // Refuses, with IllegalArgumentException, names too long for the journal; called
+    // before anything changes, with or without a journal, since a later snapshot
+    // has to hold them too
+    private static void checkNames(Car car) {
+        RentalJournal.checkString("Brand", car.getBrand());
+        RentalJournal.checkString("Model", car.getModel());
+    }
+
+    private static void checkNames(Customer customer) {
+        RentalJournal.checkString("Name", customer.getName());
+        RentalJournal.checkString("License number", customer.getLicenseNumber());
+    }
+
+    private void appendCar(Car car) {
+        car.shareNames(carNames);
+        car.attach(this, cars.size());
+        cars.add(car);
+        availableSlots.set(car.getSlot(), car.isAvailable());
+        liveSlots.set(car.getSlot(), true);
+        brandIndex.add(car.getBrand(), car.getSlot());
+        modelIndex.add(car.getModel(), car.getSlot());
+        publish(RentalEvent.Type.CAR_ADDED, clock.millis(), car, null, null);
+    }
+
+    private void appendCustomer(Customer customer) {
+        int position = customers.size();
+        customers.add(customer);
+        nameIndex.add(customer.getName(), position);
+        SearchIndex.postings(licenseIndex, SearchIndex.normalize(customer.getLicenseNumber())).add(position);
+        publish(RentalEvent.Type.CUSTOMER_ADDED, clock.millis(), null, customer, null);
+    }
+
+    private void publish(RentalEvent.Type type, long time, Car car, Customer customer, Rental rental) {
+        if (!recovering) {
+            events.publish(type, time, car, customer, rental);
+        }
+    }
+
+    // Takes an available car out of the fleet, e.g. to move it to another branch.
+    // Refused (false) if the car doesn't exist, is rented, or has a reservation that
+    // hasn't ended yet; its past reservations go with it.
+    public boolean removeCar(int carId) {
+        RentalJournal j;
+        long seq = 0;
+        registryLock.writeLock().lock();
+        try {
+            Car car = carsById.get(carId);
+            if (car == null || !car.isAvailable()) {
+                return false;
+            }
+            List<Reservation> booked = reservations.forCar(carId);
+            long now = clock.millis();
+            for (Reservation reservation : booked) {
+                if (reservation.getEndTime() > now) {
+                    return false;
+                }
+            }
+            for (Reservation reservation : booked) {
+                reservations.remove(reservation.getId());
+            }
+            carsById.remove(carId);
+            departedCars.put(carId, car);
+            cars.set(car.getSlot(), null);
+            availableSlots.set(car.getSlot(), false);
+            liveSlots.set(car.getSlot(), false);
+            car.attach(null, -1);
+            publish(RentalEvent.Type.CAR_REMOVED, now, car, null, null);
+            j = journal;
+            if (j != null) {
+                seq = j.appendRemoveCar(carId);
+            }
+        } finally {
+            registryLock.writeLock().unlock();
+        }
+        awaitDurable(j, seq);
+        return true;
+    }
+
+    // Called by Car.setAvailable for cars that belong to this system
+    void setAvailability(Car car, boolean status) {
+        registryLock.readLock().lock();
+        try {
+            synchronized (stripes[stripeOf(car.getId())]) {
+                updateAvailability(car, status);
+            }
+        } finally {
+            registryLock.readLock().unlock();
+        }
+    }
+
+    // Caller holds the registry read lock and the car's stripe
+    private boolean updateAvailability(Car car, boolean status) {
+        if (car.isAvailable() == status) {
+            return false;
+        }
+        car.updateAvailable(status);
+        availableSlots.set(car.getSlot(), status);
+        return true;
+    }
+
+    public void addCustomer(Customer customer) {
+        checkNames(customer);
+        RentalJournal j;
+        long seq = 0;
+        registryLock.writeLock().lock();
+        try {
+            appendCustomer(customer);
+            customersById.putIfAbsent(customer.getId(), customer);
+            j = journal;
+            if (j != null) {
+                seq = j.appendCustomer(customer);
+            }
+        } finally {
+            registryLock.writeLock().unlock();
+        }
+        awaitDurable(j, seq);
+    }
+
+    public Car getCar(int carId) {
+        registryLock.readLock().lock();
+        try {
+            return carsById.get(carId);
+        } finally {
+            registryLock.readLock().unlock();
+        }
+    }
+
+    public Customer getCustomer(int customerId) {
+        registryLock.readLock().lock();
+        try {
+            return customersById.get(customerId);
+        } finally {
+            registryLock.readLock().unlock();
+        }
+    }
+
+    // Open rental for the car, or null if it is not currently rented out
+    public Rental getActiveRental(int carId) {
+        int stripe = stripeOf(carId);
+        synchronized (stripes[stripe]) {
+            return activeRentals[stripe].get(carId);
+        }
+    }
+
+    // Who has the car right now, or null if nobody does
+    public Customer getCurrentRenter(int carId) {
+        Rental rental = getActiveRental(carId);
+        return rental == null ? null : rental.getCustomer();
+    }
+
+    public int getActiveRentalCount() {
+        return activeRentalCount.get();
+    }
+
+    // Every closed rental, read into memory; prefer forEachRental or
+    // getCustomerHistory for large histories
+    public List<Rental> getRentalHistory() {
+        List<Rental> all = new ArrayList<>();
+        rentalHistory.forEach(all::add);
+        return all;
+    }
+
+    // Closed rentals returned within [fromMillis, toMillis)
+    public List<Rental> getRentalHistory(long fromMillis, long toMillis) {
+        List<Rental> matches = new ArrayList<>();
+        rentalHistory.forEach(rental -> {
+            long returned = rental.getReturnTime();
+            if (returned >= fromMillis && returned < toMillis) {
+                matches.add(rental);
+            }
+        });
+        return matches;
+    }
+
+    public Clock getClock() {
+        return clock;
+    }
+
+    public RentalMetrics getMetrics() {
+        return metrics;
+    }
+
+    // Subscribe to follow changes as they happen, or to resume after the last
+    // sequence a consumer processed
+    public RentalEventStream getEvents() {
+        return events;
+    }
+
+    public BillingEngine getBilling() {
+        return billing;
+    }
+
+    public List<Car> getAvailableCars() {
+        long start = metrics.start();
+        registryLock.readLock().lock();
+        try {
+            List<Car> available = new ArrayList<>(availableSlots.count());
+            for (int i = availableSlots.next(0); i >= 0; i = availableSlots.next(i + 1)) {
+                available.add(cars.get(i));
+            }
+            return available;
+        } finally {
+            registryLock.readLock().unlock();
+            metrics.record(RentalMetrics.Operation.LIST_AVAILABLE, start);
+        }
+    }
+
+    // One page of available cars in fleet order, without touching the rest of the fleet
+    public List<Car> getAvailableCars(int offset, int limit) {
+        long start = metrics.start();
+        registryLock.readLock().lock();
+        try {
+            List<Car> page = new ArrayList<>(Math.max(0, Math.min(limit, availableSlots.count() - offset)));
+            for (int i = availableSlots.nth(offset); i >= 0 && page.size() < limit; i = availableSlots.next(i + 1)) {
+                page.add(cars.get(i));
+            }
+            return page;
+        } finally {
+            registryLock.readLock().unlock();
+            metrics.record(RentalMetrics.Operation.LIST_AVAILABLE, start);
+        }
+    }
+
+    // Visits available cars in place, for callers that don't need a copy
+    public void forEachAvailableCar(Consumer<? super Car> action) {
+        registryLock.readLock().lock();
+        try {
+            for (int i = availableSlots.next(0); i >= 0; i = availableSlots.next(i + 1)) {
+                action.accept(cars.get(i));
+            }
+        } finally {
+            registryLock.readLock().unlock();
+        }
+    }
+
+    public int getAvailableCarCount() {
+        return availableSlots.count();
+    }
+
+    // Snapshot copies, safe to iterate while other threads keep adding
+    public List<Customer> getCustomers() {
+        registryLock.readLock().lock();
+        try {
+            return new ArrayList<>(customers);
+        } finally {
+            registryLock.readLock().unlock();
+        }
+    }
+
+    public List<Car> getAllCars() {
+        registryLock.readLock().lock();
+        try {
+            return liveCars();
+        } finally {
+            registryLock.readLock().unlock();
+        }
+    }
+
+    // Caller holds the registry lock
+    private List<Car> liveCars() {
+        List<Car> live = new ArrayList<>(liveSlots.count());
+        for (int i = liveSlots.next(0); i >= 0; i = liveSlots.next(i + 1)) {
+            live.add(cars.get(i));
+        }
+        return live;
+    }
+
+    public int getCarCount() {
+        registryLock.readLock().lock();
+        try {
+            return liveSlots.count();
+        } finally {
+            registryLock.readLock().unlock();
+        }
+    }
+
+    public int getCustomerCount() {
+        registryLock.readLock().lock();
+        try {
+            return customers.size();
+        } finally {
+            registryLock.readLock().unlock();
+        }
+    }
+
+    // One page of the fleet in insertion order, for callers that stream large fleets
+    public List<Car> getCars(int offset, int limit) {
+        registryLock.readLock().lock();
+        try {
+            List<Car> page = new ArrayList<>(Math.max(0, Math.min(limit, liveSlots.count() - offset)));
+            for (int i = liveSlots.nth(Math.max(offset, 0)); i >= 0 && page.size() < limit; i = liveSlots.next(i + 1)) {
+                page.add(cars.get(i));
+            }
+            return page;
+        } finally {
+            registryLock.readLock().unlock();
+        }
+    }
+
+    // One page of customers in insertion order
+    public List<Customer> getCustomers(int offset, int limit) {
+        registryLock.readLock().lock();
+        try {
+            int from = Math.min(Math.max(offset, 0), customers.size());
+            int to = Math.min(from + Math.max(limit, 0), customers.size());
+            return new ArrayList<>(customers.subList(from, to));
+        } finally {
+            registryLock.readLock().unlock();
+        }
+    }
+
+    // Cars matching every filter in the query, in fleet order. Text filters are
+    // answered by intersecting the sorted posting lists of the brand and model
+    // indexes; only the surviving candidates are checked for availability.
+    public List<Car> findCars(CarQuery query) {
+        String brand = query.getBrandPrefix();
+        String model = query.getModelPrefix();
+        int limit = query.getLimit();
+        if (brand == null && model == null) {
+            return query.isAvailableOnly() ? getAvailableCars(0, limit) : getCars(0, limit);
+        }
+        registryLock.readLock().lock();
+        try {
+            int[] candidates;
+            if (brand == null) {
+                candidates = modelIndex.positions(model);
+            } else if (model == null) {
+                candidates = brandIndex.positions(brand);
+            } else {
+                candidates = SearchIndex.intersect(brandIndex.positions(brand), modelIndex.positions(model));
+            }
+            List<Car> matches = new ArrayList<>();
+            for (int i = 0; i < candidates.length && matches.size() < limit; i++) {
+                if (query.isAvailableOnly() ? availableSlots.get(candidates[i]) : liveSlots.get(candidates[i])) {
+                    matches.add(cars.get(candidates[i]));
+                }
+            }
+            return matches;
+        } finally {
+            registryLock.readLock().unlock();
+        }
+    }
+
+    // Customers whose name, or a word of it, starts with prefix (case-insensitive)
+    public List<Customer> findCustomersByName(String prefix, int limit) {
+        registryLock.readLock().lock();
+        try {
+            int[] positions = nameIndex.positions(prefix);
+            List<Customer> matches = new ArrayList<>(Math.min(positions.length, limit));
+            for (int i = 0; i < positions.length && matches.size() < limit; i++) {
+                matches.add(customers.get(positions[i]));
+            }
+            return matches;
+        } finally {
+            registryLock.readLock().unlock();
+        }
+    }
+
+    // Exact (case-insensitive) license number lookup; usually one customer or none
+    public List<Customer> findCustomersByLicense(String licenseNumber) {
+        registryLock.readLock().lock();
+        try {
+            SearchIndex.Postings postings = licenseIndex.get(SearchIndex.normalize(licenseNumber));
+            List<Customer> matches = new ArrayList<>();
+            if (postings != null) {
+                for (int position : postings.toArray()) {
+                    matches.add(customers.get(position));
+                }
+            }
+            return matches;
+        } finally {
+            registryLock.readLock().unlock();
+        }
+    }
+
+    // Copies the fleet and notes the history length as of one instant, and returns
+    // the sequence of the last event they reflect, so a consumer can build from
+    // them (the first historyLength[0] closed rentals, see forEachClosedRental) and
+    // then follow getEvents() after that sequence with no gap or overlap
+    long captureHistory(List<Car> fleet, long[] historyLength) {
+        return captureHistory(fleet, null, historyLength);
+    }
+
+    // Also sets bit i of available if fleet car i was available at that instant;
+    // a car's live flag may already reflect events after the sequence
+    long captureHistory(List<Car> fleet, BitSet available, long[] historyLength) {
+        registryLock.writeLock().lock();
+        try {
+            int first = fleet.size();
+            fleet.addAll(liveCars());
+            if (available != null) {
+                for (int i = first; i < fleet.size(); i++) {
+                    available.set(i, fleet.get(i).isAvailable());
+                }
+            }
+            historyLength[0] = rentalHistory.size();
+            return events.getLastSequence();
+        } finally {
+            registryLock.writeLock().unlock();
+        }
+    }
+
+    // Captures the state a new standby starts from and, at the same instant, starts
+    // passing every journal batch made durable from then on to listener, so the
+    // standby applies the records after the snapshot's sequence with no gap. Needs
+    // an open journal. See ReplicationSource.
+    RentalJournal.ReplicaSnapshot startReplica(RentalJournal.BatchListener listener) {
+        registryLock.writeLock().lock();
+        try {
+            RentalJournal j = journal;
+            if (j == null) {
+                throw new IllegalStateException("replication needs an open journal");
+            }
+            RentalJournal.ReplicaSnapshot snapshot = j.captureReplica(this);
+            j.addListener(listener);
+            return snapshot;
+        } finally {
+            registryLock.writeLock().unlock();
+        }
+    }
+
+    void stopReplica(RentalJournal.BatchListener listener) {
+        RentalJournal j = journal;
+        if (j != null) {
+            j.removeListener(listener);
+        }
+    }
+
+    // Closed rentals number from (0 = oldest) up to, not including, to
+    void forEachClosedRental(long from, long to, Consumer<? super Rental> action) {
+        rentalHistory.forEach(from, to, action);
+    }
+
+    // The customer's closed rentals, oldest first; served from the history cache
+    // when the customer was looked up or returned a car recently
+    public List<Rental> getCustomerHistory(int customerId) {
+        return historyCache.get(customerId);
+    }
+
+    public CustomerHistoryCache getHistoryCache() {
+        return historyCache;
+    }
+
+    public long getClosedRentalCount() {
+        return rentalHistory.size();
+    }
+
+    // Visits the rental history, then the open rentals, without copying either
+    public void forEachRental(Consumer<? super Rental> action) {
+        rentalHistory.forEach(action);
+        List<Rental> open = new ArrayList<>();
+        for (int stripe = 0; stripe < stripes.length; stripe++) {
+            synchronized (stripes[stripe]) {
+                activeRentals[stripe].forEachValue(open::add);
+            }
+            for (Rental rental : open) {
+                action.accept(rental);
+            }
+            open.clear();
+        }
+    }
+
+    // Adds a chunk of cars under one lock acquisition and one journal sync.
+    // Returns, per input position, whether the car was added (false = duplicate ID).
+    public boolean[] addCarsWithValidation(List<Car> batch) {
+        for (Car car : batch) {
+            checkNames(car);
+        }
+        boolean[] added = new boolean[batch.size()];
+        RentalJournal j;
+        long seq = 0;
+        registryLock.writeLock().lock();
+        try {
+            j = journal;
+            for (int i = 0; i < batch.size(); i++) {
+                Car car = batch.get(i);
+                if (carsById.putIfAbsent(car.getId(), car) == null) {
+                    appendCar(car);
+                    added[i] = true;
+                    if (j != null) {
+                        seq = j.appendCar(car);
+                    }
+                }
+            }
+        } finally {
+            registryLock.writeLock().unlock();
+        }
+        awaitDurable(j, seq);
+        return added;
+    }
+
+    // Customer counterpart of addCarsWithValidation
+    public boolean[] addCustomersWithValidation(List<Customer> batch) {
+        for (Customer customer : batch) {
+            checkNames(customer);
+        }
+        boolean[] added = new boolean[batch.size()];
+        RentalJournal j;
+        long seq = 0;
+        registryLock.writeLock().lock();
+        try {
+            j = journal;
+            for (int i = 0; i < batch.size(); i++) {
+                Customer customer = batch.get(i);
+                if (customersById.putIfAbsent(customer.getId(), customer) == null) {
+                    appendCustomer(customer);
+                    added[i] = true;
+                    if (j != null) {
+                        seq = j.appendCustomer(customer);
+                    }
+                }
+            }
+        } finally {
+            registryLock.writeLock().unlock();
+        }
+        awaitDurable(j, seq);
+        return added;
+    }
+
+    // Enhanced method with duplicate ID checking
+    public boolean addCarWithValidation(Car car) {
+        checkNames(car);
+        long start = metrics.start();
+        RentalJournal j;
+        long seq = 0;
+        registryLock.writeLock().lock();
+        try {
+            if (carsById.putIfAbsent(car.getId(), car) != null) {
+                metrics.recordAddCar(false, start);
+                return false; // Duplicate ID found
+            }
+            appendCar(car);
+            j = journal;
+            if (j != null) {
+                seq = j.appendCar(car);
+            }
+        } finally {
+            registryLock.writeLock().unlock();
+        }
+        awaitDurable(j, seq);
+        metrics.recordAddCar(true, start);
+        return true;
+    }
+
+    // Enhanced method with duplicate ID checking
+    public boolean addCustomerWithValidation(Customer customer) {
+        checkNames(customer);
+        long start = metrics.start();
+        RentalJournal j;
+        long seq = 0;
+        registryLock.writeLock().lock();
+        try {
+            if (customersById.putIfAbsent(customer.getId(), customer) != null) {
+                metrics.recordAddCustomer(false, start);
+                return false; // Duplicate ID found
+            }
+            appendCustomer(customer);
+            j = journal;
+            if (j != null) {
+                seq = j.appendCustomer(customer);
+            }
+        } finally {
+            registryLock.writeLock().unlock();
+        }
+        awaitDurable(j, seq);
+        metrics.recordAddCustomer(true, start);
+        return true;
+    }
+
+    public boolean rentCar(int carId, int customerId) {
+        return tryRentCar(carId, customerId).isSuccess();
+    }
+
+    // Like rentCar, but says why a rental was refused
+    public RentalResult tryRentCar(int carId, int customerId) {
+        long start = metrics.sampledStart();
+        RentalResult result = rent(carId, customerId, clock.millis());
+        metrics.recordRent(result, start);
+        return result;
+    }
+
+    // Also used by journal replay, with the time recorded originally
+    boolean rentCar(int carId, int customerId, long rentalTime) {
+        return rent(carId, customerId, rentalTime).isSuccess();
+    }
+
+    private RentalResult rent(int carId, int customerId, long rentalTime) {
+        RentalJournal j;
+        long seq;
+        registryLock.readLock().lock();
+        try {
+            j = journal;
+            seq = rentLocked(j, carId, customerId, rentalTime);
+        } finally {
+            registryLock.readLock().unlock();
+        }
+        if (seq < 0) {
+            return resultOf(seq);
+        }
+        awaitDurable(j, seq);
+        return RentalResult.OK;
+    }
+
+    public boolean returnCar(int carId) {
+        return tryReturnCar(carId).isSuccess();
+    }
+
+    // Like returnCar, but says why a return was refused
+    public RentalResult tryReturnCar(int carId) {
+        return tryReturnCar(carId, null);
+    }
+
+    // Like tryReturnCar; on success invoice[0] (if given) is the bill for the rental
+    public RentalResult tryReturnCar(int carId, Invoice[] invoice) {
+        long start = metrics.sampledStart();
+        RentalResult result = giveBack(carId, clock.millis(), invoice);
+        metrics.recordReturn(result, start);
+        return result;
+    }
+
+    // Also used by journal replay, with the time recorded originally
+    boolean returnCar(int carId, long returnTime) {
+        return giveBack(carId, returnTime, null).isSuccess();
+    }
+
+    private RentalResult giveBack(int carId, long returnTime, Invoice[] invoice) {
+        RentalJournal j;
+        long seq;
+        registryLock.readLock().lock();
+        try {
+            j = journal;
+            seq = returnLocked(j, carId, returnTime, invoice);
+        } finally {
+            registryLock.readLock().unlock();
+        }
+        if (seq < 0) {
+            return resultOf(seq);
+        }
+        awaitDurable(j, seq);
+        return RentalResult.OK;
+    }
+
+    // Applies the commands in order under one registry lock acquisition and waits
+    // for the journal once, for the last of them. Returns, per command, whether it
+    // succeeded, exactly as the matching rentCar/returnCar call would have.
+    public boolean[] applyBatch(List<RentalCommand> commands) {
+        long start = metrics.start();
+        boolean[] succeeded = new boolean[commands.size()];
+        RentalJournal j;
+        long lastSeq = 0;
+        registryLock.readLock().lock();
+        try {
+            j = journal;
+            for (int i = 0; i < succeeded.length; i++) {
+                RentalCommand command = commands.get(i);
+                long seq;
+                if (command.getType() == RentalCommand.Type.RENT) {
+                    seq = rentLocked(j, command.getCarId(), command.getCustomerId(), clock.millis());
+                    metrics.countRent(resultOf(seq));
+                } else {
+                    seq = returnLocked(j, command.getCarId(), clock.millis(), null);
+                    metrics.countReturn(resultOf(seq));
+                }
+                if (seq >= 0) {
+                    succeeded[i] = true;
+                    lastSeq = Math.max(lastSeq, seq);
+                }
+            }
+        } finally {
+            registryLock.readLock().unlock();
+        }
+        awaitDurable(j, lastSeq);
+        metrics.record(RentalMetrics.Operation.BATCH, start);
+        return succeeded;
+    }
+
+    // rentLocked and returnLocked report a refusal as a negative number that
+    // encodes the reason; this turns it back (and any sequence number into OK)
+    private static RentalResult resultOf(long seqOrFailure) {
+        return seqOrFailure >= 0 ? RentalResult.OK : RentalResult.values()[(int) (-1 - seqOrFailure)];
+    }
+
+    private static long refuse(RentalResult reason) {
+        return -1 - reason.ordinal();
+    }
+
+    // Caller holds the registry read lock. Returns the journal sequence number to
+    // wait for (0 without a journal), or refuse(reason) if the car can't be rented.
+    private long rentLocked(RentalJournal j, int carId, int customerId, long rentalTime) {
+        Car carToRent = carsById.get(carId);
+        Customer customerRenting = customersById.get(customerId);
+        if (carToRent == null) {
+            return refuse(RentalResult.CAR_NOT_FOUND);
+        }
+        if (customerRenting == null) {
+            return refuse(RentalResult.CUSTOMER_NOT_FOUND);
+        }
+
+        // Check-and-set under the car's stripe: only one renter can win
+        long seq = 0;
+        int stripe = stripeOf(carId);
+        synchronized (stripes[stripe]) {
+            // A car booked by someone else for this moment is not available to walk-ins
+            Reservation booked = reservations.conflict(carId, rentalTime, rentalTime + 1);
+            if (booked != null && booked.getCustomerId() != customerId) {
+                return refuse(RentalResult.CAR_RESERVED);
+            }
+            if (!updateAvailability(carToRent, false)) {
+                return refuse(RentalResult.CAR_ALREADY_RENTED);
+            }
+            Rental rental = new Rental(customerRenting, carToRent, rentalTime);
+            activeRentals[stripe].put(carId, rental);
+            publish(RentalEvent.Type.CAR_RENTED, rentalTime, carToRent, customerRenting, rental);
+            // Journaled under the stripe so a car's rent and return stay in order
+            if (j != null) {
+                seq = j.appendRent(carId, customerId, rentalTime);
+            }
+        }
+        activeRentalCount.incrementAndGet();
+        return seq;
+    }
+
+    // Caller holds the registry read lock; returns like rentLocked, and bills the
+    // rental into invoice[0] if invoice is given
+    private long returnLocked(RentalJournal j, int carId, long returnTime, Invoice[] invoice) {
+        Car car = carsById.get(carId);
+        if (car == null) {
+            return refuse(RentalResult.CAR_NOT_FOUND);
+        }
+
+        long seq = 0;
+        Rental rental;
+        int stripe = stripeOf(carId);
+        synchronized (stripes[stripe]) {
+            if (!updateAvailability(car, true)) {
+                return refuse(RentalResult.CAR_NOT_RENTED);
+            }
+            rental = activeRentals[stripe].remove(carId);
+            // Close, bill and file the rental before anyone hears of the return, so
+            // subscribers and the history never see it half done. The history takes
+            // its records in journal order.
+            if (rental != null) {
+                rental.setReturnTime(returnTime);
+                rental.setInvoice(billing.bill(rental, returnTime, !recovering));
+                long index;
+                synchronized (rentalHistory) {
+                    index = rentalHistory.append(rental);
+                    if (j != null) {
+                        seq = j.appendReturn(carId, returnTime);
+                    }
+                }
+                historyCache.closed(rental.getCustomer().getId(), rental, index);
+            } else if (j != null) {
+                seq = j.appendReturn(carId, returnTime);
+            }
+            publish(RentalEvent.Type.CAR_RETURNED, returnTime, car, rental != null ? rental.getCustomer() : null, rental);
+        }
+        if (rental != null) {
+            activeRentalCount.decrementAndGet();
+            if (invoice != null) {
+                invoice[0] = rental.getInvoice();
+            }
+        }
+        return seq;
+    }
+
+    // Reservations -----------------------------------------------------------
+
+    // Books the car for [startTime, endTime) in epoch millis. Returns the new
+    // reservation, or null if the car or customer doesn't exist, the interval is
+    // empty or too long, or the car is already booked for part of it. Throws
+    // IllegalArgumentException for times outside [0, LATEST_RESERVATION_TIME].
+    public Reservation reserveCar(int carId, int customerId, long startTime, long endTime) {
+        return reserveCar(0, carId, customerId, startTime, endTime);
+    }
+
+    // Also used by journal replay and snapshot loading, with the original id
+    Reservation reserveCar(int reservationId, int carId, int customerId, long startTime, long endTime) {
+        if (startTime < 0 || endTime < 0 || startTime > LATEST_RESERVATION_TIME || endTime > LATEST_RESERVATION_TIME) {
+            throw new IllegalArgumentException("Reservation times must be between 0 and " + LATEST_RESERVATION_TIME
+                    + " (epoch millis)");
+        }
+        RentalJournal j;
+        long seq = 0;
+        Reservation reservation;
+        registryLock.readLock().lock();
+        try {
+            if (!carsById.containsKey(carId) || !customersById.containsKey(customerId)) {
+                return null;
+            }
+            synchronized (stripes[stripeOf(carId)]) {
+                reservation = reservations.add(reservationId, carId, customerId, startTime, endTime);
+                if (reservation == null) {
+                    return null;
+                }
+                j = journal;
+                if (j != null) {
+                    seq = j.appendReserve(reservation);
+                }
+            }
+        } finally {
+            registryLock.readLock().unlock();
+        }
+        awaitDurable(j, seq);
+        return reservation;
+    }
+
+    public boolean cancelReservation(int reservationId) {
+        Reservation reservation = reservations.get(reservationId);
+        if (reservation == null) {
+            return false;
+        }
+        RentalJournal j;
+        long seq = 0;
+        registryLock.readLock().lock();
+        try {
+            synchronized (stripes[stripeOf(reservation.getCarId())]) {
+                if (reservations.remove(reservationId) == null) {
+                    return false;
+                }
+                j = journal;
+                if (j != null) {
+                    seq = j.appendCancelReservation(reservationId);
+                }
+            }
+        } finally {
+            registryLock.readLock().unlock();
+        }
+        awaitDurable(j, seq);
+        return true;
+    }
+
+    public Reservation getReservation(int reservationId) {
+        return reservations.get(reservationId);
+    }
+
+    // The car's reservations in start order
+    public List<Reservation> getReservations(int carId) {
+        return reservations.forCar(carId);
+    }
+
+    public int getReservationCount() {
+        return reservations.size();
+    }
+
+    void forEachReservation(Consumer<Reservation> action) {
+        reservations.forEach(action);
+    }
+
+    // Id the next reservation will get; snapshots keep it so that ids of cancelled
+    // reservations aren't handed out again after a restart
+    int nextReservationId() {
+        return reservations.nextId();
+    }
+
+    void restoreNextReservationId(int id) {
+        reservations.restoreNextId(id);
+    }
+
+    // When the rental was due back: the end of the renter's booking it was picked
+    // up under, or RateTable.NO_DUE_TIME for a walk-in
+    long dueTime(Rental rental) {
+        Reservation booking = reservations.conflict(rental.getCar().getId(), rental.getRentalTime(),
+                rental.getRentalTime() + 1);
+        return booking != null && booking.getCustomerId() == rental.getCustomer().getId()
+                ? booking.getEndTime() : RateTable.NO_DUE_TIME;
+    }
+
+    // Whether the car has no booking overlapping [from, to)
+    public boolean isCarFree(int carId, long from, long to) {
+        return reservations.conflict(carId, from, to) == null;
+    }
+
+    // Cars with no booking overlapping [from, to), in fleet order. Marks the cars
+    // booked in that window and returns the rest, so the cost follows the bookings
+    // in the window rather than all bookings. A window that has already started
+    // also leaves out cars rented right now, since open rentals have no end time.
+    public List<Car> getFreeCars(long from, long to) {
+        registryLock.readLock().lock();
+        try {
+            BitSet booked = new BitSet(cars.size());
+            reservations.forEachOverlapping(from, to, reservation ->
+                    booked.set(carsById.get(reservation.getCarId()).getSlot()));
+            boolean startedAlready = from <= clock.millis();
+            List<Car> free = new ArrayList<>();
+            for (int i = booked.nextClearBit(0); i < cars.size(); i = booked.nextClearBit(i + 1)) {
+                if (startedAlready ? availableSlots.get(i) : liveSlots.get(i)) {
+                    free.add(cars.get(i));
+                }
+            }
+            return free;
+        } finally {
+            registryLock.readLock().unlock();
+        }
+    }
+
+    // Snapshot recovery hooks; the cars and customers are restored first
+    void restoreActiveRental(int carId, int customerId, long rentalTime) {
+        Car car = getCar(carId);
+        int stripe = stripeOf(carId);
+        synchronized (stripes[stripe]) {
+            activeRentals[stripe].put(carId, new Rental(getCustomer(customerId), car, rentalTime));
+        }
+        activeRentalCount.incrementAndGet();
+    }
+
+    // The car may no longer be in the fleet, so the snapshot supplies it
+    void restoreClosedRental(Car car, int customerId, long rentalTime, long returnTime, long dueTime) {
+        Rental rental = new Rental(getCustomer(customerId), car, rentalTime);
+        rental.setReturnTime(returnTime);
+        rental.setDueTime(dueTime);
+        rentalHistory.append(rental);
+    }
+
+    void restoreDepartedCar(Car car) {
+        departedCars.put(car.getId(), car);
+    }
+
+    // A snapshot covering the first length records of the history file
+    void restoreHistoryLength(long length) throws IOException {
+        rentalHistory.truncate(length);
+    }
+
+    // Caller holds the write lock (checkpoint); makes the history file cover every
+    // closed rental so far and returns how many that is
+    long syncHistory() throws IOException {
+        return rentalHistory.force();
+    }
+
+    void forEachDepartedCar(Consumer<? super Car> action) {
+        departedCars.forEachValue(action);
+    }
+
+    // Resolves car ids read back from the history file
+    private Car historyCar(int carId) {
+        registryLock.readLock().lock();
+        try {
+            Car car = carsById.get(carId);
+            return car != null ? car : departedCars.get(carId);
+        } finally {
+            registryLock.readLock().unlock();
+        }
+    }
+}
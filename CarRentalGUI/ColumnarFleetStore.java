@@ -0,0 +1,527 @@
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.IntConsumer;
+
+// Off-heap fleet storage for very large fleets: one memory-mapped file per column
+// (struct of arrays) instead of a Car object with two Strings per vehicle.
+//
+// Cars:     id | brand code | model code | availability bit | renter id | rented-at millis
+// Rentals:  car id | customer id | rented-at millis | returned-at millis (closed rentals)
+//
+// Brand and model names are interned into a small on-heap dictionary and stored as
+// int codes. Customers stay with the caller; rentCar trusts the customer id it is
+// given. Locking mirrors CarRentalSystem: adds take the write lock, rent/return
+// share the read lock and serialize on a stripe (one stripe per 64-car bitmap word).
+// CarRentalServer --columnar serves the fleet from one; CarRentalBenchmark
+// --footprint compares its heap with CarRentalSystem's.
+class ColumnarFleetStore implements Closeable {
+    private static final int INITIAL_ROWS = 1024;
+    private static final int NO_CUSTOMER = -1;
+
+    private final Path dir;
+    private final Clock clock;
+    private final Column meta;        // [0] car count, [1] rental count
+    private final Column ids;
+    private final Column brands;
+    private final Column models;
+    private final Column available;   // bitmap, 64 cars per long
+    private final Column renters;
+    private final Column rentedAt;
+    private final Column rentalCars;
+    private final Column rentalCustomers;
+    private final Column rentalStarts;
+    private final Column rentalEnds;
+
+    private final List<String> dictionary = new ArrayList<>();
+    private final Map<String, Integer> dictionaryCodes = new HashMap<>();
+    private final Writer dictionaryOut;
+
+    private final IntIntMap slotsById = new IntIntMap();
+    private int carCount;
+    private final AtomicInteger availableCount = new AtomicInteger();
+    private final Object rentalLock = new Object();
+
+    private final ReadWriteLock registryLock = new ReentrantReadWriteLock();
+    private final Object[] stripes;
+
+    private ColumnarFleetStore(Path dir, Clock clock) throws IOException {
+        this.dir = dir;
+        this.clock = clock;
+        meta = new Column(dir.resolve("meta.col"), 8, 2);
+        ids = new Column(dir.resolve("ids.col"), 4, INITIAL_ROWS);
+        brands = new Column(dir.resolve("brands.col"), 4, INITIAL_ROWS);
+        models = new Column(dir.resolve("models.col"), 4, INITIAL_ROWS);
+        available = new Column(dir.resolve("available.col"), 8, INITIAL_ROWS / 64);
+        renters = new Column(dir.resolve("renters.col"), 4, INITIAL_ROWS);
+        rentedAt = new Column(dir.resolve("rented_at.col"), 8, INITIAL_ROWS);
+        rentalCars = new Column(dir.resolve("rental_cars.col"), 4, INITIAL_ROWS);
+        rentalCustomers = new Column(dir.resolve("rental_customers.col"), 4, INITIAL_ROWS);
+        rentalStarts = new Column(dir.resolve("rental_starts.col"), 8, INITIAL_ROWS);
+        rentalEnds = new Column(dir.resolve("rental_ends.col"), 8, INITIAL_ROWS);
+
+        Path dictionaryFile = dir.resolve("dictionary.txt");
+        if (Files.exists(dictionaryFile)) {
+            try (BufferedReader in = Files.newBufferedReader(dictionaryFile, StandardCharsets.UTF_8)) {
+                String line;
+                while ((line = in.readLine()) != null) {
+                    dictionaryCodes.put(line, dictionary.size());
+                    dictionary.add(line);
+                }
+            }
+        }
+        dictionaryOut = Files.newBufferedWriter(dictionaryFile, StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+
+        int n = Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors() * 8 - 1)) << 1;
+        stripes = new Object[n];
+        for (int i = 0; i < n; i++) {
+            stripes[i] = new Object();
+        }
+    }
+
+    // Opens (or creates) the store in dir and rebuilds the id index from the id column
+    static ColumnarFleetStore open(Path dir) throws IOException {
+        return open(dir, Clock.systemUTC());
+    }
+
+    static ColumnarFleetStore open(Path dir, Clock clock) throws IOException {
+        Files.createDirectories(dir);
+        ColumnarFleetStore store = new ColumnarFleetStore(dir, clock);
+        store.carCount = (int) store.meta.getLong(0);
+        for (int slot = 0; slot < store.carCount; slot++) {
+            store.slotsById.putIfAbsent(store.ids.getInt(slot), slot);
+            if (store.isAvailableSlot(slot)) {
+                store.availableCount.incrementAndGet();
+            }
+        }
+        return store;
+    }
+
+    public Path getDirectory() {
+        return dir;
+    }
+
+    private int stripeOf(int slot) {
+        return (slot >>> 6) & (stripes.length - 1);
+    }
+
+    // Caller holds the registry write lock
+    private int intern(String value) throws IOException {
+        Integer code = dictionaryCodes.get(value);
+        if (code == null) {
+            if (value.indexOf('\n') >= 0 || value.indexOf('\r') >= 0) {
+                throw new IllegalArgumentException("line breaks are not allowed in names");
+            }
+            code = dictionary.size();
+            dictionary.add(value);
+            dictionaryCodes.put(value, code);
+            dictionaryOut.write(value);
+            dictionaryOut.write('\n');
+            dictionaryOut.flush();
+        }
+        return code;
+    }
+
+    // Same contract as CarRentalSystem.addCarWithValidation
+    public boolean addCarWithValidation(int id, String brand, String model) throws IOException {
+        registryLock.writeLock().lock();
+        try {
+            if (slotsById.get(id) >= 0) {
+                return false; // Duplicate ID found
+            }
+            int slot = carCount;
+            ids.ensureCapacity(slot + 1);
+            brands.ensureCapacity(slot + 1);
+            models.ensureCapacity(slot + 1);
+            renters.ensureCapacity(slot + 1);
+            rentedAt.ensureCapacity(slot + 1);
+            available.ensureCapacity((slot >>> 6) + 1);
+
+            ids.putInt(slot, id);
+            brands.putInt(slot, intern(brand));
+            models.putInt(slot, intern(model));
+            renters.putInt(slot, NO_CUSTOMER);
+            rentedAt.putLong(slot, 0);
+            setAvailableSlot(slot, true);
+
+            slotsById.putIfAbsent(id, slot);
+            carCount = slot + 1;
+            meta.putLong(0, carCount);
+            return true;
+        } finally {
+            registryLock.writeLock().unlock();
+        }
+    }
+
+    public boolean rentCar(int carId, int customerId) {
+        return rentCar(carId, customerId, clock.millis());
+    }
+
+    public boolean rentCar(int carId, int customerId, long rentedAtMillis) {
+        registryLock.readLock().lock();
+        try {
+            int slot = slotsById.get(carId);
+            if (slot < 0) {
+                return false;
+            }
+            synchronized (stripes[stripeOf(slot)]) {
+                if (!isAvailableSlot(slot)) {
+                    return false;
+                }
+                setAvailableSlot(slot, false);
+                renters.putInt(slot, customerId);
+                rentedAt.putLong(slot, rentedAtMillis);
+            }
+            return true;
+        } finally {
+            registryLock.readLock().unlock();
+        }
+    }
+
+    public boolean returnCar(int carId) {
+        return returnCar(carId, clock.millis());
+    }
+
+    public boolean returnCar(int carId, long returnedAtMillis) {
+        registryLock.readLock().lock();
+        try {
+            int slot = slotsById.get(carId);
+            if (slot < 0) {
+                return false;
+            }
+            int customerId;
+            long start;
+            synchronized (stripes[stripeOf(slot)]) {
+                if (isAvailableSlot(slot)) {
+                    return false;
+                }
+                customerId = renters.getInt(slot);
+                start = rentedAt.getLong(slot);
+                renters.putInt(slot, NO_CUSTOMER);
+                rentedAt.putLong(slot, 0);
+                setAvailableSlot(slot, true);
+            }
+            appendRental(carId, customerId, start, returnedAtMillis);
+            return true;
+        } finally {
+            registryLock.readLock().unlock();
+        }
+    }
+
+    private void appendRental(int carId, int customerId, long start, long end) {
+        synchronized (rentalLock) {
+            int row = (int) meta.getLong(1);
+            try {
+                rentalCars.ensureCapacity(row + 1);
+                rentalCustomers.ensureCapacity(row + 1);
+                rentalStarts.ensureCapacity(row + 1);
+                rentalEnds.ensureCapacity(row + 1);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            rentalCars.putInt(row, carId);
+            rentalCustomers.putInt(row, customerId);
+            rentalStarts.putLong(row, start);
+            rentalEnds.putLong(row, end);
+            meta.putLong(1, row + 1);
+        }
+    }
+
+    // Caller holds the slot's stripe (or the write lock)
+    private boolean isAvailableSlot(int slot) {
+        return (available.getLong(slot >>> 6) & (1L << slot)) != 0;
+    }
+
+    private void setAvailableSlot(int slot, boolean status) {
+        long word = available.getLong(slot >>> 6);
+        long updated = status ? word | (1L << slot) : word & ~(1L << slot);
+        if (updated != word) {
+            available.putLong(slot >>> 6, updated);
+            if (status) {
+                availableCount.incrementAndGet();
+            } else {
+                availableCount.decrementAndGet();
+            }
+        }
+    }
+
+    public boolean isAvailable(int carId) {
+        registryLock.readLock().lock();
+        try {
+            int slot = slotsById.get(carId);
+            if (slot < 0) {
+                return false;
+            }
+            synchronized (stripes[stripeOf(slot)]) {
+                return isAvailableSlot(slot);
+            }
+        } finally {
+            registryLock.readLock().unlock();
+        }
+    }
+
+    // Materializes a detached Car for display; changing it does not touch the store
+    public Car getCar(int carId) {
+        registryLock.readLock().lock();
+        try {
+            int slot = slotsById.get(carId);
+            return slot < 0 ? null : carAt(slot);
+        } finally {
+            registryLock.readLock().unlock();
+        }
+    }
+
+    private Car carAt(int slot) {
+        Car car = new Car(ids.getInt(slot), dictionary.get(models.getInt(slot)), dictionary.get(brands.getInt(slot)));
+        car.setAvailable(isAvailableSlot(slot));
+        return car;
+    }
+
+    // Renter of the car right now, or -1 if it is available
+    public int getCurrentRenterId(int carId) {
+        registryLock.readLock().lock();
+        try {
+            int slot = slotsById.get(carId);
+            if (slot < 0) {
+                return NO_CUSTOMER;
+            }
+            synchronized (stripes[stripeOf(slot)]) {
+                return renters.getInt(slot);
+            }
+        } finally {
+            registryLock.readLock().unlock();
+        }
+    }
+
+    public int getCarCount() {
+        registryLock.readLock().lock();
+        try {
+            return carCount;
+        } finally {
+            registryLock.readLock().unlock();
+        }
+    }
+
+    public int getAvailableCarCount() {
+        return availableCount.get();
+    }
+
+    public long getRentalHistoryCount() {
+        synchronized (rentalLock) {
+            return meta.getLong(1);
+        }
+    }
+
+    // Visits ids of available cars in fleet order by scanning the bitmap column
+    public void forEachAvailableCarId(IntConsumer action) {
+        registryLock.readLock().lock();
+        try {
+            int words = (carCount + 63) >>> 6;
+            for (int w = 0; w < words; w++) {
+                long word = available.getLong(w);
+                while (word != 0) {
+                    int slot = (w << 6) + Long.numberOfTrailingZeros(word);
+                    action.accept(ids.getInt(slot));
+                    word &= word - 1;
+                }
+            }
+        } finally {
+            registryLock.readLock().unlock();
+        }
+    }
+
+    // One page of available cars, materialized only for the rows on the page
+    public List<Car> getAvailableCars(int offset, int limit) {
+        List<Car> page = new ArrayList<>();
+        registryLock.readLock().lock();
+        try {
+            int words = (carCount + 63) >>> 6;
+            int skip = offset;
+            for (int w = 0; w < words && page.size() < limit; w++) {
+                long word = available.getLong(w);
+                int bits = Long.bitCount(word);
+                if (skip >= bits) {
+                    skip -= bits;
+                    continue;
+                }
+                while (word != 0 && page.size() < limit) {
+                    int slot = (w << 6) + Long.numberOfTrailingZeros(word);
+                    word &= word - 1;
+                    if (skip > 0) {
+                        skip--;
+                    } else {
+                        page.add(carAt(slot));
+                    }
+                }
+            }
+            return page;
+        } finally {
+            registryLock.readLock().unlock();
+        }
+    }
+
+    // Pushes dirty mapped pages to disk
+    public void flush() throws IOException {
+        registryLock.writeLock().lock();
+        try {
+            for (Column column : columns()) {
+                column.force();
+            }
+            dictionaryOut.flush();
+        } finally {
+            registryLock.writeLock().unlock();
+        }
+    }
+
+    private Column[] columns() {
+        return new Column[] { meta, ids, brands, models, available, renters, rentedAt,
+                rentalCars, rentalCustomers, rentalStarts, rentalEnds };
+    }
+
+    @Override
+    public void close() throws IOException {
+        flush();
+        for (Column column : columns()) {
+            column.close();
+        }
+        dictionaryOut.close();
+    }
+
+    // One fixed-width column in its own file, remapped (doubling) as it grows
+    private static class Column {
+        private final FileChannel channel;
+        private final int width;
+        private MappedByteBuffer buffer;
+
+        Column(Path file, int width, int initialRows) throws IOException {
+            this.channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE);
+            this.width = width;
+            long rows = Math.max(initialRows, channel.size() / width);
+            map(rows);
+        }
+
+        private void map(long rows) throws IOException {
+            long bytes = rows * width;
+            if (bytes > Integer.MAX_VALUE) {
+                throw new IOException("column too large to map: " + bytes + " bytes");
+            }
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, bytes);
+            buffer.order(ByteOrder.nativeOrder());
+        }
+
+        // Caller holds the owning store's write lock (or the rental lock for rental columns)
+        void ensureCapacity(int rows) throws IOException {
+            long capacity = buffer.capacity() / width;
+            if (rows > capacity) {
+                buffer.force();
+                map(Math.max(capacity << 1, rows));
+            }
+        }
+
+        int getInt(int row) {
+            return buffer.getInt(row * width);
+        }
+
+        void putInt(int row, int value) {
+            buffer.putInt(row * width, value);
+        }
+
+        long getLong(int row) {
+            return buffer.getLong(row * width);
+        }
+
+        void putLong(int row, long value) {
+            buffer.putLong(row * width, value);
+        }
+
+        void force() {
+            buffer.force();
+        }
+
+        void close() throws IOException {
+            channel.close();
+        }
+    }
+
+    // Open-addressing int -> int map for the id index; -1 means absent
+    private static class IntIntMap {
+        private int[] keys = new int[16];
+        private int[] values = newValues(16);
+        private int size;
+
+        private static int[] newValues(int capacity) {
+            int[] v = new int[capacity];
+            Arrays.fill(v, -1);
+            return v;
+        }
+
+        private static int slot(int key, int mask) {
+            int h = key * 0x9E3779B9;
+            return (h ^ (h >>> 16)) & mask;
+        }
+
+        int get(int key) {
+            int mask = keys.length - 1;
+            for (int i = slot(key, mask); values[i] >= 0; i = (i + 1) & mask) {
+                if (keys[i] == key) {
+                    return values[i];
+                }
+            }
+            return -1;
+        }
+
+        void putIfAbsent(int key, int value) {
+            if (get(key) >= 0) {
+                return;
+            }
+            if (++size > keys.length * 3 / 4) {
+                rehash(keys.length << 1);
+            }
+            int mask = keys.length - 1;
+            int i = slot(key, mask);
+            while (values[i] >= 0) {
+                i = (i + 1) & mask;
+            }
+            keys[i] = key;
+            values[i] = value;
+        }
+
+        private void rehash(int capacity) {
+            int[] oldKeys = keys;
+            int[] oldValues = values;
+            keys = new int[capacity];
+            values = newValues(capacity);
+            int mask = capacity - 1;
+            for (int j = 0; j < oldKeys.length; j++) {
+                if (oldValues[j] >= 0) {
+                    int i = slot(oldKeys[j], mask);
+                    while (values[i] >= 0) {
+                        i = (i + 1) & mask;
+                    }
+                    keys[i] = oldKeys[j];
+                    values[i] = oldValues[j];
+                }
+            }
+        }
+    }
+}
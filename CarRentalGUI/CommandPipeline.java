@@ -0,0 +1,147 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+// Single-writer pipeline in front of CarRentalSystem, in the style of a Disruptor
+// ring buffer. Producers claim a slot with one compare-and-set, fill it and
+// publish it; one applier thread takes every published slot in claim order and
+// hands the whole run to applyBatch, so a burst costs one lock acquisition and one
+// journal sync instead of one each per command. Each command's result completes
+// its own future, on the applier thread (chain with the *Async methods for heavy
+// follow-up work).
+class CommandPipeline implements AutoCloseable {
+    private static final int MAX_BATCH = 1024;
+    // Set in 'claimed' by close(), so no slot can be claimed after the last one is known
+    private static final long CLOSED = 1L << 62;
+
+    private final CarRentalSystem system;
+    private final int mask;
+    private final RentalCommand[] commands;
+    private final CompletableFuture<Boolean>[] futures;
+    // published[i] holds the sequence last written into slot i
+    private final AtomicLongArray published;
+    // Number of slots claimed so far (the next sequence), plus the CLOSED bit
+    private final AtomicLong claimed = new AtomicLong();
+    // Highest sequence the applier has finished with; slots up to it can be reused
+    private volatile long applied = -1;
+    private volatile boolean applierWaiting;
+    private final Thread applier;
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    public CommandPipeline(CarRentalSystem system, int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        this.system = system;
+        this.mask = size - 1;
+        this.commands = new RentalCommand[size];
+        this.futures = new CompletableFuture[size];
+        this.published = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            published.set(i, -1);
+        }
+        this.applier = new Thread(this::applyLoop, "rental-command-applier");
+        this.applier.setDaemon(true);
+        this.applier.start();
+    }
+
+    // Queues the command behind everything submitted before it. Blocks briefly
+    // while the ring is full. The future completes with the command's result.
+    public CompletableFuture<Boolean> submit(RentalCommand command) {
+        CompletableFuture<Boolean> future = new CompletableFuture<>();
+        long seq;
+        do {
+            seq = claimed.get();
+            if ((seq & CLOSED) != 0) {
+                future.completeExceptionally(new IllegalStateException("pipeline closed"));
+                return future;
+            }
+        } while (!claimed.compareAndSet(seq, seq + 1));
+        while (seq - applied > commands.length) {
+            // Ring is full: wait for the applier to free our slot
+            wakeApplier();
+            LockSupport.parkNanos(1_000);
+        }
+        int slot = (int) seq & mask;
+        commands[slot] = command;
+        futures[slot] = future;
+        published.set(slot, seq);
+        wakeApplier();
+        return future;
+    }
+
+    public List<CompletableFuture<Boolean>> submitAll(List<RentalCommand> batch) {
+        List<CompletableFuture<Boolean>> results = new ArrayList<>(batch.size());
+        for (RentalCommand command : batch) {
+            results.add(submit(command));
+        }
+        return results;
+    }
+
+    private void wakeApplier() {
+        if (applierWaiting) {
+            LockSupport.unpark(applier);
+        }
+    }
+
+    private void applyLoop() {
+        List<RentalCommand> batch = new ArrayList<>(MAX_BATCH);
+        List<CompletableFuture<Boolean>> pending = new ArrayList<>(MAX_BATCH);
+        long next = 0;
+        while (true) {
+            // Take the contiguous run of published slots starting at next
+            for (long seq = next; batch.size() < MAX_BATCH && published.get((int) seq & mask) == seq; seq++) {
+                int slot = (int) seq & mask;
+                batch.add(commands[slot]);
+                pending.add(futures[slot]);
+                commands[slot] = null;
+                futures[slot] = null;
+            }
+
+            if (batch.isEmpty()) {
+                long state = claimed.get();
+                if ((state & CLOSED) != 0 && next == (state & ~CLOSED)) {
+                    return;
+                }
+                applierWaiting = true;
+                if (published.get((int) next & mask) != next) {
+                    LockSupport.parkNanos(100_000_000);
+                }
+                applierWaiting = false;
+                continue;
+            }
+
+            boolean[] results;
+            try {
+                results = system.applyBatch(batch);
+            } catch (RuntimeException e) {
+                for (CompletableFuture<Boolean> future : pending) {
+                    future.completeExceptionally(e);
+                }
+                results = null;
+            }
+            next += batch.size();
+            applied = next - 1;
+            if (results != null) {
+                for (int i = 0; i < results.length; i++) {
+                    pending.get(i).complete(results[i]);
+                }
+            }
+            batch.clear();
+            pending.clear();
+        }
+    }
+
+    // Stops taking commands, applies everything already submitted, then stops the applier
+    @Override
+    public void close() {
+        claimed.getAndUpdate(state -> state | CLOSED);
+        LockSupport.unpark(applier);
+        try {
+            applier.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
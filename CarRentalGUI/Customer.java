@@ -0,0 +1,30 @@
+// Customer class
+class Customer {
+    private int id;
+    private String name;
+    private String licenseNumber;
+
+    public Customer(int id, String name, String licenseNumber) {
+        this.id = id;
+        this.name = name;
+        this.licenseNumber = licenseNumber;
+    }
+
+    // Getters
+    public int getId() {
+        return id;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getLicenseNumber() {
+        return licenseNumber;
+    }
+
+    @Override
+    public String toString() {
+        return "ID: " + id + " | Name: " + name + " | License: " + licenseNumber;
+    }
+}
@@ -0,0 +1,145 @@
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+// Recently looked-up customer histories, in front of a RentalHistoryStore. The
+// cache is bounded by the total number of rentals it holds rather than by
+// customers, since one busy corporate account can outweigh thousands of
+// occasional renters. Least recently used customers are evicted first. A cached
+// history is kept current as its customer's rentals close, so a customer who
+// keeps renting stays cached without ever going back to disk.
+class CustomerHistoryCache {
+    static final long DEFAULT_MAX_RENTALS = 1_000_000;
+
+    private static final class Entry {
+        final List<Rental> rentals;
+        // Store index of the newest rental in the list
+        long newestIndex;
+
+        Entry(List<Rental> rentals, long newestIndex) {
+            this.rentals = rentals;
+            this.newestIndex = newestIndex;
+        }
+    }
+
+    private final RentalHistoryStore store;
+    // All guarded by this; lock order is cache, then store
+    private final LinkedHashMap<Integer, Entry> entries = new LinkedHashMap<>(256, 0.75f, true);
+    private long maxRentals;
+    private long cachedRentals;
+    private long evictions;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    CustomerHistoryCache(RentalHistoryStore store, long maxRentals) {
+        this.store = store;
+        this.maxRentals = maxRentals;
+    }
+
+    // Closed rentals of the customer, oldest first
+    public List<Rental> get(int customerId) {
+        synchronized (this) {
+            Entry entry = entries.get(customerId);
+            if (entry != null) {
+                hits.increment();
+                return new ArrayList<>(entry.rentals);
+            }
+        }
+        misses.increment();
+        while (true) {
+            long newest = store.newestIndex(customerId);
+            List<Rental> rentals = newest < 0 ? new ArrayList<>() : store.chain(newest);
+            synchronized (this) {
+                // A rental closed while we were reading: read again rather than
+                // cache a list that's already missing it
+                if (store.newestIndex(customerId) != newest) {
+                    continue;
+                }
+                if (!entries.containsKey(customerId) && rentals.size() <= maxRentals) {
+                    entries.put(customerId, new Entry(rentals, newest));
+                    cachedRentals += rentals.size();
+                    evict();
+                }
+                return new ArrayList<>(rentals);
+            }
+        }
+    }
+
+    // Called after the store appended a customer's rental at index
+    synchronized void closed(int customerId, Rental rental, long index) {
+        Entry entry = entries.get(customerId);
+        if (entry == null || index == entry.newestIndex) {
+            return;
+        }
+        if (index < entry.newestIndex) {
+            // Two of the customer's rentals closed at once and arrived out of order
+            entries.remove(customerId);
+            cachedRentals -= entry.rentals.size();
+            return;
+        }
+        entry.rentals.add(rental);
+        entry.newestIndex = index;
+        cachedRentals++;
+        evict();
+    }
+
+    private void evict() {
+        Iterator<Map.Entry<Integer, Entry>> eldest = entries.entrySet().iterator();
+        while (cachedRentals > maxRentals && eldest.hasNext()) {
+            cachedRentals -= eldest.next().getValue().rentals.size();
+            eldest.remove();
+            evictions++;
+        }
+    }
+
+    public synchronized void setMaxRentals(long maxRentals) {
+        this.maxRentals = Math.max(0, maxRentals);
+        evict();
+    }
+
+    public synchronized long getMaxRentals() {
+        return maxRentals;
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        cachedRentals = 0;
+    }
+
+    // Statistics ---------------------------------------------------------------
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    public synchronized int getCachedCustomers() {
+        return entries.size();
+    }
+
+    public synchronized long getCachedRentals() {
+        return cachedRentals;
+    }
+
+    public double getHitRatio() {
+        long h = hits.sum();
+        long total = h + misses.sum();
+        return total == 0 ? 0 : (double) h / total;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Cached customers: %d | Rentals: %d of %d | Hits: %d | Misses: %d | Hit ratio: %.1f%%",
+                getCachedCustomers(), getCachedRentals(), getMaxRentals(), getHits(), getMisses(), getHitRatio() * 100);
+    }
+}
@@ -0,0 +1,360 @@
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.Flow;
+
+// Picks the best available car of a class for walk-in rentals, so an agent asks
+// for "a Toyota Camry" or "any Toyota" rather than typing a car id. Every class
+// (a brand and model, a brand, and the whole fleet) keeps one priority queue of
+// its available cars per Policy, so a pick is an O(log n) look at the head of a
+// queue however many cars are available.
+//
+// attach() builds the queues and each car's wear from the rental history, then
+// follows the system's event stream, so every rent and return moves the car out
+// of or back into its queues. The stream runs a moment behind the system; a car
+// rented or booked meanwhile is simply refused by rentBest, which moves on to
+// the next candidate. A car is taken out of the queues before its wear changes,
+// so queue order never changes under the TreeSets.
+class FleetAllocator implements AutoCloseable {
+    enum Policy {
+        // Least time rented so far, standing in for mileage
+        LEAST_WEAR,
+        // Fewest rentals so far, spreading them evenly over the class
+        BALANCED,
+        // Returned longest ago; cars never rented first
+        LONGEST_IDLE;
+
+        // Case-insensitive, with - or _ between words
+        static Policy parse(String name) {
+            try {
+                return valueOf(name.trim().replace('-', '_').toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Unknown policy " + name + " (use least_wear, balanced or longest_idle)");
+            }
+        }
+    }
+
+    // Cars rentBest tries before giving up, so a burst of refusals can't spin
+    static final int MAX_ATTEMPTS = 16;
+    private static final long NEVER = Long.MIN_VALUE;
+
+    private static final Comparator<CarState> BY_WEAR = Comparator
+            .comparingLong((CarState s) -> s.rentedMillis).thenComparingInt(s -> s.car.getId());
+    private static final Comparator<CarState> BY_RENTALS = Comparator
+            .comparingLong((CarState s) -> s.rentals).thenComparingInt(s -> s.car.getId());
+    private static final Comparator<CarState> BY_IDLE = Comparator
+            .comparingLong((CarState s) -> s.idleSince).thenComparingInt(s -> s.car.getId());
+
+    // What the allocator knows about one car
+    private static final class CarState {
+        final Car car;
+        // Queues of the car's model, brand and the fleet
+        final Queues[] classes;
+        long rentedMillis;
+        long rentals;
+        long idleSince = NEVER;
+        // As of the last event seen
+        boolean available;
+        boolean queued;
+
+        CarState(Car car, Queues[] classes) {
+            this.car = car;
+            this.classes = classes;
+        }
+    }
+
+    // One class's available cars, in one queue per policy
+    private static final class Queues {
+        @SuppressWarnings({ "unchecked", "rawtypes" })
+        final TreeSet<CarState>[] byPolicy = new TreeSet[] {
+                new TreeSet<>(BY_WEAR), new TreeSet<>(BY_RENTALS), new TreeSet<>(BY_IDLE) };
+    }
+
+    private final CarRentalSystem system;
+    // All guarded by this
+    private IntObjectMap<CarState> states = new IntObjectMap<>();
+    private Queues fleet = new Queues();
+    // Lower-case brand -> queues, and lower-case brand -> lower-case model -> queues
+    private Map<String, Queues> brands = new HashMap<>();
+    private Map<String, Map<String, Queues>> models = new HashMap<>();
+    private long appliedSequence;
+    private volatile Flow.Subscription subscription;
+    private volatile boolean closed;
+
+    private FleetAllocator(CarRentalSystem system) {
+        this.system = system;
+    }
+
+    public static FleetAllocator attach(CarRentalSystem system) {
+        FleetAllocator allocator = new FleetAllocator(system);
+        allocator.rebuild();
+        return allocator;
+    }
+
+    // Rebuilds from the history and fleet as of one instant, then resumes the event
+    // stream right after it
+    private void rebuild() {
+        // Events published during the rebuild are kept until the follower resumes
+        system.getEvents().hold();
+        try {
+            List<Car> cars = new ArrayList<>();
+            BitSet available = new BitSet();
+            long[] historyLength = new long[1];
+            long sequence = system.captureHistory(cars, available, historyLength);
+            // Wear per car id: {rented millis, rentals, last return}
+            IntObjectMap<long[]> wear = new IntObjectMap<>();
+            system.forEachClosedRental(0, historyLength[0], rental -> {
+                long[] w = wear.get(rental.getCar().getId());
+                if (w == null) {
+                    w = new long[] { 0, 0, NEVER };
+                    wear.put(rental.getCar().getId(), w);
+                }
+                w[0] += Math.max(0, rental.getReturnTime() - rental.getRentalTime());
+                w[1]++;
+                w[2] = Math.max(w[2], rental.getReturnTime());
+            });
+            synchronized (this) {
+                states = new IntObjectMap<>(cars.size());
+                fleet = new Queues();
+                brands = new HashMap<>();
+                models = new HashMap<>();
+                for (int i = 0; i < cars.size(); i++) {
+                    Car car = cars.get(i);
+                    CarState state = add(car);
+                    long[] w = wear.get(car.getId());
+                    if (w != null) {
+                        state.rentedMillis = w[0];
+                        state.rentals = w[1];
+                        state.idleSince = w[2];
+                    }
+                    // As captured: a later return is still to come from the stream
+                    state.available = available.get(i);
+                    enqueue(state);
+                }
+                appliedSequence = sequence;
+            }
+            if (!closed) {
+                system.getEvents().subscribe(new Follower(), sequence);
+            }
+        } finally {
+            system.getEvents().release();
+        }
+    }
+
+    private final class Follower implements Flow.Subscriber<RentalEvent> {
+        @Override
+        public void onSubscribe(Flow.Subscription s) {
+            subscription = s;
+            if (closed) {
+                s.cancel();
+            } else {
+                s.request(Long.MAX_VALUE);
+            }
+        }
+
+        @Override
+        public void onNext(RentalEvent event) {
+            synchronized (FleetAllocator.this) {
+                apply(event);
+                appliedSequence = event.getSequence();
+            }
+        }
+
+        // Fell too far behind the stream: start over from the history
+        @Override
+        public void onError(Throwable error) {
+            if (!closed) {
+                rebuild();
+            }
+        }
+
+        @Override
+        public void onComplete() {
+        }
+    }
+
+    // Caller holds this
+    private void apply(RentalEvent event) {
+        Car car = event.getCar();
+        if (event.getType() == RentalEvent.Type.CAR_ADDED) {
+            CarState state = add(car);
+            state.available = true;
+            enqueue(state);
+            return;
+        }
+        CarState state = car == null ? null : states.get(car.getId());
+        if (state == null) {
+            return;
+        }
+        switch (event.getType()) {
+            case CAR_RENTED:
+                state.available = false;
+                dequeue(state);
+                break;
+            case CAR_RETURNED:
+                // Out of the queues before the sort keys change
+                dequeue(state);
+                Rental rental = event.getRental();
+                if (rental != null) {
+                    state.rentedMillis += Math.max(0, event.getTime() - rental.getRentalTime());
+                    state.rentals++;
+                    state.idleSince = event.getTime();
+                }
+                state.available = true;
+                enqueue(state);
+                break;
+            case CAR_REMOVED:
+                dequeue(state);
+                states.remove(car.getId());
+                break;
+            default:
+                break;
+        }
+    }
+
+    private CarState add(Car car) {
+        String brand = car.getBrand().toLowerCase(Locale.ROOT);
+        String model = car.getModel().toLowerCase(Locale.ROOT);
+        Queues[] classes = {
+                models.computeIfAbsent(brand, b -> new HashMap<>()).computeIfAbsent(model, m -> new Queues()),
+                brands.computeIfAbsent(brand, b -> new Queues()),
+                fleet };
+        CarState state = new CarState(car, classes);
+        states.put(car.getId(), state);
+        return state;
+    }
+
+    private void enqueue(CarState state) {
+        if (state.queued || !state.available) {
+            return;
+        }
+        for (Queues queues : state.classes) {
+            for (TreeSet<CarState> queue : queues.byPolicy) {
+                queue.add(state);
+            }
+        }
+        state.queued = true;
+    }
+
+    private void dequeue(CarState state) {
+        if (!state.queued) {
+            return;
+        }
+        for (Queues queues : state.classes) {
+            for (TreeSet<CarState> queue : queues.byPolicy) {
+                queue.remove(state);
+            }
+        }
+        state.queued = false;
+    }
+
+    // Queues of the class: a brand and model, a brand (model null), or the whole
+    // fleet (brand null); null if no such car was ever in the fleet
+    private Queues queues(String brand, String model) {
+        if (brand == null) {
+            return fleet;
+        }
+        String b = brand.trim().toLowerCase(Locale.ROOT);
+        if (model == null) {
+            return brands.get(b);
+        }
+        Map<String, Queues> byModel = models.get(b);
+        return byModel == null ? null : byModel.get(model.trim().toLowerCase(Locale.ROOT));
+    }
+
+    // Picking ---------------------------------------------------------------------
+
+    // The best available car of the class by policy, or null if none is free; the
+    // car is not held for the caller, so it may be gone by the time they rent it
+    public synchronized Car pick(String brand, String model, Policy policy) {
+        Queues queues = queues(brand, model);
+        if (queues == null) {
+            return null;
+        }
+        TreeSet<CarState> queue = queues.byPolicy[policy.ordinal()];
+        return queue.isEmpty() ? null : queue.first().car;
+    }
+
+    // Takes the class's best car out of the queues so concurrent callers get
+    // different cars; null if none is left
+    private synchronized CarState claim(String brand, String model, Policy policy) {
+        Queues queues = queues(brand, model);
+        if (queues == null) {
+            return null;
+        }
+        TreeSet<CarState> queue = queues.byPolicy[policy.ordinal()];
+        if (queue.isEmpty()) {
+            return null;
+        }
+        CarState state = queue.first();
+        dequeue(state);
+        return state;
+    }
+
+    // Puts back a car that couldn't be rented, unless it turned out to be taken or
+    // the allocator was rebuilt meanwhile
+    private synchronized void release(CarState state) {
+        if (states.get(state.car.getId()) == state) {
+            enqueue(state);
+        }
+    }
+
+    // Rents the customer the best available car of the class. On success rented[0]
+    // (if given) is the car. Cars refused because they were just rented or are
+    // booked by someone else are skipped; after MAX_ATTEMPTS refusals, or when the
+    // class has no car left, the last refusal is returned (CAR_NOT_FOUND if none).
+    public RentalResult rentBest(String brand, String model, Policy policy, int customerId, Car[] rented) {
+        RentalResult result = RentalResult.CAR_NOT_FOUND;
+        List<CarState> refused = new ArrayList<>();
+        try {
+            for (int attempt = 0; attempt < MAX_ATTEMPTS; attempt++) {
+                CarState state = claim(brand, model, policy);
+                if (state == null) {
+                    break;
+                }
+                result = system.tryRentCar(state.car.getId(), customerId);
+                if (result.isSuccess()) {
+                    if (rented != null) {
+                        rented[0] = state.car;
+                    }
+                    return result;
+                }
+                refused.add(state);
+                // Nothing else in the class will take a customer who doesn't exist
+                if (result == RentalResult.CUSTOMER_NOT_FOUND) {
+                    break;
+                }
+            }
+            return result;
+        } finally {
+            for (CarState state : refused) {
+                release(state);
+            }
+        }
+    }
+
+    // Available cars of the class as far as the allocator knows
+    public synchronized int getAvailableCount(String brand, String model) {
+        Queues queues = queues(brand, model);
+        return queues == null ? 0 : queues.byPolicy[0].size();
+    }
+
+    // Last event reflected in the queues
+    public synchronized long getAppliedSequence() {
+        return appliedSequence;
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        Flow.Subscription s = subscription;
+        if (s != null) {
+            s.cancel();
+        }
+    }
+}
@@ -0,0 +1,100 @@
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+// Checks that FleetAllocator stays usable when cars are returned while it is
+// being built. Each round rents the whole fleet, then returns it on another
+// thread while attach() rebuilds from the history, so some returns land between
+// the snapshot it builds from and the events it replays. Once the allocator has
+// caught up it must know every available car, and renting through rentBest must
+// take each of them once: a car whose queue order broke shows up as a class
+// that runs out of attempts while cars are still free. Exits with status 1 on
+// any failure.
+//
+// Usage: java FleetAllocatorTest [cars] [rounds]
+public class FleetAllocatorTest {
+    private static final int HISTORY_ROUNDS = 40;
+    private static final int MAX_REPORTED = 20;
+
+    public static void main(String[] args) throws Exception {
+        int cars = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+        List<String> failures = new ArrayList<>();
+
+        CarRentalSystem system = new CarRentalSystem(Clock.systemUTC());
+        for (int id = 1; id <= cars; id++) {
+            system.addCar(new Car(id, "Model" + (id % 7), "Brand" + (id % 3)));
+        }
+        system.addCustomer(new Customer(1, "Renter", "DL1"));
+        // A history long enough that the rebuild takes a while to read
+        for (int r = 0; r < HISTORY_ROUNDS; r++) {
+            rentAll(system, cars);
+            returnAll(system, cars);
+        }
+
+        for (int round = 0; round < rounds && failures.size() < MAX_REPORTED; round++) {
+            rentAll(system, cars);
+            CountDownLatch started = new CountDownLatch(1);
+            Thread returner = new Thread(() -> {
+                started.countDown();
+                returnAll(system, cars);
+            }, "returner");
+            returner.start();
+            started.await();
+            try (FleetAllocator allocator = FleetAllocator.attach(system)) {
+                returner.join();
+                awaitCaughtUp(system, allocator);
+                check(system, allocator, cars, "round " + round, failures);
+            }
+            returnAll(system, cars);
+        }
+
+        if (!failures.isEmpty()) {
+            System.out.println(failures.size() + " failures:");
+            for (String failure : failures) {
+                System.out.println("  " + failure);
+            }
+            System.exit(1);
+        }
+        System.out.println("OK: " + rounds + " rebuilds of " + cars + " cars with returns running");
+    }
+
+    private static void rentAll(CarRentalSystem system, int cars) {
+        for (int id = 1; id <= cars; id++) {
+            system.rentCar(id, 1);
+        }
+    }
+
+    private static void returnAll(CarRentalSystem system, int cars) {
+        for (int id = 1; id <= cars; id++) {
+            system.returnCar(id);
+        }
+    }
+
+    private static void awaitCaughtUp(CarRentalSystem system, FleetAllocator allocator) throws InterruptedException {
+        long last = system.getEvents().getLastSequence();
+        while (allocator.getAppliedSequence() < last) {
+            Thread.sleep(1);
+        }
+    }
+
+    // Every car is back, so the allocator must offer all of them and rentBest
+    // must rent each exactly once before the class runs dry
+    private static void check(CarRentalSystem system, FleetAllocator allocator, int cars, String when,
+            List<String> failures) {
+        int known = allocator.getAvailableCount(null, null);
+        if (known != cars) {
+            failures.add(when + ": allocator knows " + known + " available cars of " + cars);
+        }
+        int rented = 0;
+        RentalResult result;
+        while ((result = allocator.rentBest(null, null, FleetAllocator.Policy.LEAST_WEAR, 1, null)).isSuccess()) {
+            rented++;
+        }
+        if (rented != cars || system.getAvailableCarCount() != 0) {
+            failures.add(when + ": rentBest rented " + rented + " of " + cars + " cars, then " + result
+                    + " with " + system.getAvailableCarCount() + " still available");
+        }
+    }
+}
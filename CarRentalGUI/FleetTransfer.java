@@ -0,0 +1,344 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+// Streaming bulk import/export of cars, customers and rentals as CSV or NDJSON.
+// Imports read line by line and hand rows to CarRentalSystem in fixed-size chunks,
+// so duplicate checks use the id index once per chunk and memory stays constant
+// however large the file is. Exports page through the system the same way.
+class FleetTransfer {
+    static final int CHUNK_SIZE = 10_000;
+    private static final int SAMPLE_REJECTIONS = 100;
+
+    static final String[] CAR_COLUMNS = { "id", "brand", "model" };
+    static final String[] CUSTOMER_COLUMNS = { "id", "name", "licenseNumber" };
+    static final String[] RENTAL_COLUMNS = { "carId", "customerId", "rentalTime", "returnTime" };
+
+    enum Format {
+        CSV, NDJSON;
+
+        // NDJSON for .ndjson/.jsonl/.json files, CSV otherwise
+        static Format forFile(Path file) {
+            String name = file.getFileName().toString().toLowerCase();
+            return name.endsWith(".ndjson") || name.endsWith(".jsonl") || name.endsWith(".json") ? NDJSON : CSV;
+        }
+    }
+
+    // Outcome of an import: counts plus the first few rejected rows
+    static class ImportReport {
+        private int accepted;
+        private int rejected;
+        private final List<String> sampleRejections = new ArrayList<>();
+
+        public int getAccepted() {
+            return accepted;
+        }
+
+        public int getRejected() {
+            return rejected;
+        }
+
+        public List<String> getSampleRejections() {
+            return sampleRejections;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("Imported: %d | Rejected: %d", accepted, rejected);
+        }
+    }
+
+    // Turns one row's named fields into a record; throws IllegalArgumentException on bad data
+    private interface RowMapper<T> {
+        T map(Map<String, String> fields);
+    }
+
+    // Imports --------------------------------------------------------------
+
+    // Rejected rows are also written to rejects (one "line N: reason: row" per line) if given
+    static ImportReport importCars(BufferedReader in, Format format, CarRentalSystem system, Writer rejects)
+            throws IOException {
+        return importRows(in, format, CAR_COLUMNS, rejects,
+                fields -> new Car(parseId(fields, "id"), required(fields, "model"), required(fields, "brand")),
+                system::addCarsWithValidation,
+                car -> "Car ID " + car.getId() + " already exists");
+    }
+
+    static ImportReport importCustomers(BufferedReader in, Format format, CarRentalSystem system, Writer rejects)
+            throws IOException {
+        return importRows(in, format, CUSTOMER_COLUMNS, rejects,
+                fields -> new Customer(parseId(fields, "id"), required(fields, "name"), required(fields, "licenseNumber")),
+                system::addCustomersWithValidation,
+                customer -> "Customer ID " + customer.getId() + " already exists");
+    }
+
+    private static <T> ImportReport importRows(BufferedReader in, Format format, String[] defaultColumns,
+            Writer rejects, RowMapper<T> mapper, Function<List<T>, boolean[]> addChunk,
+            Function<T, String> duplicateReason) throws IOException {
+        ImportReport report = new ImportReport();
+        List<T> chunk = new ArrayList<>(CHUNK_SIZE);
+        List<String> chunkLines = new ArrayList<>(CHUNK_SIZE);
+        int[] chunkLineNumbers = new int[CHUNK_SIZE];
+        String[] columns = defaultColumns;
+
+        String line;
+        int lineNumber = 0;
+        while ((line = in.readLine()) != null) {
+            lineNumber++;
+            if (line.trim().isEmpty()) {
+                continue;
+            }
+            Map<String, String> fields;
+            try {
+                if (format == Format.NDJSON) {
+                    fields = Json.parseObject(line);
+                } else {
+                    List<String> values = parseCsvLine(line);
+                    // A first row naming the columns is a header, in whatever order it lists them
+                    if (lineNumber == 1 && values.contains(defaultColumns[0])) {
+                        columns = values.toArray(new String[0]);
+                        continue;
+                    }
+                    fields = new HashMap<>();
+                    for (int i = 0; i < columns.length && i < values.size(); i++) {
+                        fields.put(columns[i], values.get(i));
+                    }
+                }
+                chunkLineNumbers[chunk.size()] = lineNumber;
+                chunk.add(mapper.map(fields));
+                chunkLines.add(line);
+            } catch (IllegalArgumentException e) {
+                reject(report, rejects, lineNumber, e.getMessage(), line);
+                continue;
+            }
+
+            if (chunk.size() == CHUNK_SIZE) {
+                flushChunk(report, rejects, chunk, chunkLines, chunkLineNumbers, addChunk, duplicateReason);
+            }
+        }
+        flushChunk(report, rejects, chunk, chunkLines, chunkLineNumbers, addChunk, duplicateReason);
+        if (rejects != null) {
+            rejects.flush();
+        }
+        return report;
+    }
+
+    private static <T> void flushChunk(ImportReport report, Writer rejects, List<T> chunk, List<String> lines,
+            int[] lineNumbers, Function<List<T>, boolean[]> addChunk, Function<T, String> duplicateReason)
+            throws IOException {
+        if (chunk.isEmpty()) {
+            return;
+        }
+        boolean[] added = addChunk.apply(chunk);
+        for (int i = 0; i < added.length; i++) {
+            if (added[i]) {
+                report.accepted++;
+            } else {
+                reject(report, rejects, lineNumbers[i], duplicateReason.apply(chunk.get(i)), lines.get(i));
+            }
+        }
+        chunk.clear();
+        lines.clear();
+    }
+
+    private static void reject(ImportReport report, Writer rejects, int lineNumber, String reason, String line)
+            throws IOException {
+        report.rejected++;
+        String entry = "line " + lineNumber + ": " + reason + ": " + line;
+        if (report.sampleRejections.size() < SAMPLE_REJECTIONS) {
+            report.sampleRejections.add(entry);
+        }
+        if (rejects != null) {
+            rejects.write(entry);
+            rejects.write('\n');
+        }
+    }
+
+    private static String required(Map<String, String> fields, String name) {
+        String value = fields.get(name);
+        if (value == null || value.trim().isEmpty()) {
+            throw new IllegalArgumentException("Missing " + name);
+        }
+        // Checked per row, so one overlong value rejects its row rather than the chunk
+        RentalJournal.checkString(name, value.trim());
+        return value.trim();
+    }
+
+    private static int parseId(Map<String, String> fields, String name) {
+        String value = required(fields, name);
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid " + name + " '" + value + "'");
+        }
+    }
+
+    // Exports --------------------------------------------------------------
+
+    // Each export returns the number of records written
+    static long exportCars(CarRentalSystem system, Writer out, Format format) throws IOException {
+        writeHeader(out, format, CAR_COLUMNS);
+        long count = 0;
+        for (int offset = 0;; offset += CHUNK_SIZE) {
+            List<Car> page = system.getCars(offset, CHUNK_SIZE);
+            for (Car car : page) {
+                writeRow(out, format, CAR_COLUMNS, String.valueOf(car.getId()), car.getBrand(), car.getModel());
+            }
+            count += page.size();
+            if (page.size() < CHUNK_SIZE) {
+                break;
+            }
+        }
+        out.flush();
+        return count;
+    }
+
+    static long exportCustomers(CarRentalSystem system, Writer out, Format format) throws IOException {
+        writeHeader(out, format, CUSTOMER_COLUMNS);
+        long count = 0;
+        for (int offset = 0;; offset += CHUNK_SIZE) {
+            List<Customer> page = system.getCustomers(offset, CHUNK_SIZE);
+            for (Customer customer : page) {
+                writeRow(out, format, CUSTOMER_COLUMNS,
+                        String.valueOf(customer.getId()), customer.getName(), customer.getLicenseNumber());
+            }
+            count += page.size();
+            if (page.size() < CHUNK_SIZE) {
+                break;
+            }
+        }
+        out.flush();
+        return count;
+    }
+
+    // Closed rentals first, then the open ones (returnTime left empty)
+    static long exportRentals(CarRentalSystem system, Writer out, Format format) throws IOException {
+        writeHeader(out, format, RENTAL_COLUMNS);
+        long[] count = { 0 };
+        try {
+            system.forEachRental(rental -> {
+                try {
+                    writeRow(out, format, RENTAL_COLUMNS,
+                            String.valueOf(rental.getCar().getId()),
+                            String.valueOf(rental.getCustomer().getId()),
+                            String.valueOf(rental.getRentalTime()),
+                            rental.isReturned() ? String.valueOf(rental.getReturnTime()) : null);
+                    count[0]++;
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        out.flush();
+        return count[0];
+    }
+
+    private static void writeHeader(Writer out, Format format, String[] columns) throws IOException {
+        if (format == Format.CSV) {
+            out.write(String.join(",", columns));
+            out.write('\n');
+        }
+    }
+
+    // Null values are left empty in CSV and omitted in NDJSON; all NDJSON values but
+    // numeric ones are written as strings
+    private static void writeRow(Writer out, Format format, String[] columns, String... values) throws IOException {
+        StringBuilder row = new StringBuilder(64);
+        if (format == Format.CSV) {
+            for (int i = 0; i < values.length; i++) {
+                if (i > 0) {
+                    row.append(',');
+                }
+                if (values[i] != null) {
+                    csvField(row, values[i]);
+                }
+            }
+        } else {
+            row.append('{');
+            for (int i = 0; i < values.length; i++) {
+                if (values[i] == null) {
+                    continue;
+                }
+                if (row.length() > 1) {
+                    row.append(',');
+                }
+                Json.string(row, columns[i]).append(':');
+                if (isNumeric(columns[i])) {
+                    row.append(values[i]);
+                } else {
+                    Json.string(row, values[i]);
+                }
+            }
+            row.append('}');
+        }
+        row.append('\n');
+        out.append(row);
+    }
+
+    private static boolean isNumeric(String column) {
+        return column.equals("id") || column.endsWith("Id") || column.endsWith("Time");
+    }
+
+    // CSV helpers ----------------------------------------------------------
+
+    // Splits one CSV line, honouring double-quoted fields with "" escapes
+    static List<String> parseCsvLine(String line) {
+        List<String> values = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c == '"') {
+                    if (i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                        field.append('"');
+                        i++;
+                    } else {
+                        quoted = false;
+                    }
+                } else {
+                    field.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                values.add(field.toString());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        if (quoted) {
+            throw new IllegalArgumentException("Unterminated quoted field");
+        }
+        values.add(field.toString());
+        return values;
+    }
+
+    static void csvField(StringBuilder out, String value) {
+        boolean quote = value.indexOf(',') >= 0 || value.indexOf('"') >= 0
+                || value.indexOf('\n') >= 0 || value.indexOf('\r') >= 0;
+        if (!quote) {
+            out.append(value);
+            return;
+        }
+        out.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"') {
+                out.append('"');
+            }
+            out.append(c);
+        }
+        out.append('"');
+    }
+}
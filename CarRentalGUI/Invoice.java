@@ -0,0 +1,82 @@
+// Charges for one closed rental, in cents, as priced by a RateTable
+class Invoice {
+    private final int carId;
+    private final int customerId;
+    private final long rentalTime;
+    private final long returnTime;
+    private final long dueTime;
+    private final int days;
+    private final long baseCents;
+    private final long surchargeCents;
+    private final long lateFeeCents;
+
+    Invoice(int carId, int customerId, long rentalTime, long returnTime, long dueTime, int days, long baseCents,
+            long surchargeCents, long lateFeeCents) {
+        this.carId = carId;
+        this.customerId = customerId;
+        this.rentalTime = rentalTime;
+        this.returnTime = returnTime;
+        this.dueTime = dueTime;
+        this.days = days;
+        this.baseCents = baseCents;
+        this.surchargeCents = surchargeCents;
+        this.lateFeeCents = lateFeeCents;
+    }
+
+    public int getCarId() {
+        return carId;
+    }
+
+    public int getCustomerId() {
+        return customerId;
+    }
+
+    public long getRentalTime() {
+        return rentalTime;
+    }
+
+    public long getReturnTime() {
+        return returnTime;
+    }
+
+    // RateTable.NO_DUE_TIME for a walk-in rental
+    public long getDueTime() {
+        return dueTime;
+    }
+
+    // Billing days, the last of which may be a part-day
+    public int getDays() {
+        return days;
+    }
+
+    // At the plain daily and hourly rates
+    public long getBaseCents() {
+        return baseCents;
+    }
+
+    // What weekend and peak multipliers added (or took off)
+    public long getSurchargeCents() {
+        return surchargeCents;
+    }
+
+    public long getLateFeeCents() {
+        return lateFeeCents;
+    }
+
+    public long getTotalCents() {
+        return baseCents + surchargeCents + lateFeeCents;
+    }
+
+    // 12345 -> "123.45"
+    static String money(long cents) {
+        long abs = Math.abs(cents);
+        long fraction = abs % 100;
+        return (cents < 0 ? "-" : "") + abs / 100 + (fraction < 10 ? ".0" : ".") + fraction;
+    }
+
+    @Override
+    public String toString() {
+        return "Days: " + days + " | Base: " + money(baseCents) + " | Surcharge: " + money(surchargeCents)
+                + " | Late fee: " + money(lateFeeCents) + " | Total: " + money(getTotalCents());
+    }
+}
@@ -0,0 +1,137 @@
+import java.util.HashMap;
+import java.util.Map;
+
+// Minimal JSON support: flat objects of string/number/boolean values in, strings out.
+// Malformed input is reported as IllegalArgumentException.
+class Json {
+    static StringBuilder string(StringBuilder out, String value) {
+        out.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    out.append("\\\"");
+                    break;
+                case '\\':
+                    out.append("\\\\");
+                    break;
+                case '\n':
+                    out.append("\\n");
+                    break;
+                case '\r':
+                    out.append("\\r");
+                    break;
+                case '\t':
+                    out.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        out.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        out.append(c);
+                    }
+            }
+        }
+        return out.append('"');
+    }
+
+    static Map<String, String> parseObject(String text) {
+        Map<String, String> fields = new HashMap<>();
+        int[] pos = { skipSpace(text, 0) };
+        expect(text, pos, '{');
+        if (peek(text, pos) == '}') {
+            pos[0]++;
+            return fields;
+        }
+        while (true) {
+            String key = parseString(text, pos);
+            expect(text, pos, ':');
+            fields.put(key, parseValue(text, pos));
+            char next = peek(text, pos);
+            pos[0]++;
+            if (next == '}') {
+                return fields;
+            }
+            if (next != ',') {
+                throw new IllegalArgumentException("Invalid JSON: expected ',' or '}'");
+            }
+        }
+    }
+
+    private static String parseValue(String text, int[] pos) {
+        if (peek(text, pos) == '"') {
+            return parseString(text, pos);
+        }
+        int start = pos[0];
+        while (pos[0] < text.length() && ",} \t\r\n".indexOf(text.charAt(pos[0])) < 0) {
+            pos[0]++;
+        }
+        if (start == pos[0]) {
+            throw new IllegalArgumentException("Invalid JSON: missing value");
+        }
+        return text.substring(start, pos[0]);
+    }
+
+    private static String parseString(String text, int[] pos) {
+        expect(text, pos, '"');
+        StringBuilder out = new StringBuilder();
+        while (pos[0] < text.length()) {
+            char c = text.charAt(pos[0]++);
+            if (c == '"') {
+                return out.toString();
+            }
+            if (c == '\\' && pos[0] < text.length()) {
+                char e = text.charAt(pos[0]++);
+                switch (e) {
+                    case 'n':
+                        out.append('\n');
+                        break;
+                    case 't':
+                        out.append('\t');
+                        break;
+                    case 'r':
+                        out.append('\r');
+                        break;
+                    case 'u':
+                        if (pos[0] + 4 > text.length()) {
+                            throw new IllegalArgumentException("Invalid JSON: bad escape");
+                        }
+                        try {
+                            out.append((char) Integer.parseInt(text.substring(pos[0], pos[0] + 4), 16));
+                        } catch (NumberFormatException ex) {
+                            throw new IllegalArgumentException("Invalid JSON: bad escape");
+                        }
+                        pos[0] += 4;
+                        break;
+                    default:
+                        out.append(e);
+                }
+            } else {
+                out.append(c);
+            }
+        }
+        throw new IllegalArgumentException("Invalid JSON: unterminated string");
+    }
+
+    private static char peek(String text, int[] pos) {
+        pos[0] = skipSpace(text, pos[0]);
+        if (pos[0] >= text.length()) {
+            throw new IllegalArgumentException("Invalid JSON: unexpected end of input");
+        }
+        return text.charAt(pos[0]);
+    }
+
+    private static void expect(String text, int[] pos, char c) {
+        if (peek(text, pos) != c) {
+            throw new IllegalArgumentException("Invalid JSON: expected '" + c + "'");
+        }
+        pos[0]++;
+    }
+
+    private static int skipSpace(String text, int pos) {
+        while (pos < text.length() && Character.isWhitespace(text.charAt(pos))) {
+            pos++;
+        }
+        return pos;
+    }
+}
@@ -0,0 +1,250 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Supplier;
+import javax.swing.SwingWorker;
+import javax.swing.table.AbstractTableModel;
+
+// Lazy table model over a CarRentalSystem listing. JTable asks only for the rows it
+// paints, so rows are fetched a page at a time on a SwingWorker and kept in a small
+// LRU cache; rows not loaded yet show as "…" until their page arrives. Memory and
+// EDT work stay flat no matter how large the fleet is.
+abstract class PagedTableModel<T> extends AbstractTableModel {
+    private static final long serialVersionUID = 1L;
+    private static final int PAGE_SIZE = 200;
+    private static final int CACHED_PAGES = 50;
+    private static final String LOADING = "…";
+
+    private final String[] columns;
+    private int rowCount;
+    private final Set<Integer> pagesLoading = new HashSet<>();
+    private final Map<Integer, List<T>> pages = new LinkedHashMap<Integer, List<T>>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, List<T>> eldest) {
+            return size() > CACHED_PAGES;
+        }
+    };
+
+    PagedTableModel(String... columns) {
+        this.columns = columns;
+    }
+
+    // Called off the EDT
+    protected abstract int fetchCount();
+
+    protected abstract List<T> fetchPage(int offset, int limit);
+
+    protected abstract Object columnValue(T row, int column);
+
+    // Reloads the row count off the EDT, then calls onLoaded on the EDT
+    public void refresh(Runnable onLoaded) {
+        new SwingWorker<Integer, Void>() {
+            @Override
+            protected Integer doInBackground() {
+                return fetchCount();
+            }
+
+            @Override
+            protected void done() {
+                try {
+                    rowCount = get();
+                } catch (InterruptedException | ExecutionException e) {
+                    rowCount = 0;
+                }
+                pages.clear();
+                pagesLoading.clear();
+                fireTableDataChanged();
+                onLoaded.run();
+            }
+        }.execute();
+    }
+
+    @Override
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    @Override
+    public int getColumnCount() {
+        return columns.length + 1;
+    }
+
+    @Override
+    public String getColumnName(int column) {
+        return column == 0 ? "#" : columns[column - 1];
+    }
+
+    @Override
+    public Object getValueAt(int rowIndex, int columnIndex) {
+        if (columnIndex == 0) {
+            return rowIndex + 1;
+        }
+        int page = rowIndex / PAGE_SIZE;
+        List<T> rows = pages.get(page);
+        if (rows == null) {
+            loadPage(page);
+            return LOADING;
+        }
+        int offset = rowIndex % PAGE_SIZE;
+        return offset < rows.size() ? columnValue(rows.get(offset), columnIndex - 1) : "";
+    }
+
+    private void loadPage(int page) {
+        if (!pagesLoading.add(page)) {
+            return;
+        }
+        new SwingWorker<List<T>, Void>() {
+            @Override
+            protected List<T> doInBackground() {
+                return fetchPage(page * PAGE_SIZE, PAGE_SIZE);
+            }
+
+            @Override
+            protected void done() {
+                pagesLoading.remove(page);
+                try {
+                    pages.put(page, get());
+                } catch (InterruptedException | ExecutionException e) {
+                    pages.put(page, new ArrayList<>());
+                }
+                int first = page * PAGE_SIZE;
+                if (first < rowCount) {
+                    fireTableRowsUpdated(first, Math.min(first + PAGE_SIZE, rowCount) - 1);
+                }
+            }
+        }.execute();
+    }
+
+    // Listings -------------------------------------------------------------
+
+    static PagedTableModel<Car> allCars(CarRentalSystem system) {
+        return new CarModel() {
+            @Override
+            protected int fetchCount() {
+                return system.getCarCount();
+            }
+
+            @Override
+            protected List<Car> fetchPage(int offset, int limit) {
+                return system.getCars(offset, limit);
+            }
+        };
+    }
+
+    static PagedTableModel<Car> availableCars(CarRentalSystem system) {
+        return new CarModel() {
+            @Override
+            protected int fetchCount() {
+                return system.getAvailableCarCount();
+            }
+
+            @Override
+            protected List<Car> fetchPage(int offset, int limit) {
+                return system.getAvailableCars(offset, limit);
+            }
+        };
+    }
+
+    static PagedTableModel<Customer> customers(CarRentalSystem system) {
+        return new CustomerModel() {
+            @Override
+            protected int fetchCount() {
+                return system.getCustomerCount();
+            }
+
+            @Override
+            protected List<Customer> fetchPage(int offset, int limit) {
+                return system.getCustomers(offset, limit);
+            }
+        };
+    }
+
+    // Search results are computed once, when the model is refreshed
+    static PagedTableModel<Car> carResults(Supplier<List<Car>> search) {
+        return new CarModel() {
+            private volatile List<Car> results = Collections.emptyList();
+
+            @Override
+            protected int fetchCount() {
+                results = search.get();
+                return results.size();
+            }
+
+            @Override
+            protected List<Car> fetchPage(int offset, int limit) {
+                return slice(results, offset, limit);
+            }
+        };
+    }
+
+    // Customers holding the license number, or else those whose name matches the text
+    static PagedTableModel<Customer> customerSearch(CarRentalSystem system, String text) {
+        return new CustomerModel() {
+            private volatile List<Customer> results = Collections.emptyList();
+
+            @Override
+            protected int fetchCount() {
+                List<Customer> matches = system.findCustomersByLicense(text);
+                results = matches.isEmpty() ? system.findCustomersByName(text, Integer.MAX_VALUE) : matches;
+                return results.size();
+            }
+
+            @Override
+            protected List<Customer> fetchPage(int offset, int limit) {
+                return slice(results, offset, limit);
+            }
+        };
+    }
+
+    private static <T> List<T> slice(List<T> rows, int offset, int limit) {
+        int from = Math.min(offset, rows.size());
+        return new ArrayList<>(rows.subList(from, Math.min(from + limit, rows.size())));
+    }
+
+    private abstract static class CarModel extends PagedTableModel<Car> {
+        private static final long serialVersionUID = 1L;
+
+        CarModel() {
+            super("ID", "Brand", "Model", "Status");
+        }
+
+        @Override
+        protected Object columnValue(Car car, int column) {
+            switch (column) {
+                case 0:
+                    return car.getId();
+                case 1:
+                    return car.getBrand();
+                case 2:
+                    return car.getModel();
+                default:
+                    return car.isAvailable() ? "Available" : "Rented";
+            }
+        }
+    }
+
+    private abstract static class CustomerModel extends PagedTableModel<Customer> {
+        private static final long serialVersionUID = 1L;
+
+        CustomerModel() {
+            super("ID", "Name", "License");
+        }
+
+        @Override
+        protected Object columnValue(Customer customer, int column) {
+            switch (column) {
+                case 0:
+                    return customer.getId();
+                case 1:
+                    return customer.getName();
+                default:
+                    return customer.getLicenseNumber();
+            }
+        }
+    }
+}
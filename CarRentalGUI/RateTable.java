@@ -0,0 +1,294 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Prices for the fleet: a daily rate, an hourly rate for a last part-day and a
+// late fee per hour, per brand/model, with multipliers for weekend days and peak
+// periods. Immutable once built. build() resolves every brand's fallback rate up
+// front and sorts the peak periods, so pricing a rental is two hash lookups and a
+// binary search per day billed; a table can be shared by any number of threads.
+//
+// A rental is billed per 24 hours from pick-up. Each full day costs the daily
+// rate and the last part-day the hourly rate for the hours started, up to the
+// daily rate, and each day is multiplied by what applies on the UTC date it
+// starts. A rental due back by a time (the end of the renter's booking) and
+// returned more than the grace period after it also pays the late fee for every
+// hour started past that time.
+class RateTable {
+    static final long HOUR_MILLIS = 3_600_000L;
+    static final long DAY_MILLIS = 86_400_000L;
+    // Due time of a walk-in rental, which is never late
+    static final long NO_DUE_TIME = Long.MAX_VALUE;
+    // Brand or model that matches any
+    static final String ANY = "*";
+
+    static final Rate DEFAULT_RATE = new Rate(4500, 900, 1500);
+    static final long DEFAULT_GRACE_MILLIS = 60 * 60_000L;
+    static final RateTable DEFAULT = builder().build();
+
+    // Rates of one brand/model, in cents
+    static final class Rate {
+        private final long dailyCents;
+        private final long hourlyCents;
+        private final long lateHourCents;
+
+        Rate(long dailyCents, long hourlyCents, long lateHourCents) {
+            if (dailyCents < 0 || hourlyCents < 0 || lateHourCents < 0) {
+                throw new IllegalArgumentException("Rates can't be negative");
+            }
+            this.dailyCents = dailyCents;
+            this.hourlyCents = hourlyCents;
+            this.lateHourCents = lateHourCents;
+        }
+
+        public long getDailyCents() {
+            return dailyCents;
+        }
+
+        public long getHourlyCents() {
+            return hourlyCents;
+        }
+
+        public long getLateHourCents() {
+            return lateHourCents;
+        }
+
+        @Override
+        public String toString() {
+            return "Daily: " + Invoice.money(dailyCents) + " | Hourly: " + Invoice.money(hourlyCents)
+                    + " | Late per hour: " + Invoice.money(lateHourCents);
+        }
+    }
+
+    // brand -> model -> rate; each brand's map also holds its fallback under ANY
+    private final Map<String, Map<String, Rate>> byBrand;
+    private final Rate defaultRate;
+    private final double weekendMultiplier;
+    // Peak periods sorted by start, none overlapping
+    private final long[] peakStarts;
+    private final long[] peakEnds;
+    private final double[] peakMultipliers;
+    private final long graceMillis;
+
+    private RateTable(Builder builder) {
+        defaultRate = builder.rates.getOrDefault(ANY, new HashMap<>()).getOrDefault(ANY, DEFAULT_RATE);
+        byBrand = new HashMap<>();
+        for (Map.Entry<String, Map<String, Rate>> brand : builder.rates.entrySet()) {
+            if (brand.getKey().equals(ANY)) {
+                continue;
+            }
+            Map<String, Rate> models = new HashMap<>(brand.getValue());
+            models.putIfAbsent(ANY, defaultRate);
+            byBrand.put(brand.getKey(), models);
+        }
+        weekendMultiplier = builder.weekendMultiplier;
+        graceMillis = builder.graceMillis;
+
+        List<long[]> periods = new ArrayList<>(builder.peaks);
+        periods.sort((a, b) -> Long.compare(a[0], b[0]));
+        peakStarts = new long[periods.size()];
+        peakEnds = new long[periods.size()];
+        peakMultipliers = new double[periods.size()];
+        for (int i = 0; i < periods.size(); i++) {
+            long[] period = periods.get(i);
+            if (i > 0 && period[0] < peakEnds[i - 1]) {
+                throw new IllegalArgumentException("Peak periods overlap at " + LocalDate.ofEpochDay(
+                        Math.floorDiv(period[0], DAY_MILLIS)));
+            }
+            peakStarts[i] = period[0];
+            peakEnds[i] = period[1];
+            peakMultipliers[i] = Double.longBitsToDouble(period[2]);
+        }
+    }
+
+    static Builder builder() {
+        return new Builder();
+    }
+
+    static final class Builder {
+        private final Map<String, Map<String, Rate>> rates = new HashMap<>();
+        // {start, end, multiplier bits}
+        private final List<long[]> peaks = new ArrayList<>();
+        private double weekendMultiplier = 1.0;
+        private long graceMillis = DEFAULT_GRACE_MILLIS;
+
+        private Builder() {
+        }
+
+        // ANY as the model sets the brand's fallback; ANY for both sets the
+        // fallback for brands without one
+        public Builder rate(String brand, String model, Rate rate) {
+            if (brand.equals(ANY) && !model.equals(ANY)) {
+                throw new IllegalArgumentException("A model rate needs a brand: " + model);
+            }
+            rates.computeIfAbsent(brand, b -> new HashMap<>()).put(model, rate);
+            return this;
+        }
+
+        public Builder weekendMultiplier(double multiplier) {
+            this.weekendMultiplier = checkMultiplier(multiplier);
+            return this;
+        }
+
+        // Days starting within [from, to) in epoch millis
+        public Builder peak(long from, long to, double multiplier) {
+            if (from >= to) {
+                throw new IllegalArgumentException("Peak period ends before it starts");
+            }
+            peaks.add(new long[] { from, to, Double.doubleToLongBits(checkMultiplier(multiplier)) });
+            return this;
+        }
+
+        public Builder graceMillis(long graceMillis) {
+            if (graceMillis < 0) {
+                throw new IllegalArgumentException("Grace period can't be negative");
+            }
+            this.graceMillis = graceMillis;
+            return this;
+        }
+
+        public RateTable build() {
+            return new RateTable(this);
+        }
+
+        private static double checkMultiplier(double multiplier) {
+            if (!(multiplier > 0) || Double.isInfinite(multiplier)) {
+                throw new IllegalArgumentException("Invalid multiplier " + multiplier);
+            }
+            return multiplier;
+        }
+    }
+
+    // Loading ------------------------------------------------------------------
+
+    // One setting per line; blank lines and lines starting with # are skipped:
+    //   rate,<brand>,<model>,<daily>,<hourly>,<late per hour>   (* for any brand or model)
+    //   weekend,<multiplier>
+    //   peak,<first day>,<last day>,<multiplier>                 (yyyy-mm-dd, UTC)
+    //   grace,<minutes>
+    static RateTable load(Path file) throws IOException {
+        try (BufferedReader in = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            return parse(in);
+        }
+    }
+
+    static RateTable parse(BufferedReader in) throws IOException {
+        Builder builder = builder();
+        int lineNumber = 0;
+        for (String line; (line = in.readLine()) != null;) {
+            lineNumber++;
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            try {
+                List<String> fields = FleetTransfer.parseCsvLine(line);
+                String kind = fields.get(0).trim();
+                if (kind.equals("rate") && fields.size() == 6) {
+                    builder.rate(fields.get(1).trim(), fields.get(2).trim(), new Rate(cents(fields.get(3)),
+                            cents(fields.get(4)), cents(fields.get(5))));
+                } else if (kind.equals("weekend") && fields.size() == 2) {
+                    builder.weekendMultiplier(Double.parseDouble(fields.get(1).trim()));
+                } else if (kind.equals("peak") && fields.size() == 4) {
+                    long from = LocalDate.parse(fields.get(1).trim()).atStartOfDay(ZoneOffset.UTC).toInstant().toEpochMilli();
+                    long to = LocalDate.parse(fields.get(2).trim()).plusDays(1).atStartOfDay(ZoneOffset.UTC)
+                            .toInstant().toEpochMilli();
+                    builder.peak(from, to, Double.parseDouble(fields.get(3).trim()));
+                } else if (kind.equals("grace") && fields.size() == 2) {
+                    builder.graceMillis(Long.parseLong(fields.get(1).trim()) * 60_000L);
+                } else {
+                    throw new IllegalArgumentException("Unknown setting");
+                }
+            } catch (IllegalArgumentException | DateTimeParseException | ArithmeticException e) {
+                throw new IOException("Rate table line " + lineNumber + ": " + e.getMessage() + ": " + line);
+            }
+        }
+        try {
+            return builder.build();
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Rate table: " + e.getMessage());
+        }
+    }
+
+    // "45" or "45.50" to cents
+    private static long cents(String amount) {
+        return new BigDecimal(amount.trim()).movePointRight(2).longValueExact();
+    }
+
+    // Pricing ------------------------------------------------------------------
+
+    public Rate rateFor(Car car) {
+        Map<String, Rate> models = byBrand.get(car.getBrand());
+        if (models == null) {
+            return defaultRate;
+        }
+        Rate rate = models.get(car.getModel());
+        return rate != null ? rate : models.get(ANY);
+    }
+
+    // Multiplier for a billing day starting at time
+    public double multiplier(long time) {
+        long day = Math.floorDiv(time, DAY_MILLIS);
+        // 1970-01-01 was a Thursday, so day + 4 counts from a Sunday
+        int dayOfWeek = (int) Math.floorMod(day + 4, 7L);
+        double multiplier = dayOfWeek == 0 || dayOfWeek == 6 ? weekendMultiplier : 1.0;
+        int i = Arrays.binarySearch(peakStarts, time);
+        if (i < 0) {
+            i = -i - 2;
+        }
+        if (i >= 0 && time < peakEnds[i]) {
+            multiplier *= peakMultipliers[i];
+        }
+        return multiplier;
+    }
+
+    // Bills the car for [start, end); a rental shorter than an hour pays for one
+    public Invoice price(Car car, int customerId, long start, long end, long dueTime) {
+        Rate rate = rateFor(car);
+        int days = 0;
+        long base = 0;
+        long charged = 0;
+        long t = start;
+        do {
+            long part = Math.min(DAY_MILLIS, end - t);
+            long cents = part >= DAY_MILLIS ? rate.dailyCents
+                    : Math.min(rate.dailyCents, Math.max(1, (part + HOUR_MILLIS - 1) / HOUR_MILLIS) * rate.hourlyCents);
+            base += cents;
+            charged += Math.round(cents * multiplier(t));
+            days++;
+            t += DAY_MILLIS;
+        } while (t < end);
+        long lateFee = 0;
+        if (dueTime != NO_DUE_TIME && end - dueTime > graceMillis) {
+            lateFee = (end - dueTime + HOUR_MILLIS - 1) / HOUR_MILLIS * rate.lateHourCents;
+        }
+        return new Invoice(car.getId(), customerId, start, end, dueTime, days, base, charged - base, lateFee);
+    }
+
+    public double getWeekendMultiplier() {
+        return weekendMultiplier;
+    }
+
+    public int getPeakPeriodCount() {
+        return peakStarts.length;
+    }
+
+    public long getGraceMillis() {
+        return graceMillis;
+    }
+
+    public Rate getDefaultRate() {
+        return defaultRate;
+    }
+}
@@ -0,0 +1,81 @@
+import java.util.Date;
+
+// Rental class
+// Times are epoch milliseconds from the system's clock; they are only turned
+// into text when displayed.
+class Rental {
+    static final long NOT_RETURNED = Long.MIN_VALUE;
+    // Due time of a rental closed before due times were kept with it
+    static final long DUE_TIME_UNKNOWN = Long.MIN_VALUE;
+
+    private Customer customer;
+    private Car car;
+    private long rentalTime;
+    private volatile long returnTime;
+    // Issued on return; null for rentals read back from the history on disk
+    private volatile Invoice invoice;
+    // The booking's end it was billed against on return (RateTable.NO_DUE_TIME if
+    // none), so billing it again doesn't depend on reservations changed since
+    private volatile long dueTime = DUE_TIME_UNKNOWN;
+
+    public Rental(Customer customer, Car car, long rentalTime) {
+        this.customer = customer;
+        this.car = car;
+        this.rentalTime = rentalTime;
+        this.returnTime = NOT_RETURNED;
+    }
+
+    // Getters and setters
+    public Customer getCustomer() {
+        return customer;
+    }
+
+    public Car getCar() {
+        return car;
+    }
+
+    public long getRentalTime() {
+        return rentalTime;
+    }
+
+    public long getReturnTime() {
+        return returnTime;
+    }
+
+    public boolean isReturned() {
+        return returnTime != NOT_RETURNED;
+    }
+
+    public void setReturnTime(long returnTime) {
+        this.returnTime = returnTime;
+    }
+
+    public Invoice getInvoice() {
+        return invoice;
+    }
+
+    void setInvoice(Invoice invoice) {
+        this.invoice = invoice;
+    }
+
+    public long getDueTime() {
+        return dueTime;
+    }
+
+    void setDueTime(long dueTime) {
+        this.dueTime = dueTime;
+    }
+
+    // Length of the rental so far (or in total once returned)
+    public long getDurationMillis(long now) {
+        return (isReturned() ? returnTime : now) - rentalTime;
+    }
+
+    public String getRentalDate() {
+        return new Date(rentalTime).toString();
+    }
+
+    public String getReturnDate() {
+        return isReturned() ? new Date(returnTime).toString() : null;
+    }
+}
@@ -0,0 +1,376 @@
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+import java.util.concurrent.Flow;
+
+// Utilization, rental duration and top-customer figures for a CarRentalSystem.
+// attach() builds rollups (per brand/model and UTC day, and per customer) from the
+// rental history in one parallel pass, then follows the system's event stream so
+// each return updates them in place. Dashboard queries read the rollups and cost
+// a few hundred map lookups however long the history is. Only closed rentals count.
+class RentalAnalytics implements AutoCloseable {
+    static final long DAY_MILLIS = 86_400_000L;
+    // Closed rentals aggregated per parallel pass when rebuilding
+    private static final int REBUILD_CHUNK = 100_000;
+
+    // Indexes into a day bucket
+    private static final int RENTALS = 0;
+    private static final int DURATION = 1;
+    private static final int RENTED = 2;
+
+    // Figures for one brand/model over a period
+    static class ModelStats {
+        private final String brand;
+        private final String model;
+        private final int cars;
+        private final long rentals;
+        private final long totalDurationMillis;
+        private final long rentedMillis;
+        private final long periodMillis;
+
+        ModelStats(String brand, String model, int cars, long rentals, long totalDurationMillis,
+                long rentedMillis, long periodMillis) {
+            this.brand = brand;
+            this.model = model;
+            this.cars = cars;
+            this.rentals = rentals;
+            this.totalDurationMillis = totalDurationMillis;
+            this.rentedMillis = rentedMillis;
+            this.periodMillis = periodMillis;
+        }
+
+        public String getBrand() {
+            return brand;
+        }
+
+        public String getModel() {
+            return model;
+        }
+
+        public int getCars() {
+            return cars;
+        }
+
+        // Rentals returned during the period
+        public long getRentals() {
+            return rentals;
+        }
+
+        public long getAverageDurationMillis() {
+            return rentals == 0 ? 0 : totalDurationMillis / rentals;
+        }
+
+        // Share of the period the model's cars spent rented, 0 to 1
+        public double getUtilization() {
+            return cars == 0 || periodMillis == 0 ? 0 : (double) rentedMillis / ((double) cars * periodMillis);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s %s | Cars: %d | Rentals: %d | Avg: %.1f h | Utilization: %.1f%%",
+                    brand, model, cars, rentals, getAverageDurationMillis() / 3_600_000.0, getUtilization() * 100);
+        }
+    }
+
+    static class CustomerStats {
+        private final Customer customer;
+        private final long rentals;
+        private final long rentedMillis;
+
+        CustomerStats(Customer customer, long rentals, long rentedMillis) {
+            this.customer = customer;
+            this.rentals = rentals;
+            this.rentedMillis = rentedMillis;
+        }
+
+        public Customer getCustomer() {
+            return customer;
+        }
+
+        public long getRentals() {
+            return rentals;
+        }
+
+        public long getRentedMillis() {
+            return rentedMillis;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s (ID %d) | Rentals: %d | Rented: %.1f h", customer.getName(),
+                    customer.getId(), rentals, rentedMillis / 3_600_000.0);
+        }
+    }
+
+    // Most rentals first, then most time rented
+    private static final Comparator<CustomerStats> BY_ACTIVITY = Comparator
+            .comparingLong(CustomerStats::getRentals)
+            .thenComparingLong(CustomerStats::getRentedMillis)
+            .reversed();
+    private static final Comparator<CustomerTotals> LEAST_ACTIVE_FIRST = Comparator
+            .comparingLong((CustomerTotals t) -> t.rentals)
+            .thenComparingLong(t -> t.rentedMillis);
+
+    private final CarRentalSystem system;
+    // Both guarded by this
+    private Rollups rollups = new Rollups();
+    private long appliedSequence;
+    private volatile Flow.Subscription subscription;
+    private volatile boolean closed;
+
+    private RentalAnalytics(CarRentalSystem system) {
+        this.system = system;
+    }
+
+    public static RentalAnalytics attach(CarRentalSystem system) {
+        RentalAnalytics analytics = new RentalAnalytics(system);
+        analytics.rebuild();
+        return analytics;
+    }
+
+    // Recomputes everything from the history, then resumes the event stream right
+    // after the last change the history reflected. The history is read a chunk at
+    // a time, since it may be far bigger than memory.
+    private void rebuild() {
+        // Events published during the rebuild are kept until the follower resumes
+        system.getEvents().hold();
+        try {
+            List<Car> fleet = new ArrayList<>();
+            long[] historyLength = new long[1];
+            long sequence = system.captureHistory(fleet, historyLength);
+            Rollups built = new Rollups();
+            List<Rental> chunk = new ArrayList<>(REBUILD_CHUNK);
+            for (long from = 0; from < historyLength[0]; from += REBUILD_CHUNK) {
+                chunk.clear();
+                system.forEachClosedRental(from, Math.min(historyLength[0], from + REBUILD_CHUNK), chunk::add);
+                built.merge(chunk.parallelStream().collect(Rollups::new, Rollups::addRental, Rollups::merge));
+            }
+            for (Car car : fleet) {
+                built.addCar(car);
+            }
+            synchronized (this) {
+                rollups = built;
+                appliedSequence = sequence;
+            }
+            if (!closed) {
+                system.getEvents().subscribe(new Follower(), sequence);
+            }
+        } finally {
+            system.getEvents().release();
+        }
+    }
+
+    private final class Follower implements Flow.Subscriber<RentalEvent> {
+        @Override
+        public void onSubscribe(Flow.Subscription s) {
+            subscription = s;
+            if (closed) {
+                s.cancel();
+            } else {
+                s.request(Long.MAX_VALUE);
+            }
+        }
+
+        @Override
+        public void onNext(RentalEvent event) {
+            synchronized (RentalAnalytics.this) {
+                if (event.getType() == RentalEvent.Type.CAR_ADDED) {
+                    rollups.addCar(event.getCar());
+                } else if (event.getType() == RentalEvent.Type.CAR_REMOVED) {
+                    rollups.removeCar(event.getCar());
+                } else if (event.getType() == RentalEvent.Type.CAR_RETURNED && event.getRental() != null) {
+                    Rental rental = event.getRental();
+                    rollups.add(event.getCar(), rental.getCustomer(), rental.getRentalTime(), event.getTime());
+                }
+                appliedSequence = event.getSequence();
+            }
+        }
+
+        // Fell too far behind the stream: start over from the history
+        @Override
+        public void onError(Throwable error) {
+            if (!closed) {
+                rebuild();
+            }
+        }
+
+        @Override
+        public void onComplete() {
+        }
+    }
+
+    // Last event reflected in the rollups
+    public synchronized long getAppliedSequence() {
+        return appliedSequence;
+    }
+
+    // Per brand/model over the whole UTC days covering [from, to), sorted by brand and model
+    public synchronized List<ModelStats> getModelStats(long from, long to) {
+        long firstDay = Math.floorDiv(from, DAY_MILLIS);
+        long lastDay = Math.floorDiv(to - 1, DAY_MILLIS);
+        long period = Math.max(0, lastDay - firstDay + 1) * DAY_MILLIS;
+        List<ModelStats> stats = new ArrayList<>();
+        for (ModelRollup m : rollups.allModels()) {
+            long[] sum = new long[3];
+            for (long[] bucket : m.days.subMap(firstDay, true, lastDay, true).values()) {
+                sum[RENTALS] += bucket[RENTALS];
+                sum[DURATION] += bucket[DURATION];
+                sum[RENTED] += bucket[RENTED];
+            }
+            stats.add(new ModelStats(m.brand, m.model, m.cars, sum[RENTALS], sum[DURATION], sum[RENTED], period));
+        }
+        stats.sort(Comparator.comparing(ModelStats::getBrand).thenComparing(ModelStats::getModel));
+        return stats;
+    }
+
+    // The n customers with the most rentals so far
+    public synchronized List<CustomerStats> getTopCustomers(int n) {
+        return top(rollups.customers.values(), n);
+    }
+
+    // Ad hoc version for any window, straight from a history snapshot with a
+    // parallel stream; counts rentals returned within [from, to)
+    static List<CustomerStats> topCustomers(Collection<Rental> history, int n, long from, long to) {
+        Rollups window = history.parallelStream()
+                .filter(r -> r.isReturned() && r.getReturnTime() >= from && r.getReturnTime() < to)
+                .collect(Rollups::new, Rollups::addRental, Rollups::merge);
+        return top(window.customers.values(), n);
+    }
+
+    // Keeps the n best in a min-heap, so most customers cost one comparison
+    private static List<CustomerStats> top(Collection<CustomerTotals> totals, int n) {
+        if (n <= 0) {
+            return new ArrayList<>();
+        }
+        PriorityQueue<CustomerTotals> best = new PriorityQueue<>(n + 1, LEAST_ACTIVE_FIRST);
+        for (CustomerTotals t : totals) {
+            if (best.size() < n) {
+                best.add(t);
+            } else if (LEAST_ACTIVE_FIRST.compare(t, best.peek()) > 0) {
+                best.poll();
+                best.add(t);
+            }
+        }
+        List<CustomerStats> result = new ArrayList<>(best.size());
+        for (CustomerTotals t : best) {
+            result.add(new CustomerStats(t.customer, t.rentals, t.rentedMillis));
+        }
+        result.sort(BY_ACTIVITY);
+        return result;
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        Flow.Subscription s = subscription;
+        if (s != null) {
+            s.cancel();
+        }
+    }
+
+    // Rollups -----------------------------------------------------------------
+
+    private static final class ModelRollup {
+        final String brand;
+        final String model;
+        int cars;
+        // UTC day -> {rentals returned, their total duration, time rented that day}
+        final NavigableMap<Long, long[]> days = new TreeMap<>();
+
+        ModelRollup(String brand, String model) {
+            this.brand = brand;
+            this.model = model;
+        }
+
+        long[] day(long day) {
+            return days.computeIfAbsent(day, d -> new long[3]);
+        }
+    }
+
+    private static final class CustomerTotals {
+        final Customer customer;
+        long rentals;
+        long rentedMillis;
+
+        CustomerTotals(Customer customer) {
+            this.customer = customer;
+        }
+    }
+
+    // Mergeable, so parallel streams can build one per thread and combine them
+    private static final class Rollups {
+        // brand -> model -> rollup
+        final Map<String, Map<String, ModelRollup>> models = new HashMap<>();
+        final Map<Integer, CustomerTotals> customers = new HashMap<>();
+
+        private ModelRollup model(String brand, String model) {
+            return models.computeIfAbsent(brand, b -> new HashMap<>())
+                    .computeIfAbsent(model, m -> new ModelRollup(brand, m));
+        }
+
+        private ModelRollup model(Car car) {
+            return model(car.getBrand(), car.getModel());
+        }
+
+        List<ModelRollup> allModels() {
+            List<ModelRollup> all = new ArrayList<>();
+            for (Map<String, ModelRollup> byModel : models.values()) {
+                all.addAll(byModel.values());
+            }
+            return all;
+        }
+
+        void addCar(Car car) {
+            model(car).cars++;
+        }
+
+        void removeCar(Car car) {
+            model(car).cars--;
+        }
+
+        void addRental(Rental rental) {
+            add(rental.getCar(), rental.getCustomer(), rental.getRentalTime(), rental.getReturnTime());
+        }
+
+        // Counted on the day it ended; its rented time is split over the days it spanned
+        void add(Car car, Customer customer, long start, long end) {
+            ModelRollup m = model(car);
+            long[] returnDay = m.day(Math.floorDiv(end, DAY_MILLIS));
+            returnDay[RENTALS]++;
+            returnDay[DURATION] += Math.max(0, end - start);
+            for (long t = start; t < end;) {
+                long day = Math.floorDiv(t, DAY_MILLIS);
+                long upTo = Math.min(end, (day + 1) * DAY_MILLIS);
+                m.day(day)[RENTED] += upTo - t;
+                t = upTo;
+            }
+            CustomerTotals c = customers.computeIfAbsent(customer.getId(), id -> new CustomerTotals(customer));
+            c.rentals++;
+            c.rentedMillis += Math.max(0, end - start);
+        }
+
+        void merge(Rollups other) {
+            for (ModelRollup from : other.allModels()) {
+                ModelRollup into = model(from.brand, from.model);
+                into.cars += from.cars;
+                for (Map.Entry<Long, long[]> day : from.days.entrySet()) {
+                    long[] bucket = into.day(day.getKey());
+                    for (int i = 0; i < bucket.length; i++) {
+                        bucket[i] += day.getValue()[i];
+                    }
+                }
+            }
+            for (CustomerTotals from : other.customers.values()) {
+                CustomerTotals into = customers.computeIfAbsent(from.customer.getId(), id -> new CustomerTotals(from.customer));
+                into.rentals += from.rentals;
+                into.rentedMillis += from.rentedMillis;
+            }
+        }
+    }
+}
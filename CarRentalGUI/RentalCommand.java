@@ -0,0 +1,42 @@
+// One rent or return, for CarRentalSystem.applyBatch and CommandPipeline
+class RentalCommand {
+    enum Type {
+        RENT, RETURN
+    }
+
+    private final Type type;
+    private final int carId;
+    private final int customerId;
+
+    private RentalCommand(Type type, int carId, int customerId) {
+        this.type = type;
+        this.carId = carId;
+        this.customerId = customerId;
+    }
+
+    public static RentalCommand rent(int carId, int customerId) {
+        return new RentalCommand(Type.RENT, carId, customerId);
+    }
+
+    public static RentalCommand returnCar(int carId) {
+        return new RentalCommand(Type.RETURN, carId, -1);
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public int getCarId() {
+        return carId;
+    }
+
+    // -1 for returns
+    public int getCustomerId() {
+        return customerId;
+    }
+
+    @Override
+    public String toString() {
+        return type == Type.RENT ? "rent car " + carId + " to customer " + customerId : "return car " + carId;
+    }
+}
@@ -0,0 +1,61 @@
+// One change to a CarRentalSystem, as delivered by its RentalEventStream.
+// Sequence numbers start at 1 and increase by one per event; events for the same
+// car always arrive in the order they happened.
+class RentalEvent {
+    enum Type {
+        CAR_ADDED, CUSTOMER_ADDED, CAR_RENTED, CAR_RETURNED, CAR_REMOVED
+    }
+
+    private final long sequence;
+    private final Type type;
+    private final long time;
+    private final Car car;
+    private final Customer customer;
+    private final Rental rental;
+
+    RentalEvent(long sequence, Type type, long time, Car car, Customer customer, Rental rental) {
+        this.sequence = sequence;
+        this.type = type;
+        this.time = time;
+        this.car = car;
+        this.customer = customer;
+        this.rental = rental;
+    }
+
+    public long getSequence() {
+        return sequence;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    // Epoch millis: when the car was rented or returned, or when it was added
+    public long getTime() {
+        return time;
+    }
+
+    // Null for CUSTOMER_ADDED
+    public Car getCar() {
+        return car;
+    }
+
+    // Null for CAR_ADDED and CAR_REMOVED, and for returning a car that was taken out
+    // of service by hand
+    public Customer getCustomer() {
+        return customer;
+    }
+
+    // The rental that was opened or closed, for CAR_RENTED and CAR_RETURNED. A
+    // returned rental is already closed, billed and in the history when published.
+    public Rental getRental() {
+        return rental;
+    }
+
+    @Override
+    public String toString() {
+        return "#" + sequence + " " + type
+                + (car != null ? " car " + car.getId() : "")
+                + (customer != null ? " customer " + customer.getId() : "");
+    }
+}
@@ -0,0 +1,215 @@
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+// Publisher of every change made to a CarRentalSystem, numbered in order.
+// Events go into a fixed ring shared by all subscribers, so publishing never
+// blocks and never allocates per subscriber: each subscription just remembers the
+// next sequence it owes its subscriber and reads from the ring as demand allows.
+// A subscriber may resume after any sequence still in the ring; one that falls
+// further behind than the ring holds gets onError and has to rescan the system,
+// then subscribe again after getLastSequence().
+//
+// While nobody is subscribed, events still get sequence numbers but aren't kept,
+// and each one clears the slot it would have used, so an idle stream doesn't hold
+// on to rentals the rest of the system has let go. Resuming across such a gap gets
+// onError like falling behind the ring does.
+class RentalEventStream implements Flow.Publisher<RentalEvent> {
+    static final int DEFAULT_CAPACITY = 1 << 16;
+    // Marks a sequence that has already been recycled out of the ring
+    private static final RentalEvent OVERWRITTEN = new RentalEvent(-1, null, 0, null, null, null);
+
+    private final AtomicReferenceArray<RentalEvent> ring;
+    private final int mask;
+    // Last sequence handed out; events may land in the ring slightly out of order,
+    // so readers check each slot's sequence before trusting it
+    private final AtomicLong lastSequence = new AtomicLong();
+    // Newest sequence published while nobody was subscribed, and so not retained
+    private final AtomicLong lastDropped = new AtomicLong();
+    // Consumers between capturing a sequence and subscribing after it (see hold)
+    private final AtomicInteger holds = new AtomicInteger();
+    private final Executor executor;
+    private final List<EventSubscription> subscriptions = new CopyOnWriteArrayList<>();
+
+    public RentalEventStream() {
+        this(DEFAULT_CAPACITY, ForkJoinPool.commonPool());
+    }
+
+    // Subscribers are called on executor, one task at a time per subscription
+    public RentalEventStream(int capacity, Executor executor) {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        this.ring = new AtomicReferenceArray<>(size);
+        this.mask = size - 1;
+        this.executor = executor;
+    }
+
+    // Sequence of the newest event published so far (0 before the first)
+    public long getLastSequence() {
+        return lastSequence.get();
+    }
+
+    // Oldest sequence that can still be resumed after
+    public long getOldestResumable() {
+        return Math.max(lastDropped.get(), lastSequence.get() - ring.length());
+    }
+
+    // Callers publish a car's events while holding its stripe, so they stay in order
+    void publish(RentalEvent.Type type, long time, Car car, Customer customer, Rental rental) {
+        long seq = lastSequence.incrementAndGet();
+        // A subscriber or hold added after this check starts after seq (see subscribe)
+        if (subscriptions.isEmpty() && holds.get() == 0) {
+            lastDropped.accumulateAndGet(seq, Math::max);
+            ring.set((int) seq & mask, null);
+            return;
+        }
+        ring.set((int) seq & mask, new RentalEvent(seq, type, time, car, customer, rental));
+        for (EventSubscription s : subscriptions) {
+            if (s.waiting) {
+                s.signal();
+            }
+        }
+    }
+
+    // The event with this sequence, null if it isn't published yet, or OVERWRITTEN
+    private RentalEvent read(long seq) {
+        // Anything from here on runs through the dropped event
+        if (seq <= lastDropped.get()) {
+            return OVERWRITTEN;
+        }
+        RentalEvent event = ring.get((int) seq & mask);
+        if (event == null || event.getSequence() < seq) {
+            return seq <= lastSequence.get() - ring.length() ? OVERWRITTEN : null;
+        }
+        return event.getSequence() == seq ? event : OVERWRITTEN;
+    }
+
+    // Keeps events published from now on, as if someone were subscribed, until
+    // release(). A consumer that rebuilds from the system and then resumes after
+    // the sequence it captured holds from before the capture until it subscribes.
+    void hold() {
+        holds.incrementAndGet();
+    }
+
+    void release() {
+        holds.decrementAndGet();
+    }
+
+    // Delivers events published from now on
+    @Override
+    public void subscribe(Flow.Subscriber<? super RentalEvent> subscriber) {
+        subscribe(subscriber, -1);
+    }
+
+    // Delivers every event after afterSequence, e.g. the last one a consumer
+    // processed before it went away; 0 replays as far back as the ring reaches
+    // only if nothing has been overwritten or dropped yet, and -1 starts from now
+    public void subscribe(Flow.Subscriber<? super RentalEvent> subscriber, long afterSequence) {
+        if (subscriber == null) {
+            throw new NullPointerException("subscriber");
+        }
+        EventSubscription subscription = new EventSubscription(subscriber);
+        subscriptions.add(subscription);
+        // Read after joining the list, so any event publish() has dropped for want
+        // of subscribers is already counted in lastSequence
+        subscription.next = (afterSequence < 0 ? lastSequence.get() : afterSequence) + 1;
+        subscriber.onSubscribe(subscription);
+        // Report an unreachable starting point now rather than at the first request
+        subscription.signal();
+    }
+
+    public int getSubscriberCount() {
+        return subscriptions.size();
+    }
+
+    private final class EventSubscription implements Flow.Subscription, Runnable {
+        private final Flow.Subscriber<? super RentalEvent> subscriber;
+        private long next;
+        private final AtomicLong demand = new AtomicLong();
+        // Drain requests not yet handled; the one that takes it from 0 runs the drain
+        private final AtomicInteger pending = new AtomicInteger();
+        private volatile boolean cancelled;
+        // Set while there is demand but no event to deliver, so publish() wakes us
+        volatile boolean waiting;
+        // Set by request() on the caller's thread, reported by drain()
+        private volatile Throwable failure;
+
+        EventSubscription(Flow.Subscriber<? super RentalEvent> subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                failure = new IllegalArgumentException("non-positive request: " + n);
+            } else {
+                demand.getAndUpdate(d -> d + n < 0 ? Long.MAX_VALUE : d + n);
+            }
+            signal();
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            subscriptions.remove(this);
+        }
+
+        void signal() {
+            if (pending.getAndIncrement() == 0) {
+                executor.execute(this);
+            }
+        }
+
+        // Runs on the executor; never concurrently with itself
+        @Override
+        public void run() {
+            int missed = 1;
+            do {
+                drain();
+                missed = pending.addAndGet(-missed);
+            } while (missed != 0);
+        }
+
+        private void drain() {
+            while (!cancelled) {
+                if (failure != null) {
+                    fail(failure);
+                    return;
+                }
+                RentalEvent event = read(next);
+                if (event == OVERWRITTEN) {
+                    fail(new IllegalStateException("Events after " + (next - 1)
+                            + " are no longer retained; oldest resumable is " + getOldestResumable()));
+                    return;
+                }
+                if (event == null || demand.get() == 0) {
+                    waiting = demand.get() > 0;
+                    // Recheck: an event published before 'waiting' was set didn't signal us
+                    if (!waiting || read(next) == null) {
+                        return;
+                    }
+                    waiting = false;
+                    continue;
+                }
+                waiting = false;
+                next++;
+                demand.decrementAndGet();
+                try {
+                    subscriber.onNext(event);
+                } catch (RuntimeException e) {
+                    fail(e);
+                    return;
+                }
+            }
+        }
+
+        private void fail(Throwable error) {
+            cancel();
+            subscriber.onError(error);
+        }
+    }
+}
@@ -0,0 +1,329 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.IntFunction;
+
+// Closed rentals, oldest first. Once open() gives it a file, the newest rentals
+// are kept in a small in-memory tail and paged out to the file in blocks of
+// TAIL_RECORDS, so memory no longer grows with the history; without a file
+// everything stays in memory. Each record links to the same customer's previous
+// one, so one customer's history is read without scanning anyone else's.
+//
+// Record: int customerId | int carId | long rentalTime | long returnTime | long previous
+//         | long dueTime
+//
+// Files from before the due time was kept (LEGACY_RECORD_BYTES per record) are
+// rewritten once by upgrade(), their due times unknown.
+//
+// The file is not synced per record: the journal is what makes returns durable.
+// force() syncs it for a snapshot, which notes how many records it covers, and
+// recovery truncates back to that count before replaying the journal tail.
+class RentalHistoryStore implements Closeable {
+    static final int RECORD_BYTES = 40;
+    static final int LEGACY_RECORD_BYTES = 32;
+    static final int TAIL_RECORDS = 4096;
+    private static final int READ_CHUNK = 2048;
+
+    // Turn stored ids back into objects; cars that have left the fleet included
+    private final IntFunction<Car> cars;
+    private final IntFunction<Customer> customers;
+
+    private FileChannel channel;
+    // Records in the file; everything after them is in the tail
+    private long flushed;
+    private Rental[] tail = new Rental[16];
+    private long[] tailPrevious = new long[16];
+    private int tailSize;
+    // Index of each customer's newest record, in a one-element array updated in place
+    private final IntObjectMap<long[]> newest = new IntObjectMap<>();
+
+    RentalHistoryStore(IntFunction<Car> cars, IntFunction<Customer> customers) {
+        this.cars = cars;
+        this.customers = customers;
+    }
+
+    // Pages out to file from now on. Records already there stay until
+    // truncate() says how many of them are valid. Rentals closed before there was
+    // a file (a promoted standby's) can only start an empty one.
+    synchronized void open(Path file) throws IOException {
+        if (channel != null) {
+            throw new IllegalStateException("history already in use");
+        }
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        flushed = channel.size() / RECORD_BYTES;
+        if (tailSize > 0) {
+            if (flushed > 0) {
+                channel.close();
+                channel = null;
+                flushed = 0;
+                throw new IOException(file + " already holds rental history");
+            }
+            flushTail();
+        }
+    }
+
+    // Rewrites a legacy file of LEGACY_RECORD_BYTES records as file, in the current
+    // layout with unknown due times, and deletes it. The rewrite goes through a
+    // temporary file, so a crash leaves either the legacy file or the new one.
+    static void upgrade(Path legacy, Path file) throws IOException {
+        if (!Files.exists(legacy)) {
+            return;
+        }
+        if (!Files.exists(file)) {
+            Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+            try (FileChannel in = FileChannel.open(legacy, StandardOpenOption.READ);
+                    FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE,
+                            StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                ByteBuffer from = ByteBuffer.allocate(READ_CHUNK * LEGACY_RECORD_BYTES);
+                ByteBuffer to = ByteBuffer.allocate(READ_CHUNK * RECORD_BYTES);
+                long records = in.size() / LEGACY_RECORD_BYTES;
+                for (long index = 0; index < records;) {
+                    int n = (int) Math.min(READ_CHUNK, records - index);
+                    from.clear().limit(n * LEGACY_RECORD_BYTES);
+                    while (from.hasRemaining()) {
+                        if (in.read(from, index * LEGACY_RECORD_BYTES + from.position()) < 0) {
+                            throw new IOException(legacy + " ends early at record " + index);
+                        }
+                    }
+                    to.clear();
+                    for (int i = 0; i < n; i++) {
+                        to.put(from.array(), i * LEGACY_RECORD_BYTES, LEGACY_RECORD_BYTES)
+                                .putLong(Rental.DUE_TIME_UNKNOWN);
+                    }
+                    to.flip();
+                    while (to.hasRemaining()) {
+                        out.write(to);
+                    }
+                    index += n;
+                }
+                out.force(true);
+            }
+            Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE);
+        }
+        Files.delete(legacy);
+    }
+
+    // Keeps the first count records of the file and reindexes them
+    synchronized void truncate(long count) throws IOException {
+        if (channel == null && tailSize == 0 && count == 0) {
+            // Nothing on file and nothing to keep, e.g. a standby loading its first snapshot
+            return;
+        }
+        if (channel == null || tailSize > 0) {
+            throw new IllegalStateException("truncate only applies to a freshly opened file");
+        }
+        if (count > flushed) {
+            throw new IOException("rental history has " + flushed + " records, snapshot expects " + count);
+        }
+        channel.truncate(count * RECORD_BYTES);
+        flushed = count;
+        newest.clear();
+        ByteBuffer buf = ByteBuffer.allocate(READ_CHUNK * RECORD_BYTES);
+        for (long index = 0; index < count;) {
+            int n = readChunk(index, (int) Math.min(READ_CHUNK, count - index), buf);
+            for (int i = 0; i < n; i++) {
+                setNewest(buf.getInt(i * RECORD_BYTES), index + i);
+            }
+            index += n;
+        }
+    }
+
+    // Flushes the tail and syncs the file; returns the number of records
+    synchronized long force() throws IOException {
+        if (channel != null) {
+            flushTail();
+            channel.force(false);
+        }
+        return flushed + tailSize;
+    }
+
+    // Flushes and lets go of the file; paged-out rentals can't be read afterwards
+    @Override
+    public synchronized void close() throws IOException {
+        if (channel != null) {
+            force();
+            channel.close();
+            channel = null;
+            flushed = 0;
+            newest.clear();
+        }
+    }
+
+    public synchronized long size() {
+        return flushed + tailSize;
+    }
+
+    // Appends a closed rental; returns its index
+    synchronized long append(Rental rental) {
+        long index = flushed + tailSize;
+        if (tailSize == tail.length) {
+            tail = Arrays.copyOf(tail, tailSize * 2);
+            tailPrevious = Arrays.copyOf(tailPrevious, tailSize * 2);
+        }
+        tail[tailSize] = rental;
+        tailPrevious[tailSize] = setNewest(rental.getCustomer().getId(), index);
+        tailSize++;
+        if (channel != null && tailSize >= TAIL_RECORDS) {
+            try {
+                flushTail();
+            } catch (IOException e) {
+                throw new UncheckedIOException("could not page out rental history", e);
+            }
+        }
+        return index;
+    }
+
+    // Records index as the customer's newest; returns the previous newest or -1
+    private long setNewest(int customerId, long index) {
+        long[] head = newest.get(customerId);
+        if (head == null) {
+            newest.put(customerId, new long[] { index });
+            return -1;
+        }
+        long previous = head[0];
+        head[0] = index;
+        return previous;
+    }
+
+    // Index of the customer's newest record, or -1
+    synchronized long newestIndex(int customerId) {
+        long[] head = newest.get(customerId);
+        return head == null ? -1 : head[0];
+    }
+
+    private void flushTail() throws IOException {
+        if (tailSize == 0) {
+            return;
+        }
+        ByteBuffer buf = ByteBuffer.allocate(tailSize * RECORD_BYTES);
+        for (int i = 0; i < tailSize; i++) {
+            Rental rental = tail[i];
+            buf.putInt(rental.getCustomer().getId())
+                    .putInt(rental.getCar().getId())
+                    .putLong(rental.getRentalTime())
+                    .putLong(rental.getReturnTime())
+                    .putLong(tailPrevious[i])
+                    .putLong(rental.getDueTime());
+        }
+        buf.flip();
+        long position = flushed * RECORD_BYTES;
+        while (buf.hasRemaining()) {
+            position += channel.write(buf, position);
+        }
+        flushed += tailSize;
+        Arrays.fill(tail, 0, tailSize, null);
+        tailSize = 0;
+    }
+
+    // Reads records [index, index + count) into buf; the file below 'flushed' never
+    // changes, so this needs no lock
+    private int readChunk(long index, int count, ByteBuffer buf) throws IOException {
+        buf.clear().limit(count * RECORD_BYTES);
+        long position = index * RECORD_BYTES;
+        while (buf.hasRemaining()) {
+            int n = channel.read(buf, position + buf.position());
+            if (n < 0) {
+                throw new IOException("rental history ends early at record " + index);
+            }
+        }
+        buf.flip();
+        return count;
+    }
+
+    private Rental toRental(ByteBuffer buf, int offset) {
+        Rental rental = new Rental(customers.apply(buf.getInt(offset)), cars.apply(buf.getInt(offset + 4)),
+                buf.getLong(offset + 8));
+        rental.setReturnTime(buf.getLong(offset + 16));
+        rental.setDueTime(buf.getLong(offset + 32));
+        return rental;
+    }
+
+    // Rentals in the chain ending at index, oldest first
+    List<Rental> chain(long index) {
+        List<Rental> newestFirst = new ArrayList<>();
+        FileChannel file;
+        synchronized (this) {
+            while (index >= flushed) {
+                int t = (int) (index - flushed);
+                newestFirst.add(tail[t]);
+                index = tailPrevious[t];
+            }
+            file = channel;
+        }
+        // The rest is in the file, which only grows from here on
+        ByteBuffer buf = ByteBuffer.allocate(RECORD_BYTES);
+        try {
+            while (index >= 0) {
+                buf.clear();
+                while (buf.hasRemaining()) {
+                    if (file.read(buf, index * RECORD_BYTES + buf.position()) < 0) {
+                        throw new IOException("rental history ends early at record " + index);
+                    }
+                }
+                newestFirst.add(toRental(buf, 0));
+                index = buf.getLong(24);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        Collections.reverse(newestFirst);
+        return newestFirst;
+    }
+
+    public void forEach(Consumer<? super Rental> action) {
+        forEach(0, Long.MAX_VALUE, action);
+    }
+
+    // Visits records [from, to) in order, reading the file a chunk at a time.
+    // Rentals closed while this runs are included if they fall in the range.
+    void forEach(long from, long to, Consumer<? super Rental> action) {
+        ByteBuffer buf = null;
+        long index = from;
+        while (index < to) {
+            long fileEnd;
+            Rental[] inMemory = null;
+            synchronized (this) {
+                fileEnd = flushed;
+                if (index >= flushed) {
+                    int start = (int) (index - flushed);
+                    int end = (int) Math.min(tailSize, to - flushed);
+                    inMemory = start < end ? Arrays.copyOfRange(tail, start, end) : new Rental[0];
+                }
+            }
+            if (inMemory != null) {
+                if (inMemory.length == 0) {
+                    return;
+                }
+                for (Rental rental : inMemory) {
+                    action.accept(rental);
+                }
+                index += inMemory.length;
+                continue;
+            }
+            if (buf == null) {
+                buf = ByteBuffer.allocate(READ_CHUNK * RECORD_BYTES);
+            }
+            int n;
+            try {
+                n = readChunk(index, (int) Math.min(READ_CHUNK, Math.min(fileEnd, to) - index), buf);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            for (int i = 0; i < n; i++) {
+                action.accept(toRental(buf, i * RECORD_BYTES));
+            }
+            index += n;
+        }
+    }
+}
@@ -0,0 +1,830 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.zip.CRC32;
+
+// Append-only binary journal of CarRentalSystem changes plus compact snapshots.
+//
+// Journal record: int length | byte type | long seq | payload | int crc32(type..payload)
+// Records are buffered in memory and written by one flusher thread; every record
+// that arrives while an fsync is in progress rides on the next one (group commit).
+// A snapshot holds the full state up to a sequence number, after which the journal
+// is truncated, so startup loads the snapshot and replays only the journal tail.
+//
+// Replication (see ReplicationSource) ships the same records: a standby loads a
+// replica snapshot, then gets every batch the flusher has made durable.
+class RentalJournal implements Closeable {
+    static final byte ADD_CAR = 1;
+    static final byte ADD_CUSTOMER = 2;
+    static final byte RENT = 5;
+    static final byte RETURN = 6;
+    static final byte RESERVE = 7;
+    static final byte CANCEL_RESERVATION = 8;
+    static final byte REMOVE_CAR = 9;
+    // Replication only, never journaled: int length | HEARTBEAT | long seq | long time | int crc,
+    // the newest record the primary has made durable and its clock at the time
+    static final byte HEARTBEAT = 10;
+    // Earlier records that carried Date.toString() text instead of epoch millis
+    private static final byte LEGACY_RENT = 3;
+    private static final byte LEGACY_RETURN = 4;
+
+    private static final int SNAPSHOT_MAGIC = 0x43525336; // "CRS6"
+    // The CRS4 layout with each closed rental's due time, plus the next
+    // reservation id, for replicas; CRR4 lacked the due times
+    private static final int REPLICA_SNAPSHOT_MAGIC = 0x43525235; // "CRR5"
+    private static final int CRR4_SNAPSHOT_MAGIC = 0x43525234;
+    // CRS5 lacked the next reservation id, which was then taken from the highest
+    // one still booked. Older snapshots held the closed rentals themselves rather
+    // than a count of those in the history file: CRS4 with the departed cars they name,
+    // CRS3 without them, CRS2 also without reservations, and CRS1 stored Date
+    // strings as well
+    private static final int CRS5_SNAPSHOT_MAGIC = 0x43525335;
+    private static final int CRS4_SNAPSHOT_MAGIC = 0x43525334;
+    private static final int CRS3_SNAPSHOT_MAGIC = 0x43525333;
+    private static final int CRS2_SNAPSHOT_MAGIC = 0x43525332;
+    private static final int LEGACY_SNAPSHOT_MAGIC = 0x43525331;
+    private static final int HEADER_BYTES = 4 + 1 + 8;
+    private static final int PROGRESS_RECORDS = 4096;
+    private static final int MAX_RECORD_BYTES = 1 << 20;
+    private static final int HEARTBEAT_BYTES = 4 + 1 + 8 + 8 + 4;
+    // Longest name or license a record holds, in UTF-8 bytes (a short length prefix)
+    static final int MAX_STRING_BYTES = 0xFFFF;
+
+    // Told of each batch of records once it is on disk, on the flusher thread
+    interface BatchListener {
+        void written(byte[] records, long lastSeq);
+    }
+
+    private final Path snapshotFile;
+    private final FileChannel channel;
+    private final CRC32 crc = new CRC32();
+
+    // Guards the buffers and sequence counters below
+    private final Object lock = new Object();
+    private ByteBuffer pending = ByteBuffer.allocate(64 * 1024);
+    private ByteBuffer writing = ByteBuffer.allocate(64 * 1024);
+    private int recordStart;
+    private long lastSeq;
+    private long durableSeq;
+    private long recordsSinceSnapshot;
+    private IOException failure;
+    private boolean closed;
+    private final Thread flusher;
+    private final List<BatchListener> listeners = new CopyOnWriteArrayList<>();
+
+    private RentalJournal(Path dir, long lastSeq) throws IOException {
+        this.snapshotFile = dir.resolve("snapshot.dat");
+        this.channel = FileChannel.open(dir.resolve("journal.log"),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.lastSeq = lastSeq;
+        this.durableSeq = lastSeq;
+        this.flusher = new Thread(this::flushLoop, "rental-journal-flusher");
+        this.flusher.setDaemon(true);
+    }
+
+    // Rebuilds system from the snapshot and journal in dir, then returns a journal
+    // ready to record further changes. The system must not have a journal yet.
+    static RentalJournal open(Path dir, CarRentalSystem system) throws IOException {
+        Files.createDirectories(dir);
+        Path snapshot = dir.resolve("snapshot.dat");
+        Path log = dir.resolve("journal.log");
+        long snapshotBytes = Files.exists(snapshot) ? Files.size(snapshot) : 0;
+        system.beginLoad(snapshotBytes + (Files.exists(log) ? Files.size(log) : 0));
+        long snapshotSeq = loadSnapshot(snapshot, system);
+        RentalJournal journal = new RentalJournal(dir, snapshotSeq);
+        try {
+            journal.replay(system, snapshotBytes);
+        } catch (IOException e) {
+            journal.channel.close();
+            throw e;
+        }
+        journal.flusher.start();
+        return journal;
+    }
+
+    // Starts a journal in dir, which must hold no saved data, for a system that so
+    // far lived only in memory (a promoted standby): its current state becomes the
+    // first snapshot. The caller keeps the system quiescent, as for writeSnapshot.
+    static RentalJournal create(Path dir, CarRentalSystem system) throws IOException {
+        Files.createDirectories(dir);
+        Path log = dir.resolve("journal.log");
+        if (Files.exists(dir.resolve("snapshot.dat")) || (Files.exists(log) && Files.size(log) > 0)) {
+            throw new IOException(dir + " already holds saved data");
+        }
+        RentalJournal journal = new RentalJournal(dir, 0);
+        journal.flusher.start();
+        try {
+            journal.writeSnapshot(system);
+        } catch (IOException e) {
+            journal.close();
+            throw e;
+        }
+        return journal;
+    }
+
+    // Appending ------------------------------------------------------------
+
+    long appendCar(Car car) {
+        byte[] brand = utf8(car.getBrand());
+        byte[] model = utf8(car.getModel());
+        synchronized (lock) {
+            ByteBuffer buf = begin(ADD_CAR, 4 + 2 + brand.length + 2 + model.length);
+            buf.putInt(car.getId());
+            putString(buf, brand);
+            putString(buf, model);
+            return end(buf);
+        }
+    }
+
+    long appendCustomer(Customer customer) {
+        byte[] name = utf8(customer.getName());
+        byte[] license = utf8(customer.getLicenseNumber());
+        synchronized (lock) {
+            ByteBuffer buf = begin(ADD_CUSTOMER, 4 + 2 + name.length + 2 + license.length);
+            buf.putInt(customer.getId());
+            putString(buf, name);
+            putString(buf, license);
+            return end(buf);
+        }
+    }
+
+    long appendRent(int carId, int customerId, long rentalTime) {
+        synchronized (lock) {
+            ByteBuffer buf = begin(RENT, 4 + 4 + 8);
+            buf.putInt(carId);
+            buf.putInt(customerId);
+            buf.putLong(rentalTime);
+            return end(buf);
+        }
+    }
+
+    long appendReturn(int carId, long returnTime) {
+        synchronized (lock) {
+            ByteBuffer buf = begin(RETURN, 4 + 8);
+            buf.putInt(carId);
+            buf.putLong(returnTime);
+            return end(buf);
+        }
+    }
+
+    long appendReserve(Reservation reservation) {
+        synchronized (lock) {
+            ByteBuffer buf = begin(RESERVE, 4 + 4 + 4 + 8 + 8);
+            buf.putInt(reservation.getId());
+            buf.putInt(reservation.getCarId());
+            buf.putInt(reservation.getCustomerId());
+            buf.putLong(reservation.getStartTime());
+            buf.putLong(reservation.getEndTime());
+            return end(buf);
+        }
+    }
+
+    long appendRemoveCar(int carId) {
+        synchronized (lock) {
+            ByteBuffer buf = begin(REMOVE_CAR, 4);
+            buf.putInt(carId);
+            return end(buf);
+        }
+    }
+
+    long appendCancelReservation(int reservationId) {
+        synchronized (lock) {
+            ByteBuffer buf = begin(CANCEL_RESERVATION, 4);
+            buf.putInt(reservationId);
+            return end(buf);
+        }
+    }
+
+    // Caller holds lock
+    private ByteBuffer begin(byte type, int payloadBytes) {
+        int needed = HEADER_BYTES + payloadBytes + 4;
+        if (pending.remaining() < needed) {
+            ByteBuffer grown = ByteBuffer.allocate(Math.max(pending.capacity() << 1, pending.position() + needed));
+            pending.flip();
+            grown.put(pending);
+            pending = grown;
+        }
+        recordStart = pending.position();
+        pending.putInt(1 + 8 + payloadBytes);
+        pending.put(type);
+        pending.putLong(lastSeq + 1);
+        return pending;
+    }
+
+    // Caller holds lock
+    private long end(ByteBuffer buf) {
+        int bodyStart = recordStart + 4;
+        crc.reset();
+        crc.update(buf.array(), bodyStart, buf.position() - bodyStart);
+        buf.putInt((int) crc.getValue());
+        recordsSinceSnapshot++;
+        lock.notifyAll();
+        return ++lastSeq;
+    }
+
+    // Blocks until the record with this sequence number is on disk
+    void awaitDurable(long seq) {
+        synchronized (lock) {
+            boolean interrupted = false;
+            while (durableSeq < seq && failure == null) {
+                try {
+                    lock.wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+            if (durableSeq < seq) {
+                throw new UncheckedIOException("journal write failed", failure);
+            }
+        }
+    }
+
+    long recordsSinceSnapshot() {
+        synchronized (lock) {
+            return recordsSinceSnapshot;
+        }
+    }
+
+    private void flushLoop() {
+        while (true) {
+            long target;
+            synchronized (lock) {
+                while (pending.position() == 0 && !closed) {
+                    try {
+                        lock.wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if (pending.position() == 0) {
+                    return;
+                }
+                ByteBuffer swap = writing;
+                writing = pending;
+                pending = swap;
+                target = lastSeq;
+            }
+            try {
+                writing.flip();
+                while (writing.hasRemaining()) {
+                    channel.write(writing);
+                }
+                channel.force(false);
+                synchronized (lock) {
+                    durableSeq = target;
+                    lock.notifyAll();
+                }
+                if (!listeners.isEmpty()) {
+                    byte[] batch = Arrays.copyOf(writing.array(), writing.limit());
+                    for (BatchListener listener : listeners) {
+                        listener.written(batch, target);
+                    }
+                }
+                writing.clear();
+            } catch (IOException e) {
+                synchronized (lock) {
+                    failure = e;
+                    lock.notifyAll();
+                }
+                return;
+            }
+        }
+    }
+
+    // Snapshots ------------------------------------------------------------
+
+    // Writes the full state of system and truncates the journal. The caller must
+    // keep the system quiescent meanwhile (CarRentalSystem holds its write lock).
+    void writeSnapshot(CarRentalSystem system) throws IOException {
+        synchronized (lock) {
+            while (durableSeq < lastSeq && failure == null) {
+                try {
+                    lock.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("interrupted while draining journal", e);
+                }
+            }
+            if (failure != null) {
+                throw failure;
+            }
+
+            Path tmp = snapshotFile.resolveSibling("snapshot.tmp");
+            try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                DataOutputStream data = new DataOutputStream(
+                        new BufferedOutputStream(Channels.newOutputStream(out), 1 << 16));
+                writeState(data, system, lastSeq);
+                data.flush();
+                out.force(true);
+            }
+            Files.move(tmp, snapshotFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+            // Everything in the journal is now covered by the snapshot
+            channel.truncate(0);
+            channel.position(0);
+            channel.force(true);
+            recordsSinceSnapshot = 0;
+        }
+    }
+
+    private static void writeState(DataOutputStream out, CarRentalSystem system, long seq) throws IOException {
+        out.writeInt(SNAPSHOT_MAGIC);
+        out.writeLong(seq);
+
+        List<Car> cars = system.getAllCars();
+        out.writeInt(cars.size());
+        for (Car car : cars) {
+            out.writeInt(car.getId());
+            out.writeUTF(car.getBrand());
+            out.writeUTF(car.getModel());
+            out.writeBoolean(car.isAvailable());
+        }
+
+        List<Customer> customers = system.getCustomers();
+        out.writeInt(customers.size());
+        for (Customer customer : customers) {
+            out.writeInt(customer.getId());
+            out.writeUTF(customer.getName());
+            out.writeUTF(customer.getLicenseNumber());
+        }
+
+        out.writeInt(system.getActiveRentalCount());
+        int written = 0;
+        for (Car car : cars) {
+            Rental rental = car.isAvailable() ? null : system.getActiveRental(car.getId());
+            if (rental != null && rental.getCar() == car) {
+                out.writeInt(car.getId());
+                out.writeInt(rental.getCustomer().getId());
+                out.writeLong(rental.getRentalTime());
+                written++;
+            }
+        }
+        if (written != system.getActiveRentalCount()) {
+            throw new IOException("active rentals changed while writing snapshot");
+        }
+
+        // Cars that have left the fleet (e.g. moved to another branch) but are
+        // still named by closed rentals
+        List<Car> departed = new ArrayList<>();
+        system.forEachDepartedCar(departed::add);
+        out.writeInt(departed.size());
+        for (Car car : departed) {
+            out.writeInt(car.getId());
+            out.writeUTF(car.getBrand());
+            out.writeUTF(car.getModel());
+        }
+
+        // The closed rentals themselves are in the history file, synced up to here
+        out.writeLong(system.syncHistory());
+
+        out.writeInt(system.getReservationCount());
+        IOException[] failed = { null };
+        system.forEachReservation(reservation -> {
+            try {
+                out.writeInt(reservation.getId());
+                out.writeInt(reservation.getCarId());
+                out.writeInt(reservation.getCustomerId());
+                out.writeLong(reservation.getStartTime());
+                out.writeLong(reservation.getEndTime());
+            } catch (IOException e) {
+                failed[0] = e;
+            }
+        });
+        if (failed[0] != null) {
+            throw failed[0];
+        }
+        out.writeInt(system.nextReservationId());
+    }
+
+    // Returns the sequence number the snapshot covers, or 0 without a snapshot
+    private static long loadSnapshot(Path snapshotFile, CarRentalSystem system) throws IOException {
+        if (!Files.exists(snapshotFile)) {
+            // Any history on disk is from before the first snapshot; the journal has it all
+            system.restoreHistoryLength(0);
+            return 0;
+        }
+        try (FileChannel file = FileChannel.open(snapshotFile, StandardOpenOption.READ);
+                DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(file), 1 << 16))) {
+            return readState(in, system, file, snapshotFile.toString());
+        }
+    }
+
+    // Reads a snapshot in any layout into system; file, if given, is where the
+    // bytes come from, for progress reports
+    private static long readState(DataInputStream in, CarRentalSystem system, FileChannel file, String source)
+            throws IOException {
+        int magic = in.readInt();
+        if (magic != SNAPSHOT_MAGIC && magic != REPLICA_SNAPSHOT_MAGIC && magic != CRR4_SNAPSHOT_MAGIC
+                && magic != CRS5_SNAPSHOT_MAGIC
+                && magic != CRS4_SNAPSHOT_MAGIC && magic != CRS3_SNAPSHOT_MAGIC
+                && magic != CRS2_SNAPSHOT_MAGIC && magic != LEGACY_SNAPSHOT_MAGIC) {
+            throw new IOException("not a rental snapshot: " + source);
+        }
+        boolean legacy = magic == LEGACY_SNAPSHOT_MAGIC;
+        // CRS6 and CRS5 keep the closed rentals in the history file, the rest inline
+        boolean historyFile = magic == SNAPSHOT_MAGIC || magic == CRS5_SNAPSHOT_MAGIC;
+        boolean replica = magic == REPLICA_SNAPSHOT_MAGIC || magic == CRR4_SNAPSHOT_MAGIC;
+        long seq = in.readLong();
+
+        int carCount = in.readInt();
+        for (int i = 0; i < carCount; i++) {
+            int id = in.readInt();
+            String brand = in.readUTF();
+            Car car = new Car(id, in.readUTF(), brand);
+            car.updateAvailable(in.readBoolean());
+            system.addCar(car);
+            reportProgress(system, i, file, 0);
+        }
+
+        int customerCount = in.readInt();
+        for (int i = 0; i < customerCount; i++) {
+            system.addCustomer(new Customer(in.readInt(), in.readUTF(), in.readUTF()));
+            reportProgress(system, i, file, 0);
+        }
+
+        int activeCount = in.readInt();
+        for (int i = 0; i < activeCount; i++) {
+            system.restoreActiveRental(in.readInt(), in.readInt(), readTime(in, legacy));
+            reportProgress(system, i, file, 0);
+        }
+
+        IntObjectMap<Car> departed = new IntObjectMap<>();
+        if (historyFile || replica || magic == CRS4_SNAPSHOT_MAGIC) {
+            int departedCount = in.readInt();
+            for (int i = 0; i < departedCount; i++) {
+                int id = in.readInt();
+                String brand = in.readUTF();
+                Car car = new Car(id, in.readUTF(), brand);
+                departed.put(id, car);
+                system.restoreDepartedCar(car);
+            }
+        }
+
+        if (historyFile) {
+            system.restoreHistoryLength(in.readLong());
+        } else {
+            system.restoreHistoryLength(0);
+            int historyCount = in.readInt();
+            for (int i = 0; i < historyCount; i++) {
+                int carId = in.readInt();
+                Car car = departed.containsKey(carId) ? departed.get(carId) : system.getCar(carId);
+                system.restoreClosedRental(car, in.readInt(), readTime(in, legacy), readTime(in, legacy),
+                        magic == REPLICA_SNAPSHOT_MAGIC ? in.readLong() : Rental.DUE_TIME_UNKNOWN);
+                reportProgress(system, i, file, 0);
+            }
+        }
+
+        if (magic != CRS2_SNAPSHOT_MAGIC && magic != LEGACY_SNAPSHOT_MAGIC) {
+            int reservationCount = in.readInt();
+            for (int i = 0; i < reservationCount; i++) {
+                system.reserveCar(in.readInt(), in.readInt(), in.readInt(), in.readLong(), in.readLong());
+            }
+        }
+        if (magic == SNAPSHOT_MAGIC || replica) {
+            system.restoreNextReservationId(in.readInt());
+        }
+        return seq;
+    }
+
+    // Replay ---------------------------------------------------------------
+
+    // Tells the system how far loading has got, every PROGRESS_RECORDS records;
+    // the file position runs a buffer ahead of what's applied, which is close enough
+    private static void reportProgress(CarRentalSystem system, long record, FileChannel file, long offset)
+            throws IOException {
+        if (file != null && record % PROGRESS_RECORDS == 0) {
+            system.loadProgress(offset + file.position());
+        }
+    }
+
+    // Applies journal records newer than the snapshot and cuts off a torn tail;
+    // progress counts from snapshotBytes
+    private void replay(CarRentalSystem system, long snapshotBytes) throws IOException {
+        long goodBytes = 0;
+        channel.position(0);
+        InputStream raw = new BufferedInputStream(Channels.newInputStream(channel), 1 << 16);
+        DataInputStream in = new DataInputStream(raw);
+        CRC32 check = new CRC32();
+        for (long records = 0;; records++) {
+            reportProgress(system, records, channel, snapshotBytes);
+            byte[] record;
+            try {
+                record = readRecord(in, check);
+            } catch (EOFException e) {
+                break;
+            }
+            if (record == null) {
+                break;
+            }
+
+            ByteBuffer buf = ByteBuffer.wrap(record);
+            byte type = buf.get();
+            long seq = buf.getLong();
+            if (seq > lastSeq) {
+                apply(system, type, buf);
+                lastSeq = seq;
+                recordsSinceSnapshot++;
+            }
+            goodBytes += 4 + record.length + 4;
+        }
+        durableSeq = lastSeq;
+        channel.truncate(goodBytes);
+        channel.position(goodBytes);
+    }
+
+    // Reads one record and returns it without the length and crc, or null if it is
+    // torn or corrupt; EOFException if the stream ends first
+    static byte[] readRecord(DataInputStream in, CRC32 check) throws IOException {
+        int length = in.readInt();
+        if (length < 9 || length > MAX_RECORD_BYTES) {
+            return null;
+        }
+        byte[] record = new byte[length];
+        in.readFully(record);
+        int storedCrc = in.readInt();
+        check.reset();
+        check.update(record);
+        return (int) check.getValue() == storedCrc ? record : null;
+    }
+
+    // Applies one record (after its type and seq) through the same calls the
+    // system's own API journals
+    static void apply(CarRentalSystem system, byte type, ByteBuffer buf) throws IOException {
+        switch (type) {
+            case ADD_CAR: {
+                int id = buf.getInt();
+                String brand = getString(buf);
+                String model = getString(buf);
+                system.addCar(new Car(id, model, brand));
+                break;
+            }
+            case ADD_CUSTOMER:
+                system.addCustomer(new Customer(buf.getInt(), getString(buf), getString(buf)));
+                break;
+            case RENT:
+                system.rentCar(buf.getInt(), buf.getInt(), buf.getLong());
+                break;
+            case RETURN:
+                system.returnCar(buf.getInt(), buf.getLong());
+                break;
+            case RESERVE:
+                system.reserveCar(buf.getInt(), buf.getInt(), buf.getInt(), buf.getLong(), buf.getLong());
+                break;
+            case CANCEL_RESERVATION:
+                system.cancelReservation(buf.getInt());
+                break;
+            case REMOVE_CAR:
+                system.removeCar(buf.getInt());
+                break;
+            case LEGACY_RENT:
+                system.rentCar(buf.getInt(), buf.getInt(), parseLegacyDate(getString(buf)));
+                break;
+            case LEGACY_RETURN:
+                system.returnCar(buf.getInt(), parseLegacyDate(getString(buf)));
+                break;
+            default:
+                throw new IOException("unknown journal record type " + type);
+        }
+    }
+
+    // Replication ----------------------------------------------------------
+
+    // What a new standby starts from, captured under the system's write lock so it
+    // matches the journal's sequence exactly. Records and references only: the
+    // closed rentals, which never change, are read from the history while the
+    // snapshot is sent, after the lock is let go.
+    static final class ReplicaSnapshot {
+        private final long seq;
+        private final List<Car> cars;
+        private final BitSet available = new BitSet();
+        private final List<Customer> customers;
+        private final List<Rental> active = new ArrayList<>();
+        private final List<Car> departed = new ArrayList<>();
+        private final long historyLength;
+        private final List<Reservation> reservations = new ArrayList<>();
+        private final int nextReservationId;
+
+        // Caller holds the system's write lock
+        private ReplicaSnapshot(CarRentalSystem system, long seq) {
+            this.seq = seq;
+            cars = system.getAllCars();
+            for (int i = 0; i < cars.size(); i++) {
+                Car car = cars.get(i);
+                if (car.isAvailable()) {
+                    available.set(i);
+                } else {
+                    Rental rental = system.getActiveRental(car.getId());
+                    if (rental != null && rental.getCar() == car) {
+                        active.add(rental);
+                    }
+                }
+            }
+            customers = system.getCustomers();
+            system.forEachDepartedCar(departed::add);
+            historyLength = system.getClosedRentalCount();
+            system.forEachReservation(reservations::add);
+            nextReservationId = system.nextReservationId();
+        }
+
+        // The last journal record the snapshot reflects
+        long getSequence() {
+            return seq;
+        }
+    }
+
+    // Caller holds the system's write lock; see CarRentalSystem.startReplica
+    ReplicaSnapshot captureReplica(CarRentalSystem system) {
+        synchronized (lock) {
+            return new ReplicaSnapshot(system, lastSeq);
+        }
+    }
+
+    // Sends a replica snapshot in the CRS4 layout, which carries the closed rentals
+    // themselves (with their due times), so a standby needs nothing but the stream,
+    // followed by the next reservation id
+    static void writeReplica(DataOutputStream out, ReplicaSnapshot snapshot, CarRentalSystem system)
+            throws IOException {
+        out.writeInt(REPLICA_SNAPSHOT_MAGIC);
+        out.writeLong(snapshot.seq);
+
+        out.writeInt(snapshot.cars.size());
+        for (int i = 0; i < snapshot.cars.size(); i++) {
+            Car car = snapshot.cars.get(i);
+            out.writeInt(car.getId());
+            out.writeUTF(car.getBrand());
+            out.writeUTF(car.getModel());
+            out.writeBoolean(snapshot.available.get(i));
+        }
+
+        out.writeInt(snapshot.customers.size());
+        for (Customer customer : snapshot.customers) {
+            out.writeInt(customer.getId());
+            out.writeUTF(customer.getName());
+            out.writeUTF(customer.getLicenseNumber());
+        }
+
+        out.writeInt(snapshot.active.size());
+        for (Rental rental : snapshot.active) {
+            out.writeInt(rental.getCar().getId());
+            out.writeInt(rental.getCustomer().getId());
+            out.writeLong(rental.getRentalTime());
+        }
+
+        out.writeInt(snapshot.departed.size());
+        for (Car car : snapshot.departed) {
+            out.writeInt(car.getId());
+            out.writeUTF(car.getBrand());
+            out.writeUTF(car.getModel());
+        }
+
+        if (snapshot.historyLength > Integer.MAX_VALUE) {
+            throw new IOException("rental history too long to replicate: " + snapshot.historyLength);
+        }
+        out.writeInt((int) snapshot.historyLength);
+        IOException[] failed = { null };
+        system.forEachClosedRental(0, snapshot.historyLength, rental -> {
+            try {
+                out.writeInt(rental.getCar().getId());
+                out.writeInt(rental.getCustomer().getId());
+                out.writeLong(rental.getRentalTime());
+                out.writeLong(rental.getReturnTime());
+                out.writeLong(rental.getDueTime());
+            } catch (IOException e) {
+                failed[0] = e;
+            }
+        });
+        if (failed[0] != null) {
+            throw failed[0];
+        }
+
+        out.writeInt(snapshot.reservations.size());
+        for (Reservation reservation : snapshot.reservations) {
+            out.writeInt(reservation.getId());
+            out.writeInt(reservation.getCarId());
+            out.writeInt(reservation.getCustomerId());
+            out.writeLong(reservation.getStartTime());
+            out.writeLong(reservation.getEndTime());
+        }
+        out.writeInt(snapshot.nextReservationId);
+    }
+
+    // Loads a replica snapshot into an empty system; returns its sequence number
+    static long readReplica(DataInputStream in, CarRentalSystem system, String source) throws IOException {
+        return readState(in, system, null, source);
+    }
+
+    static byte[] heartbeat(long seq, long time) {
+        ByteBuffer buf = ByteBuffer.allocate(HEARTBEAT_BYTES);
+        buf.putInt(1 + 8 + 8);
+        buf.put(HEARTBEAT);
+        buf.putLong(seq);
+        buf.putLong(time);
+        CRC32 check = new CRC32();
+        check.update(buf.array(), 4, 1 + 8 + 8);
+        buf.putInt((int) check.getValue());
+        return buf.array();
+    }
+
+    // Passes every batch made durable from now on to listener, until removed
+    void addListener(BatchListener listener) {
+        listeners.add(listener);
+    }
+
+    void removeListener(BatchListener listener) {
+        listeners.remove(listener);
+    }
+
+    // Encoding helpers -----------------------------------------------------
+
+    private static long readTime(DataInputStream in, boolean legacy) throws IOException {
+        return legacy ? parseLegacyDate(in.readUTF()) : in.readLong();
+    }
+
+    // Parses the Date.toString() text older journals and snapshots stored
+    private static long parseLegacyDate(String text) throws IOException {
+        try {
+            return new SimpleDateFormat("EEE MMM dd HH:mm:ss zzz yyyy", Locale.US).parse(text).getTime();
+        } catch (ParseException e) {
+            throw new IOException("unreadable rental date: " + text, e);
+        }
+    }
+
+    private static byte[] utf8(String s) {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > MAX_STRING_BYTES) {
+            throw new IllegalArgumentException("value too long to journal");
+        }
+        return bytes;
+    }
+
+    // Throws IllegalArgumentException if a record can't hold the value. The system
+    // calls this before it changes anything, so a refused value leaves no trace.
+    static void checkString(String what, String value) {
+        // Three bytes per char at most, so only long values need counting
+        if (value.length() * 3L <= MAX_STRING_BYTES) {
+            return;
+        }
+        // Counted as writeUTF encodes for snapshots, which is never shorter than
+        // the standard UTF-8 of journal records
+        long bytes = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            bytes += c != 0 && c < 0x80 ? 1 : c < 0x800 ? 2 : 3;
+        }
+        if (bytes > MAX_STRING_BYTES) {
+            throw new IllegalArgumentException(what + " is longer than " + MAX_STRING_BYTES + " bytes");
+        }
+    }
+
+    private static void putString(ByteBuffer buf, byte[] bytes) {
+        buf.putShort((short) bytes.length);
+        buf.put(bytes);
+    }
+
+    private static String getString(ByteBuffer buf) {
+        int length = buf.getShort() & 0xFFFF;
+        String s = new String(buf.array(), buf.arrayOffset() + buf.position(), length, StandardCharsets.UTF_8);
+        buf.position(buf.position() + length);
+        return s;
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (lock) {
+            closed = true;
+            lock.notifyAll();
+        }
+        try {
+            flusher.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        channel.close();
+    }
+}
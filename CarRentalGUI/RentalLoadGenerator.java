@@ -0,0 +1,638 @@
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+// Load generator and soak test for CarRentalSystem. Builds a fleet and customer
+// base, then issues rent, return and lookup operations at a fixed arrival rate
+// (open loop): each operation is due at its own time whether or not earlier ones
+// have finished, so a stall shows up as latency for everything due during it
+// instead of as a lull in the load. Latency counts from when an operation was due,
+// not from when a thread got to it (coordinated-omission correction); the service
+// time from the actual start is reported alongside, and the gap between the two
+// is queueing.
+//
+// Cars to rent are drawn from a Zipf distribution over the fleet, so a few hot
+// cars draw most attempts (and most refusals), and each car's model is drawn the
+// same way when the fleet is built. Returns take the longest-rented car. Each
+// operation runs on its own virtual thread when the JDK has them (21+), otherwise
+// on a pool of --clients platform threads.
+//
+// Every --interval the generator prints throughput, p99 latency per operation, the
+// heap in use, the live heap after the last collection and GC time, so a
+// multi-hour soak shows drift and leaks as well as tail latency. The run ends with
+// percentiles per operation checked against the SLOs (p99 in milliseconds).
+//
+// Usage: java RentalLoadGenerator [--option value]...
+//   --fleet 100000            cars
+//   --customers 10000         customers
+//   --models 200              distinct brand/model pairs
+//   --model-skew 1.0          Zipf exponent of model popularity (0 = uniform)
+//   --car-skew 1.0            Zipf exponent of car popularity (0 = uniform)
+//   --rented 0.3              share of the fleet rented before the run starts
+//   --rate 20000              operations per second, all clients together
+//   --poisson                 exponential gaps between operations rather than even ones
+//   --mix 40,40,10,5,5        weights of rent, return, available page, search, customer history
+//   --duration 60s            measured run (s, m or h), e.g. 4h for a soak
+//   --warmup 10s              run before measuring, not counted
+//   --interval 10s            time between progress lines
+//   --clients 512             platform threads when virtual threads aren't available
+//   --max-in-flight 100000    operations due but unfinished before new ones are dropped
+//   --slo rent=2,return=2,available=10,search=10,history=10
+//   --data dir                journal to dir (must not exist), so every change is fsynced
+//   --sweep 10000,100000,1000000  one run per fleet size, reporting where each SLO is missed
+public class RentalLoadGenerator {
+    enum Op {
+        RENT, RETURN, AVAILABLE, SEARCH, HISTORY;
+
+        final String label = name().toLowerCase(Locale.ROOT);
+    }
+
+    private static final Op[] OPS = Op.values();
+
+    private static final int PAGE = 50;
+    private static final int SEARCH_LIMIT = 20;
+    private static final int MAX_DISPATCHERS = 8;
+    // Arrivals one dispatcher thread keeps up with comfortably
+    private static final double RATE_PER_DISPATCHER = 50_000;
+    private static final long DRAIN_SECONDS = 30;
+    private static final boolean SPIN = Runtime.getRuntime().availableProcessors() > 1;
+
+    // Run settings, from the command line
+    static final class Settings {
+        int fleet = 100_000;
+        int customers = 10_000;
+        int models = 200;
+        double modelSkew = 1.0;
+        double carSkew = 1.0;
+        double rented = 0.3;
+        double rate = 20_000;
+        boolean poisson;
+        int[] mix = { 40, 40, 10, 5, 5 };
+        long durationNanos = TimeUnit.SECONDS.toNanos(60);
+        long warmupNanos = TimeUnit.SECONDS.toNanos(10);
+        long intervalNanos = TimeUnit.SECONDS.toNanos(10);
+        int clients = 512;
+        long maxInFlight = 100_000;
+        // p99 objective per Op, in nanos
+        long[] slo = { millis(2), millis(2), millis(10), millis(10), millis(10) };
+        Path dataDir;
+        int[] sweep;
+
+        static Settings parse(String[] args) {
+            Settings settings = new Settings();
+            for (int i = 0; i < args.length; i++) {
+                String option = args[i];
+                if (option.equals("--poisson")) {
+                    settings.poisson = true;
+                    continue;
+                }
+                if (i + 1 >= args.length) {
+                    throw new IllegalArgumentException("Missing value for " + option);
+                }
+                String value = args[++i];
+                switch (option) {
+                    case "--fleet":
+                        settings.fleet = Integer.parseInt(value);
+                        break;
+                    case "--customers":
+                        settings.customers = Integer.parseInt(value);
+                        break;
+                    case "--models":
+                        settings.models = Integer.parseInt(value);
+                        break;
+                    case "--model-skew":
+                        settings.modelSkew = Double.parseDouble(value);
+                        break;
+                    case "--car-skew":
+                        settings.carSkew = Double.parseDouble(value);
+                        break;
+                    case "--rented":
+                        settings.rented = Double.parseDouble(value);
+                        break;
+                    case "--rate":
+                        settings.rate = Double.parseDouble(value);
+                        break;
+                    case "--mix":
+                        settings.mix = ints(value);
+                        if (settings.mix.length != Op.values().length) {
+                            throw new IllegalArgumentException("--mix needs " + Op.values().length + " weights");
+                        }
+                        break;
+                    case "--duration":
+                        settings.durationNanos = duration(value);
+                        break;
+                    case "--warmup":
+                        settings.warmupNanos = duration(value);
+                        break;
+                    case "--interval":
+                        settings.intervalNanos = duration(value);
+                        break;
+                    case "--clients":
+                        settings.clients = Integer.parseInt(value);
+                        break;
+                    case "--max-in-flight":
+                        settings.maxInFlight = Long.parseLong(value);
+                        break;
+                    case "--slo":
+                        for (String objective : value.split(",")) {
+                            String[] pair = objective.split("=");
+                            Op op = Op.valueOf(pair[0].trim().toUpperCase(Locale.ROOT));
+                            settings.slo[op.ordinal()] = (long) (Double.parseDouble(pair[1].trim()) * 1e6);
+                        }
+                        break;
+                    case "--data":
+                        settings.dataDir = Paths.get(value);
+                        break;
+                    case "--sweep":
+                        settings.sweep = ints(value);
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unknown option " + option);
+                }
+            }
+            if (settings.rate <= 0 || settings.fleet <= 0 || settings.customers <= 0 || settings.models <= 0) {
+                throw new IllegalArgumentException("--rate, --fleet, --customers and --models must be positive");
+            }
+            return settings;
+        }
+
+        private static int[] ints(String value) {
+            String[] parts = value.split(",");
+            int[] ints = new int[parts.length];
+            for (int i = 0; i < parts.length; i++) {
+                ints[i] = Integer.parseInt(parts[i].trim());
+            }
+            return ints;
+        }
+
+        // "90s", "15m", "4h"; plain numbers are seconds
+        static long duration(String value) {
+            String v = value.trim().toLowerCase(Locale.ROOT);
+            TimeUnit unit = TimeUnit.SECONDS;
+            if (v.endsWith("h")) {
+                unit = TimeUnit.HOURS;
+            } else if (v.endsWith("m")) {
+                unit = TimeUnit.MINUTES;
+            }
+            if (!Character.isDigit(v.charAt(v.length() - 1))) {
+                v = v.substring(0, v.length() - 1);
+            }
+            return unit.toNanos(Long.parseLong(v));
+        }
+
+        private static long millis(long ms) {
+            return TimeUnit.MILLISECONDS.toNanos(ms);
+        }
+    }
+
+    // Zipf distribution over 1..n with exponent s, sampled by rejection-inversion
+    // (Hörmann and Derflinger), so it needs no table however large n is
+    static final class ZipfSampler {
+        private final int n;
+        private final double s;
+        private final double hIntegralX1;
+        private final double hIntegralN;
+        private final double threshold;
+
+        ZipfSampler(int n, double s) {
+            if (n < 1 || s < 0) {
+                throw new IllegalArgumentException("Zipf needs n >= 1 and s >= 0");
+            }
+            this.n = n;
+            this.s = s;
+            hIntegralX1 = hIntegral(1.5) - 1.0;
+            hIntegralN = hIntegral(n + 0.5);
+            threshold = 2.0 - hIntegralInverse(hIntegral(2.5) - h(2));
+        }
+
+        int sample(Random random) {
+            if (s == 0) {
+                return 1 + random.nextInt(n);
+            }
+            while (true) {
+                double u = hIntegralN + random.nextDouble() * (hIntegralX1 - hIntegralN);
+                double x = hIntegralInverse(u);
+                int k = (int) Math.max(1, Math.min(n, x + 0.5));
+                if (k - x <= threshold || u >= hIntegral(k + 0.5) - h(k)) {
+                    return k;
+                }
+            }
+        }
+
+        private double h(double x) {
+            return Math.exp(-s * Math.log(x));
+        }
+
+        private double hIntegral(double x) {
+            double logX = Math.log(x);
+            return expm1Ratio((1.0 - s) * logX) * logX;
+        }
+
+        private double hIntegralInverse(double x) {
+            double t = Math.max(-1.0, x * (1.0 - s));
+            return Math.exp(log1pRatio(t) * x);
+        }
+
+        // log(1 + x) / x, and (e^x - 1) / x, accurate near 0
+        private static double log1pRatio(double x) {
+            return Math.abs(x) > 1e-8 ? Math.log1p(x) / x : 1.0 - x * (0.5 - x * (1.0 / 3.0 - 0.25 * x));
+        }
+
+        private static double expm1Ratio(double x) {
+            return Math.abs(x) > 1e-8 ? Math.expm1(x) / x : 1.0 + x * 0.5 * (1.0 + x / 3.0 * (1.0 + 0.25 * x));
+        }
+    }
+
+    // Latencies and outcomes of one Op
+    static final class OpStats {
+        // From when the operation was due, and from when it started
+        final LatencyHistogram latency = new LatencyHistogram();
+        final LatencyHistogram service = new LatencyHistogram();
+        // Refused rents, returns with nothing rented
+        final LongAdder refused = new LongAdder();
+    }
+
+    private final Settings settings;
+    private final int fleetSize;
+    private final ZipfSampler cars;
+    private final ZipfSampler models;
+    private final int[] cumulativeMix;
+    private CarRentalSystem system;
+    // Rented car ids, oldest rental first
+    private final ConcurrentLinkedQueue<Integer> rentedCars = new ConcurrentLinkedQueue<>();
+
+    private volatile OpStats[] total = newStats();
+    private volatile OpStats[] interval = newStats();
+    private volatile boolean measuring;
+    private final AtomicLong inFlight = new AtomicLong();
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+
+    RentalLoadGenerator(Settings settings, int fleetSize) {
+        this.settings = settings;
+        this.fleetSize = fleetSize;
+        this.cars = new ZipfSampler(fleetSize, settings.carSkew);
+        this.models = new ZipfSampler(settings.models, settings.modelSkew);
+        cumulativeMix = new int[settings.mix.length];
+        int sum = 0;
+        for (int i = 0; i < settings.mix.length; i++) {
+            sum += settings.mix[i];
+            cumulativeMix[i] = sum;
+        }
+        if (sum <= 0) {
+            throw new IllegalArgumentException("--mix weights add up to nothing");
+        }
+    }
+
+    private static OpStats[] newStats() {
+        OpStats[] stats = new OpStats[Op.values().length];
+        for (int i = 0; i < stats.length; i++) {
+            stats[i] = new OpStats();
+        }
+        return stats;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Settings settings = Settings.parse(args);
+        if (settings.sweep == null) {
+            new RentalLoadGenerator(settings, settings.fleet).run();
+            return;
+        }
+        // p99 per fleet size and Op
+        long[][] p99 = new long[settings.sweep.length][];
+        for (int i = 0; i < settings.sweep.length; i++) {
+            p99[i] = new RentalLoadGenerator(settings, settings.sweep[i]).run();
+            System.out.println();
+        }
+        printSweep(settings, p99);
+    }
+
+    // Builds the system, runs warm-up and the measured run, prints the summary and
+    // returns the p99 latency per Op
+    long[] run() throws IOException, InterruptedException {
+        long buildStart = System.nanoTime();
+        build();
+        System.out.printf(Locale.ROOT, "Fleet %d cars (%d rented), %d customers, %d models; built in %d ms%n",
+                fleetSize, rentedCars.size(), settings.customers, settings.models,
+                (System.nanoTime() - buildStart) / 1_000_000);
+        System.out.printf(Locale.ROOT, "Offering %.0f ops/s (%s arrivals), car skew %.2f, for %d s after %d s warm-up%n",
+                settings.rate, settings.poisson ? "Poisson" : "even", settings.carSkew,
+                TimeUnit.NANOSECONDS.toSeconds(settings.durationNanos),
+                TimeUnit.NANOSECONDS.toSeconds(settings.warmupNanos));
+
+        ExecutorService executor = newExecutor(settings.clients);
+        int dispatchers = (int) Math.min(MAX_DISPATCHERS, Math.max(1, Math.ceil(settings.rate / RATE_PER_DISPATCHER)));
+        long start = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(100);
+        long measureStart = start + settings.warmupNanos;
+        long end = measureStart + settings.durationNanos;
+        List<Thread> threads = new ArrayList<>();
+        for (int d = 0; d < dispatchers; d++) {
+            long seed = 42 + d;
+            Thread thread = new Thread(() -> dispatch(executor, start, end, settings.rate / dispatchers, seed),
+                    "load-dispatcher-" + d);
+            thread.setDaemon(true);
+            threads.add(thread);
+            thread.start();
+        }
+
+        System.out.printf(Locale.ROOT, "%9s %9s %9s %9s", "time", "ops/s", "in-flight", "dropped");
+        for (Op op : Op.values()) {
+            System.out.printf(Locale.ROOT, " %11s", op.label + " p99");
+        }
+        System.out.printf(Locale.ROOT, " %9s %9s %7s %7s%n", "heap MB", "live MB", "gcs", "gc ms");
+        GcSample gc = new GcSample();
+        long lastReport = start;
+        long lastCompleted = 0;
+        for (long next = start + settings.intervalNanos;; next += settings.intervalNanos) {
+            sleepUntil(Math.min(next, end));
+            long now = System.nanoTime();
+            if (!measuring && now >= measureStart) {
+                // Whatever finished during warm-up doesn't count
+                total = newStats();
+                measuring = true;
+            }
+            OpStats[] finished = interval;
+            interval = newStats();
+            long done = completed.sum();
+            GcSample previous = gc;
+            gc = new GcSample();
+            double seconds = (now - lastReport) / 1e9;
+            System.out.printf(Locale.ROOT, "%8ds %9.0f %9d %9d", TimeUnit.NANOSECONDS.toSeconds(now - start),
+                    (done - lastCompleted) / seconds, inFlight.get(), dropped.sum());
+            for (OpStats stats : finished) {
+                System.out.printf(Locale.ROOT, " %11s", millis(stats.latency.getValueAtQuantile(0.99)));
+            }
+            System.out.printf(Locale.ROOT, " %9d %9d %7d %7d%n", gc.heapUsed >> 20, gc.liveAfterGc >> 20,
+                    gc.collections - previous.collections, gc.collectionMillis - previous.collectionMillis);
+            lastReport = now;
+            lastCompleted = done;
+            if (now >= end) {
+                break;
+            }
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        // Operations still running are part of the measured run
+        long drainDeadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(DRAIN_SECONDS);
+        while (inFlight.get() > 0 && System.nanoTime() < drainDeadline) {
+            Thread.sleep(10);
+        }
+        executor.shutdown();
+        executor.awaitTermination(DRAIN_SECONDS, TimeUnit.SECONDS);
+        long[] p99 = printSummary();
+        system.close();
+        return p99;
+    }
+
+    // A fleet of Zipf-distributed models, customers, and a share of the cars rented
+    private void build() throws IOException {
+        system = new CarRentalSystem();
+        if (settings.dataDir != null) {
+            // A sweep journals each fleet size to its own directory
+            Path dir = settings.sweep == null ? settings.dataDir : settings.dataDir.resolve("fleet-" + fleetSize);
+            if (Files.exists(dir)) {
+                throw new IOException(dir + " already exists; the load generator wants a fresh one");
+            }
+            system.openJournal(dir);
+        }
+        Random random = new Random(42);
+        List<Customer> customers = new ArrayList<>(settings.customers);
+        for (int i = 0; i < settings.customers; i++) {
+            customers.add(new Customer(i, "Customer " + i, "DL" + i));
+        }
+        system.addCustomersWithValidation(customers);
+        List<Car> batch = new ArrayList<>();
+        for (int i = 0; i < fleetSize; i++) {
+            int model = models.sample(random) - 1;
+            batch.add(new Car(i, "Model " + model, brand(model)));
+            if (batch.size() == 100_000 || i == fleetSize - 1) {
+                system.addCarsWithValidation(batch);
+                batch.clear();
+            }
+        }
+        List<RentalCommand> rents = new ArrayList<>();
+        for (int i = 0; i < fleetSize; i++) {
+            if (random.nextDouble() < settings.rented) {
+                rents.add(RentalCommand.rent(i, random.nextInt(settings.customers)));
+                rentedCars.add(i);
+            }
+        }
+        system.applyBatch(rents);
+    }
+
+    private static String brand(int model) {
+        return "Brand " + (model % 20);
+    }
+
+    // Issues operations at rate per second from start to end, each due at its own
+    // time; falls behind only if the thread itself can't keep up, and then issues
+    // the overdue ones at once, still timed from when they were due
+    private void dispatch(ExecutorService executor, long start, long end, double rate, long seed) {
+        Random random = new Random(seed);
+        double gap = 1e9 / rate;
+        double due = start + random.nextDouble() * gap;
+        while (due < end) {
+            long dueNanos = (long) due;
+            sleepUntil(dueNanos);
+            if (inFlight.incrementAndGet() > settings.maxInFlight) {
+                inFlight.decrementAndGet();
+                dropped.increment();
+            } else {
+                executor.execute(() -> execute(dueNanos));
+            }
+            due += settings.poisson ? -Math.log(1.0 - random.nextDouble()) * gap : gap;
+        }
+    }
+
+    private void execute(long due) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        Op op = pick(random.nextInt(cumulativeMix[cumulativeMix.length - 1]));
+        long started = System.nanoTime();
+        boolean ok;
+        try {
+            ok = perform(op, random);
+        } catch (RuntimeException e) {
+            ok = false;
+        }
+        long finished = System.nanoTime();
+        if (measuring) {
+            record(total, op, due, started, finished, ok);
+        }
+        record(interval, op, due, started, finished, ok);
+        completed.increment();
+        inFlight.decrementAndGet();
+    }
+
+    private static void record(OpStats[] stats, Op op, long due, long started, long finished, boolean ok) {
+        OpStats s = stats[op.ordinal()];
+        s.latency.record(finished - due);
+        s.service.record(finished - started);
+        if (!ok) {
+            s.refused.increment();
+        }
+    }
+
+    private Op pick(int draw) {
+        for (int i = 0; i < cumulativeMix.length; i++) {
+            if (draw < cumulativeMix[i]) {
+                return OPS[i];
+            }
+        }
+        return Op.HISTORY;
+    }
+
+    // Runs one operation; false if it was refused or had nothing to do
+    private boolean perform(Op op, Random random) {
+        switch (op) {
+            case RENT: {
+                int carId = cars.sample(random) - 1;
+                if (system.tryRentCar(carId, random.nextInt(settings.customers)).isSuccess()) {
+                    rentedCars.add(carId);
+                    return true;
+                }
+                return false;
+            }
+            case RETURN: {
+                Integer carId = rentedCars.poll();
+                return carId != null && system.tryReturnCar(carId).isSuccess();
+            }
+            case AVAILABLE: {
+                int available = system.getAvailableCarCount();
+                List<Car> page = system.getAvailableCars(random.nextInt(Math.max(1, available - PAGE)), PAGE);
+                return !page.isEmpty();
+            }
+            case SEARCH: {
+                String brand = brand(models.sample(random) - 1);
+                return !system.findCars(new CarQuery().brand(brand).availableOnly().limit(SEARCH_LIMIT)).isEmpty();
+            }
+            default:
+                system.getCustomerHistory(random.nextInt(settings.customers));
+                return true;
+        }
+    }
+
+    private long[] printSummary() {
+        OpStats[] stats = total;
+        long[] p99 = new long[stats.length];
+        System.out.printf(Locale.ROOT, "%n%-10s %10s %8s %9s %9s %9s %9s %9s %9s %11s %9s  %s%n", "op", "count",
+                "refused", "mean", "p50", "p90", "p99", "p99.9", "max", "service p99", "slo p99", "");
+        for (Op op : Op.values()) {
+            OpStats s = stats[op.ordinal()];
+            LatencyHistogram h = s.latency;
+            p99[op.ordinal()] = h.getValueAtQuantile(0.99);
+            long slo = settings.slo[op.ordinal()];
+            System.out.printf(Locale.ROOT, "%-10s %10d %8d %9s %9s %9s %9s %9s %9s %11s %9s  %s%n", op.label,
+                    h.getCount(), s.refused.sum(), millis((long) h.getMean()), millis(h.getValueAtQuantile(0.5)),
+                    millis(h.getValueAtQuantile(0.9)), millis(p99[op.ordinal()]), millis(h.getValueAtQuantile(0.999)),
+                    millis(h.getMax()), millis(s.service.getValueAtQuantile(0.99)), millis(slo),
+                    h.getCount() == 0 ? "" : p99[op.ordinal()] <= slo ? "ok" : "MISSED");
+        }
+        System.out.println("Latencies in ms from when each operation was due; service p99 from when it started");
+        if (dropped.sum() > 0) {
+            System.out.printf(Locale.ROOT, "%d operations dropped with %d in flight: the system can't keep up with %.0f ops/s%n",
+                    dropped.sum(), settings.maxInFlight, settings.rate);
+        }
+        return p99;
+    }
+
+    private static void printSweep(Settings settings, long[][] p99) {
+        System.out.printf(Locale.ROOT, "%-10s", "fleet");
+        for (Op op : Op.values()) {
+            System.out.printf(Locale.ROOT, " %12s", op.label + " p99");
+        }
+        System.out.println();
+        for (int i = 0; i < settings.sweep.length; i++) {
+            System.out.printf(Locale.ROOT, "%-10d", settings.sweep[i]);
+            for (Op op : Op.values()) {
+                long value = p99[i][op.ordinal()];
+                System.out.printf(Locale.ROOT, " %12s", millis(value) + (value > settings.slo[op.ordinal()] ? "*" : ""));
+            }
+            System.out.println();
+        }
+        System.out.println("* misses the SLO");
+        for (Op op : Op.values()) {
+            int largest = -1;
+            for (int i = 0; i < settings.sweep.length && p99[i][op.ordinal()] <= settings.slo[op.ordinal()]; i++) {
+                largest = settings.sweep[i];
+            }
+            System.out.printf(Locale.ROOT, "%-10s %s%n", op.label, largest < 0 ? "misses its SLO at every fleet size"
+                    : "meets its SLO up to " + largest + " cars");
+        }
+    }
+
+    // Heap and collector totals at one moment
+    private static final class GcSample {
+        final long heapUsed = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+        final long liveAfterGc;
+        final long collections;
+        final long collectionMillis;
+
+        GcSample() {
+            long live = 0;
+            for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+                MemoryUsage afterGc = pool.getCollectionUsage();
+                if (pool.getType() == MemoryType.HEAP && afterGc != null) {
+                    live += afterGc.getUsed();
+                }
+            }
+            liveAfterGc = live;
+            long count = 0;
+            long millis = 0;
+            for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+                count += Math.max(0, collector.getCollectionCount());
+                millis += Math.max(0, collector.getCollectionTime());
+            }
+            collections = count;
+            collectionMillis = millis;
+        }
+    }
+
+    private static String millis(long nanos) {
+        return String.format(Locale.ROOT, "%.3f", nanos / 1e6);
+    }
+
+    // Parks until the deadline, spinning through the last stretch, which parking
+    // would overshoot, unless spinning would take the only CPU from the workers
+    private static void sleepUntil(long deadline) {
+        long remaining;
+        while ((remaining = deadline - System.nanoTime()) > 0) {
+            if (remaining > 100_000 || !SPIN) {
+                LockSupport.parkNanos(SPIN ? remaining - 50_000 : remaining);
+            } else {
+                Thread.onSpinWait();
+            }
+        }
+    }
+
+    // A virtual thread per operation on JDK 21+, otherwise a pool of platform threads
+    private static ExecutorService newExecutor(int clients) {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newFixedThreadPool(clients, r -> {
+                Thread thread = new Thread(r, "load-client");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+}
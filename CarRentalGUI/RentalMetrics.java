@@ -0,0 +1,257 @@
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+
+// Counters, latency histograms and gauges for one CarRentalSystem. Counters are
+// LongAdders and latencies go to striped histograms, so recording stays off the
+// contended path; gauges are read from the system when someone asks for them.
+// Every operation is counted, but only one rent or return in SAMPLE_EVERY is
+// timed: two clock reads cost a sizeable share of an in-memory rent, and a random
+// sample keeps the percentiles honest (the max and far tail are the sample's, not
+// the exact ones). The slower, rarer operations are always timed.
+// Exposed over JMX (registerMBean) and as Prometheus-style text (toText).
+class RentalMetrics implements RentalMetricsMXBean {
+    enum Operation {
+        RENT, RETURN, ADD_CAR, ADD_CUSTOMER, LIST_AVAILABLE, BATCH;
+
+        String label() {
+            return name().toLowerCase(Locale.ROOT);
+        }
+    }
+
+    static final int SAMPLE_EVERY = 16;
+    private static final long UNTIMED = Long.MIN_VALUE;
+
+    private final CarRentalSystem system;
+    private volatile boolean enabled = true;
+    private boolean registered;
+
+    private final LatencyHistogram[] latencies = new LatencyHistogram[Operation.values().length];
+    private final LongAdder[] rentResults = new LongAdder[RentalResult.values().length];
+    private final LongAdder[] returnResults = new LongAdder[RentalResult.values().length];
+    private final LongAdder carsAdded = new LongAdder();
+    private final LongAdder carsRejected = new LongAdder();
+    private final LongAdder customersAdded = new LongAdder();
+    private final LongAdder customersRejected = new LongAdder();
+
+    RentalMetrics(CarRentalSystem system) {
+        this.system = system;
+        for (int i = 0; i < latencies.length; i++) {
+            latencies[i] = new LatencyHistogram();
+        }
+        for (int i = 0; i < rentResults.length; i++) {
+            rentResults[i] = new LongAdder();
+            returnResults[i] = new LongAdder();
+        }
+    }
+
+    // Recording --------------------------------------------------------------
+
+    // Start time for a timed operation, or UNTIMED while metrics are switched off
+    long start() {
+        return enabled ? System.nanoTime() : UNTIMED;
+    }
+
+    // Like start, but only for a random one in SAMPLE_EVERY calls
+    long sampledStart() {
+        return enabled && ThreadLocalRandom.current().nextInt(SAMPLE_EVERY) == 0 ? System.nanoTime() : UNTIMED;
+    }
+
+    void recordRent(RentalResult result, long start) {
+        if (enabled) {
+            rentResults[result.ordinal()].increment();
+            record(Operation.RENT, start);
+        }
+    }
+
+    void recordReturn(RentalResult result, long start) {
+        if (enabled) {
+            returnResults[result.ordinal()].increment();
+            record(Operation.RETURN, start);
+        }
+    }
+
+    void recordAddCar(boolean added, long start) {
+        if (enabled) {
+            (added ? carsAdded : carsRejected).increment();
+            record(Operation.ADD_CAR, start);
+        }
+    }
+
+    void recordAddCustomer(boolean added, long start) {
+        if (enabled) {
+            (added ? customersAdded : customersRejected).increment();
+            record(Operation.ADD_CUSTOMER, start);
+        }
+    }
+
+    void record(Operation operation, long start) {
+        if (start != UNTIMED) {
+            latencies[operation.ordinal()].record(System.nanoTime() - start);
+        }
+    }
+
+    // Counts the outcomes of rents/returns applied as part of a batch
+    void countRent(RentalResult result) {
+        if (enabled) {
+            rentResults[result.ordinal()].increment();
+        }
+    }
+
+    void countReturn(RentalResult result) {
+        if (enabled) {
+            returnResults[result.ordinal()].increment();
+        }
+    }
+
+    public LatencyHistogram getLatency(Operation operation) {
+        return latencies[operation.ordinal()];
+    }
+
+    public long getRentCount(RentalResult result) {
+        return rentResults[result.ordinal()].sum();
+    }
+
+    public long getReturnCount(RentalResult result) {
+        return returnResults[result.ordinal()].sum();
+    }
+
+    // Views ------------------------------------------------------------------
+
+    @Override
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    @Override
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    @Override
+    public Map<String, Long> getCounters() {
+        Map<String, Long> counters = new LinkedHashMap<>();
+        for (RentalResult result : RentalResult.values()) {
+            if (result != RentalResult.CAR_NOT_RENTED) {
+                counters.put("rent." + result.name().toLowerCase(Locale.ROOT), rentResults[result.ordinal()].sum());
+            }
+        }
+        for (RentalResult result : new RentalResult[] {
+                RentalResult.OK, RentalResult.CAR_NOT_FOUND, RentalResult.CAR_NOT_RENTED }) {
+            counters.put("return." + result.name().toLowerCase(Locale.ROOT), returnResults[result.ordinal()].sum());
+        }
+        counters.put("add_car.ok", carsAdded.sum());
+        counters.put("add_car.duplicate", carsRejected.sum());
+        counters.put("add_customer.ok", customersAdded.sum());
+        counters.put("add_customer.duplicate", customersRejected.sum());
+        CustomerHistoryCache cache = system.getHistoryCache();
+        counters.put("history_cache.hit", cache.getHits());
+        counters.put("history_cache.miss", cache.getMisses());
+        counters.put("history_cache.eviction", cache.getEvictions());
+        return counters;
+    }
+
+    @Override
+    public Map<String, Double> getGauges() {
+        Map<String, Double> gauges = new LinkedHashMap<>();
+        gauges.put("load_progress", system.getLoadProgress());
+        // The rest would wait for the data to finish loading
+        if (!system.isLoaded()) {
+            return gauges;
+        }
+        int fleet = system.getCarCount();
+        int open = system.getActiveRentalCount();
+        gauges.put("fleet_size", (double) fleet);
+        gauges.put("available_cars", (double) system.getAvailableCarCount());
+        gauges.put("open_rentals", (double) open);
+        gauges.put("utilization", fleet == 0 ? 0.0 : (double) open / fleet);
+        gauges.put("customers", (double) system.getCustomerCount());
+        gauges.put("reservations", (double) system.getReservationCount());
+        gauges.put("closed_rentals", (double) system.getClosedRentalCount());
+        gauges.put("history_cache_customers", (double) system.getHistoryCache().getCachedCustomers());
+        gauges.put("history_cache_rentals", (double) system.getHistoryCache().getCachedRentals());
+        BillingEngine billing = system.getBilling();
+        gauges.put("invoices", (double) billing.getInvoiceCount());
+        gauges.put("billed_revenue", billing.getBilledCents() / 100.0);
+        gauges.put("late_fee_revenue", billing.getLateFeeCents() / 100.0);
+        return gauges;
+    }
+
+    @Override
+    public Map<String, Long> getLatencyNanos() {
+        Map<String, Long> summary = new LinkedHashMap<>();
+        for (Operation operation : Operation.values()) {
+            LatencyHistogram h = latencies[operation.ordinal()];
+            summary.put(operation.label() + ".p50", h.getValueAtQuantile(0.5));
+            summary.put(operation.label() + ".p99", h.getValueAtQuantile(0.99));
+            summary.put(operation.label() + ".p999", h.getValueAtQuantile(0.999));
+            summary.put(operation.label() + ".max", h.getMax());
+        }
+        return summary;
+    }
+
+    // Prometheus text exposition format; latency counts are of the timed sample
+    public String toText() {
+        StringBuilder out = new StringBuilder(4096);
+        out.append("# TYPE car_rental_operations_total counter\n");
+        for (Map.Entry<String, Long> counter : getCounters().entrySet()) {
+            String[] parts = counter.getKey().split("\\.");
+            out.append("car_rental_operations_total{operation=\"").append(parts[0])
+                    .append("\",result=\"").append(parts[1]).append("\"} ").append(counter.getValue()).append('\n');
+        }
+        for (Map.Entry<String, Double> gauge : getGauges().entrySet()) {
+            out.append("# TYPE car_rental_").append(gauge.getKey()).append(" gauge\n");
+            out.append("car_rental_").append(gauge.getKey()).append(' ')
+                    .append(String.format(Locale.ROOT, "%.4f", gauge.getValue())).append('\n');
+        }
+        out.append("# TYPE car_rental_latency_seconds summary\n");
+        for (Operation operation : Operation.values()) {
+            LatencyHistogram h = latencies[operation.ordinal()];
+            for (double q : new double[] { 0.5, 0.99, 0.999 }) {
+                out.append("car_rental_latency_seconds{operation=\"").append(operation.label())
+                        .append("\",quantile=\"").append(q).append("\"} ")
+                        .append(String.format(Locale.ROOT, "%.9f", h.getValueAtQuantile(q) / 1e9)).append('\n');
+            }
+            out.append("car_rental_latency_seconds_count{operation=\"").append(operation.label()).append("\"} ")
+                    .append(h.getCount()).append('\n');
+            out.append("car_rental_latency_seconds_sum{operation=\"").append(operation.label()).append("\"} ")
+                    .append(String.format(Locale.ROOT, "%.9f", h.getMean() * h.getCount() / 1e9)).append('\n');
+        }
+        return out.toString();
+    }
+
+    // Publishes these metrics on the platform MBean server; returns false if the
+    // name is already taken (e.g. a second system in the same JVM)
+    public synchronized boolean registerMBean() {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, mbeanName());
+            registered = true;
+            return true;
+        } catch (JMException e) {
+            return false;
+        }
+    }
+
+    // Takes these metrics off the platform MBean server, if registerMBean put them there
+    public synchronized void unregisterMBean() {
+        if (!registered) {
+            return;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(mbeanName());
+        } catch (JMException e) {
+            // Already gone
+        }
+        registered = false;
+    }
+
+    private static ObjectName mbeanName() throws MalformedObjectNameException {
+        return new ObjectName("CarRental:type=RentalMetrics");
+    }
+}
@@ -0,0 +1,17 @@
+import java.util.Map;
+
+// JMX view of RentalMetrics (registered as CarRental:type=RentalMetrics)
+public interface RentalMetricsMXBean {
+    // Operation outcomes, e.g. "rent.ok", "rent.car_not_found", "add_car.duplicate"
+    Map<String, Long> getCounters();
+
+    // Fleet size, available cars, open rentals, utilization, customers, reservations
+    Map<String, Double> getGauges();
+
+    // Per operation: "rent.p50", "rent.p99", "rent.p999", "rent.max" in nanoseconds
+    Map<String, Long> getLatencyNanos();
+
+    boolean isEnabled();
+
+    void setEnabled(boolean enabled);
+}
@@ -0,0 +1,23 @@
+// Outcome of a rent or return, so callers and metrics can tell failures apart
+enum RentalResult {
+    OK("Success"),
+    CAR_NOT_FOUND("Car ID doesn't exist"),
+    CUSTOMER_NOT_FOUND("Customer ID doesn't exist"),
+    CAR_ALREADY_RENTED("Car is already rented out"),
+    CAR_RESERVED("Car is reserved by another customer"),
+    CAR_NOT_RENTED("Car is not currently rented");
+
+    private final String description;
+
+    RentalResult(String description) {
+        this.description = description;
+    }
+
+    public boolean isSuccess() {
+        return this == OK;
+    }
+
+    public String getDescription() {
+        return description;
+    }
+}
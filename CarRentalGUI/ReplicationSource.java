@@ -0,0 +1,222 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Streams a primary CarRentalSystem's changes to warm standbys (see
+// ReplicationStandby). A standby connects to the port and gets a snapshot of the
+// state, then every batch of journal records the flusher writes after it, in the
+// journal's own framing. Batches are passed on only once they are durable here,
+// so a standby never holds a change the primary could lose, and they are sent
+// without waiting on the standby, which acknowledges what it has applied as it
+// goes. Every send starts with a heartbeat naming the newest record sent and the
+// primary's clock, and an idle connection gets one every HEARTBEAT_MILLIS, from
+// which the standby knows how far behind it is.
+//
+// The system needs an open journal. A standby that falls MAX_QUEUED_BYTES behind
+// is cut off rather than let the primary's memory grow; it has to start over
+// from a fresh snapshot.
+class ReplicationSource implements Closeable {
+    static final long HEARTBEAT_MILLIS = 100;
+    static final long MAX_QUEUED_BYTES = 64L << 20;
+
+    // One batch of records as the journal wrote it
+    private static final class Batch {
+        final byte[] records;
+        final long lastSeq;
+        final long time;
+
+        Batch(byte[] records, long lastSeq, long time) {
+            this.records = records;
+            this.lastSeq = lastSeq;
+            this.time = time;
+        }
+    }
+
+    // One connected standby, with a thread sending to it and one reading its acks
+    final class Replica implements RentalJournal.BatchListener {
+        private final Socket socket;
+        private final String address;
+        private final LinkedBlockingQueue<Batch> queue = new LinkedBlockingQueue<>();
+        private final AtomicLong queuedBytes = new AtomicLong();
+        private volatile long durableSeq;
+        private volatile long sentSeq;
+        private volatile long ackedSeq;
+        private volatile boolean cutOff;
+
+        Replica(Socket socket) {
+            this.socket = socket;
+            this.address = socket.getRemoteSocketAddress().toString();
+        }
+
+        // On the journal's flusher thread, so it only queues
+        @Override
+        public void written(byte[] records, long lastSeq) {
+            if (cutOff) {
+                return;
+            }
+            if (queuedBytes.addAndGet(records.length) > MAX_QUEUED_BYTES) {
+                cutOff = true;
+                closeQuietly(socket);
+                return;
+            }
+            durableSeq = Math.max(durableSeq, lastSeq);
+            queue.add(new Batch(records, lastSeq, System.currentTimeMillis()));
+        }
+
+        private void send() {
+            try {
+                socket.setTcpNoDelay(true);
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 1 << 16));
+                RentalJournal.ReplicaSnapshot snapshot = system.startReplica(this);
+                sentSeq = ackedSeq = snapshot.getSequence();
+                durableSeq = Math.max(durableSeq, sentSeq);
+                RentalJournal.writeReplica(out, snapshot, system);
+                out.flush();
+                startThread(this::readAcks, "replication-acks " + address);
+
+                List<Batch> ready = new ArrayList<>();
+                while (!closed && !cutOff) {
+                    Batch first = queue.poll(HEARTBEAT_MILLIS, TimeUnit.MILLISECONDS);
+                    if (first == null) {
+                        out.write(RentalJournal.heartbeat(sentSeq, System.currentTimeMillis()));
+                        out.flush();
+                        continue;
+                    }
+                    // Whatever else has queued up goes out in the same write
+                    ready.add(first);
+                    queue.drainTo(ready);
+                    Batch last = ready.get(ready.size() - 1);
+                    out.write(RentalJournal.heartbeat(Math.max(sentSeq, last.lastSeq), last.time));
+                    for (Batch batch : ready) {
+                        out.write(batch.records);
+                        queuedBytes.addAndGet(-batch.records.length);
+                    }
+                    out.flush();
+                    sentSeq = Math.max(sentSeq, last.lastSeq);
+                    ready.clear();
+                }
+            } catch (IOException | RuntimeException e) {
+                if (!closed) {
+                    System.err.println("Replication to " + address + " stopped: "
+                            + (cutOff ? "standby fell too far behind" : e.getMessage()));
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                system.stopReplica(this);
+                replicas.remove(this);
+                closeQuietly(socket);
+            }
+        }
+
+        private void readAcks() {
+            try {
+                DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+                while (true) {
+                    ackedSeq = in.readLong();
+                }
+            } catch (IOException e) {
+                // The sender notices the closed socket too
+                closeQuietly(socket);
+            }
+        }
+
+        public String getAddress() {
+            return address;
+        }
+
+        // Newest record the standby has said it applied
+        public long getAckedSequence() {
+            return ackedSeq;
+        }
+
+        // Records made durable here that the standby hasn't acknowledged yet
+        public long getLagRecords() {
+            return Math.max(0, durableSeq - ackedSeq);
+        }
+
+        // Batch bytes waiting to be sent
+        public long getQueuedBytes() {
+            return queuedBytes.get();
+        }
+    }
+
+    private final CarRentalSystem system;
+    private final ServerSocket server;
+    private final Set<Replica> replicas = ConcurrentHashMap.newKeySet();
+    private volatile boolean closed;
+
+    private ReplicationSource(CarRentalSystem system, ServerSocket server) {
+        this.system = system;
+        this.server = server;
+    }
+
+    // Listens for standbys on port (0 for any free port)
+    public static ReplicationSource start(CarRentalSystem system, int port) throws IOException {
+        ServerSocket server = new ServerSocket();
+        server.setReuseAddress(true);
+        server.bind(new InetSocketAddress(port));
+        ReplicationSource source = new ReplicationSource(system, server);
+        source.startThread(source::acceptLoop, "replication-accept");
+        return source;
+    }
+
+    private void acceptLoop() {
+        while (!closed) {
+            try {
+                Replica replica = new Replica(server.accept());
+                replicas.add(replica);
+                startThread(replica::send, "replication-send " + replica.address);
+            } catch (IOException e) {
+                if (!closed) {
+                    System.err.println("Replication listener failed: " + e.getMessage());
+                }
+                return;
+            }
+        }
+    }
+
+    private void startThread(Runnable task, String name) {
+        Thread thread = new Thread(task, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public int getPort() {
+        return server.getLocalPort();
+    }
+
+    public List<Replica> getReplicas() {
+        return new ArrayList<>(replicas);
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        server.close();
+        for (Replica replica : replicas) {
+            closeQuietly(replica.socket);
+        }
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // Already gone
+        }
+    }
+}
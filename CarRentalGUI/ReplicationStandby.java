@@ -0,0 +1,203 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.zip.CRC32;
+
+// Keeps a CarRentalSystem as a warm standby of a primary's (see
+// ReplicationSource): loads the primary's snapshot, then applies its journal
+// records as they arrive, through the same path as journal replay. The standby's
+// system has no journal of its own while it follows, so applying costs no fsync;
+// the primary's journal is what makes changes durable. Reads can be served from
+// the standby meanwhile, but writes belong on the primary until promote().
+//
+// Lag: each heartbeat names the newest record the primary had made durable and
+// the primary's clock at the time. Once the standby has applied up to a
+// heartbeat's sequence it holds everything the primary had as of then, so
+// getLagMillis() bounds how stale it is. That assumes the two clocks agree, as
+// they do for two processes on one host. If the primary goes away the bound
+// keeps growing, since nothing is known of what it did afterwards.
+class ReplicationStandby implements Closeable {
+    private final CarRentalSystem system;
+    private final Socket socket;
+    private final String primary;
+    private final DataInputStream in;
+    private final DataOutputStream acks;
+    private final Thread applier;
+
+    private volatile long appliedSeq;
+    // From the newest heartbeat
+    private volatile long primarySeq;
+    private volatile long heartbeatTime;
+    // Primary clock as of which everything it had is applied here
+    private volatile long caughtUpTime;
+    private volatile long lastContact;
+    private volatile boolean connected = true;
+    private volatile String failure;
+    private volatile boolean stopped;
+    // Lag as of promote(), which stops following
+    private volatile boolean lagFrozen;
+    private volatile long frozenLagMillis;
+    private volatile boolean promoted;
+
+    private ReplicationStandby(CarRentalSystem system, Socket socket, String primary) throws IOException {
+        this.system = system;
+        this.socket = socket;
+        this.primary = primary;
+        this.in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 1 << 16));
+        this.acks = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 64));
+        this.applier = new Thread(this::applyLoop, "replication-apply");
+        this.applier.setDaemon(true);
+    }
+
+    // Connects to the primary's ReplicationSource, loads its snapshot into system,
+    // which must be empty and have no journal, and follows it from then on
+    static ReplicationStandby connect(String host, int port, CarRentalSystem system) throws IOException {
+        if (system.getCarCount() > 0 || system.getCustomerCount() > 0) {
+            throw new IllegalStateException("a standby starts from an empty system");
+        }
+        Socket socket = new Socket();
+        try {
+            socket.connect(new InetSocketAddress(host, port));
+            socket.setTcpNoDelay(true);
+            ReplicationStandby standby = new ReplicationStandby(system, socket, host + ":" + port);
+            long seq = RentalJournal.readReplica(standby.in, system, standby.primary);
+            standby.appliedSeq = seq;
+            standby.primarySeq = seq;
+            standby.caughtUpTime = standby.lastContact = System.currentTimeMillis();
+            standby.applier.start();
+            return standby;
+        } catch (IOException | RuntimeException e) {
+            socket.close();
+            throw e;
+        }
+    }
+
+    private void applyLoop() {
+        CRC32 check = new CRC32();
+        try {
+            while (!stopped) {
+                byte[] record = RentalJournal.readRecord(in, check);
+                if (record == null) {
+                    throw new IOException("corrupt replication record");
+                }
+                lastContact = System.currentTimeMillis();
+                ByteBuffer buf = ByteBuffer.wrap(record);
+                byte type = buf.get();
+                long seq = buf.getLong();
+                if (type == RentalJournal.HEARTBEAT) {
+                    heartbeatTime = buf.getLong();
+                    primarySeq = seq;
+                    if (appliedSeq >= seq) {
+                        caughtUpTime = heartbeatTime;
+                    }
+                    acks.writeLong(appliedSeq);
+                    acks.flush();
+                } else if (seq > appliedSeq) {
+                    RentalJournal.apply(system, type, buf);
+                    appliedSeq = seq;
+                    if (seq >= primarySeq) {
+                        caughtUpTime = heartbeatTime;
+                    }
+                }
+            }
+        } catch (EOFException e) {
+            if (!stopped) {
+                failure = "primary closed the connection";
+            }
+        } catch (IOException | RuntimeException e) {
+            if (!stopped) {
+                failure = e.getMessage();
+            }
+        } finally {
+            connected = false;
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // Already closed
+            }
+        }
+    }
+
+    // Stops following the primary and, if dir is given, starts journaling there
+    // (see CarRentalSystem.startJournal), so the system can take writes as the new
+    // primary. The lag as of this moment stays readable afterwards: changes the
+    // primary made in that window aren't here. If the journal can't be started
+    // the standby stays unpromoted, and promote can be tried again.
+    public synchronized void promote(Path dir) throws IOException {
+        if (promoted) {
+            throw new IllegalStateException("already promoted");
+        }
+        if (!lagFrozen) {
+            stopped = true;
+            socket.close();
+            try {
+                applier.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("interrupted while stopping replication", e);
+            }
+            frozenLagMillis = Math.max(0, System.currentTimeMillis() - caughtUpTime);
+            lagFrozen = true;
+        }
+        if (dir != null) {
+            system.startJournal(dir);
+        }
+        promoted = true;
+    }
+
+    public String getPrimary() {
+        return primary;
+    }
+
+    public boolean isConnected() {
+        return connected;
+    }
+
+    public boolean isPromoted() {
+        return promoted;
+    }
+
+    // Why the connection ended, or null
+    public String getFailure() {
+        return failure;
+    }
+
+    // Newest primary journal record applied here
+    public long getAppliedSequence() {
+        return appliedSeq;
+    }
+
+    // Newest record the primary had made durable, as of its last heartbeat
+    public long getPrimarySequence() {
+        return primarySeq;
+    }
+
+    // Records the primary is known to have that aren't applied here
+    public long getLagRecords() {
+        return Math.max(0, primarySeq - appliedSeq);
+    }
+
+    // How long ago, by the primary's clock, it last had nothing this standby lacks
+    public long getLagMillis() {
+        return lagFrozen ? frozenLagMillis : Math.max(0, System.currentTimeMillis() - caughtUpTime);
+    }
+
+    // Since anything last arrived from the primary
+    public long getSilenceMillis() {
+        return System.currentTimeMillis() - lastContact;
+    }
+
+    @Override
+    public void close() throws IOException {
+        stopped = true;
+        socket.close();
+    }
+}
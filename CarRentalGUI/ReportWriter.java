@@ -0,0 +1,304 @@
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.List;
+import java.util.Locale;
+
+// Streaming renderer for fleet and customer listings as numbered text (the lines
+// the GUI has always shown), CSV, or fixed-width columns. Fields are copied
+// straight into one reusable char buffer that is handed to the Writer whenever it
+// fills, so a row costs no String.format parse and no temporary strings: numbers
+// are written digit by digit and text with String.getChars. Not thread-safe.
+class ReportWriter implements Flushable, Closeable {
+    enum Format {
+        TEXT, CSV, FIXED_WIDTH;
+
+        // Case-insensitive; "fixed" is short for FIXED_WIDTH
+        static Format parse(String name) {
+            if (name.equalsIgnoreCase("fixed")) {
+                return FIXED_WIDTH;
+            }
+            try {
+                return valueOf(name.toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Unknown format " + name + " (use text, csv or fixed)");
+            }
+        }
+    }
+
+    static final int CHUNK_SIZE = 10_000;
+    private static final int BUFFER_CHARS = 8192;
+
+    private static final String[] CAR_COLUMNS = { "id", "brand", "model", "status" };
+    private static final int[] CAR_WIDTHS = { 10, 16, 20, 9 };
+    private static final String[] CUSTOMER_COLUMNS = { "id", "name", "licenseNumber" };
+    private static final int[] CUSTOMER_WIDTHS = { 10, 30, 16 };
+
+    private final Writer out;
+    private final Format format;
+    private final char[] buf = new char[BUFFER_CHARS];
+    private int pos;
+    private long rows;
+    // Scratch for digits, written backwards
+    private final char[] digits = new char[20];
+
+    ReportWriter(Writer out, Format format) {
+        this.out = out;
+        this.format = format;
+    }
+
+    public Format getFormat() {
+        return format;
+    }
+
+    // Rows written so far, not counting headers
+    public long getRows() {
+        return rows;
+    }
+
+    // Whole listings ---------------------------------------------------------
+
+    // Every car, or only the available ones, paged through the system; returns the row count
+    static long writeCars(CarRentalSystem system, boolean availableOnly, Writer out, Format format)
+            throws IOException {
+        ReportWriter report = new ReportWriter(out, format);
+        report.carHeader();
+        for (int offset = 0;; offset += CHUNK_SIZE) {
+            List<Car> page = availableOnly
+                    ? system.getAvailableCars(offset, CHUNK_SIZE)
+                    : system.getCars(offset, CHUNK_SIZE);
+            for (Car car : page) {
+                report.car(car);
+            }
+            if (page.size() < CHUNK_SIZE) {
+                break;
+            }
+        }
+        report.flush();
+        return report.getRows();
+    }
+
+    static long writeCustomers(CarRentalSystem system, Writer out, Format format) throws IOException {
+        ReportWriter report = new ReportWriter(out, format);
+        report.customerHeader();
+        for (int offset = 0;; offset += CHUNK_SIZE) {
+            List<Customer> page = system.getCustomers(offset, CHUNK_SIZE);
+            for (Customer customer : page) {
+                report.customer(customer);
+            }
+            if (page.size() < CHUNK_SIZE) {
+                break;
+            }
+        }
+        report.flush();
+        return report.getRows();
+    }
+
+    // Rows -------------------------------------------------------------------
+
+    // Column headings for CSV and fixed width; plain text has none
+    public void carHeader() throws IOException {
+        header(CAR_COLUMNS, CAR_WIDTHS);
+    }
+
+    public void customerHeader() throws IOException {
+        header(CUSTOMER_COLUMNS, CUSTOMER_WIDTHS);
+    }
+
+    // TEXT matches "n. " + car.toString()
+    public void car(Car car) throws IOException {
+        String status = car.isAvailable() ? "Available" : "Rented";
+        switch (format) {
+            case TEXT:
+                number(++rows);
+                append(". ID: ");
+                number(car.getId());
+                append(" | ");
+                append(car.getBrand());
+                append(' ');
+                append(car.getModel());
+                append(" | Status: ");
+                append(status);
+                break;
+            case CSV:
+                rows++;
+                number(car.getId());
+                append(',');
+                csv(car.getBrand());
+                append(',');
+                csv(car.getModel());
+                append(',');
+                append(status);
+                break;
+            default:
+                rows++;
+                fixedNumber(car.getId(), CAR_WIDTHS[0]);
+                append(' ');
+                fixed(car.getBrand(), CAR_WIDTHS[1]);
+                append(' ');
+                fixed(car.getModel(), CAR_WIDTHS[2]);
+                append(' ');
+                fixed(status, CAR_WIDTHS[3]);
+                break;
+        }
+        append('\n');
+    }
+
+    // TEXT matches "n. " + customer.toString()
+    public void customer(Customer customer) throws IOException {
+        switch (format) {
+            case TEXT:
+                number(++rows);
+                append(". ID: ");
+                number(customer.getId());
+                append(" | Name: ");
+                append(customer.getName());
+                append(" | License: ");
+                append(customer.getLicenseNumber());
+                break;
+            case CSV:
+                rows++;
+                number(customer.getId());
+                append(',');
+                csv(customer.getName());
+                append(',');
+                csv(customer.getLicenseNumber());
+                break;
+            default:
+                rows++;
+                fixedNumber(customer.getId(), CUSTOMER_WIDTHS[0]);
+                append(' ');
+                fixed(customer.getName(), CUSTOMER_WIDTHS[1]);
+                append(' ');
+                fixed(customer.getLicenseNumber(), CUSTOMER_WIDTHS[2]);
+                break;
+        }
+        append('\n');
+    }
+
+    private void header(String[] columns, int[] widths) throws IOException {
+        if (format == Format.TEXT) {
+            return;
+        }
+        for (int i = 0; i < columns.length; i++) {
+            if (i > 0) {
+                append(format == Format.CSV ? ',' : ' ');
+            }
+            if (format == Format.CSV) {
+                append(columns[i]);
+            } else if (i == 0) {
+                // Right-aligned like the ids below it
+                pad(widths[0] - columns[0].length());
+                append(columns[0]);
+            } else {
+                fixed(columns[i], widths[i]);
+            }
+        }
+        append('\n');
+    }
+
+    @Override
+    public void flush() throws IOException {
+        out.write(buf, 0, pos);
+        pos = 0;
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        flush();
+        out.close();
+    }
+
+    // Field encoding -----------------------------------------------------------
+
+    private void ensure(int chars) throws IOException {
+        if (pos + chars > buf.length) {
+            out.write(buf, 0, pos);
+            pos = 0;
+        }
+    }
+
+    private void append(char c) throws IOException {
+        ensure(1);
+        buf[pos++] = c;
+    }
+
+    private void append(String s) throws IOException {
+        append(s, 0, s.length());
+    }
+
+    private void append(String s, int from, int to) throws IOException {
+        while (from < to) {
+            ensure(Math.min(to - from, buf.length));
+            int n = Math.min(to - from, buf.length - pos);
+            s.getChars(from, from + n, buf, pos);
+            pos += n;
+            from += n;
+        }
+    }
+
+    private void number(long value) throws IOException {
+        fixedNumber(value, 0);
+    }
+
+    // Fills the end of digits with value's decimal form; returns its length
+    private int toDigits(long value) {
+        int i = digits.length;
+        // Work in negatives so Long.MIN_VALUE needs no special case
+        long v = value < 0 ? value : -value;
+        do {
+            digits[--i] = (char) ('0' - (v % 10));
+            v /= 10;
+        } while (v != 0);
+        if (value < 0) {
+            digits[--i] = '-';
+        }
+        return digits.length - i;
+    }
+
+    // Quoted, with "" for quotes, only when it holds a comma, quote or line break
+    private void csv(String value) throws IOException {
+        boolean quote = false;
+        for (int i = 0; i < value.length() && !quote; i++) {
+            char c = value.charAt(i);
+            quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+        }
+        if (!quote) {
+            append(value);
+            return;
+        }
+        append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"') {
+                append('"');
+            }
+            append(c);
+        }
+        append('"');
+    }
+
+    // Left-aligned in width columns, cut short if longer
+    private void fixed(String value, int width) throws IOException {
+        int n = Math.min(value.length(), width);
+        append(value, 0, n);
+        pad(width - n);
+    }
+
+    // Right-aligned in width columns; a number never gets cut
+    private void fixedNumber(long value, int width) throws IOException {
+        int n = toDigits(value);
+        pad(width - n);
+        ensure(n);
+        System.arraycopy(digits, digits.length - n, buf, pos, n);
+        pos += n;
+    }
+
+    private void pad(int spaces) throws IOException {
+        for (int i = 0; i < spaces; i++) {
+            append(' ');
+        }
+    }
+}
@@ -0,0 +1,48 @@
+import java.util.Date;
+
+// Advance booking of a car over [startTime, endTime), in epoch milliseconds
+class Reservation {
+    private final int id;
+    private final int carId;
+    private final int customerId;
+    private final long startTime;
+    private final long endTime;
+
+    public Reservation(int id, int carId, int customerId, long startTime, long endTime) {
+        this.id = id;
+        this.carId = carId;
+        this.customerId = customerId;
+        this.startTime = startTime;
+        this.endTime = endTime;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public int getCarId() {
+        return carId;
+    }
+
+    public int getCustomerId() {
+        return customerId;
+    }
+
+    public long getStartTime() {
+        return startTime;
+    }
+
+    public long getEndTime() {
+        return endTime;
+    }
+
+    public boolean overlaps(long from, long to) {
+        return startTime < to && from < endTime;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Reservation %d | Car ID: %d | Customer ID: %d | %s - %s",
+                id, carId, customerId, new Date(startTime), new Date(endTime));
+    }
+}
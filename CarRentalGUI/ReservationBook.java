@@ -0,0 +1,147 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+
+// Future bookings of the fleet, indexed two ways:
+//  - per car, a TreeMap of non-overlapping reservations keyed by start time, so a
+//    conflict check is one lowerEntry lookup (O(log n) in the car's bookings);
+//  - per calendar day (UTC), the reservations touching that day, so "which cars
+//    are busy between T1 and T2" visits only the bookings in that window instead
+//    of every car or every booking.
+// Synchronized on itself; CarRentalSystem also holds the car's stripe when booking.
+class ReservationBook {
+    private static final long DAY_MILLIS = 24L * 60 * 60 * 1000;
+    static final int MAX_DAYS = 366;
+
+    private final IntObjectMap<TreeMap<Long, Reservation>> byCar = new IntObjectMap<>();
+    private final IntObjectMap<Reservation> byId = new IntObjectMap<>();
+    // Keyed by day number, which outgrows an int for far-off times
+    private final Map<Long, IntObjectMap<Reservation>> byDay = new HashMap<>();
+    private int nextId = 1;
+
+    public synchronized int nextId() {
+        return nextId;
+    }
+
+    // Snapshot loading: ids below nextId may belong to cancelled reservations and
+    // are never issued again
+    public synchronized void restoreNextId(int id) {
+        nextId = Math.max(nextId, id);
+    }
+
+    // Adds the reservation unless it overlaps another one for the same car or is
+    // longer than MAX_DAYS. An id of 0 takes the next free id. Returns the stored
+    // reservation, or null.
+    public synchronized Reservation add(int id, int carId, int customerId, long startTime, long endTime) {
+        if (startTime >= endTime || day(endTime - 1) - day(startTime) >= MAX_DAYS || conflict(carId, startTime, endTime) != null
+                || (id != 0 && byId.containsKey(id))) {
+            return null;
+        }
+        if (id == 0) {
+            id = nextId;
+        }
+        nextId = Math.max(nextId, id + 1);
+        Reservation reservation = new Reservation(id, carId, customerId, startTime, endTime);
+
+        TreeMap<Long, Reservation> bookings = byCar.get(carId);
+        if (bookings == null) {
+            bookings = new TreeMap<>();
+            byCar.put(carId, bookings);
+        }
+        bookings.put(startTime, reservation);
+        byId.put(id, reservation);
+        for (long day = day(startTime); day <= day(endTime - 1); day++) {
+            IntObjectMap<Reservation> bucket = byDay.get(day);
+            if (bucket == null) {
+                bucket = new IntObjectMap<>();
+                byDay.put(day, bucket);
+            }
+            bucket.put(id, reservation);
+        }
+        return reservation;
+    }
+
+    public synchronized Reservation remove(int id) {
+        Reservation reservation = byId.remove(id);
+        if (reservation == null) {
+            return null;
+        }
+        TreeMap<Long, Reservation> bookings = byCar.get(reservation.getCarId());
+        bookings.remove(reservation.getStartTime());
+        if (bookings.isEmpty()) {
+            byCar.remove(reservation.getCarId());
+        }
+        for (long day = day(reservation.getStartTime()); day <= day(reservation.getEndTime() - 1); day++) {
+            IntObjectMap<Reservation> bucket = byDay.get(day);
+            bucket.remove(id);
+            if (bucket.isEmpty()) {
+                byDay.remove(day);
+            }
+        }
+        return reservation;
+    }
+
+    public synchronized Reservation get(int id) {
+        return byId.get(id);
+    }
+
+    // The car's reservation overlapping [from, to), or null if it is free then
+    public synchronized Reservation conflict(int carId, long from, long to) {
+        TreeMap<Long, Reservation> bookings = byCar.get(carId);
+        if (bookings == null) {
+            return null;
+        }
+        // Bookings don't overlap each other, so only the last one starting before
+        // 'to' can reach into the interval
+        Map.Entry<Long, Reservation> last = bookings.lowerEntry(to);
+        return last != null && last.getValue().overlaps(from, to) ? last.getValue() : null;
+    }
+
+    // The car's reservations in start order
+    public synchronized List<Reservation> forCar(int carId) {
+        TreeMap<Long, Reservation> bookings = byCar.get(carId);
+        return bookings == null ? new ArrayList<>() : new ArrayList<>(bookings.values());
+    }
+
+    // Visits each reservation overlapping [from, to) once per day it touches in
+    // that window, so actions must tolerate repeats (e.g. setting a bit)
+    public synchronized void forEachOverlapping(long from, long to, Consumer<Reservation> action) {
+        if (from >= to) {
+            return;
+        }
+        // A window longer than the book has bookings is cheaper to answer from all of them
+        if (day(to - 1) - day(from) >= byId.size()) {
+            byId.forEachValue(reservation -> {
+                if (reservation.overlaps(from, to)) {
+                    action.accept(reservation);
+                }
+            });
+            return;
+        }
+        for (long day = day(from); day <= day(to - 1); day++) {
+            IntObjectMap<Reservation> bucket = byDay.get(day);
+            if (bucket != null) {
+                bucket.forEachValue(reservation -> {
+                    if (reservation.overlaps(from, to)) {
+                        action.accept(reservation);
+                    }
+                });
+            }
+        }
+    }
+
+    public synchronized void forEach(Consumer<Reservation> action) {
+        byId.forEachValue(action);
+    }
+
+    public synchronized int size() {
+        return byId.size();
+    }
+
+    private static long day(long millis) {
+        return Math.floorDiv(millis, DAY_MILLIS);
+    }
+}
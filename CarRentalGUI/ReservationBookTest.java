@@ -0,0 +1,108 @@
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+// Checks that reservations with out-of-range times are refused quickly instead of
+// looping over days that don't fit an int, both through CarRentalSystem (which
+// rejects them) and through ReservationBook directly (which must still finish).
+// Each check runs under a time limit. Exits with status 1 on any failure.
+//
+// Usage: java ReservationBookTest
+public class ReservationBookTest {
+    private static final long DAY = 24L * 60 * 60 * 1000;
+    private static final long LIMIT_SECONDS = 10;
+
+    private final List<String> failures = new ArrayList<>();
+    private final ExecutorService runner = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "reservation-check");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public static void main(String[] args) throws Exception {
+        ReservationBookTest test = new ReservationBookTest();
+        test.systemRejectsOutOfRange();
+        test.bookHandlesFarFutureDays();
+        if (!test.failures.isEmpty()) {
+            System.out.println(test.failures.size() + " failures:");
+            for (String failure : test.failures) {
+                System.out.println("  " + failure);
+            }
+            System.exit(1);
+        }
+        System.out.println("OK: out-of-range reservations are refused");
+    }
+
+    private void systemRejectsOutOfRange() {
+        CarRentalSystem system = new CarRentalSystem(Clock.systemUTC());
+        system.addCar(new Car(1, "Camry", "Toyota"));
+        system.addCustomer(new Customer(1, "John Doe", "DL123456"));
+
+        long[][] bad = {
+                { 9_000_000_000_000_000_000L, 9_000_000_003_600_000_000L },
+                { -DAY, DAY },
+                { CarRentalSystem.LATEST_RESERVATION_TIME, CarRentalSystem.LATEST_RESERVATION_TIME + DAY },
+                { Long.MIN_VALUE, Long.MAX_VALUE },
+        };
+        for (long[] times : bad) {
+            String name = "reserveCar(" + times[0] + ", " + times[1] + ")";
+            check(name, () -> {
+                try {
+                    system.reserveCar(1, 1, times[0], times[1]);
+                    return "was accepted";
+                } catch (IllegalArgumentException e) {
+                    return null;
+                }
+            });
+        }
+        if (system.getReservations(1).size() != 0) {
+            failures.add("an out-of-range reservation was stored");
+        }
+        check("reserveCar in range", () -> system.reserveCar(1, 1, 10 * DAY, 12 * DAY) != null ? null : "was refused");
+        check("reserveCar up to the latest time", () -> system.reserveCar(1, 1,
+                CarRentalSystem.LATEST_RESERVATION_TIME - DAY, CarRentalSystem.LATEST_RESERVATION_TIME) != null
+                ? null : "was refused");
+    }
+
+    // The book itself is also fed by journal replay, so it must cope on its own
+    private void bookHandlesFarFutureDays() {
+        ReservationBook book = new ReservationBook();
+        long start = 9_000_000_000_000_000_000L;
+        check("add far in the future", () -> book.add(0, 1, 1, start, start + 3_600_000_000L) != null ? null : "was refused");
+        check("overlap far in the future", () -> {
+            int[] seen = { 0 };
+            book.forEachOverlapping(start, start + DAY, reservation -> seen[0]++);
+            return seen[0] > 0 ? null : "found nothing";
+        });
+        check("remove far in the future", () -> book.remove(1) != null && book.size() == 0 ? null : "left it behind");
+    }
+
+    private interface Check {
+        // Null on success, otherwise what went wrong
+        String run();
+    }
+
+    private void check(String name, Check check) {
+        Future<String> result = runner.submit(check::run);
+        try {
+            String failure = result.get(LIMIT_SECONDS, TimeUnit.SECONDS);
+            if (failure != null) {
+                failures.add(name + ": " + failure);
+            }
+        } catch (TimeoutException e) {
+            failures.add(name + ": still running after " + LIMIT_SECONDS + " s");
+            System.out.println(failures.size() + " failures, giving up:");
+            for (String failure : failures) {
+                System.out.println("  " + failure);
+            }
+            System.exit(1);
+        } catch (Exception e) {
+            failures.add(name + ": threw " + e);
+        }
+    }
+}
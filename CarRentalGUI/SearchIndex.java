@@ -0,0 +1,134 @@
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.regex.Pattern;
+
+// Sorted prefix index from text to positions (the n-th car or customer added).
+// Each value is indexed whole and word by word, case-insensitively, so "toy",
+// "Corolla" and "doe" all match. Positions are appended in increasing order, which
+// keeps every posting list sorted without extra work. Not thread-safe: the owning
+// CarRentalSystem updates it under its write lock and reads it under its read lock.
+class SearchIndex {
+    private static final Pattern WORDS = Pattern.compile("\\s+");
+
+    private final NavigableMap<String, Postings> keys = new TreeMap<>();
+
+    public void add(String value, int position) {
+        String normalized = normalize(value);
+        if (normalized.isEmpty()) {
+            return;
+        }
+        postings(keys, normalized).add(position);
+        // Most values are one word; only those with whitespace need splitting
+        if (!hasWhitespace(normalized)) {
+            return;
+        }
+        for (String word : WORDS.split(normalized)) {
+            if (!word.equals(normalized)) {
+                postings(keys, word).add(position);
+            }
+        }
+    }
+
+    // Sorted, distinct positions whose value (or one of its words) starts with prefix
+    public int[] positions(String prefix) {
+        Map<String, Postings> matches = matching(prefix);
+        if (matches.isEmpty()) {
+            return new int[0];
+        }
+        if (matches.size() == 1) {
+            return matches.values().iterator().next().toArray();
+        }
+        // Union several lists through a bitset: linear in their sizes, and sorted for free
+        int max = -1;
+        for (Postings p : matches.values()) {
+            max = Math.max(max, p.positions[p.size - 1]);
+        }
+        long[] bits = new long[(max >>> 6) + 1];
+        for (Postings p : matches.values()) {
+            for (int i = 0; i < p.size; i++) {
+                bits[p.positions[i] >>> 6] |= 1L << p.positions[i];
+            }
+        }
+        int count = 0;
+        for (long word : bits) {
+            count += Long.bitCount(word);
+        }
+        int[] union = new int[count];
+        int n = 0;
+        for (int w = 0; w < bits.length; w++) {
+            for (long word = bits[w]; word != 0; word &= word - 1) {
+                union[n++] = (w << 6) + Long.numberOfTrailingZeros(word);
+            }
+        }
+        return union;
+    }
+
+    private NavigableMap<String, Postings> matching(String prefix) {
+        String p = normalize(prefix);
+        return keys.subMap(p, true, p + Character.MAX_VALUE, false);
+    }
+
+    // Positions present in both sorted arrays
+    static int[] intersect(int[] a, int[] b) {
+        int[] both = new int[Math.min(a.length, b.length)];
+        int n = 0;
+        for (int i = 0, j = 0; i < a.length && j < b.length;) {
+            if (a[i] < b[j]) {
+                i++;
+            } else if (a[i] > b[j]) {
+                j++;
+            } else {
+                both[n++] = a[i];
+                i++;
+                j++;
+            }
+        }
+        return n == both.length ? both : Arrays.copyOf(both, n);
+    }
+
+    // Whether value contains any of the characters \s matches
+    private static boolean hasWhitespace(String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == ' ' || (c >= '\t' && c <= '\r')) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    static String normalize(String value) {
+        return value == null ? "" : value.trim().toLowerCase(Locale.ROOT);
+    }
+
+    static Postings postings(Map<String, Postings> index, String key) {
+        return index.computeIfAbsent(key, k -> new Postings());
+    }
+
+    // Growable sorted int list; a position added twice in a row is kept once
+    static class Postings {
+        private int[] positions = new int[2];
+        private int size;
+
+        void add(int position) {
+            if (size > 0 && positions[size - 1] == position) {
+                return;
+            }
+            if (size == positions.length) {
+                positions = Arrays.copyOf(positions, size * 2);
+            }
+            positions[size++] = position;
+        }
+
+        int size() {
+            return size;
+        }
+
+        int[] toArray() {
+            return Arrays.copyOf(positions, size);
+        }
+    }
+}
@@ -0,0 +1,568 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+// Fleet split across independent CarRentalSystem shards, one per branch. Each shard
+// has its own locks and journal, so branches never contend with each other.
+// Customers are registered with every shard, since any branch can serve them; each
+// car lives in exactly one. A car's shard is its id modulo the shard count unless
+// it was added to a specific branch or has moved since, in which case the router's
+// directory says where it is. Fleet-wide queries run on all shards in parallel and
+// concatenate the results in shard order. CarRentalServer --shards serves one.
+class ShardedRentalSystem implements AutoCloseable {
+    // Directory value while a car is between shards; routing waits on the car's
+    // id lock, which the move holds until the car is placed again
+    private static final int MOVING = -1;
+
+    private final CarRentalSystem[] shards;
+    // Cars that don't live in their default shard, and cars being moved
+    private final Map<Integer, Integer> directory = new ConcurrentHashMap<>();
+    // Serializes adds and moves of the same car id; rents and returns don't take it
+    private final Object[] idLocks = new Object[256];
+    // Serializes registrations of the same customer id across the shards
+    private final Object[] customerLocks = new Object[64];
+    // Batches hold it shared so no car moves between routing a command and running
+    // it; moves hold it exclusively
+    private final ReadWriteLock moveLock = new ReentrantReadWriteLock();
+    private final Clock clock;
+    // Completes once the directory reflects every shard; until then a car is looked
+    // for in its default shard first (see shardOf)
+    private volatile CompletableFuture<Void> directoryReady = CompletableFuture.completedFuture(null);
+    // While openJournalsInBackground runs: where the shards load from, which have
+    // been claimed by a loader or by an operation that needed them, and their loads
+    private volatile boolean loading;
+    private Path loadDir;
+    private AtomicIntegerArray claimed;
+    private CompletableFuture<Void>[] shardLoads;
+
+    public ShardedRentalSystem(int shardCount) {
+        this(shardCount, Clock.systemUTC());
+    }
+
+    public ShardedRentalSystem(int shardCount, Clock clock) {
+        if (shardCount < 1) {
+            throw new IllegalArgumentException("shardCount must be at least 1");
+        }
+        this.clock = clock;
+        shards = new CarRentalSystem[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            shards[i] = new CarRentalSystem(clock);
+        }
+        for (int i = 0; i < idLocks.length; i++) {
+            idLocks[i] = new Object();
+        }
+        for (int i = 0; i < customerLocks.length; i++) {
+            customerLocks[i] = new Object();
+        }
+    }
+
+    public int getShardCount() {
+        return shards.length;
+    }
+
+    // Direct access to one branch, e.g. for its reservations, metrics or events
+    public CarRentalSystem getShard(int shard) {
+        return loaded(shard);
+    }
+
+    // The shard, once its data is in
+    private CarRentalSystem loaded(int shard) {
+        if (loading) {
+            loadShard(shard);
+            shardLoads[shard].join();
+        }
+        return shards[shard];
+    }
+
+    // Loads the shard on this thread unless someone else already is
+    private void loadShard(int shard) {
+        if (!claimed.compareAndSet(shard, 0, 1)) {
+            return;
+        }
+        try {
+            shards[shard].openJournal(loadDir.resolve("shard-" + shard));
+            shardLoads[shard].complete(null);
+        } catch (IOException | RuntimeException e) {
+            shardLoads[shard].completeExceptionally(e);
+        }
+    }
+
+    // Recovers every shard from its own journal under dir/shard-N, in parallel,
+    // then rebuilds the directory from where the cars turned out to be
+    public void openJournals(Path dir) throws IOException {
+        try {
+            IntStream.range(0, shards.length).parallel().forEach(i -> {
+                try {
+                    shards[i].openJournal(dir.resolve("shard-" + i));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        rebuildDirectory();
+    }
+
+    // Starts loading the shards from dir/shard-N in the background and returns
+    // right away. Loader threads (one per CPU) work through the shards in order,
+    // and an operation that needs a shard nobody has started on loads it itself,
+    // so it waits for that shard only. A rent or return needs just its car's
+    // default shard, where nearly every car lives; only a car that isn't there
+    // waits for all shards and the directory, as do adds and moves. The future
+    // completes when every shard is loaded and the directory is rebuilt.
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    public CompletableFuture<Void> openJournalsInBackground(Path dir) {
+        CompletableFuture<Void> ready = new CompletableFuture<>();
+        loadDir = dir;
+        claimed = new AtomicIntegerArray(shards.length);
+        shardLoads = new CompletableFuture[shards.length];
+        for (int i = 0; i < shards.length; i++) {
+            shardLoads[i] = new CompletableFuture<>();
+        }
+        directoryReady = ready;
+        loading = true;
+
+        int loaders = Math.min(shards.length, Runtime.getRuntime().availableProcessors());
+        for (int t = 0; t < loaders; t++) {
+            Thread loader = new Thread(() -> {
+                for (int i = 0; i < shards.length; i++) {
+                    loadShard(i);
+                }
+            }, "shard-loader-" + t);
+            loader.setDaemon(true);
+            loader.start();
+        }
+        // Off the thread that finished the last shard, which may be a request
+        CompletableFuture.allOf(shardLoads).whenCompleteAsync((v, failure) -> {
+            try {
+                if (failure == null) {
+                    rebuildDirectory();
+                }
+            } catch (RuntimeException e) {
+                failure = e;
+            }
+            loading = false;
+            if (failure == null) {
+                ready.complete(null);
+            } else {
+                ready.completeExceptionally(failure);
+            }
+        });
+        return ready;
+    }
+
+    // Share of all shards' saved data loaded so far, 0 to 1
+    public double getLoadProgress() {
+        double sum = 0;
+        for (int i = 0; i < shards.length; i++) {
+            sum += !loading || shardLoads[i].isDone() ? 1.0 : claimed.get(i) == 0 ? 0.0 : shards[i].getLoadProgress();
+        }
+        return sum / shards.length;
+    }
+
+    public boolean isLoaded() {
+        return directoryReady.isDone();
+    }
+
+    private void awaitDirectory() {
+        directoryReady.join();
+    }
+
+    // Places every car where the shards say it is
+    private void rebuildDirectory() {
+        directory.clear();
+        for (int i = 0; i < shards.length; i++) {
+            for (Car car : shards[i].getAllCars()) {
+                int carId = car.getId();
+                Integer seen = directory.get(carId);
+                int current = seen != null ? seen : defaultShard(carId);
+                if (current != i && shards[current].getCar(carId) != null) {
+                    place(carId, keepOne(carId, current, i));
+                } else {
+                    place(carId, i);
+                }
+            }
+        }
+    }
+
+    // A move cut short by a crash leaves the car in two shards: removes one copy and
+    // returns the shard of the other. A rented copy is kept over an available one.
+    // If both are rented (the source was rented just as the move began, and the copy
+    // at home again while the shards loaded), the earlier rental is the car's own;
+    // the later one is returned, so it is billed and kept in the history. Bookings
+    // still ahead move to the kept copy unless it is booked for that time itself.
+    // Rents may still reach the copy at home meanwhile, so this decides again until
+    // the removal goes through.
+    private int keepOne(int carId, int a, int b) {
+        while (true) {
+            Rental inA = shards[a].getActiveRental(carId);
+            Rental inB = shards[b].getActiveRental(carId);
+            int drop;
+            if (inA == null) {
+                drop = a;
+            } else if (inB == null) {
+                drop = b;
+            } else {
+                drop = inA.getRentalTime() <= inB.getRentalTime() ? b : a;
+                shards[drop].tryReturnCar(carId);
+            }
+            int keep = drop == a ? b : a;
+            long now = clock.millis();
+            for (Reservation reservation : shards[drop].getReservations(carId)) {
+                if (reservation.getEndTime() > now) {
+                    shards[keep].reserveCar(carId, reservation.getCustomerId(), reservation.getStartTime(),
+                            reservation.getEndTime());
+                    shards[drop].cancelReservation(reservation.getId());
+                }
+            }
+            if (shards[drop].removeCar(carId)) {
+                return keep;
+            }
+        }
+    }
+
+    // Waits for a background load to finish first
+    @Override
+    public void close() throws IOException {
+        try {
+            directoryReady.join();
+        } catch (CompletionException e) {
+            // Close whatever did load
+        }
+        IOException failure = null;
+        for (CarRentalSystem shard : shards) {
+            try {
+                shard.close();
+            } catch (IOException e) {
+                failure = e;
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    // Routing -----------------------------------------------------------------
+
+    private int defaultShard(int carId) {
+        return Math.floorMod(carId, shards.length);
+    }
+
+    // Shard that owns the car id now (or would, for a new car)
+    public int shardOf(int carId) {
+        while (true) {
+            Integer shard = directory.get(carId);
+            if (shard == null) {
+                int home = defaultShard(carId);
+                // While loading, the directory is still empty: a car found at home
+                // lives there, anything else has to wait for the full picture
+                if (directoryReady.isDone() || loaded(home).getCar(carId) != null) {
+                    return home;
+                }
+                awaitDirectory();
+                continue;
+            }
+            if (shard != MOVING) {
+                return shard;
+            }
+            // The move holds the lock until the car is placed, so this parks until then
+            synchronized (idLock(carId)) {
+                // Look again
+            }
+        }
+    }
+
+    private void place(int carId, int shard) {
+        if (shard == defaultShard(carId)) {
+            directory.remove(carId);
+        } else {
+            directory.put(carId, shard);
+        }
+    }
+
+    private void checkShard(int shard) {
+        if (shard < 0 || shard >= shards.length) {
+            throw new IllegalArgumentException("No branch " + shard + "; branches are 0 to " + (shards.length - 1));
+        }
+    }
+
+    private Object idLock(int carId) {
+        return idLocks[Math.floorMod(carId, idLocks.length)];
+    }
+
+    // Adds the car to its default shard; false if the id is taken anywhere
+    public boolean addCarWithValidation(Car car) {
+        return addCarWithValidation(defaultShard(car.getId()), car);
+    }
+
+    public boolean addCarWithValidation(int shard, Car car) {
+        checkShard(shard);
+        awaitDirectory();
+        synchronized (idLock(car.getId())) {
+            if (getCar(car.getId()) != null || !shards[shard].addCarWithValidation(car)) {
+                return false;
+            }
+            place(car.getId(), shard);
+            return true;
+        }
+    }
+
+    // Registers the customer with every shard; false if the id is already taken.
+    // Every shard is checked before any is written, so a refusal changes nothing.
+    // If a shard's journal fails partway the customer is left on the shards before
+    // it, and adding the same customer again completes the registration.
+    public boolean addCustomerWithValidation(Customer customer) {
+        int id = customer.getId();
+        synchronized (customerLocks[Math.floorMod(id, customerLocks.length)]) {
+            List<CarRentalSystem> missing = new ArrayList<>(shards.length);
+            for (int i = 0; i < shards.length; i++) {
+                Customer existing = loaded(i).getCustomer(id);
+                if (existing == null) {
+                    missing.add(shards[i]);
+                } else if (!existing.getName().equals(customer.getName())
+                        || !existing.getLicenseNumber().equals(customer.getLicenseNumber())) {
+                    return false;
+                }
+            }
+            if (missing.isEmpty()) {
+                return false;
+            }
+            for (CarRentalSystem shard : missing) {
+                if (!shard.addCustomerWithValidation(customer)) {
+                    // Only a registration that bypassed this lock can get here
+                    throw new IllegalStateException("customer " + id + " was added to a shard concurrently");
+                }
+            }
+            return true;
+        }
+    }
+
+    public Car getCar(int carId) {
+        return shards[shardOf(carId)].getCar(carId);
+    }
+
+    public Customer getCustomer(int customerId) {
+        return loaded(0).getCustomer(customerId);
+    }
+
+    public Rental getActiveRental(int carId) {
+        return shards[shardOf(carId)].getActiveRental(carId);
+    }
+
+    public RentalResult tryRentCar(int carId, int customerId) {
+        while (true) {
+            int shard = shardOf(carId);
+            RentalResult result = shards[shard].tryRentCar(carId, customerId);
+            // Not found because it moved away while we were on our way: follow it
+            if (result != RentalResult.CAR_NOT_FOUND || shardOf(carId) == shard) {
+                return result;
+            }
+        }
+    }
+
+    public RentalResult tryReturnCar(int carId) {
+        return tryReturnCar(carId, null);
+    }
+
+    // Like tryReturnCar; on success invoice[0] (if given) is the bill for the rental
+    public RentalResult tryReturnCar(int carId, Invoice[] invoice) {
+        while (true) {
+            int shard = shardOf(carId);
+            RentalResult result = shards[shard].tryReturnCar(carId, invoice);
+            if (result != RentalResult.CAR_NOT_FOUND || shardOf(carId) == shard) {
+                return result;
+            }
+        }
+    }
+
+    public boolean rentCar(int carId, int customerId) {
+        return tryRentCar(carId, customerId).isSuccess();
+    }
+
+    public boolean returnCar(int carId) {
+        return tryReturnCar(carId).isSuccess();
+    }
+
+    // One-way rental: returns the car where it was rented, then moves it to the
+    // branch it was dropped off at. The result is the return's; if the car can't be
+    // moved (it was rented again meanwhile) it simply stays at its old branch.
+    public RentalResult returnCarAt(int carId, int shard) {
+        return returnCarAt(carId, shard, null);
+    }
+
+    // Like returnCarAt; on success invoice[0] (if given) is the bill for the rental
+    public RentalResult returnCarAt(int carId, int shard, Invoice[] invoice) {
+        checkShard(shard);
+        RentalResult result = tryReturnCar(carId, invoice);
+        if (result.isSuccess()) {
+            moveCar(carId, shard);
+        }
+        return result;
+    }
+
+    // Moves an available car to another shard. The car is added to the target before
+    // it is removed from the source, so a crash in between leaves a duplicate that
+    // openJournals cleans up rather than losing the car. While it moves, rents and
+    // returns for it wait, as do batches. False if the car doesn't exist, is rented,
+    // or has reservations that haven't ended.
+    public boolean moveCar(int carId, int toShard) {
+        checkShard(toShard);
+        awaitDirectory();
+        moveLock.writeLock().lock();
+        try {
+            return moveLocked(carId, toShard);
+        } finally {
+            moveLock.writeLock().unlock();
+        }
+    }
+
+    private boolean moveLocked(int carId, int toShard) {
+        synchronized (idLock(carId)) {
+            int from = shardOf(carId);
+            Car car = shards[from].getCar(carId);
+            if (car == null || from == toShard) {
+                return car != null;
+            }
+            directory.put(carId, MOVING);
+            boolean moved = false;
+            try {
+                if (shards[toShard].addCarWithValidation(new Car(carId, car.getModel(), car.getBrand()))) {
+                    moved = shards[from].removeCar(carId);
+                    if (!moved) {
+                        shards[toShard].removeCar(carId);
+                    }
+                }
+            } finally {
+                place(carId, moved ? toShard : from);
+            }
+            return moved;
+        }
+    }
+
+    // Splits the commands by shard and applies each part on its shard, all in
+    // parallel; results are per command, in the original order. Commands for one
+    // car keep their relative order. Moves wait for the batch, so every command
+    // runs on the shard it was routed to.
+    public boolean[] applyBatch(List<RentalCommand> commands) {
+        moveLock.readLock().lock();
+        try {
+            return applyBatchLocked(commands);
+        } finally {
+            moveLock.readLock().unlock();
+        }
+    }
+
+    private boolean[] applyBatchLocked(List<RentalCommand> commands) {
+        List<List<RentalCommand>> parts = new ArrayList<>(shards.length);
+        List<List<Integer>> positions = new ArrayList<>(shards.length);
+        for (int i = 0; i < shards.length; i++) {
+            parts.add(new ArrayList<>());
+            positions.add(new ArrayList<>());
+        }
+        for (int i = 0; i < commands.size(); i++) {
+            int shard = shardOf(commands.get(i).getCarId());
+            parts.get(shard).add(commands.get(i));
+            positions.get(shard).add(i);
+        }
+        boolean[] succeeded = new boolean[commands.size()];
+        IntStream.range(0, shards.length).parallel().forEach(shard -> {
+            if (parts.get(shard).isEmpty()) {
+                return;
+            }
+            boolean[] results = shards[shard].applyBatch(parts.get(shard));
+            for (int i = 0; i < results.length; i++) {
+                succeeded[positions.get(shard).get(i)] = results[i];
+            }
+        });
+        return succeeded;
+    }
+
+    // Fleet-wide queries --------------------------------------------------------
+
+    public List<Car> getAllCars() {
+        return concat(CarRentalSystem::getAllCars);
+    }
+
+    public List<Car> getAvailableCars() {
+        return concat(CarRentalSystem::getAvailableCars);
+    }
+
+    public List<Car> getFreeCars(long from, long to) {
+        return concat(shard -> shard.getFreeCars(from, to));
+    }
+
+    // The first query.getLimit() matches, taking each shard's in shard order
+    public List<Car> findCars(CarQuery query) {
+        List<Car> matches = concat(shard -> shard.findCars(query));
+        return matches.size() > query.getLimit() ? new ArrayList<>(matches.subList(0, query.getLimit())) : matches;
+    }
+
+    public List<Customer> getCustomers() {
+        return loaded(0).getCustomers();
+    }
+
+    // The customer's closed rentals at every branch, in the order they were returned
+    public List<Rental> getCustomerHistory(int customerId) {
+        List<Rental> history = concat(shard -> shard.getCustomerHistory(customerId));
+        history.sort(Comparator.comparingLong(Rental::getReturnTime));
+        return history;
+    }
+
+    // Every branch charges the same rates
+    public void setRateTable(RateTable rates) {
+        for (CarRentalSystem shard : shards) {
+            shard.getBilling().setRateTable(rates);
+        }
+    }
+
+    // BillingEngine.rebill over every branch, one after another since each already
+    // prices in parallel
+    public BillingEngine.Totals rebill(RateTable table, long from, long to) {
+        BillingEngine.Totals totals = new BillingEngine.Totals();
+        for (int i = 0; i < shards.length; i++) {
+            totals.merge(loaded(i).getBilling().rebill(table, from, to));
+        }
+        return totals;
+    }
+
+    public int getCarCount() {
+        return sum(CarRentalSystem::getCarCount);
+    }
+
+    public int getAvailableCarCount() {
+        return sum(CarRentalSystem::getAvailableCarCount);
+    }
+
+    public int getActiveRentalCount() {
+        return sum(CarRentalSystem::getActiveRentalCount);
+    }
+
+    private interface ShardQuery<T> {
+        T on(CarRentalSystem shard);
+    }
+
+    private <T> List<T> concat(ShardQuery<List<T>> query) {
+        return IntStream.range(0, shards.length).parallel()
+                .mapToObj(this::loaded)
+                .flatMap(shard -> query.on(shard).stream())
+                .collect(Collectors.toList());
+    }
+
+    private int sum(ShardQuery<Integer> query) {
+        return IntStream.range(0, shards.length).parallel().mapToObj(this::loaded).mapToInt(query::on).sum();
+    }
+}
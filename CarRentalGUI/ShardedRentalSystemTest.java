@@ -0,0 +1,161 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Stream;
+
+// Checks two ShardedRentalSystem cases. Recovery: a move cut short by a crash can
+// leave a car in two shards, rented in one or both; after openJournals exactly one
+// copy must be left, holding the earlier rental, with the later rental closed into
+// the customer's history rather than lost. Batches: while a car is moved back and
+// forth between shards, batches that rent and return it must each run on the shard
+// that has it. Exits with status 1 on any failure.
+//
+// Usage: java ShardedRentalSystemTest [batches]
+public class ShardedRentalSystemTest {
+    private static final long HOUR = 60L * 60 * 1000;
+    private static final long START = 1_767_225_600_000L;
+
+    private final List<String> failures = new ArrayList<>();
+
+    public static void main(String[] args) throws Exception {
+        int batches = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+        ShardedRentalSystemTest test = new ShardedRentalSystemTest();
+        Path dir = Files.createTempDirectory("sharded-test");
+        try {
+            test.duplicateRentedInBoth(dir.resolve("both"));
+            test.duplicateRentedInOne(dir.resolve("one"));
+            test.batchesFollowMoves(batches);
+        } finally {
+            delete(dir);
+        }
+        if (!test.failures.isEmpty()) {
+            System.out.println(test.failures.size() + " failures:");
+            for (String failure : test.failures) {
+                System.out.println("  " + failure);
+            }
+            System.exit(1);
+        }
+        System.out.println("OK: duplicates resolved, " + batches + " batches followed moving cars");
+    }
+
+    // Car 2's home is shard 0 of 2; shard 1 has a stray copy. Customer 1 rented the
+    // stray copy first, customer 2 the home copy an hour later.
+    private void duplicateRentedInBoth(Path dir) throws IOException {
+        writeShard(dir, 1, START, 1);
+        writeShard(dir, 0, START + HOUR, 2);
+        try (ShardedRentalSystem system = new ShardedRentalSystem(2, clockAt(START + 2 * HOUR))) {
+            system.openJournals(dir);
+            expectOneCopy("both rented", system, 1);
+            Rental open = system.getActiveRental(2);
+            if (open == null || open.getCustomer().getId() != 1) {
+                failures.add("both rented: open rental is " + open + ", not customer 1's");
+            }
+            if (system.getCustomerHistory(2).size() != 1) {
+                failures.add("both rented: customer 2's rental was not closed into the history");
+            }
+        }
+        // And it stays resolved
+        try (ShardedRentalSystem system = new ShardedRentalSystem(2, clockAt(START + 3 * HOUR))) {
+            system.openJournals(dir);
+            expectOneCopy("both rented, reopened", system, 1);
+        }
+    }
+
+    // The stray copy is rented, the home copy isn't and has a booking ahead
+    private void duplicateRentedInOne(Path dir) throws IOException {
+        writeShard(dir, 1, START, 1);
+        writeShard(dir, 0, -1, 0);
+        CarRentalSystem home = new CarRentalSystem(clockAt(START));
+        home.openJournal(dir.resolve("shard-0"));
+        home.reserveCar(2, 1, START + 10 * HOUR, START + 12 * HOUR);
+        home.close();
+        try (ShardedRentalSystem system = new ShardedRentalSystem(2, clockAt(START + HOUR))) {
+            system.openJournals(dir);
+            expectOneCopy("one rented", system, 1);
+            if (system.getActiveRental(2) == null) {
+                failures.add("one rented: the rental was lost");
+            }
+            if (system.getShard(1).getReservations(2).size() != 1) {
+                failures.add("one rented: the booking didn't move with the car");
+            }
+        }
+    }
+
+    // One shard's journal with car 2 and customers 1 and 2; customerId rents it at
+    // rentalTime unless rentalTime is negative
+    private static void writeShard(Path dir, int shard, long rentalTime, int customerId) throws IOException {
+        CarRentalSystem system = new CarRentalSystem(clockAt(Math.max(rentalTime, START)));
+        system.openJournal(dir.resolve("shard-" + shard));
+        system.addCar(new Car(2, "Camry", "Toyota"));
+        system.addCustomer(new Customer(1, "John Doe", "DL123456"));
+        system.addCustomer(new Customer(2, "Jane Roe", "DL654321"));
+        if (rentalTime >= 0) {
+            system.rentCar(2, customerId);
+        }
+        system.close();
+    }
+
+    private void expectOneCopy(String when, ShardedRentalSystem system, int shard) {
+        int copies = 0;
+        for (int i = 0; i < system.getShardCount(); i++) {
+            if (system.getShard(i).getCar(2) != null) {
+                copies++;
+            }
+        }
+        if (copies != 1 || system.shardOf(2) != shard) {
+            failures.add(when + ": " + copies + " copies, routed to shard " + system.shardOf(2) + " not " + shard);
+        }
+    }
+
+    private void batchesFollowMoves(int batches) throws InterruptedException {
+        ShardedRentalSystem system = new ShardedRentalSystem(4);
+        system.addCustomerWithValidation(new Customer(1, "John Doe", "DL123456"));
+        int cars = 8;
+        for (int id = 0; id < cars; id++) {
+            system.addCarWithValidation(new Car(id, "Model" + id, "Brand"));
+        }
+        AtomicBoolean done = new AtomicBoolean();
+        Thread mover = new Thread(() -> {
+            for (int n = 0; !done.get(); n++) {
+                system.moveCar(n % cars, (n / cars) % system.getShardCount());
+            }
+        }, "mover");
+        mover.start();
+        int refused = 0;
+        for (int b = 0; b < batches; b++) {
+            int carId = b % cars;
+            boolean[] results = system.applyBatch(List.of(RentalCommand.rent(carId, 1), RentalCommand.returnCar(carId)));
+            if (!results[0] || !results[1]) {
+                refused++;
+            }
+        }
+        done.set(true);
+        mover.join();
+        if (refused > 0) {
+            failures.add(refused + " of " + batches + " batches failed while cars moved");
+        }
+        if (system.getCarCount() != cars || system.getAvailableCarCount() != cars) {
+            failures.add("after the moves: " + system.getCarCount() + " cars, " + system.getAvailableCarCount()
+                    + " available, expected " + cars);
+        }
+    }
+
+    private static Clock clockAt(long millis) {
+        return Clock.fixed(Instant.ofEpochMilli(millis), ZoneOffset.UTC);
+    }
+
+    private static void delete(Path dir) throws IOException {
+        try (Stream<Path> paths = Files.walk(dir)) {
+            for (Path path : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(path);
+            }
+        }
+    }
+}